@@ -0,0 +1,204 @@
+package com.cosmicdoc.inventoryservice.jmh;
+
+import com.cosmicdoc.common.model.*;
+import com.cosmicdoc.inventoryservice.cache.FefoBatchIndex;
+import com.cosmicdoc.inventoryservice.dto.request.CreateOtcSaleRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreateSalesReturnRequest;
+import com.cosmicdoc.inventoryservice.dto.request.SaleItemDto;
+import com.google.cloud.Timestamp;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Realistic invoice shapes for the pricing benchmarks: {@code lines} distinct medicines
+ * spread over the usual GST slabs, varied prices and discounts, and two batches per
+ * medicine so every sale line is split across batches by the FEFO allocation.
+ */
+final class InvoiceFixtures {
+
+    static final String ORG_ID = "ORG-BENCH";
+    static final String BRANCH_ID = "BR-BENCH";
+    static final String USER_ID = "USR-BENCH";
+    static final String SUPPLIER_ID = "SUP-BENCH";
+    static final String SALE_ID = "SALE-BENCH";
+
+    static final int SALE_QUANTITY = 10;
+    static final int RETURN_QUANTITY = 4;
+    // Smaller than SALE_QUANTITY, so each line draws from both batches.
+    private static final int NEAR_EXPIRY_QUANTITY = 6;
+    private static final int FAR_EXPIRY_QUANTITY = 10_000;
+
+    private static final double[] GST_RATES = {5, 12, 18, 0};
+    private static final double[] DISCOUNTS = {0, 5, 10, 12.5};
+    private static final String[] CATEGORIES = {"Tablet", "Syrup", "Injection", "Ointment"};
+
+    final int lines;
+    final GstType gstType;
+    final List<Medicine> medicines = new ArrayList<>();
+    final Map<String, TaxProfile> taxProfiles = new LinkedHashMap<>();
+    final Map<String, List<MedicineBatch>> batches = new LinkedHashMap<>();
+
+    InvoiceFixtures(int lines, GstType gstType) {
+        this.lines = lines;
+        this.gstType = gstType;
+        for (double rate : GST_RATES) {
+            TaxProfile taxProfile = taxProfile(rate);
+            taxProfiles.put(taxProfile.getTaxProfileId(), taxProfile);
+        }
+        Instant now = Instant.now();
+        for (int i = 0; i < lines; i++) {
+            String medicineId = medicineId(i);
+            medicines.add(Medicine.builder()
+                    .medicineId(medicineId)
+                    .name("Medicine " + i)
+                    .category(CATEGORIES[i % CATEGORIES.length])
+                    .taxProfileId(taxProfileId(GST_RATES[i % GST_RATES.length]))
+                    .build());
+            batches.put(medicineId, List.of(
+                    batch(medicineId, 1, NEAR_EXPIRY_QUANTITY, now.plus(90, ChronoUnit.DAYS)),
+                    batch(medicineId, 2, FAR_EXPIRY_QUANTITY, now.plus(540, ChronoUnit.DAYS))));
+        }
+    }
+
+    List<FefoBatchIndex.IndexedBatch> indexedBatches(String medicineId) {
+        return batches.getOrDefault(medicineId, List.of()).stream()
+                .map(batch -> new FefoBatchIndex.IndexedBatch(batch.getBatchId(), batch.getBatchNo(),
+                        batch.getExpiryDate(), batch.getQuantityAvailable()))
+                .toList();
+    }
+
+    CreateOtcSaleRequest saleRequest() {
+        List<SaleItemDto> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            SaleItemDto item = new SaleItemDto();
+            item.setMedicineId(medicineId(i));
+            item.setQuantity(SALE_QUANTITY);
+            item.setDiscountPercentage(DISCOUNTS[i % DISCOUNTS.length]);
+            item.setMrp(mrp(i));
+            item.setTaxProfileId(medicines.get(i).getTaxProfileId());
+            items.add(item);
+        }
+        CreateOtcSaleRequest request = new CreateOtcSaleRequest();
+        request.setPatientName("Walk-in");
+        request.setDate(new Date());
+        request.setGstType(gstType);
+        request.setItems(items);
+        return request;
+    }
+
+    CreatePurchaseRequest purchaseRequest() {
+        Date expiry = Date.from(Instant.now().plus(720, ChronoUnit.DAYS));
+        List<CreatePurchaseRequest.PurchaseItemDto> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            CreatePurchaseRequest.PurchaseItemDto item = new CreatePurchaseRequest.PurchaseItemDto();
+            item.setMedicineId(medicineId(i));
+            item.setMedicineName(medicines.get(i).getName());
+            item.setBatchNo("PB-" + i);
+            item.setExpiryDate(expiry);
+            item.setPackQuantity(10 + i % 5);
+            item.setFreePackQuantity(i % 3 == 0 ? 1 : 0);
+            item.setItemsPerPack(10);
+            item.setPurchaseCostPerPack(mrp(i) * 10 * 0.72);
+            item.setDiscountPercentage(DISCOUNTS[i % DISCOUNTS.length]);
+            item.setMrpPerItem(mrp(i));
+            item.setTaxProfileId(medicines.get(i).getTaxProfileId());
+            items.add(item);
+        }
+        CreatePurchaseRequest request = new CreatePurchaseRequest();
+        request.setSupplierId(SUPPLIER_ID);
+        request.setInvoiceDate(new Date());
+        request.setReferenceId("INV-BENCH");
+        request.setGstType(gstType);
+        request.setItems(items);
+        return request;
+    }
+
+    Map<String, Medicine> medicinesById() {
+        Map<String, Medicine> byId = new HashMap<>();
+        medicines.forEach(medicine -> byId.put(medicine.getMedicineId(), medicine));
+        return byId;
+    }
+
+    Supplier supplier() {
+        return Supplier.builder().supplierId(SUPPLIER_ID).name("Bench Distributors").build();
+    }
+
+    /**
+     * The sale being returned against, priced at the rate each line was sold at.
+     */
+    Sale originalSale() {
+        List<SaleItem> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            double rate = gstType == GstType.NON_GST ? 0.0 : GST_RATES[i % GST_RATES.length];
+            items.add(SaleItem.builder()
+                    .medicineId(medicineId(i))
+                    .quantity(SALE_QUANTITY)
+                    .mrpPerItem(mrp(i))
+                    .discountPercentage(DISCOUNTS[i % DISCOUNTS.length])
+                    .taxProfileId(medicines.get(i).getTaxProfileId())
+                    .taxRateApplied(rate)
+                    .build());
+        }
+        return Sale.builder()
+                .saleId(SALE_ID)
+                .organizationId(ORG_ID)
+                .branchId(BRANCH_ID)
+                .gstType(gstType)
+                .saleDate(Timestamp.now())
+                .items(items)
+                .build();
+    }
+
+    CreateSalesReturnRequest salesReturnRequest() {
+        List<CreateSalesReturnRequest.ReturnItemDto> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            CreateSalesReturnRequest.ReturnItemDto item = new CreateSalesReturnRequest.ReturnItemDto();
+            item.setMedicineId(medicineId(i));
+            item.setBatchNo(batches.get(medicineId(i)).get(0).getBatchNo());
+            item.setReturnQuantity(RETURN_QUANTITY);
+            items.add(item);
+        }
+        CreateSalesReturnRequest request = new CreateSalesReturnRequest();
+        request.setOriginalSaleId(SALE_ID);
+        request.setReturnDate(new Date());
+        request.setOverallDiscountPercentage(2.5);
+        request.setItems(items);
+        return request;
+    }
+
+    static String medicineId(int line) {
+        return String.format("MED-%03d", line);
+    }
+
+    // Prices with paise, so rounding is actually exercised: 12.35, 48.70, 85.05, ...
+    private static double mrp(int line) {
+        return 12.35 + (line % 25) * 36.35;
+    }
+
+    private static String taxProfileId(double rate) {
+        return "tax_gst_" + (int) rate;
+    }
+
+    private static TaxProfile taxProfile(double rate) {
+        return TaxProfile.builder()
+                .taxProfileId(taxProfileId(rate))
+                .profileName("GST " + (int) rate + "%")
+                .totalRate(rate)
+                .components(List.of(
+                        TaxComponent.builder().name("CGST").rate(rate / 2).build(),
+                        TaxComponent.builder().name("SGST").rate(rate / 2).build()))
+                .build();
+    }
+
+    private static MedicineBatch batch(String medicineId, int sequence, int quantity, Instant expiry) {
+        return MedicineBatch.builder()
+                .batchId(medicineId + "-B" + sequence)
+                .batchNo("LOT-" + medicineId + "-" + sequence)
+                .expiryDate(Timestamp.of(Date.from(expiry)))
+                .quantityAvailable(quantity)
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package com.cosmicdoc.inventoryservice.jmh;
+
+import com.cosmicdoc.common.model.*;
+import com.cosmicdoc.common.repository.MedicineRepository;
+import com.cosmicdoc.common.repository.SaleRepository;
+import com.cosmicdoc.common.repository.SupplierRepository;
+import com.cosmicdoc.inventoryservice.cache.FefoBatchIndex;
+import com.cosmicdoc.inventoryservice.cache.TaxProfileCache;
+import com.cosmicdoc.inventoryservice.dto.request.CreateOtcSaleRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreateSalesReturnRequest;
+import com.cosmicdoc.inventoryservice.repository.CategoryStockDelta;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.SalesRollupDelta;
+import com.cosmicdoc.inventoryservice.repository.SalesRollupRepository;
+import com.cosmicdoc.inventoryservice.repository.StockAggregateRepository;
+import com.cosmicdoc.inventoryservice.repository.TransactionRunner;
+import com.cosmicdoc.inventoryservice.service.PricingEngine;
+import com.cosmicdoc.inventoryservice.service.PurchaseService;
+import com.cosmicdoc.inventoryservice.service.ReturnsService;
+import com.cosmicdoc.inventoryservice.service.SalesService;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.cosmicdoc.inventoryservice.jmh.InvoiceFixtures.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Throughput of the sale, purchase and sales return pricing paths, i.e. everything the
+ * services do inside their transactions once the reads have returned: line item math
+ * ({@link PricingEngine}), FEFO allocation, aggregate deltas and building the documents
+ * to write.
+ * <p>
+ * Firestore and the repositories are stubbed, so the numbers include a small, constant
+ * Mockito dispatch cost per call; compare runs against each other rather than reading
+ * them as absolute latencies. Run with the {@code jmh} profile (see pom.xml), which adds
+ * the GC profiler for the allocation rate per operation ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InvoicePricingBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int lines;
+
+    @Param({"INCLUSIVE", "EXCLUSIVE", "NON_GST"})
+    public GstType gstType;
+
+    private SalesService salesService;
+    private PurchaseService purchaseService;
+    private ReturnsService returnsService;
+
+    private CreateOtcSaleRequest saleRequest;
+    private CreatePurchaseRequest purchaseRequest;
+    private Map<String, Medicine> prefetchedMedicines;
+    private CreateSalesReturnRequest salesReturnRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        InvoiceFixtures fixtures = new InvoiceFixtures(lines, gstType);
+        StubFirestore stub = new StubFirestore();
+        Firestore firestore = stub.firestore();
+
+        // Master data, read in the first phase of every transaction: directly through the
+        // transaction where the services overlap the reads, through the repositories elsewhere.
+        List<DocumentSnapshot> medicineDocs = fixtures.medicines.stream()
+                .map(medicine -> stub.put(FirestorePaths.medicine(firestore, ORG_ID, BRANCH_ID, medicine.getMedicineId()).getPath(), medicine))
+                .toList();
+        MedicineRepository medicineRepository = StubFirestore.stub(MedicineRepository.class);
+        when(medicineRepository.getAll(any(Transaction.class), anyString(), anyString(), anyList())).thenReturn(medicineDocs);
+
+        TaxProfileCache taxProfileCache = StubFirestore.stub(TaxProfileCache.class);
+        when(taxProfileCache.getAll(any(Transaction.class), anyString(), anyCollection())).thenReturn(fixtures.taxProfiles);
+
+        stub.put(FirestorePaths.supplier(firestore, ORG_ID, SUPPLIER_ID).getPath(), fixtures.supplier());
+        SupplierRepository supplierRepository = StubFirestore.stub(SupplierRepository.class);
+        when(supplierRepository.findById(any(Transaction.class), anyString(), anyString())).thenReturn(Optional.of(fixtures.supplier()));
+
+        SaleRepository saleRepository = StubFirestore.stub(SaleRepository.class);
+        when(saleRepository.findById(any(Transaction.class), anyString(), anyString(), anyString())).thenReturn(Optional.of(fixtures.originalSale()));
+
+        // The FEFO plan comes from the index, at version 0 like the missing version documents;
+        // the planned batch documents from transaction.getAll.
+        FefoBatchIndex fefoBatchIndex = StubFirestore.stub(FefoBatchIndex.class);
+        when(fefoBatchIndex.cached(anyString(), anyString(), anyString()))
+                .thenAnswer(invocation -> Optional.of(new FefoBatchIndex.Snapshot(0, fixtures.indexedBatches(invocation.getArgument(2)))));
+        fixtures.batches.forEach((medicineId, batches) -> batches.forEach(batch ->
+                stub.put(FirestorePaths.batch(firestore, ORG_ID, BRANCH_ID, medicineId, batch.getBatchId()).getPath(), batch)));
+
+        // Aggregate deltas are computed for real; only their writes are stubbed.
+        StockAggregateRepository stockAggregateRepository = StubFirestore.stub(StockAggregateRepository.class);
+        when(stockAggregateRepository.newDelta(any(Transaction.class), anyString(), anyString(), anyCollection()))
+                .thenAnswer(invocation -> new CategoryStockDelta(fixtures.medicines));
+        SalesRollupRepository salesRollupRepository = StubFirestore.stub(SalesRollupRepository.class);
+        ZoneId zoneId = ZoneId.of("Asia/Kolkata");
+        when(salesRollupRepository.newDelta()).thenAnswer(invocation -> new SalesRollupDelta(zoneId));
+
+        Object[] collaborators = {firestore, medicineRepository, taxProfileCache, supplierRepository, saleRepository,
+                fefoBatchIndex, stockAggregateRepository, salesRollupRepository, new PricingEngine(),
+                new TransactionRunner(firestore, new SimpleMeterRegistry(), false, 50, Duration.ofSeconds(5))};
+        salesService = StubFirestore.construct(SalesService.class, collaborators);
+        purchaseService = StubFirestore.construct(PurchaseService.class, collaborators);
+        returnsService = StubFirestore.construct(ReturnsService.class, collaborators);
+
+        saleRequest = fixtures.saleRequest();
+        purchaseRequest = fixtures.purchaseRequest();
+        prefetchedMedicines = fixtures.medicinesById();
+        salesReturnRequest = fixtures.salesReturnRequest();
+    }
+
+    @Benchmark
+    public Sale otcSale() throws Exception {
+        return salesService.createOtcSale(ORG_ID, BRANCH_ID, USER_ID, saleRequest);
+    }
+
+    @Benchmark
+    public Purchase purchase() throws Exception {
+        return purchaseService.createPurchase(ORG_ID, BRANCH_ID, USER_ID, purchaseRequest, prefetchedMedicines);
+    }
+
+    @Benchmark
+    public SalesReturn salesReturn() throws Exception {
+        return returnsService.processSalesReturn(ORG_ID, BRANCH_ID, USER_ID, salesReturnRequest);
+    }
+}
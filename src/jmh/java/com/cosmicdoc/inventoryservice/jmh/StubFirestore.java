@@ -0,0 +1,148 @@
+package com.cosmicdoc.inventoryservice.jmh;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * An in-memory stand-in for Firestore, just enough for the services' transaction code:
+ * references know their path, {@code runTransaction} runs the function inline, and
+ * {@code transaction.get} / {@code getAll} return documents registered with {@link #put}. Writes
+ * are no-ops. All mocks are stub-only, so Mockito does not record invocations and
+ * the benchmarks do not accumulate garbage between iterations.
+ */
+final class StubFirestore {
+
+    private final Map<String, DocumentReference> documents = new ConcurrentHashMap<>();
+    private final Map<String, CollectionReference> collections = new ConcurrentHashMap<>();
+    private final Map<String, DocumentSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final DocumentSnapshot missing = stub(DocumentSnapshot.class);
+    private final Transaction transaction;
+    private final Firestore firestore;
+
+    StubFirestore() {
+        this.transaction = stub(Transaction.class, invocation -> {
+            if (invocation.getMethod().getName().equals("get") && invocation.getArgument(0) instanceof DocumentReference ref) {
+                return ApiFutures.immediateFuture(snapshots.getOrDefault(ref.getPath(), missing));
+            }
+            if (invocation.getMethod().getName().equals("getAll")) {
+                List<DocumentSnapshot> result = new ArrayList<>();
+                for (Object argument : invocation.getArguments()) {
+                    if (argument instanceof DocumentReference ref) {
+                        result.add(snapshots.getOrDefault(ref.getPath(), missing));
+                    }
+                }
+                return ApiFutures.immediateFuture(result);
+            }
+            return RETURNS_DEFAULTS.answer(invocation);
+        });
+        this.firestore = stub(Firestore.class, invocation -> switch (invocation.getMethod().getName()) {
+            case "collection" -> collection(invocation.getArgument(0));
+            case "document" -> document(invocation.getArgument(0));
+            case "runTransaction" -> runInline(invocation);
+            default -> RETURNS_DEFAULTS.answer(invocation);
+        });
+    }
+
+    Firestore firestore() {
+        return firestore;
+    }
+
+    Transaction transaction() {
+        return transaction;
+    }
+
+    /**
+     * Registers a document that {@code transaction.get} / {@code getAll} will return for {@code path}.
+     */
+    DocumentSnapshot put(String path, Object value) {
+        DocumentSnapshot snapshot = snapshot(document(path), value);
+        snapshots.put(path, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * A detached snapshot, e.g. for a repository stub that returns documents directly.
+     */
+    DocumentSnapshot snapshot(String path, Object value) {
+        return snapshot(document(path), value);
+    }
+
+    private DocumentSnapshot snapshot(DocumentReference ref, Object value) {
+        return stub(DocumentSnapshot.class, invocation -> switch (invocation.getMethod().getName()) {
+            case "exists" -> true;
+            case "getId" -> ref.getId();
+            case "getReference" -> ref;
+            case "toObject" -> value;
+            default -> RETURNS_DEFAULTS.answer(invocation);
+        });
+    }
+
+    private Object runInline(InvocationOnMock invocation) {
+        Transaction.Function<?> function = invocation.getArgument(0);
+        try {
+            return ApiFutures.immediateFuture(function.updateCallback(transaction));
+        } catch (Exception e) {
+            return ApiFutures.immediateFailedFuture(e);
+        }
+    }
+
+    private CollectionReference collection(String path) {
+        return collections.computeIfAbsent(path, key -> stub(CollectionReference.class, invocation -> switch (invocation.getMethod().getName()) {
+            case "getPath" -> key;
+            case "getId" -> lastSegment(key);
+            case "document" -> document(key + "/" + (invocation.getArguments().length > 0
+                    ? invocation.getArgument(0) : UUID.randomUUID().toString()));
+            default -> RETURNS_DEFAULTS.answer(invocation);
+        }));
+    }
+
+    private DocumentReference document(String path) {
+        return documents.computeIfAbsent(path, key -> stub(DocumentReference.class, invocation -> switch (invocation.getMethod().getName()) {
+            case "getPath" -> key;
+            case "getId" -> lastSegment(key);
+            case "collection" -> collection(key + "/" + invocation.getArgument(0));
+            default -> RETURNS_DEFAULTS.answer(invocation);
+        }));
+    }
+
+    private static String lastSegment(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    private static <T> T stub(Class<T> type, Answer<?> answer) {
+        return mock(type, withSettings().stubOnly().defaultAnswer(answer));
+    }
+
+    /**
+     * Instantiates a service through its (Lombok-generated) constructor, passing the given
+     * collaborators by type and a do-nothing stub for every other dependency.
+     */
+    static <T> T construct(Class<T> type, Object... collaborators) throws ReflectiveOperationException {
+        Constructor<?>[] constructors = type.getConstructors();
+        if (constructors.length != 1) {
+            throw new IllegalStateException(type.getSimpleName() + " must have exactly one public constructor.");
+        }
+        Class<?>[] parameterTypes = constructors[0].getParameterTypes();
+        Object[] arguments = new Object[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> parameterType = parameterTypes[i];
+            arguments[i] = Arrays.stream(collaborators)
+                    .filter(parameterType::isInstance)
+                    .findFirst()
+                    .orElseGet(() -> stub(parameterType));
+        }
+        return type.cast(constructors[0].newInstance(arguments));
+    }
+}
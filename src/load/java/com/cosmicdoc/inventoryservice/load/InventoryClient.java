@@ -0,0 +1,114 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Blocking JSON client for the inventory API that times each call and picks up the
+ * {@code X-Firestore-Reads} / {@code X-Firestore-Writes} headers the service sets.
+ */
+final class InventoryClient {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    /**
+     * @param reads  Firestore documents read serving the call, or -1 if the header was missing.
+     * @param writes likewise for writes.
+     */
+    record Response(int status, String body, long reads, long writes, long nanos) {
+
+        boolean ok() {
+            return status >= 200 && status < 300;
+        }
+
+        JsonNode json(ObjectMapper mapper) {
+            try {
+                return mapper.readTree(body);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Response is not JSON: " + body, e);
+            }
+        }
+    }
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final URI baseUrl;
+    private final String authorization;
+    private final ObjectMapper mapper;
+
+    InventoryClient(URI baseUrl, String authorization, ObjectMapper mapper) {
+        this.baseUrl = baseUrl;
+        this.authorization = authorization;
+        this.mapper = mapper;
+    }
+
+    Response get(String path) {
+        return send(request(path).GET());
+    }
+
+    Response post(String path, Object body) {
+        try {
+            return send(request(path)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(body))));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize request body for " + path, e);
+        }
+    }
+
+    /**
+     * Like {@link #post} but fails unless the call succeeded, for seeding.
+     */
+    JsonNode postOk(String path, Object body) {
+        return ok(path, post(path, body));
+    }
+
+    JsonNode getOk(String path) {
+        return ok(path, get(path));
+    }
+
+    private JsonNode ok(String path, Response response) {
+        if (!response.ok()) {
+            throw new IllegalStateException(path + " returned " + response.status() + ": " + response.body());
+        }
+        return response.json(mapper);
+    }
+
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUrl.resolve(path))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Accept", "application/json");
+        if (authorization != null) builder.header("Authorization", authorization);
+        return builder;
+    }
+
+    private Response send(HttpRequest.Builder builder) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = http.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+            long nanos = System.nanoTime() - start;
+            return new Response(response.statusCode(), response.body(),
+                    header(response, "X-Firestore-Reads"), header(response, "X-Firestore-Writes"), nanos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+
+    private static long header(HttpResponse<?> response, String name) {
+        return response.headers().firstValue(name).map(Long::parseLong).orElse(-1L);
+    }
+}
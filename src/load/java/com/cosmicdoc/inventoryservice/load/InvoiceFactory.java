@@ -0,0 +1,152 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import com.cosmicdoc.common.model.GstType;
+import com.cosmicdoc.common.model.PaymentMode;
+import com.cosmicdoc.inventoryservice.dto.request.CreateOtcSaleRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreatePrescriptionSaleRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseReturnRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreateSalesReturnRequest;
+import com.cosmicdoc.inventoryservice.dto.request.SaleItemDto;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Request bodies for the tenant's sales, purchases and returns.
+ * <p>
+ * Sales pick their medicines with a skew towards the first SKUs of the list, as real
+ * counters sell a few fast movers far more often than the long tail; that is what
+ * makes transactions on the same medicine collide.
+ */
+final class InvoiceFactory {
+
+    static final int ITEMS_PER_PACK = 10;
+    // 1,000 units per batch: enough that a year of seeded sales does not run a SKU dry.
+    static final int PACKS_PER_BATCH = 100;
+    private static final int MAX_SALE_LINES = 4;
+    private static final int MAX_SALE_QUANTITY = 3;
+    private static final double PURCHASE_COST_RATIO = 0.7;
+
+    private final Tenant tenant;
+    private final PaymentMode paymentMode;
+
+    InvoiceFactory(LoadConfig config, Tenant tenant) {
+        this.tenant = tenant;
+        this.paymentMode = PaymentMode.valueOf(config.paymentMode());
+    }
+
+    CreateOtcSaleRequest otcSale(Random random, Date date) {
+        CreateOtcSaleRequest request = new CreateOtcSaleRequest();
+        request.setPatientName("Walk-in " + random.nextInt(10_000));
+        request.setPaymentMode(paymentMode);
+        request.setDate(date);
+        request.setGstType(GstType.INCLUSIVE);
+        request.setItems(saleItems(random));
+        return request;
+    }
+
+    CreatePrescriptionSaleRequest prescriptionSale(Random random, Date date) {
+        CreatePrescriptionSaleRequest request = new CreatePrescriptionSaleRequest();
+        request.setPatientId("PAT-" + random.nextInt(5_000));
+        request.setDoctorId("DOC-" + random.nextInt(50));
+        request.setPrescriptionDate(date);
+        request.setSaleDate(date);
+        request.setPaymentMode(paymentMode);
+        request.setGstType(GstType.INCLUSIVE);
+        request.setItems(saleItems(random));
+        return request;
+    }
+
+    /**
+     * A purchase invoice adding one new batch of each of {@code medicines}.
+     */
+    CreatePurchaseRequest purchase(String supplierId, String referenceId, Date invoiceDate,
+                                   List<Tenant.SeededMedicine> medicines) {
+        Instant expiryBase = invoiceDate.toInstant().plus(365, ChronoUnit.DAYS);
+        List<CreatePurchaseRequest.PurchaseItemDto> items = new ArrayList<>();
+        double total = 0;
+        for (int i = 0; i < medicines.size(); i++) {
+            Tenant.SeededMedicine medicine = medicines.get(i);
+            CreatePurchaseRequest.PurchaseItemDto item = new CreatePurchaseRequest.PurchaseItemDto();
+            item.setMedicineId(medicine.medicineId());
+            item.setBatchNo(referenceId + "-" + i);
+            item.setExpiryDate(Date.from(expiryBase.plus(30L * (i % 24), ChronoUnit.DAYS)));
+            item.setPackQuantity(PACKS_PER_BATCH);
+            item.setFreePackQuantity(0);
+            item.setItemsPerPack(ITEMS_PER_PACK);
+            item.setPurchaseCostPerPack(medicine.mrp() * ITEMS_PER_PACK * PURCHASE_COST_RATIO);
+            item.setDiscountPercentage(0.0);
+            item.setMrpPerItem(medicine.mrp());
+            item.setTaxProfileId(medicine.taxProfileId());
+            items.add(item);
+            total += item.getPurchaseCostPerPack() * PACKS_PER_BATCH;
+        }
+        CreatePurchaseRequest request = new CreatePurchaseRequest();
+        request.setSupplierId(supplierId);
+        request.setInvoiceDate(invoiceDate);
+        request.setReferenceId(referenceId);
+        request.setGstType(GstType.EXCLUSIVE);
+        request.setItems(items);
+        // Half paid up front, so the supplier ledgers carry a balance.
+        request.setAmountPaid(Math.floor(total / 2));
+        request.setPaymentMode(paymentMode);
+        return request;
+    }
+
+    CreateSalesReturnRequest salesReturn(Tenant.SoldLine line, Date date) {
+        CreateSalesReturnRequest request = new CreateSalesReturnRequest();
+        request.setOriginalSaleId(line.saleId());
+        request.setReason("Load test");
+        request.setReturnDate(date);
+        request.setOverallDiscountPercentage(0.0);
+        request.setRefundMode(paymentMode);
+        request.setItems(List.of(returnItem(line.medicineId(), line.batchNo())));
+        return request;
+    }
+
+    CreatePurchaseReturnRequest purchaseReturn(Tenant.PurchasedLine line, Date date) {
+        CreatePurchaseReturnRequest request = new CreatePurchaseReturnRequest();
+        request.setOriginalPurchaseId(line.purchaseId());
+        request.setSupplierId(line.supplierId());
+        request.setReason("Load test");
+        request.setReturnDate(date);
+        request.setItems(List.of(returnItem(line.medicineId(), line.batchNo())));
+        return request;
+    }
+
+    private List<SaleItemDto> saleItems(Random random) {
+        int lines = 1 + random.nextInt(MAX_SALE_LINES);
+        Set<Tenant.SeededMedicine> picked = new LinkedHashSet<>();
+        while (picked.size() < Math.min(lines, tenant.medicines.size())) {
+            // Squaring a uniform draw puts most picks on the first SKUs.
+            double draw = random.nextDouble();
+            picked.add(tenant.medicines.get((int) (draw * draw * tenant.medicines.size())));
+        }
+        List<SaleItemDto> items = new ArrayList<>();
+        for (Tenant.SeededMedicine medicine : picked) {
+            SaleItemDto item = new SaleItemDto();
+            item.setMedicineId(medicine.medicineId());
+            item.setQuantity(1 + random.nextInt(MAX_SALE_QUANTITY));
+            item.setDiscountPercentage(0.0);
+            item.setMrp(medicine.mrp());
+            item.setTaxProfileId(medicine.taxProfileId());
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static CreateSalesReturnRequest.ReturnItemDto returnItem(String medicineId, String batchNo) {
+        CreateSalesReturnRequest.ReturnItemDto item = new CreateSalesReturnRequest.ReturnItemDto();
+        item.setMedicineId(medicineId);
+        item.setBatchNo(batchNo);
+        item.setReturnQuantity(1);
+        return item;
+    }
+}
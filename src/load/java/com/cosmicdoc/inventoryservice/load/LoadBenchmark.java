@@ -0,0 +1,71 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load benchmark driver: seeds a synthetic pharmacy tenant at production scale and
+ * replays a mix of sales, purchases, returns and reports against a running service,
+ * reporting throughput, latency percentiles and Firestore documents read and written
+ * per call (from the service's {@code X-Firestore-*} headers).
+ * <p>
+ * The service can run on Firestore itself or, for a run with no cloud access, on the
+ * emulator with the 'local' profile ({@code LocalFirestoreConfig}):
+ * <pre>
+ *     mvn -Pload test-compile exec:exec
+ *     mvn -Pload test-compile exec:exec -Dload.args="phase=run seed=42 duration=PT10M concurrency=32 mix=otc:80,report:20"
+ * </pre>
+ * Settings, as {@code key=value} arguments (defaults in {@link LoadConfig}):
+ * <ul>
+ *     <li>{@code baseUrl}, {@code authorization} (sent as the Authorization header)</li>
+ *     <li>{@code phase}: {@code seed}, {@code run} (against an earlier seed with the same
+ *     {@code seed}) or {@code all}</li>
+ *     <li>{@code seed}: names the tenant's data and drives every random choice</li>
+ *     <li>{@code suppliers}, {@code medicines}, {@code batchesPerMedicine},
+ *     {@code historyDays}, {@code salesPerDay}: the size of the seeded tenant</li>
+ *     <li>{@code duration} (ISO-8601), {@code concurrency}, {@code mix}
+ *     ({@code otc}, {@code prescription}, {@code purchase}, {@code salesReturn},
+ *     {@code purchaseReturn}, {@code report} weights)</li>
+ *     <li>{@code paymentMode}: the PaymentMode sent with sales, purchases and refunds</li>
+ *     <li>{@code report}: path of a JSON copy of the results</li>
+ * </ul>
+ * The tenant is whichever organization and branch the service resolves for the caller.
+ */
+public final class LoadBenchmark {
+
+    private LoadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.parse(args);
+        ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+        InventoryClient client = new InventoryClient(config.baseUrl(), config.authorization(), mapper);
+        List<LoadReport> reports = new ArrayList<>();
+
+        Tenant tenant;
+        if (config.phase() == LoadConfig.Phase.RUN) {
+            tenant = new TenantSeeder(config, client, mapper, null).load();
+        } else {
+            LoadReport seeding = new LoadReport("seed");
+            tenant = new TenantSeeder(config, client, mapper, seeding).seed();
+            seeding.finish();
+            seeding.print();
+            reports.add(seeding);
+        }
+
+        if (config.phase() != LoadConfig.Phase.SEED) {
+            LoadReport run = new LoadReport("run");
+            new Workload(config, client, mapper, tenant, run).run();
+            run.finish();
+            run.print();
+            reports.add(run);
+        }
+
+        if (config.report() != null) {
+            LoadReport.write(config.report(), config, reports, mapper);
+            System.out.println("\nWrote " + config.report());
+        }
+    }
+}
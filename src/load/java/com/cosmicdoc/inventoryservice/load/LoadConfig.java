@@ -0,0 +1,85 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Settings of a load run, from {@code key=value} arguments (see {@link LoadBenchmark}).
+ * Every generated name and random choice derives from {@code seed}, so two runs with the
+ * same settings against an empty database build the same tenant and replay the same mix.
+ */
+record LoadConfig(
+        URI baseUrl,
+        String authorization,
+        Phase phase,
+        long seed,
+        int suppliers,
+        int medicines,
+        int batchesPerMedicine,
+        int historyDays,
+        int salesPerDay,
+        Duration duration,
+        int concurrency,
+        Map<Operation, Integer> mix,
+        String paymentMode,
+        Path report) {
+
+    enum Phase { SEED, RUN, ALL }
+
+    private static final String DEFAULT_MIX = "otc:50,prescription:20,purchase:8,salesReturn:5,purchaseReturn:2,report:15";
+    private static final Set<String> KNOWN_KEYS = Set.of("baseUrl", "authorization", "phase", "seed", "suppliers",
+            "medicines", "batchesPerMedicine", "historyDays", "salesPerDay", "duration", "concurrency", "mix",
+            "paymentMode", "report");
+
+    static LoadConfig parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            String key = arg.substring(0, eq);
+            if (!KNOWN_KEYS.contains(key)) throw new IllegalArgumentException("Unknown setting: " + key);
+            values.put(key, arg.substring(eq + 1));
+        }
+        return new LoadConfig(
+                URI.create(values.getOrDefault("baseUrl", "http://localhost:8082")),
+                values.get("authorization"),
+                Phase.valueOf(values.getOrDefault("phase", "all").toUpperCase()),
+                Long.parseLong(values.getOrDefault("seed", "42")),
+                Integer.parseInt(values.getOrDefault("suppliers", "25")),
+                Integer.parseInt(values.getOrDefault("medicines", "2000")),
+                Integer.parseInt(values.getOrDefault("batchesPerMedicine", "10")),
+                Integer.parseInt(values.getOrDefault("historyDays", "365")),
+                Integer.parseInt(values.getOrDefault("salesPerDay", "100")),
+                Duration.parse(values.getOrDefault("duration", "PT2M")),
+                Integer.parseInt(values.getOrDefault("concurrency", "16")),
+                parseMix(values.getOrDefault("mix", DEFAULT_MIX)),
+                values.getOrDefault("paymentMode", "CASH"),
+                values.containsKey("report") ? Path.of(values.get("report")) : null);
+    }
+
+    /**
+     * Names of the generated tenant's suppliers, medicines and tax profiles start with this.
+     */
+    String prefix() {
+        return "LOAD-" + seed;
+    }
+
+    // "otc:50,report:15": relative weights; operations left out never run.
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) throw new IllegalArgumentException("Expected operation:weight, got: " + entry);
+            weights.put(Operation.fromKey(parts[0]), Integer.parseInt(parts[1]));
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one positive weight: " + mix);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,62 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The {@link OperationStats} of one phase, by operation name, printed as a table and
+ * optionally written as JSON.
+ */
+final class LoadReport {
+
+    private final String phase;
+    private final Map<String, OperationStats> operations = new ConcurrentSkipListMap<>();
+    private final long startNanos = System.nanoTime();
+    private Duration elapsed;
+
+    LoadReport(String phase) {
+        this.phase = phase;
+    }
+
+    OperationStats stats(String operation) {
+        return operations.computeIfAbsent(operation, OperationStats::new);
+    }
+
+    void finish() {
+        elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    List<OperationStats.Summary> summaries() {
+        return operations.values().stream().map(stats -> stats.summary(elapsed)).toList();
+    }
+
+    void print() {
+        System.out.printf("%n%s: %d s%n", phase, elapsed.toSeconds());
+        System.out.printf("%-28s %8s %7s %9s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "calls", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "reads", "writes");
+        for (OperationStats.Summary s : summaries()) {
+            System.out.printf("%-28s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    s.operation(), s.calls(), s.errors(), s.throughput(), s.p50Millis(), s.p95Millis(),
+                    s.p99Millis(), s.maxMillis(), s.readsPerCall(), s.writesPerCall());
+        }
+    }
+
+    static void write(Path path, LoadConfig config, List<LoadReport> reports, ObjectMapper mapper) throws IOException {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("config", config);
+        for (LoadReport report : reports) {
+            document.put(report.phase, Map.of("elapsedMillis", report.elapsed.toMillis(), "operations", report.summaries()));
+        }
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        mapper.writer(SerializationFeature.INDENT_OUTPUT).writeValue(path.toFile(), document);
+    }
+}
@@ -0,0 +1,27 @@
+package com.cosmicdoc.inventoryservice.load;
+
+/**
+ * The requests the workload mixes, by the key used in the {@code mix} setting.
+ */
+enum Operation {
+    OTC_SALE("otc"),
+    PRESCRIPTION_SALE("prescription"),
+    PURCHASE("purchase"),
+    SALES_RETURN("salesReturn"),
+    PURCHASE_RETURN("purchaseReturn"),
+    // One of the report endpoints, in rotation; each is reported separately.
+    REPORT("report");
+
+    final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    static Operation fromKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equals(key)) return operation;
+        }
+        throw new IllegalArgumentException("Unknown operation: " + key);
+    }
+}
@@ -0,0 +1,76 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Latencies, errors and Firestore document counts of one kind of call.
+ * <p>
+ * Every latency is kept (a long per call), so percentiles are exact rather than
+ * bucketed; a run of a few million calls still fits comfortably in memory.
+ */
+final class OperationStats {
+
+    record Summary(String operation, int calls, int errors, double throughput,
+                   double p50Millis, double p95Millis, double p99Millis, double maxMillis,
+                   double readsPerCall, double writesPerCall) {
+    }
+
+    private final String operation;
+    private long[] latencies = new long[1024];
+    private int calls;
+    private int errors;
+    private long reads;
+    private long writes;
+    // Calls whose response carried the usage headers; failed connections do not.
+    private int measuredCalls;
+
+    OperationStats(String operation) {
+        this.operation = operation;
+    }
+
+    synchronized void record(InventoryClient.Response response) {
+        add(response.nanos());
+        if (!response.ok()) errors++;
+        if (response.reads() >= 0) {
+            reads += response.reads();
+            writes += Math.max(0, response.writes());
+            measuredCalls++;
+        }
+    }
+
+    /**
+     * A call that got no response at all.
+     */
+    synchronized void failed(long nanos) {
+        add(nanos);
+        errors++;
+    }
+
+    synchronized Summary summary(Duration elapsed) {
+        long[] sorted = Arrays.copyOf(latencies, calls);
+        Arrays.sort(sorted);
+        double seconds = Math.max(1, elapsed.toMillis()) / 1000.0;
+        return new Summary(operation, calls, errors, calls / seconds,
+                millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.95)), millis(percentile(sorted, 0.99)),
+                millis(calls == 0 ? 0 : sorted[calls - 1]),
+                measuredCalls == 0 ? 0 : (double) reads / measuredCalls,
+                measuredCalls == 0 ? 0 : (double) writes / measuredCalls);
+    }
+
+    private void add(long nanos) {
+        if (calls == latencies.length) latencies = Arrays.copyOf(latencies, calls * 2);
+        latencies[calls++] = nanos;
+    }
+
+    // Nearest rank.
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
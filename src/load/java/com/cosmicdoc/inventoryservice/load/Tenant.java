@@ -0,0 +1,57 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The seeded tenant the workload runs against, plus the recent sales and purchases it
+ * creates, which the return operations draw from.
+ */
+final class Tenant {
+
+    record SeededMedicine(String medicineId, String taxProfileId, double mrp) {
+    }
+
+    record SoldLine(String saleId, String medicineId, String batchNo) {
+    }
+
+    record PurchasedLine(String purchaseId, String supplierId, String medicineId, String batchNo) {
+    }
+
+    // Returns only need something recent; older lines are dropped.
+    private static final int RECENT_CAPACITY = 1000;
+
+    final List<String> supplierIds;
+    final List<SeededMedicine> medicines;
+    private final BlockingQueue<SoldLine> recentSales = new ArrayBlockingQueue<>(RECENT_CAPACITY);
+    private final BlockingQueue<PurchasedLine> recentPurchases = new ArrayBlockingQueue<>(RECENT_CAPACITY);
+
+    Tenant(List<String> supplierIds, List<SeededMedicine> medicines) {
+        this.supplierIds = supplierIds;
+        this.medicines = medicines;
+    }
+
+    void sold(SoldLine line) {
+        offer(recentSales, line);
+    }
+
+    void purchased(PurchasedLine line) {
+        offer(recentPurchases, line);
+    }
+
+    /**
+     * @return a recent sale line not yet returned, or null if there is none.
+     */
+    SoldLine takeSold() {
+        return recentSales.poll();
+    }
+
+    PurchasedLine takePurchased() {
+        return recentPurchases.poll();
+    }
+
+    private static <T> void offer(BlockingQueue<T> queue, T line) {
+        while (!queue.offer(line)) queue.poll();
+    }
+}
@@ -0,0 +1,195 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import com.cosmicdoc.inventoryservice.dto.request.CreateMedicineRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreateSupplierRequest;
+import com.cosmicdoc.inventoryservice.dto.request.CreateTaxProfileRequest;
+import com.cosmicdoc.inventoryservice.dto.request.TaxComponentRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Builds the synthetic tenant through the public API, the same path production data
+ * takes, so stock shards, aggregates, rollups and name indexes are all in place:
+ * tax profiles, suppliers, {@code medicines} SKUs, {@code batchesPerMedicine} purchased
+ * batches of each, and {@code historyDays} days of {@code salesPerDay} OTC sales.
+ * <p>
+ * The data is named after {@link LoadConfig#prefix()}, which {@link #load} uses to find
+ * it again for a run against an already seeded database.
+ */
+final class TenantSeeder {
+
+    private static final String MASTERS = "/api/inventory/masters";
+    private static final double[] GST_RATES = {5, 12, 18};
+    private static final String[] CATEGORIES = {"Tablet", "Capsule", "Syrup", "Injection", "Ointment", "Drops"};
+    private static final int MEDICINE_CHUNK = 500;
+    private static final int ITEMS_PER_INVOICE = 20;
+    private static final int INVOICE_CHUNK = 50;
+
+    private final LoadConfig config;
+    private final InventoryClient client;
+    private final ObjectMapper mapper;
+    private final LoadReport report;
+
+    TenantSeeder(LoadConfig config, InventoryClient client, ObjectMapper mapper, LoadReport report) {
+        this.config = config;
+        this.client = client;
+        this.mapper = mapper;
+        this.report = report;
+    }
+
+    Tenant seed() throws Exception {
+        Random random = new Random(config.seed());
+        String prefix = config.prefix();
+
+        List<String> taxProfileIds = new ArrayList<>();
+        for (double rate : GST_RATES) {
+            CreateTaxProfileRequest request = new CreateTaxProfileRequest();
+            request.setProfileName(prefix + " GST " + (int) rate + "%");
+            request.setTotalRate(rate);
+            request.setComponents(List.of(component("CGST", rate / 2), component("SGST", rate / 2)));
+            taxProfileIds.add(client.postOk(MASTERS + "/tax-profiles", request).path("taxProfileId").asText());
+        }
+        log("%d tax profiles", taxProfileIds.size());
+
+        parallel(config.suppliers(), i -> {
+            CreateSupplierRequest request = new CreateSupplierRequest();
+            request.setName(prefix + " Supplier " + i);
+            request.setMobileNumber(String.format("9%09d", i));
+            request.setGstin(String.format("29LOAD%09dZ", i));
+            request.setEmail("supplier" + i + "@load.example");
+            client.postOk(MASTERS + "/suppliers", request);
+        });
+        log("%d suppliers", config.suppliers());
+
+        List<CreateMedicineRequest> medicines = new ArrayList<>();
+        for (int i = 0; i < config.medicines(); i++) {
+            CreateMedicineRequest request = new CreateMedicineRequest();
+            request.setName(prefix + " Medicine " + i);
+            request.setCategory(CATEGORIES[i % CATEGORIES.length]);
+            request.setGenericName("Generic " + i % 400);
+            request.setManufacturer("Maker " + i % 60);
+            request.setUnitOfMeasurement("Strip");
+            request.setLowStockThreshold(20);
+            request.setTaxProfileId(taxProfileIds.get(i % taxProfileIds.size()));
+            request.setUnitPrice(2 + random.nextInt(400) + random.nextInt(4) * 0.25);
+            request.setSku(prefix + "-SKU-" + i);
+            medicines.add(request);
+        }
+        for (int from = 0; from < medicines.size(); from += MEDICINE_CHUNK) {
+            List<CreateMedicineRequest> chunk = medicines.subList(from, Math.min(from + MEDICINE_CHUNK, medicines.size()));
+            InventoryClient.Response response = client.post(MASTERS + "/medicines/bulk", chunk);
+            report.stats("seed.medicines.bulk").record(response);
+            if (!response.ok()) throw new IllegalStateException("Medicine import failed: " + response.body());
+        }
+        Tenant tenant = load();
+        log("%d medicines", tenant.medicines.size());
+
+        // Invoices spread over the history window, oldest first, each adding one batch of
+        // ITEMS_PER_INVOICE medicines; every medicine ends up with batchesPerMedicine batches.
+        Instant now = Instant.now();
+        List<CreatePurchaseRequest> invoices = new ArrayList<>();
+        InvoiceFactory invoiceFactory = new InvoiceFactory(config, tenant);
+        for (int round = 0; round < config.batchesPerMedicine(); round++) {
+            for (int from = 0; from < tenant.medicines.size(); from += ITEMS_PER_INVOICE) {
+                int n = invoices.size();
+                String supplierId = tenant.supplierIds.get(n % tenant.supplierIds.size());
+                long daysAgo = config.historyDays() - (long) round * config.historyDays() / config.batchesPerMedicine();
+                invoices.add(invoiceFactory.purchase(supplierId, prefix + "-INV-" + n,
+                        Date.from(now.minus(daysAgo, ChronoUnit.DAYS)),
+                        tenant.medicines.subList(from, Math.min(from + ITEMS_PER_INVOICE, tenant.medicines.size()))));
+            }
+        }
+        parallel((invoices.size() + INVOICE_CHUNK - 1) / INVOICE_CHUNK, chunk -> {
+            List<CreatePurchaseRequest> batch = invoices.subList(chunk * INVOICE_CHUNK,
+                    Math.min((chunk + 1) * INVOICE_CHUNK, invoices.size()));
+            InventoryClient.Response response = client.post("/api/inventory/purchases/bulk", batch);
+            report.stats("seed.purchases.bulk").record(response);
+            if (!response.ok() || response.json(mapper).path("failed").asInt() > 0) {
+                throw new IllegalStateException("Purchase ingestion failed: " + response.body());
+            }
+        });
+        log("%d purchase invoices, %d batches", invoices.size(),
+                (long) tenant.medicines.size() * config.batchesPerMedicine());
+
+        // A year (by default) of counter sales, each at a random time of its day.
+        int totalSales = config.historyDays() * config.salesPerDay();
+        parallel(totalSales, i -> {
+            Random saleRandom = new Random(config.seed() * 31 + i);
+            long daysAgo = config.historyDays() - i / config.salesPerDay();
+            Instant date = now.minus(daysAgo, ChronoUnit.DAYS).plus(saleRandom.nextInt(12 * 60), ChronoUnit.MINUTES);
+            InventoryClient.Response response = client.post("/api/inventory/sales/otc",
+                    invoiceFactory.otcSale(saleRandom, Date.from(date)));
+            report.stats("seed.sale.otc").record(response);
+        });
+        log("%d historical sales", totalSales);
+        return tenant;
+    }
+
+    /**
+     * Finds the suppliers and medicines of an already seeded tenant.
+     */
+    Tenant load() {
+        String prefix = config.prefix() + " ";
+        List<String> supplierIds = new ArrayList<>();
+        for (JsonNode supplier : client.getOk(MASTERS + "/suppliers")) {
+            if (supplier.path("name").asText().startsWith(prefix)) supplierIds.add(supplier.path("supplierId").asText());
+        }
+        // In seeding order ("<prefix> Medicine <n>"): the workload's SKU skew needs a fixed order.
+        Tenant.SeededMedicine[] byIndex = new Tenant.SeededMedicine[config.medicines()];
+        String medicinePrefix = prefix + "Medicine ";
+        for (JsonNode medicine : client.getOk(MASTERS + "/medicines")) {
+            String name = medicine.path("name").asText();
+            if (!name.startsWith(medicinePrefix)) continue;
+            int index = Integer.parseInt(name.substring(medicinePrefix.length()));
+            if (index < byIndex.length) {
+                byIndex[index] = new Tenant.SeededMedicine(medicine.path("medicineId").asText(),
+                        medicine.path("taxProfileId").asText(), medicine.path("unitPrice").asDouble());
+            }
+        }
+        List<Tenant.SeededMedicine> medicines = Arrays.stream(byIndex).filter(Objects::nonNull).toList();
+        if (supplierIds.isEmpty() || medicines.isEmpty()) {
+            throw new IllegalStateException("No tenant seeded with seed=" + config.seed() + "; run phase=seed first");
+        }
+        supplierIds.sort(String::compareTo);
+        return new Tenant(supplierIds, medicines);
+    }
+
+    private void parallel(int tasks, IntConsumer task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(config.concurrency());
+        try {
+            List<Future<?>> futures = new ArrayList<>(tasks);
+            for (int i = 0; i < tasks; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> task.accept(index)));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static TaxComponentRequest component(String name, double rate) {
+        TaxComponentRequest component = new TaxComponentRequest();
+        component.setComponentName(name);
+        component.setRate(rate);
+        return component;
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.printf("seeded " + format + "%n", args);
+    }
+}
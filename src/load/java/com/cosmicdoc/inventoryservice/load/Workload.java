@@ -0,0 +1,164 @@
+package com.cosmicdoc.inventoryservice.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Replays the configured operation mix against the seeded tenant: {@code concurrency}
+ * closed-loop workers, each sending its next request as soon as the previous one
+ * answers, for {@code duration}.
+ * <p>
+ * Returns act on lines the run itself sold or purchased; until there are some, a return
+ * draw runs the corresponding sale or purchase instead.
+ */
+final class Workload {
+
+    private static final String[] REPORTS = {"stock-by-category", "daily-sales", "daily-sales-range",
+            "supplier-ledger", "sales-page", "medicines"};
+
+    private final LoadConfig config;
+    private final InventoryClient client;
+    private final ObjectMapper mapper;
+    private final Tenant tenant;
+    private final InvoiceFactory invoiceFactory;
+    private final LoadReport report;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    // Keeps invoice numbers unique across runs of the same seed.
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    Workload(LoadConfig config, InventoryClient client, ObjectMapper mapper, Tenant tenant, LoadReport report) {
+        this.config = config;
+        this.client = client;
+        this.mapper = mapper;
+        this.tenant = tenant;
+        this.invoiceFactory = new InvoiceFactory(config, tenant);
+        this.report = report;
+        List<Operation> mixed = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : config.mix().entrySet()) {
+            if (entry.getValue() <= 0) continue;
+            total += entry.getValue();
+            mixed.add(entry.getKey());
+            weights.add(total);
+        }
+        this.operations = mixed.toArray(Operation[]::new);
+        this.cumulativeWeights = weights.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    void run() throws InterruptedException {
+        long deadline = System.nanoTime() + config.duration().toNanos();
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < config.concurrency(); w++) {
+            Random random = new Random(config.seed() * 7919 + w);
+            int worker = w;
+            workers.add(Thread.ofPlatform().name("load-" + w).start(() -> {
+                int sequence = 0;
+                while (System.nanoTime() < deadline) {
+                    execute(next(random), random, worker + "-" + sequence++);
+                }
+            }));
+        }
+        for (Thread worker : workers) worker.join();
+    }
+
+    private Operation next(Random random) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) return operations[i];
+        }
+        throw new IllegalStateException();
+    }
+
+    private void execute(Operation operation, Random random, String sequence) {
+        Date now = new Date();
+        switch (operation) {
+            case OTC_SALE -> sold(call("otc", () -> client.post("/api/inventory/sales/otc",
+                    invoiceFactory.otcSale(random, now))));
+            case PRESCRIPTION_SALE -> sold(call("prescription", () -> client.post("/api/inventory/sales/prescription",
+                    invoiceFactory.prescriptionSale(random, now))));
+            case PURCHASE -> purchase(random, sequence, now);
+            case SALES_RETURN -> {
+                Tenant.SoldLine line = tenant.takeSold();
+                if (line == null) {
+                    execute(Operation.OTC_SALE, random, sequence);
+                } else {
+                    call("salesReturn", () -> client.post("/api/inventory/returns/sale",
+                            invoiceFactory.salesReturn(line, now)));
+                }
+            }
+            case PURCHASE_RETURN -> {
+                Tenant.PurchasedLine line = tenant.takePurchased();
+                if (line == null) {
+                    purchase(random, sequence, now);
+                } else {
+                    call("purchaseReturn", () -> client.post("/api/inventory/returns/purchase",
+                            invoiceFactory.purchaseReturn(line, now)));
+                }
+            }
+            case REPORT -> report(random);
+        }
+    }
+
+    private void purchase(Random random, String sequence, Date now) {
+        String supplierId = tenant.supplierIds.get(random.nextInt(tenant.supplierIds.size()));
+        int from = random.nextInt(Math.max(1, tenant.medicines.size() - 5));
+        List<Tenant.SeededMedicine> medicines = tenant.medicines.subList(from, Math.min(from + 5, tenant.medicines.size()));
+        InventoryClient.Response response = call("purchase", () -> client.post("/api/inventory/purchases/",
+                invoiceFactory.purchase(supplierId, config.prefix() + "-RUN-" + runId + "-" + sequence, now, medicines)));
+        if (response == null || !response.ok()) return;
+        JsonNode purchase = response.json(mapper);
+        for (JsonNode item : purchase.path("items")) {
+            tenant.purchased(new Tenant.PurchasedLine(purchase.path("purchaseId").asText(), supplierId,
+                    item.path("medicineId").asText(), item.path("batchNo").asText()));
+        }
+    }
+
+    private void report(Random random) {
+        String name = REPORTS[random.nextInt(REPORTS.length)];
+        LocalDate today = LocalDate.now();
+        String path = switch (name) {
+            case "stock-by-category" -> "/api/inventory/reports/stock-by-category";
+            case "daily-sales" -> "/api/inventory/reports/daily-sales?date=" + today;
+            case "daily-sales-range" -> "/api/inventory/reports/daily-sales/range?from=" + today.minusDays(30) + "&to=" + today;
+            case "supplier-ledger" -> "/api/inventory/reports/"
+                    + tenant.supplierIds.get(random.nextInt(tenant.supplierIds.size()));
+            case "sales-page" -> "/api/inventory/sales/page";
+            default -> "/api/inventory/masters/medicines";
+        };
+        call("report." + name, () -> client.get(path));
+    }
+
+    private void sold(InventoryClient.Response response) {
+        if (response == null || !response.ok()) return;
+        JsonNode sale = response.json(mapper);
+        for (JsonNode item : sale.path("items")) {
+            JsonNode allocation = item.path("batchAllocations").path(0);
+            if (allocation.isMissingNode()) continue;
+            tenant.sold(new Tenant.SoldLine(sale.path("saleId").asText(), item.path("medicineId").asText(),
+                    allocation.path("batchNo").asText()));
+        }
+    }
+
+    // Records the call under `name`; null if it got no response at all.
+    private InventoryClient.Response call(String name, Supplier<InventoryClient.Response> request) {
+        long start = System.nanoTime();
+        try {
+            InventoryClient.Response response = request.get();
+            report.stats(name).record(response);
+            return response;
+        } catch (RuntimeException e) {
+            report.stats(name).failed(System.nanoTime() - start);
+            return null;
+        }
+    }
+}
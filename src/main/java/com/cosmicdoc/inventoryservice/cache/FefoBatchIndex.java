@@ -0,0 +1,227 @@
+package com.cosmicdoc.inventoryservice.cache;
+
+import com.cosmicdoc.common.model.BatchAllocation;
+import com.cosmicdoc.common.model.MedicineBatch;
+import com.cosmicdoc.common.model.SaleItem;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory, per-(organization, branch) index of available medicine batches,
+ * kept in FEFO (First-Expired, First-Out) order.
+ * <p>
+ * The sale path uses this index to PLAN its batch allocations without querying
+ * Firestore, and then only reads back the exact batch documents it intends to
+ * decrement. The index is a hint, never the source of truth: every planned batch
+ * is re-validated inside the Firestore transaction.
+ * <p>
+ * Re-reading the planned batches catches stock that went down, but not stock that
+ * came in on a batch the plan never looked at. So every medicine has a version
+ * document (medicines/{medicine}/cacheVersions/fefoBatches) that the write paths
+ * adding stock increment in their transaction ({@link #invalidateInTransaction}),
+ * and every entry records the version it was loaded at. The sale transaction reads
+ * the versions together with the planned batches, and only trusts an entry whose
+ * version still matches; otherwise it queries the medicine's available batches and
+ * {@link #put}s them back. Entries are only ever loaded inside a transaction.
+ * <p>
+ * This instance's own writes also adjust it directly (sales apply exact deltas,
+ * every other write path invalidates the medicines it touched), and entries idle
+ * for longer than {@code app.fefo-index.idle-eviction} are evicted.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FefoBatchIndex {
+
+    private static final Comparator<IndexedBatch> FEFO_ORDER = Comparator
+            .comparing(IndexedBatch::expiryDate, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(IndexedBatch::batchId);
+
+    private static final String CACHE_NAME = "fefoBatches";
+    private static final String FIELD_VERSION = "version";
+
+    private final Firestore firestore;
+
+    // branchKey ("orgId/branchId") -> medicineId -> entry
+    private final ConcurrentMap<String, ConcurrentMap<String, Entry>> branches = new ConcurrentHashMap<>();
+
+    @Value("${app.fefo-index.idle-eviction:PT30M}")
+    private Duration idleEviction = Duration.ofMinutes(30);
+
+    /**
+     * Returns the indexed batches of a medicine in FEFO order, with the version they
+     * were loaded at, or empty if the medicine is not indexed. Never reads Firestore.
+     */
+    public Optional<Snapshot> cached(String orgId, String branchId, String medicineId) {
+        ConcurrentMap<String, Entry> medicines = branches.get(branchKey(orgId, branchId));
+        Entry entry = medicines != null ? medicines.get(medicineId) : null;
+        if (entry == null) return Optional.empty();
+        entry.lastAccessMillis = System.currentTimeMillis();
+        return Optional.of(new Snapshot(entry.version, entry.batches));
+    }
+
+    /**
+     * Replaces a medicine's entry with batches read in a transaction, at the version
+     * read in the same transaction. Batches without stock are left out.
+     */
+    public void put(String orgId, String branchId, String medicineId, long version, List<MedicineBatch> batches) {
+        branch(orgId, branchId).put(medicineId, new Entry(version, toSortedAvailable(batches)));
+    }
+
+    /**
+     * The medicine's version document, to read in the same round trip as the planned batches.
+     */
+    public static DocumentReference versionRef(Firestore firestore, String orgId, String branchId, String medicineId) {
+        return FirestorePaths.medicine(firestore, orgId, branchId, medicineId).collection(FirestorePaths.CACHE_VERSIONS).document(CACHE_NAME);
+    }
+
+    /**
+     * @return the version held by a snapshot of {@link #versionRef}; 0 before the first bump.
+     */
+    public static long version(DocumentSnapshot versionDoc) {
+        Long version = versionDoc.exists() ? versionDoc.getLong(FIELD_VERSION) : null;
+        return version != null ? version : 0L;
+    }
+
+    /**
+     * Stages a version bump for each medicine, so no instance trusts its entry any more.
+     * A blind write; call in the write phase of any transaction that adds stock to a
+     * batch, then {@link #invalidate} after it commits.
+     */
+    public void invalidateInTransaction(Transaction transaction, String orgId, String branchId, Collection<String> medicineIds) {
+        for (String medicineId : new LinkedHashSet<>(medicineIds)) {
+            FirestoreUsage.writes(1);
+            transaction.set(versionRef(firestore, orgId, branchId, medicineId), Map.of(FIELD_VERSION, FieldValue.increment(1)), SetOptions.merge());
+        }
+    }
+
+    /**
+     * Applies the batch allocations of committed sale items to the index.
+     * <p>
+     * Call it from the transaction's {@code onCommit} hook, while the medicines are still
+     * locked: applied after the next sale on them has reloaded the entry, the deltas would
+     * be taken off twice.
+     *
+     * @param direction -1 when stock was taken (sale created), +1 when it was put back.
+     */
+    public void applyAllocations(String orgId, String branchId, List<SaleItem> items, int direction) {
+        if (items == null) return;
+        ConcurrentMap<String, Entry> medicines = branch(orgId, branchId);
+        for (SaleItem item : items) {
+            if (item.getBatchAllocations() == null) continue;
+            for (BatchAllocation allocation : item.getBatchAllocations()) {
+                medicines.computeIfPresent(item.getMedicineId(), (id, entry) ->
+                        entry.withDelta(allocation.getBatchId(), direction * allocation.getQuantityTaken()));
+            }
+        }
+    }
+
+    /**
+     * Drops the indexed batches of the given medicines; they are reloaded on next use.
+     */
+    public void invalidate(String orgId, String branchId, Collection<String> medicineIds) {
+        ConcurrentMap<String, Entry> medicines = branches.get(branchKey(orgId, branchId));
+        if (medicines == null || medicineIds == null) return;
+        medicineIds.forEach(medicines::remove);
+    }
+
+    /**
+     * Periodically evicts the entries that have been idle for longer than
+     * {@code app.fefo-index.idle-eviction}. Stale entries need no reload here: the
+     * version check catches them on their next use.
+     */
+    @Scheduled(fixedDelayString = "${app.fefo-index.eviction-interval:PT5M}",
+            initialDelayString = "${app.fefo-index.eviction-interval:PT5M}")
+    public void evictIdle() {
+        long idleCutoff = System.currentTimeMillis() - idleEviction.toMillis();
+        int evicted = 0;
+        for (Map.Entry<String, ConcurrentMap<String, Entry>> branchEntry : branches.entrySet()) {
+            ConcurrentMap<String, Entry> medicines = branchEntry.getValue();
+            for (Map.Entry<String, Entry> medicineEntry : medicines.entrySet()) {
+                if (medicineEntry.getValue().lastAccessMillis < idleCutoff
+                        && medicines.remove(medicineEntry.getKey(), medicineEntry.getValue())) {
+                    evicted++;
+                }
+            }
+            if (medicines.isEmpty()) {
+                branches.remove(branchEntry.getKey(), medicines);
+            }
+        }
+        log.debug("FEFO index: {} idle entries evicted", evicted);
+    }
+
+    private ConcurrentMap<String, Entry> branch(String orgId, String branchId) {
+        return branches.computeIfAbsent(branchKey(orgId, branchId), key -> new ConcurrentHashMap<>());
+    }
+
+    private static String branchKey(String orgId, String branchId) {
+        return orgId + "/" + branchId;
+    }
+
+    private static List<IndexedBatch> toSortedAvailable(List<MedicineBatch> batches) {
+        List<IndexedBatch> available = new ArrayList<>();
+        for (MedicineBatch batch : batches) {
+            if (batch.getQuantityAvailable() > 0) {
+                available.add(new IndexedBatch(batch.getBatchId(), batch.getBatchNo(), batch.getExpiryDate(), batch.getQuantityAvailable()));
+            }
+        }
+        available.sort(FEFO_ORDER);
+        return List.copyOf(available);
+    }
+
+    /**
+     * An immutable view of one available batch as known to the index.
+     */
+    public record IndexedBatch(String batchId, String batchNo, Timestamp expiryDate, int quantityAvailable) {}
+
+    /**
+     * A medicine's indexed batches in FEFO order, and the version they were loaded at.
+     */
+    public record Snapshot(long version, List<IndexedBatch> batches) {}
+
+    private static final class Entry {
+        private final long version;
+        private final List<IndexedBatch> batches;
+        private volatile long lastAccessMillis = System.currentTimeMillis();
+
+        private Entry(long version, List<IndexedBatch> batches) {
+            this.version = version;
+            this.batches = batches;
+        }
+
+        private Entry withDelta(String batchId, int delta) {
+            List<IndexedBatch> updated = new ArrayList<>(batches.size());
+            boolean found = false;
+            for (IndexedBatch batch : batches) {
+                if (batch.batchId().equals(batchId)) {
+                    found = true;
+                    int quantity = batch.quantityAvailable() + delta;
+                    if (quantity > 0) {
+                        updated.add(new IndexedBatch(batch.batchId(), batch.batchNo(), batch.expiryDate(), quantity));
+                    }
+                } else {
+                    updated.add(batch);
+                }
+            }
+            if (!found) {
+                // A batch that went to zero and is now being restocked: let the next use reload it.
+                return null;
+            }
+            Entry next = new Entry(version, List.copyOf(updated));
+            next.lastAccessMillis = lastAccessMillis;
+            return next;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.cosmicdoc.inventoryservice.cache;
+
+import com.cosmicdoc.common.model.TaxProfile;
+import com.cosmicdoc.common.repository.TaxProfileRepository;
+import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Org-scoped, read-through cache of tax profiles for the sale and purchase transactions.
+ * <p>
+ * Every organization has a version document
+ * (organizations/{org}/cacheVersions/taxProfiles) that {@link #invalidate(String)}
+ * increments whenever a tax profile is written. Cache entries are keyed by that
+ * version, so a transaction verifies freshness with a single document read instead
+ * of reading every tax profile it needs. Reading the version inside the transaction
+ * also means a concurrent tax profile write makes the transaction retry.
+ * <p>
+ * Hit/miss/eviction counts are published as the {@code cache.*} metrics with
+ * {@code cache=taxProfiles}.
+ */
+@Component
+@Slf4j
+public class TaxProfileCache {
+
+    private static final String CACHE_NAME = "taxProfiles";
+    private static final String FIELD_VERSION = "version";
+
+    private final Firestore firestore;
+    private final TaxProfileRepository taxProfileRepository;
+    private final Cache<Key, TaxProfile> cache;
+
+    public TaxProfileCache(Firestore firestore,
+                           TaxProfileRepository taxProfileRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.tax-profile-cache.maximum-size:10000}") long maximumSize,
+                           @Value("${app.tax-profile-cache.ttl:PT1H}") Duration ttl) {
+        this.firestore = firestore;
+        this.taxProfileRepository = taxProfileRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Returns the requested tax profiles keyed by ID. Must be called in the read phase
+     * of the transaction: it reads the org's version document and, on a miss, the
+     * missing profiles.
+     *
+     * @throws ResourceNotFoundException if a profile does not exist.
+     */
+    public Map<String, TaxProfile> getAll(Transaction transaction, String orgId, Collection<String> taxProfileIds)
+            throws ExecutionException, InterruptedException {
+        long version = readVersion(transaction, orgId);
+
+        Map<String, TaxProfile> result = new HashMap<>();
+        List<String> missingIds = new ArrayList<>();
+        for (String taxProfileId : new LinkedHashSet<>(taxProfileIds)) {
+            TaxProfile cached = cache.getIfPresent(new Key(orgId, version, taxProfileId));
+            if (cached != null) {
+                result.put(taxProfileId, cached);
+            } else {
+                missingIds.add(taxProfileId);
+            }
+        }
+        if (missingIds.isEmpty()) return result;
+
+        for (DocumentSnapshot doc : taxProfileRepository.getAll(transaction, orgId, missingIds)) {
+            if (!doc.exists()) throw new ResourceNotFoundException("TaxProfile with ID " + doc.getId() + " not found.");
+            TaxProfile taxProfile = doc.toObject(TaxProfile.class);
+            cache.put(new Key(orgId, version, doc.getId()), taxProfile);
+            result.put(doc.getId(), taxProfile);
+        }
+        return result;
+    }
+
+    /**
+     * Bumps the org's version, so every instance stops serving its cached copies,
+     * and drops this instance's entries. Call after any tax profile write.
+     */
+    public void invalidate(String orgId) {
+        cache.asMap().keySet().removeIf(key -> key.orgId().equals(orgId));
+        try {
+            versionRef(orgId).set(Map.of(FIELD_VERSION, FieldValue.increment(1)), SetOptions.merge()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while invalidating the tax profile cache", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to invalidate the tax profile cache", e.getCause());
+        }
+        log.debug("Invalidated tax profile cache for org {}", orgId);
+    }
+
+    private long readVersion(Transaction transaction, String orgId) throws ExecutionException, InterruptedException {
+        DocumentSnapshot doc = transaction.get(versionRef(orgId)).get();
+        FirestoreUsage.reads(1);
+        Long version = doc.exists() ? doc.getLong(FIELD_VERSION) : null;
+        return version != null ? version : 0L;
+    }
+
+    private DocumentReference versionRef(String orgId) {
+        return FirestorePaths.cacheVersion(firestore, orgId, CACHE_NAME);
+    }
+
+    private record Key(String orgId, long version, String taxProfileId) {}
+}
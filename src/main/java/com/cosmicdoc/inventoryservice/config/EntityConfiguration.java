@@ -2,51 +2,56 @@ package com.cosmicdoc.inventoryservice.config;
 
 import com.cosmicdoc.common.repository.*;
 import com.cosmicdoc.common.repository.impl.*;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsageProxy;
 import com.google.cloud.firestore.Firestore;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+/**
+ * The common repositories, each wrapped in a {@link FirestoreUsageProxy} so their reads
+ * and writes count towards the per-request Firestore usage.
+ */
 @Configuration
 public class EntityConfiguration {
 
     @Bean
     MedicineRepository medicineRepository (Firestore firestore) {
-        return new MedicineRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(MedicineRepository.class, new MedicineRepositoryImpl(firestore));
     }
     @Bean
     PurchaseRepository purchaseRepository (Firestore firestore) {
-        return new PurchaseRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(PurchaseRepository.class, new PurchaseRepositoryImpl(firestore));
     }
 
     @Bean
     PurchaseReturnRepository purchaseReturnRepository (Firestore firestore) {
-        return new PurchaseReturnRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(PurchaseReturnRepository.class, new PurchaseReturnRepositoryImpl(firestore));
     }
     @Bean
     SaleRepository saleRepository (Firestore firestore) {
-        return new SaleRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(SaleRepository.class, new SaleRepositoryImpl(firestore));
     }
     @Bean
     SalesReturnRepository salesReturnRepository (Firestore firestore) {
-        return new SalesReturnRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(SalesReturnRepository.class, new SalesReturnRepositoryImpl(firestore));
     }
     @Bean
     SupplierRepository supplierRepository (Firestore firestore) {
-        return new SupplierRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(SupplierRepository.class, new SupplierRepositoryImpl(firestore));
     }
 
     @Bean
     TaxProfileRepository taxProfileRepository (Firestore firestore) {
-        return new TaxProfileRepositoryImpl( firestore);
+        return FirestoreUsageProxy.counting(TaxProfileRepository.class, new TaxProfileRepositoryImpl(firestore));
     }
 
     @Bean
     MedicineBatchRepository medicineBatchRepository (Firestore firestore) {
-        return new MedicineBatchRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(MedicineBatchRepository.class, new MedicineBatchRepositoryImpl(firestore));
     }
     @Bean
     SupplierPaymentRepository supplierPaymentRepository (Firestore firestore) {
-        return new SupplierPaymentRepositoryImpl(firestore);
+        return FirestoreUsageProxy.counting(SupplierPaymentRepository.class, new SupplierPaymentRepositoryImpl(firestore));
     }
 
 }
@@ -0,0 +1,50 @@
+package com.cosmicdoc.inventoryservice.config;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Supplies the Firestore instance for the 'local' profile, the counterpart of
+ * {@link FirebaseConfig}.
+ * <p>
+ * It connects to a Firestore emulator rather than to Google Cloud, so the service starts
+ * with no credentials and no network, e.g. for load tests on a laptop or CI box:
+ * <pre>
+ *     gcloud emulators firestore start --host-port=localhost:8085
+ *     SPRING_PROFILES_ACTIVE=local ./mvnw spring-boot:run
+ * </pre>
+ * The emulator runs the real transaction protocol (optimistic concurrency, aborts and
+ * retries on contention), so the transactional paths behave as they do in production.
+ * Every start sees whatever the emulator holds; restart it for an empty database.
+ */
+@Configuration
+@Profile("local")
+public class LocalFirestoreConfig {
+
+    @Value("${app.firebase.emulator-host}")
+    private String emulatorHost;
+
+    @Value("${app.firebase.project-id}")
+    private String projectId;
+
+    /**
+     * Provides a Firestore client bound to the emulator. The emulator accepts any
+     * project ID, and ignores credentials, hence {@link NoCredentials}.
+     *
+     * @return The Firestore instance, closed with the application context.
+     */
+    @Bean(destroyMethod = "close")
+    public Firestore firestore() {
+        return FirestoreOptions.newBuilder()
+                .setProjectId(projectId)
+                .setEmulatorHost(emulatorHost)
+                .setCredentials(NoCredentials.getInstance())
+                .build()
+                .getService();
+    }
+}
@@ -0,0 +1,20 @@
+package com.cosmicdoc.inventoryservice.config;
+
+import com.cosmicdoc.inventoryservice.context.TenantContext;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Carries the request's {@link TenantContext} into work handed to Spring's task
+ * executors ({@code @Async}, async MVC). Spring Boot applies a single TaskDecorator
+ * bean to the application task executor, both the pooled one and the virtual-thread
+ * one used when {@code spring.threads.virtual.enabled} is true.
+ */
+@Component
+public class TenantContextTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        return TenantContext.wrap(runnable);
+    }
+}
@@ -29,4 +29,30 @@ public class TenantContext {
         branchId.remove();
         userId.remove();
     }
+
+    /**
+     * Captures the calling thread's tenant and returns a task that runs under it on
+     * whichever thread (platform or virtual) executes it. The executing thread's own
+     * context is restored afterwards, so pooled threads never leak a tenant.
+     */
+    public static Runnable wrap(Runnable task) {
+        String capturedOrg = organizationId.get();
+        String capturedBranch = branchId.get();
+        String capturedUser = userId.get();
+        return () -> {
+            String previousOrg = organizationId.get();
+            String previousBranch = branchId.get();
+            String previousUser = userId.get();
+            setContext(capturedOrg, capturedBranch, capturedUser);
+            try {
+                task.run();
+            } finally {
+                if (previousOrg == null && previousBranch == null && previousUser == null) {
+                    clear();
+                } else {
+                    setContext(previousOrg, previousBranch, previousUser);
+                }
+            }
+        };
+    }
 }
\ No newline at end of file
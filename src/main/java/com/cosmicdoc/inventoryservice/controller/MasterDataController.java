@@ -5,11 +5,14 @@ import com.cosmicdoc.common.model.Supplier;
 import com.cosmicdoc.common.model.TaxProfile;
 import com.cosmicdoc.common.repository.MedicineRepository;
 import com.cosmicdoc.inventoryservice.dto.request.*;
+import com.cosmicdoc.inventoryservice.dto.response.MedicineImportEvent;
 import com.cosmicdoc.inventoryservice.dto.response.MedicineStockDetailResponse;
 import com.cosmicdoc.inventoryservice.dto.response.MedicineStockResponse;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
 import com.cosmicdoc.inventoryservice.security.SecurityUtils;
 import com.cosmicdoc.inventoryservice.service.MasterDataService;
+import com.cosmicdoc.inventoryservice.service.MedicineImportService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.Operation;
@@ -19,9 +22,11 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -35,6 +40,8 @@ import java.util.List;
 public class MasterDataController {
 
     private final MasterDataService masterDataService;
+    private final MedicineImportService medicineImportService;
+    private final ObjectMapper objectMapper;
 
 
     @Operation(
@@ -119,6 +126,31 @@ public class MasterDataController {
         return ResponseEntity.status(HttpStatus.CREATED).body(newMedicine);
     }
 
+    @Operation(
+            summary = "Bulk import medicines",
+            description = "Creates many medicines from a JSON array of create requests, or from CSV (text/csv) whose header "
+                    + "names the same fields. Streams NDJSON: a ROW_FAILED line per rejected row, PROGRESS lines and a final SUMMARY."
+    )
+    @PostMapping(value = "/medicines/bulk", consumes = MediaType.APPLICATION_JSON_VALUE, produces = "application/x-ndjson")
+    @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> importMedicines(@RequestBody List<CreateMedicineRequest> requests) {
+        return importMedicineRows(medicineImportService.fromJson(requests));
+    }
+
+    @PostMapping(value = "/medicines/bulk", consumes = "text/csv", produces = "application/x-ndjson")
+    @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> importMedicinesCsv(@RequestBody String csv) {
+        return importMedicineRows(medicineImportService.parseCsv(csv));
+    }
+
+    private ResponseEntity<StreamingResponseBody> importMedicineRows(List<MedicineImportService.ImportRow> rows) {
+        // Resolve the tenant on the request thread; the body is written asynchronously.
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        return NdjsonStreams.<MedicineImportEvent>events(objectMapper,
+                sink -> medicineImportService.importMedicines(orgId, branchId, rows, sink));
+    }
+
     @GetMapping("/medicines")
     @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
     public ResponseEntity<List<MedicineStockResponse>> listMedicines() {
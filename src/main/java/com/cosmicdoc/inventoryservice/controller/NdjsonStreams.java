@@ -0,0 +1,87 @@
+package com.cosmicdoc.inventoryservice.controller;
+
+import com.cosmicdoc.inventoryservice.dto.response.PageResponse;
+import com.cosmicdoc.inventoryservice.repository.CursorPager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Streams a cursor-paginated listing as newline-delimited JSON (one document per line).
+ * Pages are fetched and written one at a time, so memory stays flat no matter how
+ * many documents the branch has. Long-running jobs use the same format to stream
+ * their progress events.
+ */
+@Slf4j
+final class NdjsonStreams {
+
+    static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    @FunctionalInterface
+    interface PageFetcher<T> {
+        PageResponse<T> fetch(String cursor, int pageSize) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface EventProducer<T> {
+        void produce(Consumer<T> sink) throws Exception;
+    }
+
+    private NdjsonStreams() {}
+
+    static <T> ResponseEntity<StreamingResponseBody> stream(ObjectMapper objectMapper, PageFetcher<T> fetcher) {
+        StreamingResponseBody body = outputStream -> {
+            String cursor = null;
+            do {
+                PageResponse<T> page;
+                try {
+                    page = fetcher.fetch(cursor, CursorPager.MAX_PAGE_SIZE);
+                } catch (Exception e) {
+                    // Headers are already committed; the client sees a truncated stream.
+                    log.error("NDJSON stream aborted while fetching a page", e);
+                    throw new IOException("Failed to fetch the next page", e);
+                }
+                for (T item : page.getItems()) {
+                    outputStream.write(objectMapper.writeValueAsBytes(item));
+                    outputStream.write('\n');
+                }
+                outputStream.flush();
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Streams every event the producer emits as one line, flushing each immediately
+     * so the client sees progress while the job runs.
+     */
+    static <T> ResponseEntity<StreamingResponseBody> events(ObjectMapper objectMapper, EventProducer<T> producer) {
+        StreamingResponseBody body = outputStream -> {
+            try {
+                producer.produce(event -> {
+                    try {
+                        outputStream.write(objectMapper.writeValueAsBytes(event));
+                        outputStream.write('\n');
+                        outputStream.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (Exception e) {
+                // Headers are already committed; the client sees a truncated stream.
+                log.error("NDJSON event stream aborted", e);
+                throw new IOException("Job failed while streaming its progress", e);
+            }
+        };
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+}
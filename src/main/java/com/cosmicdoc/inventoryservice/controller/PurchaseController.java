@@ -3,18 +3,25 @@ package com.cosmicdoc.inventoryservice.controller;
 import com.cosmicdoc.common.model.Purchase;
 import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseRequest;
 import com.cosmicdoc.inventoryservice.dto.request.UpdatePurchaseRequest;
+import com.cosmicdoc.inventoryservice.dto.response.PageResponse;
+import com.cosmicdoc.inventoryservice.dto.response.PurchaseIngestionReport;
 import com.cosmicdoc.inventoryservice.dto.response.PurchaseDetailResponse;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.FirestoreFutures;
 import com.cosmicdoc.inventoryservice.security.SecurityUtils;
+import com.cosmicdoc.inventoryservice.service.PurchaseIngestionService;
 import com.cosmicdoc.inventoryservice.service.PurchaseService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @RestController
@@ -24,25 +31,46 @@ import java.util.concurrent.ExecutionException;
 public class PurchaseController {
 
     private final PurchaseService purchaseService;
+    private final PurchaseIngestionService purchaseIngestionService;
+    private final ObjectMapper objectMapper;
 
+    /**
+     * Returns as soon as the transaction is submitted; the request thread is released and
+     * the response is written when Firestore commits. The same goes for updates.
+     */
     @PostMapping("/")
     @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> createPurchase(@Valid @RequestBody CreatePurchaseRequest request) {
-        try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
-            Purchase newPurchase = purchaseService.createPurchase(orgId, branchId, userId, request);
-            return ResponseEntity.status(HttpStatus.CREATED).body(newPurchase);
-        } catch (ResourceNotFoundException e) {
-            // If the service throws this specific exception...
-            // ...return a 404 Not Found status with the error message.
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
-        } catch (Exception e) {
-            // If the service throws any other unexpected exception...
-            // ...return a 500 Internal Server Error.
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
-        }
+    public CompletableFuture<ResponseEntity<?>> createPurchase(@Valid @RequestBody CreatePurchaseRequest request) {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
+        return purchaseService.createPurchaseAsync(orgId, branchId, userId, request)
+                .<ResponseEntity<?>>thenApply(newPurchase -> ResponseEntity.status(HttpStatus.CREATED).body(newPurchase))
+                .exceptionally(e -> {
+                    Throwable cause = FirestoreFutures.unwrap(e);
+                    if (cause instanceof ResourceNotFoundException) {
+                        // If the service throws this specific exception...
+                        // ...return a 404 Not Found status with the error message.
+                        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(cause.getMessage());
+                    }
+                    // If the service throws any other unexpected exception...
+                    // ...return a 500 Internal Server Error.
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(cause.getMessage());
+                });
+    }
+
+    /**
+     * Ingests many purchase invoices in one job, e.g. a supplier's GRN backlog.
+     * Each invoice commits in its own transaction; the report lists the outcome of every invoice.
+     */
+    @PostMapping("/bulk")
+    @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
+    public ResponseEntity<PurchaseIngestionReport> ingestPurchases(@RequestBody List<CreatePurchaseRequest> requests)
+            throws ExecutionException, InterruptedException {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
+        return ResponseEntity.ok(purchaseIngestionService.ingest(orgId, branchId, userId, requests));
     }
 
     @GetMapping("/")
@@ -54,6 +82,32 @@ public class PurchaseController {
         return ResponseEntity.ok(purchases);
     }
 
+    /**
+     * Lists the branch's purchases one page at a time, newest invoice first.
+     * Prefer this over the unpaginated listing for branches with a long history.
+     */
+    @GetMapping("/page")
+    @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
+    public ResponseEntity<PageResponse<Purchase>> listPurchasesPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) throws ExecutionException, InterruptedException {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        return ResponseEntity.ok(purchaseService.getPurchasesPage(orgId, branchId, cursor, limit));
+    }
+
+    /**
+     * Streams every purchase of the branch as NDJSON, newest invoice first,
+     * without holding the full result set in memory.
+     */
+    @GetMapping(value = "/stream", produces = "application/x-ndjson")
+    @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> streamPurchases() {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        return NdjsonStreams.stream(objectMapper, (cursor, pageSize) -> purchaseService.getPurchasesPage(orgId, branchId, cursor, pageSize));
+    }
+
     @GetMapping("/{purchaseId}")
     @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
     public ResponseEntity<?> getPurchaseDetails(@PathVariable String purchaseId) {
@@ -69,21 +123,22 @@ public class PurchaseController {
 
     @PutMapping("/{purchaseId}")
     @PreAuthorize("hasAnyAuthority('ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> updatePurchase(
+    public CompletableFuture<ResponseEntity<?>> updatePurchase(
             @PathVariable String purchaseId,
             @Valid @RequestBody UpdatePurchaseRequest request) { // Use an Update DTO
-        try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
-            Purchase updatedPurchase = purchaseService.updatePurchase(orgId, branchId, userId, purchaseId, request);
-            return ResponseEntity.ok(updatedPurchase);
-        } catch (IllegalStateException e) {
-            // This catches errors like "Stock already sold"
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
-        } catch (ResourceNotFoundException | ExecutionException | InterruptedException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
-        }
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
+        return purchaseService.updatePurchaseAsync(orgId, branchId, userId, purchaseId, request)
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(e -> {
+                    Throwable cause = FirestoreFutures.unwrap(e);
+                    if (cause instanceof IllegalStateException) {
+                        // This catches errors like "Stock already sold"
+                        return ResponseEntity.status(HttpStatus.CONFLICT).body(cause.getMessage());
+                    }
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(cause.getMessage());
+                });
     }
 
     /**
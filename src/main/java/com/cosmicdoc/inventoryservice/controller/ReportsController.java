@@ -15,6 +15,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 @RestController
 @RequestMapping("/api/inventory/reports")
@@ -33,6 +34,19 @@ public class ReportsController {
         return ResponseEntity.ok(report);
     }
 
+    /**
+     * Recomputes the stock-by-category aggregates from the batches and repairs any drift.
+     * This is the same full scan the nightly job runs; use it sparingly.
+     */
+    @PostMapping("/stock-by-category/reconcile")
+    @PreAuthorize("hasAnyRole('ROLE_SUPER_ADMIN')")
+    public ResponseEntity<List<StockByCategoryResponse>> reconcileStockByCategory() {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        List<StockByCategoryResponse> report = reportingService.reconcileStockByCategory(orgId, branchId);
+        return ResponseEntity.ok(report);
+    }
+
     @GetMapping("/daily-sales")
     @PreAuthorize("hasAnyRole('ROLE_SUPER_ADMIN')")
     public ResponseEntity<DailySalesSummaryResponse> getDailySales(
@@ -43,15 +57,46 @@ public class ReportsController {
         return ResponseEntity.ok(report);
     }
 
+    /**
+     * One summary per day in [from, to] (at most 92 days), e.g. for a month dashboard.
+     */
+    @GetMapping("/daily-sales/range")
+    @PreAuthorize("hasAnyRole('ROLE_SUPER_ADMIN')")
+    public ResponseEntity<List<DailySalesSummaryResponse>> getDailySalesRange(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        List<DailySalesSummaryResponse> report = reportingService.getDailySalesSummaries(orgId, branchId, from, to);
+        return ResponseEntity.ok(report);
+    }
+
+    /**
+     * Recomputes the daily sales rollups from {@code from} up to today by scanning the sales.
+     * Run once to backfill history, or to repair drift; use it sparingly.
+     */
+    @PostMapping("/daily-sales/rebuild")
+    @PreAuthorize("hasAnyRole('ROLE_SUPER_ADMIN')")
+    public ResponseEntity<List<DailySalesSummaryResponse>> rebuildDailySales(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from) {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        List<DailySalesSummaryResponse> report = reportingService.rebuildDailySalesRollups(orgId, branchId, from);
+        return ResponseEntity.ok(report);
+    }
+
     @GetMapping("/{supplierId}")
     @PreAuthorize("hasAnyRole('ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> getSupplierLedgerDetails(@PathVariable String supplierId) {
+    public ResponseEntity<?> getSupplierLedgerDetails(@PathVariable String supplierId,
+                                                      @RequestParam(required = false) String cursor,
+                                                      @RequestParam(required = false) Integer limit)
+            throws ExecutionException, InterruptedException {
         try {
             String orgId = SecurityUtils.getOrganizationId();
             // Assuming ledger is branch-specific, but it could also be org-wide.
             String branchId = SecurityUtils.getBranchId();
 
-            SupplierLedgerResponse ledger = reportingService.getSupplierLedger(orgId, branchId, supplierId);
+            SupplierLedgerResponse ledger = reportingService.getSupplierLedger(orgId, branchId, supplierId, cursor, limit);
             return ResponseEntity.ok(ledger);
         } catch (ResourceNotFoundException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
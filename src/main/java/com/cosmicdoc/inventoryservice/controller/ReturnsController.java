@@ -1,12 +1,11 @@
 package com.cosmicdoc.inventoryservice.controller;
 
-import com.cosmicdoc.common.model.PurchaseReturn;
-import com.cosmicdoc.common.model.SalesReturn;
 import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseReturnRequest;
 import com.cosmicdoc.inventoryservice.dto.request.CreateSalesReturnRequest;
 import com.cosmicdoc.inventoryservice.dto.response.PurchaseReturnListResponse;
 import com.cosmicdoc.inventoryservice.dto.response.SalesReturnListResponse;
 import com.cosmicdoc.inventoryservice.exception.InsufficientStockException;
+import com.cosmicdoc.inventoryservice.repository.FirestoreFutures;
 import com.cosmicdoc.inventoryservice.security.SecurityUtils;
 import com.cosmicdoc.inventoryservice.service.ReturnsService;
 import jakarta.validation.Valid;
@@ -21,7 +20,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/inventory/returns")
@@ -81,22 +80,20 @@ public class ReturnsController {
 
     /**
      * Endpoint to record a sales return from a patient.
-     * This action increases stock levels.
+     * This action increases stock levels. Like the purchase return below, it returns once
+     * the transaction is submitted and responds when it commits.
      */
     @PostMapping("/sale")
     @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> createSalesReturn(@Valid @RequestBody CreateSalesReturnRequest request) {
-        try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
+    public CompletableFuture<ResponseEntity<?>> createSalesReturn(@Valid @RequestBody CreateSalesReturnRequest request) {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
 
-            SalesReturn newReturn = returnsService.processSalesReturn(orgId, branchId, userId, request);
-            return ResponseEntity.status(HttpStatus.CREATED).body(newReturn);
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("Error processing sales return: " + e.getMessage());
-        }
+        return returnsService.processSalesReturnAsync(orgId, branchId, userId, request)
+                .<ResponseEntity<?>>thenApply(newReturn -> ResponseEntity.status(HttpStatus.CREATED).body(newReturn))
+                .exceptionally(e -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body("Error processing sales return: " + FirestoreFutures.unwrap(e).getMessage()));
     }
 
     /**
@@ -105,20 +102,21 @@ public class ReturnsController {
      */
     @PostMapping("/purchase")
     @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')") // Only admins can return to supplier
-    public ResponseEntity<?> createPurchaseReturn(@Valid @RequestBody CreatePurchaseReturnRequest request) {
-        try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
+    public CompletableFuture<ResponseEntity<?>> createPurchaseReturn(@Valid @RequestBody CreatePurchaseReturnRequest request) {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
 
-            PurchaseReturn newReturn = returnsService.processPurchaseReturn(orgId, branchId, userId, request);
-            return ResponseEntity.status(HttpStatus.CREATED).body(newReturn);
-        } catch (InsufficientStockException e) {
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("Error processing purchase return: " + e.getMessage());
-        }
+        return returnsService.processPurchaseReturnAsync(orgId, branchId, userId, request)
+                .<ResponseEntity<?>>thenApply(newReturn -> ResponseEntity.status(HttpStatus.CREATED).body(newReturn))
+                .exceptionally(e -> {
+                    Throwable cause = FirestoreFutures.unwrap(e);
+                    if (cause instanceof InsufficientStockException) {
+                        return ResponseEntity.status(HttpStatus.CONFLICT).body(cause.getMessage());
+                    }
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body("Error processing purchase return: " + cause.getMessage());
+                });
     }
 
  }
\ No newline at end of file
@@ -5,18 +5,23 @@ import com.cosmicdoc.inventoryservice.dto.request.CreateOtcSaleRequest;
 import com.cosmicdoc.inventoryservice.dto.request.CreatePrescriptionSaleRequest;
 import com.cosmicdoc.inventoryservice.dto.request.UpdateOtcSaleRequest;
 import com.cosmicdoc.inventoryservice.dto.request.UpdatePrescriptionSaleRequest;
+import com.cosmicdoc.inventoryservice.dto.response.PageResponse;
 import com.cosmicdoc.inventoryservice.exception.InsufficientStockException;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.FirestoreFutures;
 import com.cosmicdoc.inventoryservice.security.SecurityUtils;
 import com.cosmicdoc.inventoryservice.service.SalesService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @RestController
@@ -26,37 +31,37 @@ import java.util.concurrent.ExecutionException;
 public class SalesController {
 
     private final SalesService salesService;
+    private final ObjectMapper objectMapper;
 
+    /**
+     * The sale and update endpoints return as soon as the transaction is submitted; the
+     * request thread is released and the response is written when Firestore commits.
+     */
     @PostMapping("/prescription")
     @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> createPrescriptionSale(@Valid @RequestBody CreatePrescriptionSaleRequest request) {
-        try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
-            Sale newSale = salesService.createPrescriptionSale(orgId, branchId, userId, request);
-            return ResponseEntity.status(HttpStatus.CREATED).body(newSale);
-        } catch (InsufficientStockException e) {
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while processing the sale.");
-        }
+    public CompletableFuture<ResponseEntity<?>> createPrescriptionSale(@Valid @RequestBody CreatePrescriptionSaleRequest request) {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
+        return salesService.createPrescriptionSaleAsync(orgId, branchId, userId, request)
+                .<ResponseEntity<?>>thenApply(newSale -> ResponseEntity.status(HttpStatus.CREATED).body(newSale))
+                .exceptionally(e -> {
+                    if (FirestoreFutures.unwrap(e) instanceof InsufficientStockException stockException) {
+                        return ResponseEntity.status(HttpStatus.CONFLICT).body(stockException.getMessage());
+                    }
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while processing the sale.");
+                });
     }
 
     @PostMapping("/otc")
     @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> createOtcSale(@Valid @RequestBody CreateOtcSaleRequest request) throws ExecutionException, InterruptedException {
-        //try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
-            Sale newSale = salesService.createOtcSale(orgId, branchId, userId, request);
-            return ResponseEntity.status(HttpStatus.CREATED).body(newSale);
-        /*} catch (InsufficientStockException e) {
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred while processing the sale.");
-        }*/
+    public CompletableFuture<ResponseEntity<Sale>> createOtcSale(@Valid @RequestBody CreateOtcSaleRequest request) {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
+        // Failures reach the GlobalExceptionHandler unwrapped, e.g. insufficient stock as a 409.
+        return salesService.createOtcSaleAsync(orgId, branchId, userId, request)
+                .thenApply(newSale -> ResponseEntity.status(HttpStatus.CREATED).body(newSale));
     }
 
     @GetMapping("/")
@@ -68,6 +73,32 @@ public class SalesController {
         return ResponseEntity.ok(sales);
     }
 
+    /**
+     * Lists the branch's sales one page at a time, newest first.
+     * Prefer this over the unpaginated listing for branches with a long history.
+     */
+    @GetMapping("/page")
+    @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
+    public ResponseEntity<PageResponse<Sale>> listSalesPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) throws ExecutionException, InterruptedException {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        return ResponseEntity.ok(salesService.getSalesPage(orgId, branchId, cursor, limit));
+    }
+
+    /**
+     * Streams every sale of the branch as NDJSON, newest first, without
+     * holding the full result set in memory.
+     */
+    @GetMapping(value = "/stream", produces = "application/x-ndjson")
+    @PreAuthorize("hasAnyAuthority('ROLE_ADMIN', 'ROLE_SUPER_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> streamSales() {
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        return NdjsonStreams.stream(objectMapper, (cursor, pageSize) -> salesService.getSalesPage(orgId, branchId, cursor, pageSize));
+    }
+
     @GetMapping("/{saleId}")
     public ResponseEntity<?> getSaleDetails(@PathVariable String saleId) {
         try {
@@ -112,54 +143,44 @@ public class SalesController {
      */
     @PutMapping("/otc/{saleId}")
     @PreAuthorize("hasAuthority('ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> updateOtcSale(
+    public CompletableFuture<ResponseEntity<?>> updateOtcSale(
             @PathVariable String saleId,
             @Valid @RequestBody UpdateOtcSaleRequest request) {
 
-        try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
-
-            Sale updatedSale = salesService.updateOtcSale(orgId, branchId, userId, saleId, request);
-
-            return ResponseEntity.ok(updatedSale);
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
 
-        } catch (IllegalStateException e) {
-            // Catches business logic errors like "Stock already used".
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
-        } catch (ResourceNotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
-        } catch (Exception e) {
-            // In a real app, you would log this exception.
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An unexpected error occurred during the sale update.");
-        }
+        return salesService.updateOtcSaleAsync(orgId, branchId, userId, saleId, request)
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(SalesController::saleUpdateError);
     }
 
     @PutMapping("/prescription/{saleId}")
     @PreAuthorize("hasAuthority('ROLE_SUPER_ADMIN')")
-    public ResponseEntity<?> updatePrescriptionSale(
+    public CompletableFuture<ResponseEntity<?>> updatePrescriptionSale(
             @PathVariable String saleId,
             @Valid @RequestBody UpdatePrescriptionSaleRequest request) {
 
-        try {
-            String orgId = SecurityUtils.getOrganizationId();
-            String branchId = SecurityUtils.getBranchId();
-            String userId = SecurityUtils.getUserId();
-
-            Sale updatedSale = salesService.updatePrescriptionSale(orgId, branchId, userId, saleId, request);
+        String orgId = SecurityUtils.getOrganizationId();
+        String branchId = SecurityUtils.getBranchId();
+        String userId = SecurityUtils.getUserId();
 
-            return ResponseEntity.ok(updatedSale);
+        return salesService.updatePrescriptionSaleAsync(orgId, branchId, userId, saleId, request)
+                .<ResponseEntity<?>>thenApply(ResponseEntity::ok)
+                .exceptionally(SalesController::saleUpdateError);
+    }
 
-        } catch (IllegalStateException e) {
+    private static ResponseEntity<?> saleUpdateError(Throwable e) {
+        Throwable cause = FirestoreFutures.unwrap(e);
+        if (cause instanceof IllegalStateException) {
             // Catches business logic errors like "Stock already used".
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
-        } catch (ResourceNotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
-        } catch (Exception e) {
-            // In a real app, you would log this exception.
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An unexpected error occurred during the sale update.");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(cause.getMessage());
+        }
+        if (cause instanceof ResourceNotFoundException) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(cause.getMessage());
         }
+        // In a real app, you would log this exception.
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An unexpected error occurred during the sale update.");
     }
-
 }
\ No newline at end of file
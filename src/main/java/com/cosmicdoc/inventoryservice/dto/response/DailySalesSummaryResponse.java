@@ -1,9 +1,12 @@
 package com.cosmicdoc.inventoryservice.dto.response;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.LocalDate;
+import java.util.Map;
 
 @Data
 @Builder
@@ -13,4 +16,29 @@ public class DailySalesSummaryResponse {
     private LocalDate date;
     private double totalSales;
     private int transactionCount;
+    private double totalTaxableAmount;
+    private double totalTaxAmount;
+    private double totalDiscountAmount;
+    // Keyed by hour of day ("00".."23") in the reporting time zone.
+    private Map<String, SalesBucket> hourly;
+    private Map<String, SalesBucket> paymentModes;
+    private Map<String, SalesBucket> gstTypes;
+    // Keyed by tax rate, with '_' as the decimal separator (e.g. "12", "2_5").
+    private Map<String, TaxBucket> taxByRate;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SalesBucket {
+        private double totalSales;
+        private long transactionCount;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TaxBucket {
+        private double taxableAmount;
+        private double taxAmount;
+    }
 }
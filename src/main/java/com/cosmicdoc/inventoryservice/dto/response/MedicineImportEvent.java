@@ -0,0 +1,30 @@
+package com.cosmicdoc.inventoryservice.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * One line of the NDJSON stream returned by the bulk medicine import.
+ * <ul>
+ *     <li>ROW_FAILED: {@code row} (1-based data row), {@code name} and {@code message}.</li>
+ *     <li>PROGRESS: running {@code processed}/{@code total}, {@code created} and {@code failed} counts.</li>
+ *     <li>SUMMARY: the final counts; always the last line.</li>
+ * </ul>
+ */
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MedicineImportEvent {
+
+    public enum Type { ROW_FAILED, PROGRESS, SUMMARY }
+
+    private Type type;
+    private Integer row;
+    private String name;
+    private String message;
+    private Integer processed;
+    private Integer total;
+    private Integer created;
+    private Integer failed;
+}
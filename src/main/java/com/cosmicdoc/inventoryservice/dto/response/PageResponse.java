@@ -0,0 +1,18 @@
+package com.cosmicdoc.inventoryservice.dto.response;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of a cursor-paginated listing. Pass {@code nextCursor} back as the
+ * {@code cursor} request parameter to fetch the following page; it is null on the last page.
+ */
+@Data
+@Builder
+public class PageResponse<T> {
+    private List<T> items;
+    private String nextCursor;
+    private int pageSize;
+}
@@ -0,0 +1,36 @@
+package com.cosmicdoc.inventoryservice.dto.response;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk purchase ingestion job: one result per submitted invoice, in
+ * submission order.
+ */
+@Data
+@Builder
+public class PurchaseIngestionReport {
+
+    public enum Status { CREATED, FAILED }
+
+    private String jobId;
+    private int total;
+    private int created;
+    private int failed;
+    private long durationMillis;
+    private List<InvoiceResult> invoices;
+
+    @Data
+    @Builder
+    public static class InvoiceResult {
+        // 0-based position of the invoice in the submitted array.
+        private int index;
+        private String supplierId;
+        private String referenceId;
+        private Status status;
+        private String purchaseId;
+        private String message;
+    }
+}
@@ -19,8 +19,10 @@ public class SupplierLedgerResponse {
     private double outstandingBalance;
 
     // --- Transaction History ---
-    // This will be a list of purchases and returns
+    // One page of purchases and returns, newest first
     private List<TransactionSummaryDto> transactions;
 
-    // TODO: Add pagination info here (page number, total pages, etc.)
+    // --- Pagination ---
+    private String nextCursor; // Pass back as ?cursor= for the next page; null on the last page
+    private int pageSize;
 }
\ No newline at end of file
@@ -14,4 +14,5 @@ public class TransactionSummaryDto {
     private double invoiceAmount; // The total value of the transaction
     private double amountPaid; // For purchases
     private double amountCredited; // For returns
+    private double runningBalance; // Balance of the ledger just after this transaction
 }
\ No newline at end of file
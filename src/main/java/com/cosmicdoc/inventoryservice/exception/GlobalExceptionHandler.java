@@ -1,5 +1,6 @@
 package com.cosmicdoc.inventoryservice.exception;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -56,6 +57,18 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.CONFLICT);
     }
 
+    /**
+     * Handles TransactionQueueFullException: the request was not applied and can be
+     * retried shortly, as the Retry-After header says.
+     */
+    @ExceptionHandler(TransactionQueueFullException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ResponseEntity<String> handleTransactionQueueFullException(TransactionQueueFullException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(ex.getMessage());
+    }
+
     /**
      * Handles IllegalStateException, which we use for business rule violations.
      * For example, trying to delete a supplier with an outstanding balance.
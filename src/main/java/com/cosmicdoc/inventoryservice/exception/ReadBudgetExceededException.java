@@ -0,0 +1,18 @@
+package com.cosmicdoc.inventoryservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a request read more Firestore documents than
+ * {@code app.firestore-usage.read-budget} allows and
+ * {@code app.firestore-usage.fail-over-budget} is set, so tests can catch
+ * endpoints whose read cost has regressed.
+ */
+@ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
+public class ReadBudgetExceededException extends RuntimeException {
+
+    public ReadBudgetExceededException(String message) {
+        super(message);
+    }
+}
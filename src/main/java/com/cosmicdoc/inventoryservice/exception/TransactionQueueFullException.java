@@ -0,0 +1,17 @@
+package com.cosmicdoc.inventoryservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a transaction is not started because too many transactions on the same
+ * medicines or supplier are already queued on this instance. Nothing was written, so
+ * the request can be retried as is; it maps to a 503 Service Unavailable.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class TransactionQueueFullException extends RuntimeException {
+
+    public TransactionQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,117 @@
+package com.cosmicdoc.inventoryservice.filter;
+
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Counts the Firestore documents each request reads and writes (see {@link FirestoreUsage}).
+ * <ul>
+ *     <li>{@code X-Firestore-Reads} / {@code X-Firestore-Writes} response headers, set by
+ *     {@link FirestoreUsageResponseAdvice} when the body is written</li>
+ *     <li>{@code inventory.request.reads} / {@code writes} metrics, per endpoint
+ *     ({@code method} and {@code uri} pattern)</li>
+ *     <li>an optional read budget per request ({@code app.firestore-usage.read-budget},
+ *     0 for none): requests over it are logged and counted in
+ *     {@code inventory.request.read.budget.exceeded}</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class FirestoreUsageFilter extends OncePerRequestFilter {
+
+    public static final String USAGE_ATTRIBUTE = FirestoreUsage.class.getName();
+    public static final String READS_HEADER = "X-Firestore-Reads";
+    public static final String WRITES_HEADER = "X-Firestore-Writes";
+
+    private final MeterRegistry meterRegistry;
+    private final long readBudget;
+
+    public FirestoreUsageFilter(MeterRegistry meterRegistry,
+                                @Value("${app.firestore-usage.read-budget:0}") long readBudget) {
+        this.meterRegistry = meterRegistry;
+        this.readBudget = readBudget;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        FirestoreUsage usage = new FirestoreUsage();
+        request.setAttribute(USAGE_ATTRIBUTE, usage);
+        FirestoreUsage previous = FirestoreUsage.bind(usage);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            FirestoreUsage.restore(previous);
+        }
+
+        if (request.isAsyncStarted()) {
+            // CompletableFuture endpoints: the reads are done once the async response completes.
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    record(request, usage);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            // Bodiless responses never reach the advice.
+            if (!response.isCommitted() && !response.containsHeader(READS_HEADER)) {
+                response.setHeader(READS_HEADER, String.valueOf(usage.readCount()));
+                response.setHeader(WRITES_HEADER, String.valueOf(usage.writeCount()));
+            }
+            record(request, usage);
+        }
+    }
+
+    private void record(HttpServletRequest request, FirestoreUsage usage) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+        DistributionSummary.builder("inventory.request.reads")
+                .tag("method", request.getMethod())
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .record(usage.readCount());
+        DistributionSummary.builder("inventory.request.writes")
+                .tag("method", request.getMethod())
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .record(usage.writeCount());
+
+        if (readBudget > 0 && usage.readCount() > readBudget) {
+            log.warn("{} {} read {} Firestore documents, over the budget of {}",
+                    request.getMethod(), uri, usage.readCount(), readBudget);
+            Counter.builder("inventory.request.read.budget.exceeded")
+                    .tag("method", request.getMethod())
+                    .tag("uri", uri)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.cosmicdoc.inventoryservice.filter;
+
+import com.cosmicdoc.inventoryservice.exception.ReadBudgetExceededException;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import jakarta.servlet.DispatcherType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Adds the {@code X-Firestore-Reads} / {@code X-Firestore-Writes} headers just before a
+ * response body is written, which for CompletableFuture endpoints is after the work is
+ * done, unlike the end of {@link FirestoreUsageFilter}.
+ * <p>
+ * With {@code app.firestore-usage.fail-over-budget=true} (meant for tests) a response
+ * over the read budget is replaced by a 500, so a test that calls an endpoint fails
+ * as soon as its read cost regresses.
+ */
+@ControllerAdvice
+public class FirestoreUsageResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    private final long readBudget;
+    private final boolean failOverBudget;
+
+    public FirestoreUsageResponseAdvice(@Value("${app.firestore-usage.read-budget:0}") long readBudget,
+                                        @Value("${app.firestore-usage.fail-over-budget:false}") boolean failOverBudget) {
+        this.readBudget = readBudget;
+        this.failOverBudget = failOverBudget;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(request instanceof ServletServerHttpRequest servletRequest)
+                || !(servletRequest.getServletRequest().getAttribute(FirestoreUsageFilter.USAGE_ATTRIBUTE) instanceof FirestoreUsage usage)) {
+            return body;
+        }
+        response.getHeaders().set(FirestoreUsageFilter.READS_HEADER, String.valueOf(usage.readCount()));
+        response.getHeaders().set(FirestoreUsageFilter.WRITES_HEADER, String.valueOf(usage.writeCount()));
+        // Not again for the error page rendering the failure itself.
+        boolean errorDispatch = servletRequest.getServletRequest().getDispatcherType() == DispatcherType.ERROR;
+        if (failOverBudget && readBudget > 0 && usage.readCount() > readBudget && !errorDispatch) {
+            throw new ReadBudgetExceededException(request.getMethod() + " " + request.getURI().getPath() + " read "
+                    + usage.readCount() + " Firestore documents, over the budget of " + readBudget);
+        }
+        return body;
+    }
+}
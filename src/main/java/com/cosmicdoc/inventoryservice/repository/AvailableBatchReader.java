@@ -0,0 +1,170 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.common.model.MedicineBatch;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.*;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads the available (quantity > 0) batches of many medicines inside a single
+ * transaction, issuing all per-medicine queries concurrently instead of one
+ * after the other.
+ * <p>
+ * A 15-line sale used to cost 15 sequential round trips; with this reader it
+ * costs roughly one, regardless of the number of lines.
+ * <p>
+ * {@link #totalAvailableByMedicine} does the same for a whole branch outside a
+ * transaction. It is a collection-group query over batches, scoped to the branch by
+ * document path, and needs the collection-group scope enabled for the automatic
+ * single-field index on batches.__name__.
+ */
+@Component
+@RequiredArgsConstructor
+public class AvailableBatchReader {
+
+    private static final Comparator<MedicineBatch> FEFO_ORDER = Comparator
+            .comparing(MedicineBatch::getExpiryDate, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(MedicineBatch::getBatchId);
+
+    private static final String FIELD_QUANTITY_AVAILABLE = "quantityAvailable";
+
+    // A branch reconcile sums thousands of medicines; this keeps it within RPC quotas.
+    private static final int MAX_AGGREGATIONS_IN_FLIGHT = 100;
+
+    private final Firestore firestore;
+
+    /**
+     * Fetches the available batches of every given medicine in one concurrent read.
+     *
+     * @return medicineId -> available batches in FEFO (earliest expiry first) order.
+     *         Every requested medicine is present, with an empty list if it has no stock.
+     */
+    public Map<String, List<MedicineBatch>> findAvailableBatches(Transaction transaction, String orgId, String branchId,
+                                                                 Collection<String> medicineIds)
+            throws ExecutionException, InterruptedException {
+
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(medicineIds));
+        if (distinctIds.isEmpty()) return new HashMap<>();
+
+        // 1. Fire every query before waiting on any of them.
+        List<ApiFuture<QuerySnapshot>> futures = new ArrayList<>(distinctIds.size());
+        for (String medicineId : distinctIds) {
+            Query query = FirestorePaths.batches(firestore, orgId, branchId, medicineId)
+                    .whereGreaterThan(FIELD_QUANTITY_AVAILABLE, 0);
+            futures.add(transaction.get(query));
+        }
+
+        // 2. Wait once for all of them and group the results by medicine.
+        List<QuerySnapshot> snapshots = ApiFutures.allAsList(futures).get();
+        Map<String, List<MedicineBatch>> medicineToBatchesMap = new HashMap<>();
+        for (int i = 0; i < distinctIds.size(); i++) {
+            // Firestore bills a query that matches nothing as one read.
+            FirestoreUsage.reads(Math.max(1, snapshots.get(i).size()));
+            List<MedicineBatch> batches = new ArrayList<>();
+            for (QueryDocumentSnapshot doc : snapshots.get(i).getDocuments()) {
+                MedicineBatch batch = doc.toObject(MedicineBatch.class);
+                if (batch.getBatchId() == null) batch.setBatchId(doc.getId());
+                batches.add(batch);
+            }
+            // Sorted here rather than with orderBy() so the query needs no composite index.
+            batches.sort(FEFO_ORDER);
+            medicineToBatchesMap.put(distinctIds.get(i), batches);
+        }
+        return medicineToBatchesMap;
+    }
+
+    /**
+     * Sums quantityAvailable over every batch of the branch in one query, fetching only
+     * that field.
+     *
+     * @return medicineId -> units available; medicines without batches are absent.
+     */
+    public Map<String, Integer> totalAvailableByMedicine(String orgId, String branchId)
+            throws ExecutionException, InterruptedException {
+        DocumentReference branch = FirestorePaths.branch(firestore, orgId, branchId);
+        // Document paths order segment by segment, so every path under the branch sorts
+        // between the branch itself and its last possible child document. A plain string
+        // prefix bound would also take in sibling branches and orgs sharing the id's prefix
+        // (branch_1 would include branch_10). The bound needs an even number of segments
+        // to be a document path, hence the two sentinel segments.
+        Query query = firestore.collectionGroup(FirestorePaths.BATCHES)
+                .orderBy(FieldPath.documentId())
+                .startAt(branch.getPath())
+                .endAt(branch.getPath() + "/\uf8ff/\uf8ff")
+                .select(FIELD_QUANTITY_AVAILABLE);
+        QuerySnapshot snapshot = query.get().get();
+        FirestoreUsage.reads(Math.max(1, snapshot.size()));
+
+        // One mutable cell per medicine, so the pass over the batches does not box.
+        Map<String, int[]> totals = new HashMap<>();
+        for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+            Long quantity = doc.getLong(FIELD_QUANTITY_AVAILABLE);
+            if (quantity == null) continue;
+            String medicineId = doc.getReference().getParent().getParent().getId();
+            totals.computeIfAbsent(medicineId, id -> new int[1])[0] += quantity.intValue();
+        }
+        Map<String, Integer> result = new HashMap<>(totals.size() * 2);
+        totals.forEach((medicineId, total) -> result.put(medicineId, total[0]));
+        return result;
+    }
+
+    /**
+     * The units available across all batches of one medicine, summed by Firestore.
+     */
+    public long sumAvailable(String orgId, String branchId, String medicineId) {
+        return sumAvailable(null, orgId, branchId, medicineId);
+    }
+
+    /**
+     * {@link #sumAvailable(String, String, String)} as a read of {@code transaction}, or
+     * outside any transaction when it is null.
+     */
+    public long sumAvailable(Transaction transaction, String orgId, String branchId, String medicineId) {
+        return sumAvailable(transaction, orgId, branchId, List.of(medicineId)).get(medicineId);
+    }
+
+    /**
+     * The units available across all batches of each medicine, one sum() aggregation per
+     * medicine, at most {@value #MAX_AGGREGATIONS_IN_FLIGHT} in flight at a time. Only the
+     * sums are transferred, not the batches.
+     *
+     * @return medicineId -> units available, for every requested medicine.
+     */
+    public Map<String, Long> sumAvailable(String orgId, String branchId, Collection<String> medicineIds) {
+        return sumAvailable(null, orgId, branchId, medicineIds);
+    }
+
+    /**
+     * {@link #sumAvailable(String, String, Collection)} as reads of {@code transaction},
+     * or outside any transaction when it is null.
+     */
+    public Map<String, Long> sumAvailable(Transaction transaction, String orgId, String branchId, Collection<String> medicineIds) {
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(medicineIds));
+        Map<String, Long> result = new HashMap<>();
+        for (int from = 0; from < distinctIds.size(); from += MAX_AGGREGATIONS_IN_FLIGHT) {
+            List<String> window = distinctIds.subList(from, Math.min(from + MAX_AGGREGATIONS_IN_FLIGHT, distinctIds.size()));
+            List<ApiFuture<Long>> futures = new ArrayList<>(window.size());
+            for (String medicineId : window) {
+                futures.add(FirestoreAggregates.sum(transaction, FirestorePaths.batches(firestore, orgId, branchId, medicineId), FIELD_QUANTITY_AVAILABLE));
+            }
+            List<Long> sums;
+            try {
+                sums = ApiFutures.allAsList(futures).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while summing batch stock", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to sum batch stock", e.getCause());
+            }
+            for (int i = 0; i < window.size(); i++) {
+                result.put(window.get(i), sums.get(i));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.common.model.Medicine;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the net stock change per medicine category during one write
+ * operation, so the category aggregates can be updated with a single increment
+ * per category at the end of the transaction.
+ * <p>
+ * Medicines without a category are ignored, matching the stock-by-category report.
+ */
+public final class CategoryStockDelta {
+
+    private final Map<String, String> categoryByMedicineId = new HashMap<>();
+    private final Map<String, Long> deltaByCategory = new HashMap<>();
+
+    public CategoryStockDelta(Collection<Medicine> medicines) {
+        for (Medicine medicine : medicines) {
+            if (medicine != null && medicine.getCategory() != null) {
+                categoryByMedicineId.put(medicine.getMedicineId(), medicine.getCategory());
+            }
+        }
+    }
+
+    /**
+     * Records a stock change (positive when stock is added, negative when removed).
+     */
+    public CategoryStockDelta add(String medicineId, long quantity) {
+        String category = categoryByMedicineId.get(medicineId);
+        if (category != null && quantity != 0) {
+            deltaByCategory.merge(category, quantity, Long::sum);
+        }
+        return this;
+    }
+
+    public Map<String, Long> deltas() {
+        return Collections.unmodifiableMap(deltaByCategory);
+    }
+}
@@ -0,0 +1,96 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.inventoryservice.dto.response.PageResponse;
+import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keyset (cursor) pagination over a collection ordered newest first by a
+ * timestamp field, with the document ID as tie-breaker, e.g. (saleDate, saleId).
+ * <p>
+ * The cursor is an opaque, URL-safe token encoding the (timestamp, documentId) of
+ * the last document on the page, so every page costs exactly {@code pageSize + 1}
+ * document reads no matter how deep the client pages.
+ */
+public final class CursorPager {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
+    private CursorPager() {}
+
+    /**
+     * Clamps a client-requested page size into [1, MAX_PAGE_SIZE].
+     */
+    public static int pageSize(Integer requested) {
+        if (requested == null || requested <= 0) return DEFAULT_PAGE_SIZE;
+        return Math.min(requested, MAX_PAGE_SIZE);
+    }
+
+    public static <T> PageResponse<T> fetchPage(CollectionReference collection, String dateField, String cursor,
+                                                int pageSize, Class<T> type)
+            throws ExecutionException, InterruptedException {
+
+        // Read one extra document to know whether another page exists.
+        List<QueryDocumentSnapshot> docs = after(collection, dateField, cursor).limit(pageSize + 1).get().get().getDocuments();
+        boolean hasMore = docs.size() > pageSize;
+        List<QueryDocumentSnapshot> pageDocs = hasMore ? docs.subList(0, pageSize) : docs;
+
+        List<T> items = new ArrayList<>(pageDocs.size());
+        for (QueryDocumentSnapshot doc : pageDocs) {
+            items.add(doc.toObject(type));
+        }
+
+        String nextCursor = hasMore ? cursorOf(pageDocs.get(pageDocs.size() - 1), dateField) : null;
+        return PageResponse.<T>builder().items(items).nextCursor(nextCursor).pageSize(pageSize).build();
+    }
+
+    /**
+     * {@code query} (e.g. a collection filtered by a field) in page order, starting after
+     * the document {@code cursor} points at, or from the newest when it is null. A filtered
+     * query needs a composite index on (filter field, dateField desc, __name__ desc).
+     */
+    public static Query after(Query query, String dateField, String cursor) {
+        Query ordered = query
+                .orderBy(dateField, Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+        if (cursor == null || cursor.isBlank()) return ordered;
+        Object[] position = decode(cursor);
+        return ordered.startAfter(position[0], position[1]);
+    }
+
+    /**
+     * The cursor that resumes a query from {@link #after} just after {@code doc}.
+     */
+    public static String cursorOf(DocumentSnapshot doc, String dateField) {
+        return encode(doc.getTimestamp(dateField), doc.getId());
+    }
+
+    static String encode(Timestamp timestamp, String documentId) {
+        String raw = timestamp.getSeconds() + "." + timestamp.getNanos() + ":" + documentId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the (timestamp, documentId) encoded in {@code cursor}.
+     * @throws InvalidRequestException if it is not a cursor of this pager.
+     */
+    static Object[] decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int idSeparator = raw.indexOf(':');
+            String[] instant = raw.substring(0, idSeparator).split("\\.");
+            Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(Long.parseLong(instant[0]), Integer.parseInt(instant[1]));
+            return new Object[]{timestamp, raw.substring(idSeparator + 1)};
+        } catch (RuntimeException e) {
+            throw new InvalidRequestException("Invalid pagination cursor.");
+        }
+    }
+}
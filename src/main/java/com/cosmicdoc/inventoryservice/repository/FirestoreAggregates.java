@@ -0,0 +1,95 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.AggregateField;
+import com.google.cloud.firestore.AggregateQuery;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.Transaction;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Server-side aggregation queries: Firestore computes the result over its index and
+ * only that number crosses the wire. Billed as one read per 1000 index entries
+ * matched (at least one), instead of one per document.
+ * <p>
+ * Each sum also counts the documents it matched, at no extra cost, so the reads are
+ * recorded as billed once the result arrives.
+ */
+public final class FirestoreAggregates {
+
+    private static final long INDEX_ENTRIES_PER_READ = 1000;
+
+    private FirestoreAggregates() {}
+
+    /**
+     * The sum of a numeric field over the documents matching {@code query}; 0 when none
+     * match. Documents where the field is missing or not a number are skipped.
+     */
+    public static ApiFuture<Long> sum(Query query, String field) {
+        return sum(null, query, field);
+    }
+
+    /**
+     * {@link #sum(Query, String)} as a read of {@code transaction}, or outside any
+     * transaction when it is null.
+     */
+    public static ApiFuture<Long> sum(Transaction transaction, Query query, String field) {
+        AggregateField sum = AggregateField.sum(field);
+        AggregateField count = AggregateField.count();
+        AggregateQuery aggregate = query.aggregate(sum, count);
+        FirestoreUsage usage = FirestoreUsage.current();
+        return ApiFutures.transform(transaction != null ? transaction.get(aggregate) : aggregate.get(), snapshot -> {
+            recordReads(usage, snapshot.getLong(count));
+            Long value = snapshot.getLong(sum);
+            return value != null ? value : 0L;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * The sum of a decimal field, e.g. an amount in rupees, over the documents matching
+     * {@code query}; 0 when none match.
+     */
+    public static ApiFuture<Double> sumDecimal(Query query, String field) {
+        return sumDecimal(null, query, field);
+    }
+
+    /**
+     * {@link #sumDecimal(Query, String)} as a read of {@code transaction}, or outside any
+     * transaction when it is null.
+     */
+    public static ApiFuture<Double> sumDecimal(Transaction transaction, Query query, String field) {
+        AggregateField sum = AggregateField.sum(field);
+        AggregateField count = AggregateField.count();
+        AggregateQuery aggregate = query.aggregate(sum, count);
+        FirestoreUsage usage = FirestoreUsage.current();
+        return ApiFutures.transform(transaction != null ? transaction.get(aggregate) : aggregate.get(), snapshot -> {
+            recordReads(usage, snapshot.getLong(count));
+            Double value = snapshot.getDouble(sum);
+            return value != null ? value : 0.0;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * The number of documents matching {@code query}.
+     */
+    public static ApiFuture<Long> count(Query query) {
+        FirestoreUsage usage = FirestoreUsage.current();
+        return ApiFutures.transform(query.count().get(), snapshot -> {
+            recordReads(usage, snapshot.getCount());
+            return snapshot.getCount();
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Runs on the thread that completed the RPC, so the caller's usage is bound explicitly.
+    private static void recordReads(FirestoreUsage usage, Long indexEntries) {
+        long entries = indexEntries != null ? indexEntries : 0L;
+        int reads = (int) Math.max(1, (entries + INDEX_ENTRIES_PER_READ - 1) / INDEX_ENTRIES_PER_READ);
+        FirestoreUsage previous = FirestoreUsage.bind(usage);
+        try {
+            FirestoreUsage.reads(reads);
+        } finally {
+            FirestoreUsage.restore(previous);
+        }
+    }
+}
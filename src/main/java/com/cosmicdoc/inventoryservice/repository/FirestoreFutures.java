@@ -0,0 +1,59 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bridges Firestore's {@link ApiFuture} to {@link CompletableFuture}, so a transaction
+ * can be composed with the work that follows its commit and handed to an async
+ * controller endpoint without a request thread waiting on it.
+ */
+public final class FirestoreFutures {
+
+    private FirestoreFutures() {}
+
+    /**
+     * Completes with the future's value, or exceptionally with the exception the
+     * transaction function threw (not wrapped). Cancelling the returned future cancels
+     * the Firestore one.
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                future.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(unwrap(t));
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    /**
+     * Strips the {@link ExecutionException} / {@link CompletionException} layers futures
+     * add, e.g. to map the original ResourceNotFoundException to a 404.
+     */
+    public static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,105 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+
+import java.util.Collection;
+
+/**
+ * Central place for the Firestore document layout used by this service.
+ * <p>
+ * The collection names MUST stay in sync with the repository implementations
+ * in cosmicdoc-common, which own the same documents.
+ */
+public final class FirestorePaths {
+
+    public static final String ORGANIZATIONS = "organizations";
+    public static final String BRANCHES = "branches";
+    public static final String MEDICINES = "medicines";
+    public static final String BATCHES = "batches";
+    public static final String STOCK_SHARDS = "stockShards";
+    public static final String STOCK_AGGREGATES = "stockAggregates";
+    public static final String SALES = "sales";
+    public static final String PURCHASES = "purchases";
+    public static final String PURCHASE_RETURNS = "purchaseReturns";
+    public static final String SUPPLIERS = "suppliers";
+    public static final String CACHE_VERSIONS = "cacheVersions";
+    public static final String MEDICINE_NAMES = "medicineNames";
+    public static final String SUPPLIER_NAMES = "supplierNames";
+    public static final String SCHEDULER_LEASES = "schedulerLeases";
+
+    private FirestorePaths() {}
+
+    public static DocumentReference organization(Firestore firestore, String orgId) {
+        return firestore.collection(ORGANIZATIONS).document(orgId);
+    }
+
+    public static DocumentReference branch(Firestore firestore, String orgId, String branchId) {
+        return organization(firestore, orgId).collection(BRANCHES).document(branchId);
+    }
+
+    public static DocumentReference medicine(Firestore firestore, String orgId, String branchId, String medicineId) {
+        return branch(firestore, orgId, branchId).collection(MEDICINES).document(medicineId);
+    }
+
+    /**
+     * References to the given medicines, in order, for a single {@code getAll} round trip.
+     */
+    public static DocumentReference[] medicines(Firestore firestore, String orgId, String branchId, Collection<String> medicineIds) {
+        return medicineIds.stream()
+                .map(medicineId -> medicine(firestore, orgId, branchId, medicineId))
+                .toArray(DocumentReference[]::new);
+    }
+
+    public static CollectionReference batches(Firestore firestore, String orgId, String branchId, String medicineId) {
+        return medicine(firestore, orgId, branchId, medicineId).collection(BATCHES);
+    }
+
+    public static DocumentReference batch(Firestore firestore, String orgId, String branchId, String medicineId, String batchId) {
+        return batches(firestore, orgId, branchId, medicineId).document(batchId);
+    }
+
+    public static CollectionReference stockShards(Firestore firestore, String orgId, String branchId, String medicineId) {
+        return medicine(firestore, orgId, branchId, medicineId).collection(STOCK_SHARDS);
+    }
+
+    public static CollectionReference sales(Firestore firestore, String orgId, String branchId) {
+        return branch(firestore, orgId, branchId).collection(SALES);
+    }
+
+    public static CollectionReference purchases(Firestore firestore, String orgId, String branchId) {
+        return branch(firestore, orgId, branchId).collection(PURCHASES);
+    }
+
+    public static CollectionReference purchaseReturns(Firestore firestore, String orgId, String branchId) {
+        return branch(firestore, orgId, branchId).collection(PURCHASE_RETURNS);
+    }
+
+    public static CollectionReference stockAggregates(Firestore firestore, String orgId, String branchId) {
+        return branch(firestore, orgId, branchId).collection(STOCK_AGGREGATES);
+    }
+
+    public static DocumentReference supplier(Firestore firestore, String orgId, String supplierId) {
+        return organization(firestore, orgId).collection(SUPPLIERS).document(supplierId);
+    }
+
+    public static DocumentReference cacheVersion(Firestore firestore, String orgId, String cacheName) {
+        return organization(firestore, orgId).collection(CACHE_VERSIONS).document(cacheName);
+    }
+
+    public static CollectionReference medicineNames(Firestore firestore, String orgId, String branchId) {
+        return branch(firestore, orgId, branchId).collection(MEDICINE_NAMES);
+    }
+
+    public static CollectionReference supplierNames(Firestore firestore, String orgId) {
+        return organization(firestore, orgId).collection(SUPPLIER_NAMES);
+    }
+
+    /**
+     * The lease of a scheduled job that only one instance may run at a time; global, not per organization.
+     */
+    public static DocumentReference schedulerLease(Firestore firestore, String jobName) {
+        return firestore.collection(SCHEDULER_LEASES).document(jobName);
+    }
+}
@@ -0,0 +1,93 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Firestore documents read and writes issued on behalf of one HTTP request, which is
+ * what Firestore bills and throttles on.
+ * <p>
+ * Everything that talks to Firestore reports here: the common repositories through
+ * {@link FirestoreUsageProxy}, and this service's own repositories and direct
+ * transaction reads explicitly. A report counts towards the usage bound to the current
+ * thread, if any, and towards the current {@link TransactionRunner} attempt, if any.
+ * The usage is bound by {@code FirestoreUsageFilter} on the request thread; work that
+ * moves to other threads carries it along with {@link #wrap} (transactions are carried
+ * by {@link TransactionRunner}).
+ * <p>
+ * Read counts follow Firestore billing: one per document returned, and one for a query
+ * that returns nothing.
+ */
+public final class FirestoreUsage {
+
+    private static final ThreadLocal<FirestoreUsage> CURRENT = new ThreadLocal<>();
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    /**
+     * Counts {@code documents} documents read.
+     */
+    public static void reads(int documents) {
+        FirestoreUsage usage = CURRENT.get();
+        if (usage != null) usage.reads.addAndGet(documents);
+        TransactionStats.add(documents, 0);
+    }
+
+    /**
+     * Counts {@code count} document writes, staged or committed.
+     */
+    public static void writes(int count) {
+        FirestoreUsage usage = CURRENT.get();
+        if (usage != null) usage.writes.addAndGet(count);
+        TransactionStats.add(0, count);
+    }
+
+    /**
+     * @return the usage bound to this thread, or null outside a request.
+     */
+    public static FirestoreUsage current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds {@code usage} (may be null) to this thread.
+     *
+     * @return the previously bound usage, to pass back to {@link #restore}.
+     */
+    public static FirestoreUsage bind(FirestoreUsage usage) {
+        FirestoreUsage previous = CURRENT.get();
+        CURRENT.set(usage);
+        return previous;
+    }
+
+    public static void restore(FirestoreUsage previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Wraps a task so it counts towards the caller's usage on whichever thread it runs.
+     */
+    public static Runnable wrap(Runnable task) {
+        FirestoreUsage captured = CURRENT.get();
+        return () -> {
+            FirestoreUsage previous = bind(captured);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public long readCount() {
+        return reads.get();
+    }
+
+    public long writeCount() {
+        return writes.get();
+    }
+}
@@ -0,0 +1,84 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.google.cloud.firestore.QuerySnapshot;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Decorates a repository so every call is reported to {@link FirestoreUsage}.
+ * <p>
+ * The common repositories do not report what they read, so it is inferred from the
+ * method name and the result: {@code find* / get* / list* / exists* / count*} methods
+ * read one document per element returned (at least one, as Firestore bills an empty
+ * query), and {@code save* / create* / update* / delete* / increment*} methods write
+ * one document, or one per element of a collection argument.
+ */
+public final class FirestoreUsageProxy implements InvocationHandler {
+
+    private static final String[] READ_PREFIXES = {"find", "get", "list", "exists", "count"};
+    private static final String[] WRITE_PREFIXES = {"save", "create", "update", "delete", "increment"};
+
+    private final Object target;
+
+    private FirestoreUsageProxy(Object target) {
+        this.target = target;
+    }
+
+    public static <T> T counting(Class<T> type, T target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new FirestoreUsageProxy(target)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (method.getDeclaringClass() == Object.class) return result;
+
+        String name = method.getName();
+        if (startsWithAny(name, WRITE_PREFIXES)) {
+            FirestoreUsage.writes(writeCount(args));
+        } else if (startsWithAny(name, READ_PREFIXES)) {
+            FirestoreUsage.reads(readCount(result));
+        }
+        return result;
+    }
+
+    // A lookup of a missing document is billed as a read too, hence at least one.
+    private static int readCount(Object result) {
+        int documents = 1;
+        if (result instanceof Collection<?> collection) {
+            documents = collection.size();
+        } else if (result instanceof Map<?, ?> map) {
+            documents = map.size();
+        } else if (result instanceof QuerySnapshot snapshot) {
+            documents = snapshot.size();
+        }
+        return Math.max(1, documents);
+    }
+
+    private static int writeCount(Object[] args) {
+        int documents = 0;
+        if (args != null) {
+            for (Object arg : args) {
+                if (arg instanceof Collection<?> collection) documents += collection.size();
+            }
+        }
+        return Math.max(1, documents);
+    }
+
+    private static boolean startsWithAny(String name, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+}
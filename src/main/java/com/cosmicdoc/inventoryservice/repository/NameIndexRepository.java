@@ -0,0 +1,197 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.common.model.Medicine;
+import com.cosmicdoc.common.model.Supplier;
+import com.cosmicdoc.common.repository.MedicineRepository;
+import com.cosmicdoc.common.repository.SupplierRepository;
+import com.google.cloud.firestore.*;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Uniqueness index over normalized names: one key document per name, whose ID is
+ * the SHA-256 of the normalized name and which records the owning entity.
+ * <ul>
+ *     <li>medicines, per branch: organizations/{org}/branches/{branch}/medicineNames/{key}</li>
+ *     <li>suppliers, per organization: organizations/{org}/supplierNames/{key}</li>
+ * </ul>
+ * A duplicate check is a single document read, and a claim is a transactional
+ * create, so two concurrent requests can never both take the same name.
+ * <p>
+ * Catalogs created before the index existed are backfilled lazily: the first claim in
+ * a scope indexes every existing entity once and then writes a marker document.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class NameIndexRepository {
+
+    // Not a 64-character hex digest, so it can never clash with a name key.
+    private static final String META_DOCUMENT_ID = "_meta";
+    private static final String FIELD_OWNER_ID = "ownerId";
+    private static final String FIELD_NAME = "name";
+    private static final String FIELD_BACKFILLED_AT = "backfilledAt";
+    private static final int MAX_BATCH_WRITES = 500;
+
+    private final Firestore firestore;
+    private final MedicineRepository medicineRepository;
+    private final SupplierRepository supplierRepository;
+    private final TransactionRunner transactionRunner;
+
+    // Index collection paths this instance has already seen backfilled.
+    private final Set<String> backfilledScopes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Case- and whitespace-insensitive form of a name: "  Dolo   650 " -> "dolo 650".
+     */
+    public static String normalize(String name) {
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return false if another medicine in the branch already has this name.
+     */
+    public boolean claimMedicineName(String orgId, String branchId, String name, String medicineId) {
+        CollectionReference index = FirestorePaths.medicineNames(firestore, orgId, branchId);
+        ensureBackfilled(index, () -> medicineOwners(orgId, branchId));
+        return claim(index, name, medicineId);
+    }
+
+    public void releaseMedicineName(String orgId, String branchId, String name, String medicineId) {
+        release(FirestorePaths.medicineNames(firestore, orgId, branchId), name, medicineId);
+    }
+
+    /**
+     * Makes sure the branch's medicine index is complete, so a catalog snapshot taken
+     * afterwards agrees with it. Call before staging claims with {@link #stageMedicineClaim}.
+     */
+    public void ensureMedicineIndex(String orgId, String branchId) {
+        ensureBackfilled(FirestorePaths.medicineNames(firestore, orgId, branchId), () -> medicineOwners(orgId, branchId));
+    }
+
+    /**
+     * Stages a name claim in a caller's batch. It is a create, so the whole batch fails
+     * if the name was taken since the caller last checked.
+     */
+    public void stageMedicineClaim(WriteBatch batch, String orgId, String branchId, String name, String medicineId) {
+        DocumentReference keyRef = FirestorePaths.medicineNames(firestore, orgId, branchId).document(key(name));
+        batch.create(keyRef, Map.<String, Object>of(FIELD_OWNER_ID, medicineId, FIELD_NAME, name));
+    }
+
+    /**
+     * @return false if another supplier in the organization already has this name.
+     */
+    public boolean claimSupplierName(String orgId, String name, String supplierId) {
+        CollectionReference index = FirestorePaths.supplierNames(firestore, orgId);
+        ensureBackfilled(index, () -> supplierOwners(orgId));
+        return claim(index, name, supplierId);
+    }
+
+    public void releaseSupplierName(String orgId, String name, String supplierId) {
+        release(FirestorePaths.supplierNames(firestore, orgId), name, supplierId);
+    }
+
+    private boolean claim(CollectionReference index, String name, String ownerId) {
+        DocumentReference keyRef = index.document(key(name));
+        return await(transactionRunner.run("name.claim", List.of(keyRef.getPath()), transaction -> {
+            DocumentSnapshot existing = transaction.get(keyRef).get();
+            FirestoreUsage.reads(1);
+            if (existing.exists()) {
+                return ownerId.equals(existing.getString(FIELD_OWNER_ID));
+            }
+            FirestoreUsage.writes(1);
+            transaction.create(keyRef, Map.<String, Object>of(FIELD_OWNER_ID, ownerId, FIELD_NAME, name));
+            return true;
+        }));
+    }
+
+    // Only the owner may release a name, so a stale release can't free someone else's claim.
+    private void release(CollectionReference index, String name, String ownerId) {
+        DocumentReference keyRef = index.document(key(name));
+        await(transactionRunner.run("name.release", List.of(keyRef.getPath()), transaction -> {
+            DocumentSnapshot existing = transaction.get(keyRef).get();
+            FirestoreUsage.reads(1);
+            if (existing.exists() && ownerId.equals(existing.getString(FIELD_OWNER_ID))) {
+                FirestoreUsage.writes(1);
+                transaction.delete(keyRef);
+            }
+            return null;
+        }));
+    }
+
+    private void ensureBackfilled(CollectionReference index, java.util.function.Supplier<Map<String, String>> owners) {
+        if (backfilledScopes.contains(index.getPath())) return;
+        if (!await(index.document(META_DOCUMENT_ID).get()).exists()) {
+            // ownerId -> name for every existing entity in the scope.
+            Map<String, String> entries = owners.get();
+            Map<String, String> ownerByKey = new HashMap<>();
+            List<WriteBatch> batches = new ArrayList<>();
+            WriteBatch batch = null;
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                if (entry.getValue() == null) continue;
+                String key = key(entry.getValue());
+                String previousOwner = ownerByKey.putIfAbsent(key, entry.getKey());
+                if (previousOwner != null) {
+                    log.warn("Duplicate name '{}' in {}: kept {}, skipped {}", entry.getValue(), index.getPath(), previousOwner, entry.getKey());
+                    continue;
+                }
+                if (batch == null || ownerByKey.size() % MAX_BATCH_WRITES == 0) {
+                    batch = firestore.batch();
+                    batches.add(batch);
+                }
+                batch.set(index.document(key), Map.<String, Object>of(FIELD_OWNER_ID, entry.getKey(), FIELD_NAME, entry.getValue()));
+            }
+            for (WriteBatch pending : batches) {
+                await(pending.commit());
+            }
+            await(index.document(META_DOCUMENT_ID).set(Map.<String, Object>of(FIELD_BACKFILLED_AT, FieldValue.serverTimestamp())));
+            log.info("Backfilled {} name keys in {}", ownerByKey.size(), index.getPath());
+        }
+        backfilledScopes.add(index.getPath());
+    }
+
+    private Map<String, String> medicineOwners(String orgId, String branchId) {
+        Map<String, String> owners = new LinkedHashMap<>();
+        for (Medicine medicine : medicineRepository.findAllByBranchId(orgId, branchId)) {
+            owners.put(medicine.getMedicineId(), medicine.getName());
+        }
+        return owners;
+    }
+
+    private Map<String, String> supplierOwners(String orgId) {
+        Map<String, String> owners = new LinkedHashMap<>();
+        for (Supplier supplier : supplierRepository.findAllByOrganizationId(orgId)) {
+            owners.put(supplier.getSupplierId(), supplier.getName());
+        }
+        return owners;
+    }
+
+    private static String key(String name) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalize(name).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while accessing the name index", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to access the name index", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.common.model.MedicineBatch;
+import com.cosmicdoc.common.model.PurchaseItem;
+import com.cosmicdoc.common.repository.MedicineBatchRepository;
+import com.google.cloud.firestore.*;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads the batches that purchase lines brought into stock, inside a transaction.
+ * <p>
+ * Every line that recorded the batch it created is resolved in one getAll, so a
+ * 15-line invoice costs one round trip instead of 15 batch-number queries. Lines
+ * saved before that link existed still fall back to a query by batch number.
+ */
+@Component
+@RequiredArgsConstructor
+public class PurchasedBatchReader {
+
+    private final Firestore firestore;
+    private final MedicineBatchRepository medicineBatchRepository;
+
+    /**
+     * Fetches the current batch of each given purchase line.
+     *
+     * @param lines caller's line key -> purchase line
+     * @return line key -> batch. Lines whose batch is gone are absent.
+     */
+    public Map<String, MedicineBatch> findBatches(Transaction transaction, String orgId, String branchId,
+                                                  Map<String, PurchaseItem> lines)
+            throws ExecutionException, InterruptedException {
+        Map<String, MedicineBatch> batches = new HashMap<>();
+        Map<String, String> linkedKeysByPath = new HashMap<>();
+        List<DocumentReference> linkedRefs = new ArrayList<>();
+        for (Map.Entry<String, PurchaseItem> line : lines.entrySet()) {
+            PurchaseItem item = line.getValue();
+            if (item.getCreatedBatchId() != null) {
+                DocumentReference ref = FirestorePaths.batch(firestore, orgId, branchId, item.getMedicineId(), item.getCreatedBatchId());
+                linkedKeysByPath.put(ref.getPath(), line.getKey());
+                linkedRefs.add(ref);
+            } else {
+                medicineBatchRepository.findByBatchNo(transaction, orgId, branchId, item.getMedicineId(), item.getBatchNo())
+                        .ifPresent(batch -> batches.put(line.getKey(), batch));
+            }
+        }
+        if (!linkedRefs.isEmpty()) {
+            FirestoreUsage.reads(linkedRefs.size());
+            for (DocumentSnapshot doc : transaction.getAll(linkedRefs.toArray(new DocumentReference[0])).get()) {
+                if (!doc.exists()) continue;
+                MedicineBatch batch = doc.toObject(MedicineBatch.class);
+                if (batch.getBatchId() == null) batch.setBatchId(doc.getId());
+                batches.put(linkedKeysByPath.get(doc.getReference().getPath()), batch);
+            }
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,133 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.common.model.Sale;
+import com.cosmicdoc.common.model.SaleItem;
+
+import java.math.BigDecimal;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+
+/**
+ * Accumulates the contribution of one or more sales to the daily sales rollups,
+ * keyed by business day (yyyy-MM-dd in the reporting time zone).
+ * <p>
+ * Each day is a nested map of plain numbers that mirrors the rollup document:
+ * totals, an hourly split, a payment-mode split, a GST-type split and a tax
+ * breakdown per rate. The same structure is used both for transactional
+ * increments and for full rebuilds from a scan.
+ */
+public final class SalesRollupDelta {
+
+    public static final String TOTAL_SALES = "totalSales";
+    public static final String TRANSACTION_COUNT = "transactionCount";
+    public static final String TOTAL_TAXABLE_AMOUNT = "totalTaxableAmount";
+    public static final String TOTAL_TAX_AMOUNT = "totalTaxAmount";
+    public static final String TOTAL_DISCOUNT_AMOUNT = "totalDiscountAmount";
+    public static final String HOURLY = "hourly";
+    public static final String PAYMENT_MODES = "paymentModes";
+    public static final String GST_TYPES = "gstTypes";
+    public static final String TAX_BY_RATE = "taxByRate";
+    public static final String TAXABLE_AMOUNT = "taxableAmount";
+    public static final String TAX_AMOUNT = "taxAmount";
+
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private final ZoneId zoneId;
+    private final Map<String, Map<String, Object>> days = new TreeMap<>();
+
+    public SalesRollupDelta(ZoneId zoneId) {
+        this.zoneId = zoneId;
+    }
+
+    /**
+     * Adds (sign = +1) or removes (sign = -1) a sale's contribution. The sale's
+     * current values are captured immediately, so it is safe to mutate it afterwards.
+     */
+    public SalesRollupDelta add(Sale sale, int sign) {
+        if (sale == null || sale.getSaleDate() == null) return this;
+
+        ZonedDateTime saleTime = sale.getSaleDate().toDate().toInstant().atZone(zoneId);
+        Map<String, Object> day = days.computeIfAbsent(saleTime.toLocalDate().toString(), key -> new HashMap<>());
+        double total = sign * amount(sale.getGrandTotal());
+        long count = sign;
+
+        increment(day, total, TOTAL_SALES);
+        increment(day, count, TRANSACTION_COUNT);
+        increment(day, sign * amount(sale.getTotalTaxableAmount()), TOTAL_TAXABLE_AMOUNT);
+        increment(day, sign * amount(sale.getTotalTaxAmount()), TOTAL_TAX_AMOUNT);
+        increment(day, sign * amount(sale.getTotalDiscountAmount()), TOTAL_DISCOUNT_AMOUNT);
+
+        String hour = String.format("%02d", saleTime.getHour());
+        increment(day, total, HOURLY, hour, TOTAL_SALES);
+        increment(day, count, HOURLY, hour, TRANSACTION_COUNT);
+
+        String paymentMode = sale.getPaymentMode() != null ? sale.getPaymentMode().name() : UNKNOWN;
+        increment(day, total, PAYMENT_MODES, paymentMode, TOTAL_SALES);
+        increment(day, count, PAYMENT_MODES, paymentMode, TRANSACTION_COUNT);
+
+        String gstType = sale.getGstType() != null ? sale.getGstType().name() : UNKNOWN;
+        increment(day, total, GST_TYPES, gstType, TOTAL_SALES);
+        increment(day, count, GST_TYPES, gstType, TRANSACTION_COUNT);
+
+        if (sale.getItems() != null) {
+            for (SaleItem item : sale.getItems()) {
+                String rate = rateKey(amount(item.getTaxRateApplied()));
+                increment(day, sign * amount(item.getLineItemTaxableAmount()), TAX_BY_RATE, rate, TAXABLE_AMOUNT);
+                increment(day, sign * amount(item.getTaxAmount()), TAX_BY_RATE, rate, TAX_AMOUNT);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return day (yyyy-MM-dd) -> nested map of accumulated numbers.
+     */
+    public Map<String, Map<String, Object>> days() {
+        return Collections.unmodifiableMap(days);
+    }
+
+    /**
+     * @return the contributions of all days summed into a single map.
+     */
+    public Map<String, Object> combined() {
+        Map<String, Object> combined = new HashMap<>();
+        days.values().forEach(day -> mergeInto(combined, day));
+        return combined;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void mergeInto(Map<String, Object> target, Map<String, Object> source) {
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                Map<String, Object> child = (Map<String, Object>) target.computeIfAbsent(entry.getKey(), key -> new HashMap<String, Object>());
+                mergeInto(child, (Map<String, Object>) entry.getValue());
+            } else {
+                increment(target, (Number) entry.getValue(), entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Map keys become Firestore field path segments, so the rate's decimal point
+     * is replaced: 18.0 -> "18", 2.5 -> "2_5".
+     */
+    private static String rateKey(double rate) {
+        return BigDecimal.valueOf(rate).stripTrailingZeros().toPlainString().replace('.', '_');
+    }
+
+    private static double amount(Double value) {
+        return value != null ? value : 0.0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void increment(Map<String, Object> root, Number value, String... path) {
+        Map<String, Object> node = root;
+        for (int i = 0; i < path.length - 1; i++) {
+            node = (Map<String, Object>) node.computeIfAbsent(path[i], key -> new HashMap<String, Object>());
+        }
+        node.merge(path[path.length - 1], value, (a, b) -> value instanceof Long
+                ? (Object) (((Number) a).longValue() + ((Number) b).longValue())
+                : (Object) (((Number) a).doubleValue() + ((Number) b).doubleValue()));
+    }
+}
@@ -0,0 +1,157 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Daily sales rollup documents, one per branch and business day:
+ * organizations/{org}/branches/{branch}/salesRollups/{yyyy-MM-dd}.
+ * <p>
+ * Sale create/update/delete transactions stage {@link FieldValue#increment} writes
+ * into these documents, so daily and range dashboards cost one read per day
+ * instead of a scan over every sale.
+ * <p>
+ * Rollups only exist for sales written after this feature shipped. A marker document
+ * records {@code coveredFrom}, the first day from which the rollups are complete.
+ * It is set by a rebuild, which recomputes a date range from the sales themselves.
+ */
+@Component
+public class SalesRollupRepository {
+
+    private static final String SALES_ROLLUPS = "salesRollups";
+    // Not a valid yyyy-MM-dd key, so it can never clash with a day document.
+    private static final String META_DOCUMENT_ID = "_meta";
+    private static final String FIELD_DATE = "date";
+    private static final String FIELD_UPDATED_AT = "updatedAt";
+    private static final String FIELD_COVERED_FROM = "coveredFrom";
+
+    private final Firestore firestore;
+    private final ZoneId zoneId;
+
+    public SalesRollupRepository(Firestore firestore, @Value("${app.reporting.zone-id:Asia/Kolkata}") String zoneId) {
+        this.firestore = firestore;
+        this.zoneId = ZoneId.of(zoneId);
+    }
+
+    /**
+     * The time zone that defines a business day for the rollups.
+     */
+    public ZoneId zoneId() {
+        return zoneId;
+    }
+
+    public SalesRollupDelta newDelta() {
+        return new SalesRollupDelta(zoneId);
+    }
+
+    /**
+     * Stages one merge-increment per touched day. Blind writes only, so this is
+     * safe to call at any point of the write phase.
+     */
+    public void incrementInTransaction(Transaction transaction, String orgId, String branchId, SalesRollupDelta delta) {
+        FirestoreUsage.writes(delta.days().size());
+        for (Map.Entry<String, Map<String, Object>> day : delta.days().entrySet()) {
+            Map<String, Object> fields = toIncrements(day.getValue());
+            fields.put(FIELD_DATE, day.getKey());
+            fields.put(FIELD_UPDATED_AT, FieldValue.serverTimestamp());
+            transaction.set(dayRef(orgId, branchId, day.getKey()), fields, SetOptions.merge());
+        }
+    }
+
+    /**
+     * @return the first day from which the rollups are complete, if a rebuild has ever run.
+     */
+    public Optional<LocalDate> findCoveredFrom(String orgId, String branchId) {
+        DocumentSnapshot meta = await(rollups(orgId, branchId).document(META_DOCUMENT_ID).get());
+        String coveredFrom = meta.exists() ? meta.getString(FIELD_COVERED_FROM) : null;
+        return Optional.ofNullable(coveredFrom).map(LocalDate::parse);
+    }
+
+    /**
+     * Reads the rollups of the given days in a single round trip.
+     *
+     * @return day -> rollup data; days without sales map to an empty map.
+     */
+    public Map<LocalDate, Map<String, Object>> findDays(String orgId, String branchId, List<LocalDate> days) {
+        Map<LocalDate, Map<String, Object>> result = new TreeMap<>();
+        if (days.isEmpty()) return result;
+        DocumentReference[] refs = days.stream()
+                .map(day -> dayRef(orgId, branchId, day.toString()))
+                .toArray(DocumentReference[]::new);
+        for (DocumentSnapshot doc : await(firestore.getAll(refs))) {
+            Map<String, Object> data = doc.exists() ? doc.getData() : null;
+            result.put(LocalDate.parse(doc.getId()), data != null ? data : Map.of());
+        }
+        return result;
+    }
+
+    /**
+     * Overwrites every day in [from, to] with the rollups computed from a scan
+     * (deleting days without sales) and extends {@code coveredFrom} back to {@code from}.
+     * {@code to} must be today, so that every day after {@code from} is complete.
+     * A sale committed between the scan and this write is lost from its day, so
+     * rebuilds are meant to run off-hours.
+     */
+    public void replaceDays(String orgId, String branchId, LocalDate from, LocalDate to, SalesRollupDelta rebuilt) {
+        WriteBatch batch = firestore.batch();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            Map<String, Object> data = rebuilt.days().get(day.toString());
+            DocumentReference ref = dayRef(orgId, branchId, day.toString());
+            if (data == null) {
+                batch.delete(ref);
+            } else {
+                Map<String, Object> fields = new HashMap<>(data);
+                fields.put(FIELD_DATE, day.toString());
+                fields.put(FIELD_UPDATED_AT, FieldValue.serverTimestamp());
+                batch.set(ref, fields);
+            }
+        }
+        LocalDate coveredFrom = findCoveredFrom(orgId, branchId)
+                .filter(existing -> existing.isBefore(from))
+                .orElse(from);
+        batch.set(rollups(orgId, branchId).document(META_DOCUMENT_ID), Map.<String, Object>of(FIELD_COVERED_FROM, coveredFrom.toString()));
+        await(batch.commit());
+    }
+
+    private CollectionReference rollups(String orgId, String branchId) {
+        return FirestorePaths.branch(firestore, orgId, branchId).collection(SALES_ROLLUPS);
+    }
+
+    private DocumentReference dayRef(String orgId, String branchId, String day) {
+        return rollups(orgId, branchId).document(day);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toIncrements(Map<String, Object> values) {
+        Map<String, Object> increments = new HashMap<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                increments.put(entry.getKey(), toIncrements((Map<String, Object>) value));
+            } else if (value instanceof Long) {
+                increments.put(entry.getKey(), FieldValue.increment((Long) value));
+            } else {
+                increments.put(entry.getKey(), FieldValue.increment(((Number) value).doubleValue()));
+            }
+        }
+        return increments;
+    }
+
+    private static <T> T await(ApiFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while accessing sales rollups", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to access sales rollups", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.common.model.Medicine;
+import com.cosmicdoc.common.repository.MedicineRepository;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Maintains one aggregate document per (branch, medicine category) holding the
+ * total available stock of that category:
+ * organizations/{org}/branches/{branch}/stockAggregates/{categoryKey}.
+ * <p>
+ * Write paths update these documents with {@link FieldValue#increment(long)} inside
+ * their own transaction, so the stock-by-category report is a single collection read.
+ * A marker document records when the branch was last fully reconciled against its batches.
+ */
+@Component
+@RequiredArgsConstructor
+public class StockAggregateRepository {
+
+    // Not a valid unpadded base64url length, so it can never clash with a category key.
+    private static final String META_DOCUMENT_ID = "_meta";
+    private static final String FIELD_CATEGORY = "category";
+    private static final String FIELD_TOTAL_STOCK = "totalStock";
+    private static final String FIELD_UPDATED_AT = "updatedAt";
+    private static final String FIELD_KIND = "kind";
+    private static final String FIELD_LAST_RECONCILED_AT = "lastReconciledAt";
+    private static final String KIND_META = "meta";
+
+    private final Firestore firestore;
+    private final MedicineRepository medicineRepository;
+
+    /**
+     * Transactionally reads the given medicines so their stock changes can be
+     * attributed to a category. Must be called in the read phase of the transaction.
+     */
+    public CategoryStockDelta newDelta(Transaction transaction, String orgId, String branchId, Collection<String> medicineIds)
+            throws ExecutionException, InterruptedException {
+        return newDelta(transaction, orgId, branchId, medicineIds, Map.of());
+    }
+
+    /**
+     * Same as {@link #newDelta(Transaction, String, String, Collection)}, but only reads
+     * the medicines that the caller has not already read in this transaction.
+     */
+    public CategoryStockDelta newDelta(Transaction transaction, String orgId, String branchId, Collection<String> medicineIds,
+                                       Map<String, Medicine> alreadyRead)
+            throws ExecutionException, InterruptedException {
+        List<Medicine> medicines = new ArrayList<>(alreadyRead.values());
+        List<String> missingIds = medicineIds.stream().distinct().filter(id -> !alreadyRead.containsKey(id)).toList();
+        if (!missingIds.isEmpty()) {
+            for (DocumentSnapshot doc : medicineRepository.getAll(transaction, orgId, branchId, new ArrayList<>(missingIds))) {
+                if (doc.exists()) medicines.add(doc.toObject(Medicine.class));
+            }
+        }
+        return new CategoryStockDelta(medicines);
+    }
+
+    /**
+     * Stages one increment per touched category. Blind writes only, so this is
+     * safe to call at any point of the write phase.
+     */
+    public void incrementInTransaction(Transaction transaction, String orgId, String branchId, CategoryStockDelta delta) {
+        for (Map.Entry<String, Long> entry : delta.deltas().entrySet()) {
+            stageIncrement(transaction, orgId, branchId, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Stages the move of a medicine's stock between two categories, e.g. when its
+     * category is edited. Blind writes only, like {@link #incrementInTransaction}.
+     */
+    public void transferInTransaction(Transaction transaction, String orgId, String branchId, String fromCategory, String toCategory, long quantity) {
+        if (quantity == 0 || Objects.equals(fromCategory, toCategory)) return;
+        if (fromCategory != null) {
+            stageIncrement(transaction, orgId, branchId, fromCategory, -quantity);
+        }
+        if (toCategory != null) {
+            stageIncrement(transaction, orgId, branchId, toCategory, quantity);
+        }
+    }
+
+    /**
+     * @return category -> total stock, or empty if the branch has never been reconciled.
+     */
+    public Optional<Map<String, Long>> findAllByBranchId(String orgId, String branchId) {
+        List<QueryDocumentSnapshot> docs = await(FirestorePaths.stockAggregates(firestore, orgId, branchId).get()).getDocuments();
+        return toTotals(docs);
+    }
+
+    /**
+     * Same as {@link #findAllByBranchId(String, String)}, read in {@code transaction}.
+     */
+    public Optional<Map<String, Long>> findAllByBranchId(Transaction transaction, String orgId, String branchId)
+            throws ExecutionException, InterruptedException {
+        List<QueryDocumentSnapshot> docs = transaction.get(FirestorePaths.stockAggregates(firestore, orgId, branchId)).get().getDocuments();
+        FirestoreUsage.reads(Math.max(1, docs.size()));
+        return toTotals(docs);
+    }
+
+    /**
+     * Corrects the branch's aggregates to {@code actualTotals}, computed from the batches
+     * in the same snapshot as {@code snapshotTotals} were read, and stamps the marker.
+     * <p>
+     * Each aggregate is incremented by its drift rather than overwritten, so stock changes
+     * committed since the snapshot are kept. An aggregate whose category no longer has
+     * any stock is deleted, unless it changed since the snapshot. The whole transaction;
+     * reads first.
+     */
+    public void reconcileInTransaction(Transaction transaction, String orgId, String branchId,
+                                       Map<String, Long> snapshotTotals, Map<String, Long> actualTotals)
+            throws ExecutionException, InterruptedException {
+        List<String> goneCategories = snapshotTotals.keySet().stream().filter(category -> !actualTotals.containsKey(category)).toList();
+        List<DocumentSnapshot> goneDocs = List.of();
+        if (!goneCategories.isEmpty()) {
+            FirestoreUsage.reads(goneCategories.size());
+            goneDocs = transaction.getAll(goneCategories.stream()
+                    .map(category -> aggregateRef(orgId, branchId, category))
+                    .toArray(DocumentReference[]::new)).get();
+        }
+
+        for (int i = 0; i < goneDocs.size(); i++) {
+            DocumentSnapshot doc = goneDocs.get(i);
+            long snapshotTotal = snapshotTotals.get(goneCategories.get(i));
+            Long totalStock = doc.getLong(FIELD_TOTAL_STOCK);
+            if (totalStock != null && totalStock == snapshotTotal) {
+                FirestoreUsage.writes(1);
+                transaction.delete(doc.getReference());
+            } else if (doc.exists()) {
+                stageIncrement(transaction, orgId, branchId, goneCategories.get(i), -snapshotTotal);
+            }
+        }
+        for (Map.Entry<String, Long> entry : actualTotals.entrySet()) {
+            long drift = entry.getValue() - snapshotTotals.getOrDefault(entry.getKey(), 0L);
+            if (drift != 0 || !snapshotTotals.containsKey(entry.getKey())) {
+                stageIncrement(transaction, orgId, branchId, entry.getKey(), drift);
+            }
+        }
+        FirestoreUsage.writes(1);
+        transaction.set(FirestorePaths.stockAggregates(firestore, orgId, branchId).document(META_DOCUMENT_ID), Map.<String, Object>of(
+                FIELD_KIND, KIND_META,
+                FIELD_LAST_RECONCILED_AT, FieldValue.serverTimestamp()));
+    }
+
+    /**
+     * Lists every (orgId, branchId) that has aggregates, using a collection-group
+     * query on the marker documents. Requires a collection-group single-field
+     * index on stockAggregates.kind.
+     */
+    public List<BranchKey> findAllReconciledBranches() {
+        List<BranchKey> branches = new ArrayList<>();
+        Query query = firestore.collectionGroup(FirestorePaths.STOCK_AGGREGATES).whereEqualTo(FIELD_KIND, KIND_META);
+        for (QueryDocumentSnapshot doc : await(query.get()).getDocuments()) {
+            // organizations/{org}/branches/{branch}/stockAggregates/_meta
+            DocumentReference branchRef = doc.getReference().getParent().getParent();
+            branches.add(new BranchKey(branchRef.getParent().getParent().getId(), branchRef.getId()));
+        }
+        return branches;
+    }
+
+    public record BranchKey(String orgId, String branchId) {}
+
+    private static Optional<Map<String, Long>> toTotals(List<QueryDocumentSnapshot> docs) {
+        Map<String, Long> totals = new TreeMap<>();
+        boolean reconciled = false;
+        for (QueryDocumentSnapshot doc : docs) {
+            if (META_DOCUMENT_ID.equals(doc.getId())) {
+                reconciled = true;
+                continue;
+            }
+            Long totalStock = doc.getLong(FIELD_TOTAL_STOCK);
+            totals.put(doc.getString(FIELD_CATEGORY), totalStock != null ? totalStock : 0L);
+        }
+        return reconciled ? Optional.of(totals) : Optional.empty();
+    }
+
+    private void stageIncrement(Transaction transaction, String orgId, String branchId, String category, long quantity) {
+        FirestoreUsage.writes(1);
+        transaction.set(aggregateRef(orgId, branchId, category), Map.<String, Object>of(
+                FIELD_CATEGORY, category,
+                FIELD_TOTAL_STOCK, FieldValue.increment(quantity),
+                FIELD_UPDATED_AT, FieldValue.serverTimestamp()), SetOptions.merge());
+    }
+
+    private DocumentReference aggregateRef(String orgId, String branchId, String category) {
+        String key = Base64.getUrlEncoder().withoutPadding().encodeToString(category.getBytes(StandardCharsets.UTF_8));
+        return FirestorePaths.stockAggregates(firestore, orgId, branchId).document(key);
+    }
+
+    private static <T> T await(ApiFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while accessing stock aggregates", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to access stock aggregates", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.common.repository.MedicineRepository;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Striped counters for {@code Medicine.quantityInStock}.
+ * <p>
+ * Firestore sustains roughly one write per second on a single document, so writing every
+ * sale's stock change to the medicine document makes fast movers contend: transactions
+ * retry and checkouts abort. Instead, each change is an increment on one of
+ * {@code app.stock-shards.count} shard documents, picked at random:
+ * organizations/{org}/branches/{branch}/medicines/{medicine}/stockShards/{n}.
+ * <p>
+ * The medicine document keeps a compacted total that {@link #compactAll()} periodically
+ * brings up to date by folding the shards into it; exact stock is that total plus
+ * {@link #pendingByMedicine}. Both queries are collection-group queries and require
+ * collection-group single-field indexes on stockShards.branchKey and stockShards.delta.
+ * <p>
+ * Compaction runs on one instance at a time: a run first takes or renews the lease
+ * document schedulerLeases/stockShardCompaction for {@code app.stock-shards.compaction-lease},
+ * and skips if another instance holds it. The holder renews it on every run, so it stays
+ * with one instance until that instance stops and the lease expires.
+ */
+@Component
+@Slf4j
+public class StockShardRepository {
+
+    private static final String FIELD_QUANTITY_IN_STOCK = "quantityInStock";
+    private static final String FIELD_DELTA = "delta";
+    private static final String FIELD_BRANCH_KEY = "branchKey";
+    private static final String COMPACTION_LEASE = "stockShardCompaction";
+    private static final String FIELD_HOLDER = "holder";
+    private static final String FIELD_EXPIRES_AT = "expiresAt";
+
+    private final Firestore firestore;
+    private final MedicineRepository medicineRepository;
+    private final TransactionRunner transactionRunner;
+    private final boolean enabled;
+    private final int shardCount;
+    private final Duration compactionLease;
+    // Identifies this instance as the holder of the compaction lease.
+    private final String instanceId = UUID.randomUUID().toString();
+
+    public StockShardRepository(Firestore firestore,
+                                MedicineRepository medicineRepository,
+                                TransactionRunner transactionRunner,
+                                @Value("${app.stock-shards.enabled:true}") boolean enabled,
+                                @Value("${app.stock-shards.count:8}") int shardCount,
+                                @Value("${app.stock-shards.compaction-lease:PT5M}") Duration compactionLease) {
+        this.firestore = firestore;
+        this.medicineRepository = medicineRepository;
+        this.transactionRunner = transactionRunner;
+        this.enabled = enabled;
+        this.shardCount = Math.max(1, shardCount);
+        this.compactionLease = compactionLease;
+    }
+
+    /**
+     * Stages a stock change (positive when stock is added) on a random shard. A blind
+     * write, so it is safe at any point of the write phase. When sharding is disabled
+     * the medicine document is updated directly.
+     */
+    public void incrementInTransaction(Transaction transaction, String orgId, String branchId, String medicineId, int quantity) {
+        if (!enabled) {
+            medicineRepository.updateStockInTransaction(transaction, orgId, branchId, medicineId, quantity);
+            return;
+        }
+        if (quantity == 0) return;
+        FirestoreUsage.writes(1);
+        DocumentReference shard = FirestorePaths.stockShards(firestore, orgId, branchId, medicineId)
+                .document(String.valueOf(ThreadLocalRandom.current().nextInt(shardCount)));
+        transaction.set(shard, Map.<String, Object>of(
+                FIELD_DELTA, FieldValue.increment(quantity),
+                FIELD_BRANCH_KEY, branchKey(orgId, branchId)), SetOptions.merge());
+    }
+
+    /**
+     * @return medicineId -> stock changes not yet compacted into the medicine document,
+     * for the medicines of the branch that have any.
+     */
+    public Map<String, Long> pendingByMedicine(String orgId, String branchId) {
+        Query query = firestore.collectionGroup(FirestorePaths.STOCK_SHARDS)
+                .whereEqualTo(FIELD_BRANCH_KEY, branchKey(orgId, branchId));
+        Map<String, Long> pending = new HashMap<>();
+        for (QueryDocumentSnapshot doc : await(query.get()).getDocuments()) {
+            Long delta = doc.getLong(FIELD_DELTA);
+            if (delta != null && delta != 0) {
+                pending.merge(doc.getReference().getParent().getParent().getId(), delta, Long::sum);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return the medicine's stock changes not yet compacted into its document.
+     */
+    public long pending(String orgId, String branchId, String medicineId) {
+        long pending = 0;
+        for (QueryDocumentSnapshot doc : await(FirestorePaths.stockShards(firestore, orgId, branchId, medicineId).get()).getDocuments()) {
+            Long delta = doc.getLong(FIELD_DELTA);
+            if (delta != null) pending += delta;
+        }
+        return pending;
+    }
+
+    /**
+     * Folds every non-empty shard into its medicine's quantityInStock, one small
+     * transaction per medicine, so the hot document is written at most once per run.
+     * Does nothing while another instance holds the compaction lease.
+     */
+    @Scheduled(fixedDelayString = "${app.stock-shards.compaction-interval:PT1M}",
+            initialDelayString = "${app.stock-shards.compaction-interval:PT1M}")
+    public void compactAll() {
+        if (!acquireCompactionLease()) {
+            log.debug("Stock shard compaction skipped: the lease is held by another instance");
+            return;
+        }
+        Query query = firestore.collectionGroup(FirestorePaths.STOCK_SHARDS).whereNotEqualTo(FIELD_DELTA, 0);
+        Map<String, List<DocumentReference>> shardsByMedicine = new LinkedHashMap<>();
+        Map<String, DocumentReference> medicines = new HashMap<>();
+        for (QueryDocumentSnapshot doc : await(query.get()).getDocuments()) {
+            DocumentReference medicineRef = doc.getReference().getParent().getParent();
+            medicines.putIfAbsent(medicineRef.getPath(), medicineRef);
+            shardsByMedicine.computeIfAbsent(medicineRef.getPath(), path -> new ArrayList<>()).add(doc.getReference());
+        }
+        int compacted = 0;
+        for (Map.Entry<String, List<DocumentReference>> entry : shardsByMedicine.entrySet()) {
+            try {
+                compact(medicines.get(entry.getKey()), entry.getValue());
+                compacted++;
+            } catch (RuntimeException e) {
+                log.warn("Stock shard compaction failed for {}", entry.getKey(), e);
+            }
+        }
+        if (compacted > 0) {
+            log.debug("Compacted stock shards of {} medicines", compacted);
+        }
+    }
+
+    private void compact(DocumentReference medicineRef, List<DocumentReference> shardRefs) {
+        // Queued with the sales and purchases of the same medicine rather than racing them.
+        DocumentReference branchRef = medicineRef.getParent().getParent();
+        Set<String> lockKeys = TransactionRunner.medicineKeys(branchRef.getParent().getParent().getId(),
+                branchRef.getId(), List.of(medicineRef.getId()));
+        await(transactionRunner.run("stock.compact", lockKeys, transaction -> {
+            List<DocumentReference> refs = new ArrayList<>(shardRefs);
+            refs.add(medicineRef);
+            List<DocumentSnapshot> docs = transaction.getAll(refs.toArray(new DocumentReference[0])).get();
+            FirestoreUsage.reads(docs.size());
+
+            DocumentSnapshot medicine = docs.get(docs.size() - 1);
+            long total = 0;
+            for (DocumentSnapshot shard : docs.subList(0, docs.size() - 1)) {
+                Long delta = shard.getLong(FIELD_DELTA);
+                if (!shard.exists() || delta == null || delta == 0) continue;
+                total += delta;
+                FirestoreUsage.writes(1);
+                if (medicine.exists()) {
+                    // Subtract what was read rather than zeroing, to stay exact under retries.
+                    transaction.update(shard.getReference(), FIELD_DELTA, FieldValue.increment(-delta));
+                } else {
+                    transaction.delete(shard.getReference());
+                }
+            }
+            if (medicine.exists() && total != 0) {
+                FirestoreUsage.writes(1);
+                transaction.update(medicineRef, FIELD_QUANTITY_IN_STOCK, FieldValue.increment(total));
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Takes the compaction lease if it is free or expired, or renews it if this instance
+     * already holds it. Expiry is compared on the instances' clocks, so the lease should
+     * be well longer than both their skew and the compaction interval.
+     *
+     * @return whether this instance holds the lease until the next run.
+     */
+    private boolean acquireCompactionLease() {
+        DocumentReference leaseRef = FirestorePaths.schedulerLease(firestore, COMPACTION_LEASE);
+        return await(transactionRunner.run("stock.compact.lease", transaction -> {
+            FirestoreUsage.reads(1);
+            DocumentSnapshot lease = transaction.get(leaseRef).get();
+            Timestamp now = Timestamp.now();
+            Timestamp expiresAt = lease.getTimestamp(FIELD_EXPIRES_AT);
+            if (lease.exists() && !instanceId.equals(lease.getString(FIELD_HOLDER))
+                    && expiresAt != null && expiresAt.compareTo(now) > 0) {
+                return false;
+            }
+            FirestoreUsage.writes(1);
+            transaction.set(leaseRef, Map.<String, Object>of(
+                    FIELD_HOLDER, instanceId,
+                    FIELD_EXPIRES_AT, Timestamp.ofTimeSecondsAndNanos(now.getSeconds() + compactionLease.toSeconds(), now.getNanos())));
+            return true;
+        }));
+    }
+
+    private static String branchKey(String orgId, String branchId) {
+        return orgId + "/" + branchId;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while accessing stock shards", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to access stock shards", e.getCause());
+        }
+    }
+}
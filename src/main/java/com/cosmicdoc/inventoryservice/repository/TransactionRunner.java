@@ -0,0 +1,333 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.inventoryservice.exception.TransactionQueueFullException;
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.TransactionOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs every Firestore transaction of the service, serializing the ones that would
+ * conflict on this instance before they reach Firestore, and instrumenting all of them.
+ * <p>
+ * Firestore transactions are optimistic: two sales of the same medicine both read its
+ * batches, one commit wins and the other is aborted and retried with backoff, re-reading
+ * everything. Here every transaction declares lock keys for the documents it contends on
+ * (medicines, the supplier balance, the invoice being edited), and a transaction only
+ * starts once every earlier transaction sharing one of its keys has finished. Waiting is
+ * a chain of futures, so queued transactions hold no thread, and because each one is
+ * queued atomically behind its predecessors there is no lock ordering to get wrong.
+ * <p>
+ * This only orders transactions within one instance; conflicts between instances are
+ * still resolved by Firestore's retries. {@code app.transaction-serializer.enabled=false}
+ * turns the queueing off.
+ * <p>
+ * The queues are bounded, so a hot medicine cannot pile up waiting requests without
+ * limit: a transaction is rejected with a {@link TransactionQueueFullException} (a
+ * retryable 503) when one of its keys already has {@code max-queue-depth} transactions
+ * queued or running, or when it has waited {@code max-wait} without reaching the head
+ * of its queues. A transaction that gave up keeps its place until its predecessors are
+ * done, so the ones queued behind it stay ordered.
+ * <p>
+ * Metrics, all tagged with the {@code operation} (e.g. {@code sale.create}) and served
+ * on /actuator/metrics:
+ * <ul>
+ *     <li>{@code inventory.transaction}: end-to-end latency including queueing, by
+ *     {@code outcome} (committed / failed) and {@code serialized}</li>
+ *     <li>{@code inventory.transaction.attempt}: latency of each attempt, from the start of
+ *     its function to its commit, or to the start of the next attempt (so including the
+ *     client's backoff) when it was {@code retried}</li>
+ *     <li>{@code inventory.transaction.attempts}: attempts per transaction</li>
+ *     <li>{@code inventory.transaction.retries}: attempts beyond the first, by {@code serialized},
+ *     to compare retry rates with and without queueing</li>
+ *     <li>{@code inventory.transaction.reads} / {@code writes}: documents read and writes
+ *     staged per attempt, as reported to {@link FirestoreUsage}</li>
+ *     <li>{@code inventory.transaction.aborts}: attempts that did not commit, by {@code reason}:
+ *     {@code retried} for a commit Firestore rejected and the client retried (nearly always
+ *     contention), otherwise the gRPC status code or the exception thrown by the function</li>
+ *     <li>{@code inventory.transaction.queue.wait}: time spent queued behind a conflicting transaction</li>
+ *     <li>{@code inventory.transaction.queue.rejected}: transactions rejected by {@code reason}:
+ *     {@code full} or {@code timeout}</li>
+ * </ul>
+ */
+@Component
+public class TransactionRunner {
+
+    private final Firestore firestore;
+    private final MeterRegistry meterRegistry;
+    private final boolean serialize;
+    private final int maxQueueDepth;
+    private final Duration maxWait;
+    // lock key -> completion of the last transaction queued on it; guarded by itself.
+    private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+    // lock key -> transactions queued or running on it; guarded by tails.
+    private final Map<String, Integer> depths = new HashMap<>();
+
+    public TransactionRunner(Firestore firestore,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.transaction-serializer.enabled:true}") boolean serialize,
+                             @Value("${app.transaction-serializer.max-queue-depth:50}") int maxQueueDepth,
+                             @Value("${app.transaction-serializer.max-wait:PT5S}") Duration maxWait) {
+        this.firestore = firestore;
+        this.meterRegistry = meterRegistry;
+        this.serialize = serialize;
+        this.maxQueueDepth = Math.max(1, maxQueueDepth);
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Runs {@code function} as a Firestore transaction once no earlier transaction on
+     * this instance holds any of {@code lockKeys}.
+     *
+     * @param operation the metric tag, e.g. {@code sale.create}.
+     * @return completes with the function's result, or exceptionally with the exception
+     * it threw, or with a {@link TransactionQueueFullException} if it was not started.
+     */
+    public <T> CompletableFuture<T> run(String operation, Collection<String> lockKeys, Transaction.Function<T> function) {
+        return run(operation, lockKeys, function, result -> {});
+    }
+
+    /**
+     * Like {@link #run(String, Collection, Transaction.Function)}, and hands the result to
+     * {@code onCommit} once the transaction has committed but before its lock keys are
+     * released. In-memory state that follows the committed data (e.g. the FEFO index) is
+     * updated there, so the next transaction on the same keys never sees it stale.
+     * {@code onCommit} must not throw: the transaction has committed by then.
+     */
+    public <T> CompletableFuture<T> run(String operation, Collection<String> lockKeys, Transaction.Function<T> function,
+                                        Consumer<? super T> onCommit) {
+        return run(operation, lockKeys, TransactionOptions.create(), function, onCommit);
+    }
+
+    /**
+     * A transaction that contends with nothing worth queueing for on this instance.
+     */
+    public <T> CompletableFuture<T> run(String operation, Transaction.Function<T> function) {
+        return run(operation, List.of(), function);
+    }
+
+    /**
+     * Runs {@code function} as a read-only transaction: all of its reads, queries and
+     * aggregations included, see one consistent snapshot, and it takes no locks, so it
+     * never delays or aborts the transactions writing what it reads. It is not queued.
+     */
+    public <T> CompletableFuture<T> runReadOnly(String operation, Transaction.Function<T> function) {
+        return run(operation, List.of(), TransactionOptions.createReadOnlyOptionsBuilder().build(), function, result -> {});
+    }
+
+    private <T> CompletableFuture<T> run(String operation, Collection<String> lockKeys, TransactionOptions options,
+                                         Transaction.Function<T> function, Consumer<? super T> onCommit) {
+        Attempts attempts = new Attempts(operation);
+        // Firestore runs the function on its own threads; count it towards the calling request.
+        FirestoreUsage usage = FirestoreUsage.current();
+        Transaction.Function<T> instrumented = transaction -> {
+            attempts.begin();
+            FirestoreUsage previousUsage = FirestoreUsage.bind(usage);
+            TransactionStats stats = TransactionStats.open();
+            try {
+                return function.updateCallback(transaction);
+            } finally {
+                TransactionStats.close();
+                FirestoreUsage.restore(previousUsage);
+                attempts.staged(stats);
+            }
+        };
+        Supplier<CompletableFuture<T>> start = () -> FirestoreFutures.toCompletableFuture(firestore.runTransaction(instrumented, options))
+                .thenApply(result -> {
+                    onCommit.accept(result);
+                    return result;
+                });
+
+        boolean queued = serialize && !lockKeys.isEmpty();
+        long startedAt = System.nanoTime();
+        CompletableFuture<T> result = queued ? enqueue(operation, new TreeSet<>(lockKeys), start) : start.get();
+        return result.whenComplete((value, error) -> attempts.complete(queued, startedAt, error));
+    }
+
+    /**
+     * Lock keys for the stock of the given medicines of a branch.
+     */
+    public static Set<String> medicineKeys(String orgId, String branchId, Collection<String> medicineIds) {
+        Set<String> keys = new HashSet<>();
+        for (String medicineId : medicineIds) {
+            keys.add(lockKey(orgId, branchId, FirestorePaths.MEDICINES, medicineId));
+        }
+        return keys;
+    }
+
+    /**
+     * A lock key for any other contended document, from its path segments,
+     * e.g. {@code lockKey(orgId, "suppliers", supplierId)}.
+     */
+    public static String lockKey(String... segments) {
+        return String.join("/", segments);
+    }
+
+    private <T> CompletableFuture<T> enqueue(String operation, Set<String> keys, Supplier<CompletableFuture<T>> start) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        List<CompletableFuture<Void>> predecessors = new ArrayList<>();
+        synchronized (tails) {
+            for (String key : keys) {
+                if (depths.getOrDefault(key, 0) >= maxQueueDepth) {
+                    reject(operation, "full");
+                    return CompletableFuture.failedFuture(new TransactionQueueFullException(
+                            maxQueueDepth + " transactions are already queued on " + key + "; retry shortly."));
+                }
+            }
+            for (String key : keys) {
+                CompletableFuture<Void> previous = tails.put(key, done);
+                if (previous != null) predecessors.add(previous);
+                depths.merge(key, 1, Integer::sum);
+            }
+        }
+
+        long queuedAt = System.nanoTime();
+        CompletableFuture<Void> ready = CompletableFuture.allOf(predecessors.toArray(new CompletableFuture[0]));
+        CompletableFuture<T> result = ready.copy()
+                .orTimeout(maxWait.toNanos(), TimeUnit.NANOSECONDS)
+                .handle((ignored, error) -> error)
+                .thenCompose(timeout -> {
+                    if (timeout != null) {
+                        reject(operation, "timeout");
+                        return CompletableFuture.failedFuture(new TransactionQueueFullException(
+                                "Waited longer than " + maxWait + " behind conflicting transactions; retry shortly."));
+                    }
+                    if (!predecessors.isEmpty()) {
+                        Timer.builder("inventory.transaction.queue.wait")
+                                .tag("operation", operation)
+                                .register(meterRegistry)
+                                .record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                    }
+                    return start.get();
+                });
+        // A rejected transaction only releases its keys once its predecessors are done.
+        result.whenComplete((value, error) -> ready.whenComplete((ignored, readyError) -> {
+            synchronized (tails) {
+                for (String key : keys) {
+                    tails.remove(key, done);
+                    depths.computeIfPresent(key, (k, depth) -> depth > 1 ? depth - 1 : null);
+                }
+            }
+            // Always completes normally: a failed transaction must not fail the ones queued behind it.
+            done.complete(null);
+        }));
+        return result;
+    }
+
+    private void reject(String operation, String reason) {
+        Counter.builder("inventory.transaction.queue.rejected")
+                .tag("operation", operation)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    // The gRPC status for Firestore errors, otherwise what the function threw (e.g. InsufficientStockException).
+    private static String abortReason(Throwable error) {
+        Throwable cause = FirestoreFutures.unwrap(error);
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof ApiException apiException) {
+                return apiException.getStatusCode().getCode().name();
+            }
+            if (t instanceof FirestoreException firestoreException && firestoreException.getStatus() != null) {
+                return firestoreException.getStatus().getCode().name();
+            }
+        }
+        return cause.getClass().getSimpleName();
+    }
+
+    /**
+     * The attempts of one transaction. Firestore runs them one after another, but each
+     * may be on a different thread, hence the synchronization.
+     */
+    private final class Attempts {
+
+        private final String operation;
+        private int count;
+        private long attemptStartedAt;
+
+        Attempts(String operation) {
+            this.operation = operation;
+        }
+
+        synchronized void begin() {
+            long now = System.nanoTime();
+            if (count > 0) {
+                // The previous attempt's commit was rejected and the client retried.
+                recordAttempt("retried", now - attemptStartedAt);
+                abort("retried");
+            }
+            count++;
+            attemptStartedAt = now;
+        }
+
+        synchronized void staged(TransactionStats stats) {
+            DistributionSummary.builder("inventory.transaction.reads")
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .record(stats.reads());
+            DistributionSummary.builder("inventory.transaction.writes")
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .record(stats.writes());
+        }
+
+        synchronized void complete(boolean queued, long startedAt, Throwable error) {
+            long now = System.nanoTime();
+            String outcome = error == null ? "committed" : "failed";
+            if (count > 0) {
+                recordAttempt(outcome, now - attemptStartedAt);
+            }
+            if (error != null) {
+                abort(abortReason(error));
+            }
+            Timer.builder("inventory.transaction")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .tag("serialized", String.valueOf(queued))
+                    .register(meterRegistry)
+                    .record(now - startedAt, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("inventory.transaction.attempts")
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .record(count);
+            if (count > 1) {
+                Counter.builder("inventory.transaction.retries")
+                        .tag("operation", operation)
+                        .tag("serialized", String.valueOf(queued))
+                        .register(meterRegistry)
+                        .increment(count - 1);
+            }
+        }
+
+        private void recordAttempt(String outcome, long nanos) {
+            Timer.builder("inventory.transaction.attempt")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void abort(String reason) {
+            Counter.builder("inventory.transaction.aborts")
+                    .tag("operation", operation)
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+}
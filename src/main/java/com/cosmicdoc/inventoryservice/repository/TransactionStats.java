@@ -0,0 +1,47 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+/**
+ * Reads and writes staged by the current transaction attempt, for the
+ * {@code inventory.transaction.reads} / {@code writes} metrics of {@link TransactionRunner}.
+ * <p>
+ * Firestore's {@code Transaction} exposes neither count, so they are collected from
+ * {@link FirestoreUsage} reports made while the attempt's function runs. The counts are
+ * bound to that thread: Firestore runs the function on one thread, and the reads are
+ * awaited inside it.
+ */
+final class TransactionStats {
+
+    private static final ThreadLocal<TransactionStats> CURRENT = new ThreadLocal<>();
+
+    private int reads;
+    private int writes;
+
+    private TransactionStats() {
+    }
+
+    static void add(int reads, int writes) {
+        TransactionStats stats = CURRENT.get();
+        if (stats != null) {
+            stats.reads += reads;
+            stats.writes += writes;
+        }
+    }
+
+    static TransactionStats open() {
+        TransactionStats stats = new TransactionStats();
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    static void close() {
+        CURRENT.remove();
+    }
+
+    int reads() {
+        return reads;
+    }
+
+    int writes() {
+        return writes;
+    }
+}
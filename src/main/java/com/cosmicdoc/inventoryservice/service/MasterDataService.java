@@ -6,17 +6,33 @@ import com.cosmicdoc.common.repository.MedicineRepository;
 import com.cosmicdoc.common.repository.SupplierRepository;
 import com.cosmicdoc.common.repository.TaxProfileRepository;
 import com.cosmicdoc.common.util.IdGenerator;
+import com.cosmicdoc.inventoryservice.cache.TaxProfileCache;
 import com.cosmicdoc.inventoryservice.dto.request.*;
 import com.cosmicdoc.inventoryservice.dto.response.MedicineStockDetailResponse;
 import com.cosmicdoc.inventoryservice.dto.response.MedicineStockResponse;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.AvailableBatchReader;
+import com.cosmicdoc.inventoryservice.repository.FirestoreFutures;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import com.cosmicdoc.inventoryservice.repository.NameIndexRepository;
+import com.cosmicdoc.inventoryservice.repository.StockAggregateRepository;
+import com.cosmicdoc.inventoryservice.repository.StockShardRepository;
+import com.cosmicdoc.inventoryservice.repository.TransactionRunner;
 import com.cosmicdoc.inventoryservice.security.SecurityUtils;
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,6 +42,13 @@ public class MasterDataService {
     private final SupplierRepository supplierRepository;
     private final TaxProfileRepository taxProfileRepository;
     private final MedicineBatchRepository medicineBatchRepository;
+    private final StockAggregateRepository stockAggregateRepository;
+    private final AvailableBatchReader availableBatchReader;
+    private final StockShardRepository stockShardRepository;
+    private final TaxProfileCache taxProfileCache;
+    private final NameIndexRepository nameIndexRepository;
+    private final TransactionRunner transactionRunner;
+    private final Firestore firestore;
 
    /**
          * Creates a new master Medicine record for a specific branch.
@@ -41,41 +64,50 @@ public class MasterDataService {
 
             // --- THIS IS THE CORRECTED LOGIC ---
 
-            // Check for duplicate medicine name in the same branch
+            // 1. Generate a unique, server-side ID for the new medicine.
+            String medicineId =  IdGenerator.newId("MED");
+
+            // Claim the name in the branch's name index; this is the duplicate check.
             String medicineName = dto.getName();
-            boolean medicineExists = medicineRepository.findAllByBranchId(orgId, branchId).stream()
-                    .anyMatch(m -> m.getName().equalsIgnoreCase(medicineName));
-                    
-            if (medicineExists) {
+            if (!nameIndexRepository.claimMedicineName(orgId, branchId, medicineName, medicineId)) {
                 throw new IllegalArgumentException("A medicine with the name '" + medicineName + "' already exists in this branch.");
             }
-            
-            // 1. Generate a unique, server-side ID for the new medicine.
-            String medicineId =  IdGenerator.newId("MED");;
 
             // 2. Build the Medicine domain object from the DTO, including the new fields.
-            Medicine newMedicine = Medicine.builder()
-                    .medicineId(medicineId)
-                    .name(dto.getName())
-                    .genericName(dto.getGenericName())   // <-- ADDED
-                    .category(dto.getCategory())
-                    .manufacturer(dto.getManufacturer()) // <-- ADDED
-                    .unitOfMeasurement(dto.getUnitOfMeasurement())
-                    .lowStockThreshold(dto.getLowStockThreshold())
-                    .taxProfileId(dto.getTaxProfileId())
-                    .unitPrice(dto.getUnitPrice())
-                    // Optional fields
-                    .location(dto.getLocation())         // <-- ADDED
-                    .sku(dto.getSku())
-                    .hsnCode(dto.getHsnCode())
-                    // Server-controlled fields
-                    .status(dto.getStatus()) // <-- Set default status on the server, not from the client.
-                    .build();
+            Medicine newMedicine = toNewMedicine(medicineId, dto);
 
             // 3. Save the new medicine to the database using the repository.
-            return medicineRepository.save(orgId, branchId, newMedicine);
+            try {
+                return medicineRepository.save(orgId, branchId, newMedicine);
+            } catch (RuntimeException e) {
+                nameIndexRepository.releaseMedicineName(orgId, branchId, medicineName, medicineId);
+                throw e;
+            }
         }
 
+    /**
+     * Maps a create request to a new Medicine. Shared by the single and bulk create paths.
+     */
+    Medicine toNewMedicine(String medicineId, CreateMedicineRequest dto) {
+        return Medicine.builder()
+                .medicineId(medicineId)
+                .name(dto.getName())
+                .genericName(dto.getGenericName())   // <-- ADDED
+                .category(dto.getCategory())
+                .manufacturer(dto.getManufacturer()) // <-- ADDED
+                .unitOfMeasurement(dto.getUnitOfMeasurement())
+                .lowStockThreshold(dto.getLowStockThreshold())
+                .taxProfileId(dto.getTaxProfileId())
+                .unitPrice(dto.getUnitPrice())
+                // Optional fields
+                .location(dto.getLocation())         // <-- ADDED
+                .sku(dto.getSku())
+                .hsnCode(dto.getHsnCode())
+                // Server-controlled fields
+                .status(dto.getStatus()) // <-- Set default status on the server, not from the client.
+                .build();
+    }
+
     /*public List<MedicineStockResponse> getMedicinesForBranch(String orgId, String branchId) {
         // 1. Fetch all the medicine master documents for the branch.
         List<Medicine> medicines = medicineRepository.findAllByBranchId(orgId, branchId);
@@ -100,23 +132,32 @@ public class MasterDataService {
     public List<MedicineStockResponse> getMedicinesForBranch(String orgId, String branchId) {
         // --- THE NEW, EFFICIENT LOGIC ---
 
-        // 1. Fetch all the medicine master documents for the branch. This is the ONLY database call.
+        // 1. Fetch all the medicine master documents for the branch, and the stock changes
+        //    not yet compacted into them (one query for the whole branch).
         List<Medicine> medicines = medicineRepository.findAllByBranchId(orgId, branchId);
+        Map<String, Long> pendingStock = stockShardRepository.pendingByMedicine(orgId, branchId);
 
-        // 2. The stock is already on the object. Just map to the DTO.
+        // 2. The compacted stock is already on the object; add the pending changes and map to the DTO.
 
         return medicines.stream()
                 .map(medicine -> {
+                    addPendingStock(medicine, pendingStock.getOrDefault(medicine.getMedicineId(), 0L));
                     return MedicineStockResponse.from(medicine);
                 })
                 .collect(Collectors.toList());
     }
 
     public Medicine getMedicineById(String orgId, String branchId, String medicineId) {
-        return medicineRepository.findById(orgId, branchId, medicineId)
+        Medicine medicine = medicineRepository.findById(orgId, branchId, medicineId)
                 .orElseThrow(() -> new ResourceNotFoundException("Medicine with ID " + medicineId + " not found."));
+        addPendingStock(medicine, stockShardRepository.pending(orgId, branchId, medicineId));
+        return medicine;
+    }
 
-
+    private static void addPendingStock(Medicine medicine, long pending) {
+        if (pending != 0) {
+            medicine.setQuantityInStock((int) (medicine.getQuantityInStock() + pending));
+        }
     }
 
     public List<Supplier> getSuppliersForOrg(String orgId) {
@@ -129,15 +170,12 @@ public class MasterDataService {
 
     // --- ADD SUPPLIER LOGIC ---
     public Supplier createSupplier(String orgId, CreateSupplierRequest dto) {
-        // Check for duplicate supplier name
+        // Claim the name in the organization's name index; this is the duplicate check.
         String supplierName = dto.getName();
-        boolean supplierExists = supplierRepository.findAllByOrganizationId(orgId).stream()
-                .anyMatch(s -> s.getName().equalsIgnoreCase(supplierName));
-                
-        if (supplierExists) {
+        String supplierId = IdGenerator.newId("SUP");
+        if (!nameIndexRepository.claimSupplierName(orgId, supplierName, supplierId)) {
             throw new IllegalArgumentException("A supplier with the name '" + supplierName + "' already exists.");
         }
-        String supplierId = IdGenerator.newId("SUP");
         Supplier supplier = Supplier.builder()
                 .supplierId(supplierId)
                 .name(dto.getName())
@@ -152,7 +190,12 @@ public class MasterDataService {
                 .status(dto.getStatus())
                 .balance(0.0)
                 .build();
-        return supplierRepository.save(orgId, supplier);
+        try {
+            return supplierRepository.save(orgId, supplier);
+        } catch (RuntimeException e) {
+            nameIndexRepository.releaseSupplierName(orgId, supplierName, supplierId);
+            throw e;
+        }
     }
 
     // --- ADD TAX PROFILE LOGIC ---
@@ -180,7 +223,10 @@ public class MasterDataService {
                 .totalRate(dto.getTotalRate())
                 .components(componentModels)
                 .build();
-        return taxProfileRepository.save(orgId, taxProfile);
+        // The ID is derived from the name, so this may overwrite a cached profile.
+        TaxProfile savedProfile = taxProfileRepository.save(orgId, taxProfile);
+        taxProfileCache.invalidate(orgId);
+        return savedProfile;
     }
 
     /*public Medicine updateMedicine(String orgId, String branchId, String medicineId, UpdateMedicineRequest dto) {
@@ -219,34 +265,65 @@ public class MasterDataService {
         Medicine existingMedicine = medicineRepository.findById(orgId, branchId, medicineId)
                 .orElseThrow(() -> new ResourceNotFoundException("Medicine with ID " + medicineId + " not found."));
 
-        // 2. Efficiently check if the new name is already taken by another medicine.
+        // 2. On a rename, claim the new name in the name index; this is the duplicate check.
         String newName = dto.getName();
-        if (!existingMedicine.getName().equalsIgnoreCase(newName)) {
-            medicineRepository.findByNameIgnoreCaseExcludingId(orgId, branchId, newName, medicineId)
-                    .ifPresent(m -> {
-                        throw new IllegalArgumentException("A medicine with the name '" + newName + "' already exists.");
-                    });
+        String previousName = existingMedicine.getName();
+        boolean renamed = !NameIndexRepository.normalize(previousName).equals(NameIndexRepository.normalize(newName));
+        if (renamed && !nameIndexRepository.claimMedicineName(orgId, branchId, newName, medicineId)) {
+            throw new IllegalArgumentException("A medicine with the name '" + newName + "' already exists.");
         }
 
-        // 3. --- THIS IS THE CORRECTED MAPPING ---
-        // Update all permissible fields from the request DTO.
-        existingMedicine.setName(dto.getName());
-        //existingMedicine.setNormalizedName(dto.getName().toLowerCase()); // Update the normalized field
-        existingMedicine.setGenericName(dto.getGenericName());
-        existingMedicine.setCategory(dto.getCategory());
-        existingMedicine.setManufacturer(dto.getManufacturer());
-        existingMedicine.setLocation(dto.getLocation());
-        existingMedicine.setUnitOfMeasurement(dto.getUnitOfMeasurement());
-        existingMedicine.setLowStockThreshold(dto.getLowStockThreshold());
-        existingMedicine.setTaxProfileId(dto.getTaxProfileId());
-        existingMedicine.setUnitPrice(dto.getUnitPrice());
-        existingMedicine.setSku(dto.getSku());
-        existingMedicine.setHsnCode(dto.getHsnCode());
-        existingMedicine.setStatus(dto.getStatus());
-        // Note: 'status' is not updated here, as that's handled by a separate delete/deactivate method.
+        // 3. Apply the edit in a transaction that holds the medicine's lock and reads its batches,
+        //    so a category change moves exactly the stock they hold between category aggregates.
+        Medicine savedMedicine;
+        try {
+            savedMedicine = transactionRunner.run("medicine.update", TransactionRunner.medicineKeys(orgId, branchId, List.of(medicineId)), transaction -> {
+                DocumentReference medicineRef = FirestorePaths.medicine(firestore, orgId, branchId, medicineId);
+                FirestoreUsage.reads(1);
+                DocumentSnapshot medicineDoc = transaction.get(medicineRef).get();
+                if (!medicineDoc.exists()) {
+                    throw new ResourceNotFoundException("Medicine with ID " + medicineId + " not found.");
+                }
+                Medicine medicine = medicineDoc.toObject(Medicine.class);
+                String previousCategory = medicine.getCategory();
+                long stock = Objects.equals(previousCategory, dto.getCategory())
+                        ? 0 : availableBatchReader.sumAvailable(transaction, orgId, branchId, medicineId);
+
+                // --- THIS IS THE CORRECTED MAPPING ---
+                // Update all permissible fields from the request DTO.
+                medicine.setName(dto.getName());
+                //medicine.setNormalizedName(dto.getName().toLowerCase()); // Update the normalized field
+                medicine.setGenericName(dto.getGenericName());
+                medicine.setCategory(dto.getCategory());
+                medicine.setManufacturer(dto.getManufacturer());
+                medicine.setLocation(dto.getLocation());
+                medicine.setUnitOfMeasurement(dto.getUnitOfMeasurement());
+                medicine.setLowStockThreshold(dto.getLowStockThreshold());
+                medicine.setTaxProfileId(dto.getTaxProfileId());
+                medicine.setUnitPrice(dto.getUnitPrice());
+                medicine.setSku(dto.getSku());
+                medicine.setHsnCode(dto.getHsnCode());
+                medicine.setStatus(dto.getStatus());
+
+                // Overwrite the old document, and move the stock if the category changed.
+                FirestoreUsage.writes(1);
+                transaction.set(medicineRef, medicine);
+                stockAggregateRepository.transferInTransaction(transaction, orgId, branchId, previousCategory, dto.getCategory(), stock);
+                return medicine;
+            }).join();
+        } catch (RuntimeException e) {
+            if (renamed) {
+                nameIndexRepository.releaseMedicineName(orgId, branchId, newName, medicineId);
+            }
+            if (e instanceof CompletionException && FirestoreFutures.unwrap(e) instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
 
-        // 4. Save the updated object, overwriting the old one.
-        return medicineRepository.save(orgId, branchId, existingMedicine);
+        // 4. Free the old name once the new one is saved.
+        if (renamed) {
+            nameIndexRepository.releaseMedicineName(orgId, branchId, previousName, medicineId);
+        }
+        return savedMedicine;
     }
     public void deleteMedicineSoft(String orgId, String branchId, String medicineId) {
         // SOFT DELETE implementation
@@ -300,22 +377,19 @@ public class MasterDataService {
 
         // 3. If all checks pass, call the repository to permanently delete the document.
         supplierRepository.deleteById(orgId, supplierId);
+        nameIndexRepository.releaseSupplierName(orgId, supplierToDelete.getName(), supplierId);
     }
 
     public Supplier updateSupplier(String orgId, String supplierId, UpdateSupplierRequest dto) {
         Supplier existingSupplier = supplierRepository.findById(orgId, supplierId)
                 .orElseThrow(() -> new ResourceNotFoundException("Supplier with ID " + supplierId + " not found."));
 
-        // Check if the name is being changed and if the new name already exists
+        // On a rename, claim the new name in the name index; this is the duplicate check.
         String newName = dto.getName();
-        if (!existingSupplier.getName().equals(newName)) {
-            boolean supplierWithSameNameExists = supplierRepository.findAllByOrganizationId(orgId).stream()
-                    .filter(s -> !s.getSupplierId().equals(supplierId)) // Exclude the current supplier
-                    .anyMatch(s -> s.getName().equalsIgnoreCase(newName));
-
-            if (supplierWithSameNameExists) {
-                throw new IllegalArgumentException("A supplier with the name '" + newName + "' already exists.");
-            }
+        String previousName = existingSupplier.getName();
+        boolean renamed = !NameIndexRepository.normalize(previousName).equals(NameIndexRepository.normalize(newName));
+        if (renamed && !nameIndexRepository.claimSupplierName(orgId, newName, supplierId)) {
+            throw new IllegalArgumentException("A supplier with the name '" + newName + "' already exists.");
         }
 
         existingSupplier.setName(dto.getName());
@@ -326,7 +400,19 @@ public class MasterDataService {
         existingSupplier.setMobileNumber(dto.getMobileNumber());
         existingSupplier.setDrugLicenseNumber(dto.getDrugLicenseNumber());
         existingSupplier.setContactPerson(dto.getContactPerson());
-        return supplierRepository.save(orgId, existingSupplier);
+        Supplier savedSupplier;
+        try {
+            savedSupplier = supplierRepository.save(orgId, existingSupplier);
+        } catch (RuntimeException e) {
+            if (renamed) {
+                nameIndexRepository.releaseSupplierName(orgId, newName, supplierId);
+            }
+            throw e;
+        }
+        if (renamed) {
+            nameIndexRepository.releaseSupplierName(orgId, previousName, supplierId);
+        }
+        return savedSupplier;
     }
 
     /**
@@ -337,24 +423,20 @@ public class MasterDataService {
      * @param branchId The branch ID of the authenticated user.
      * @return A list of DTOs suitable for the Stock Details UI.
      */
-    public List<MedicineStockResponse> getAllMedicinesForBranch(String orgId, String branchId) {
+    public List<MedicineStockResponse> getAllMedicinesForBranch(String orgId, String branchId)
+            throws ExecutionException, InterruptedException {
         // 1. Fetch all the medicine master documents for the branch.
         List<Medicine> medicines = medicineRepository.findAllByBranchId(orgId, branchId);
 
-        // 2. Use a Java Stream to process each medicine.
+        // 2. Sum the batches of every medicine in the branch with a single query,
+        //    instead of one batch query per medicine.
+        Map<String, Integer> stockByMedicine = availableBatchReader.totalAvailableByMedicine(orgId, branchId);
+
         return medicines.stream()
                 .map(medicine -> {
-                    // 3. For each medicine, fetch all of its batch documents.
-                    //    This uses the non-transactional read method we created earlier.
-                    List<MedicineBatch> batches = medicineBatchRepository.findAllBatchesForMedicine(
-                            orgId, branchId, medicine.getMedicineId());
-
-                    // 4. Calculate the total stock by summing the quantity from each batch.
-                    int totalStock = batches.stream()
-                            .mapToInt(MedicineBatch::getQuantityAvailable)
-                            .sum();
+                    int totalStock = stockByMedicine.getOrDefault(medicine.getMedicineId(), 0);
 
-                    // 5. Build the final response DTO with the calculated stock.
+                    // 3. Build the final response DTO with the calculated stock.
                     return MedicineStockResponse.builder()
                             .medicineId(medicine.getMedicineId())
                             .name(medicine.getName())
@@ -397,7 +479,9 @@ public class MasterDataService {
         existingProfile.setComponents(componentModels);
 
         // 5. Save the updated object.
-        return taxProfileRepository.save(orgId, existingProfile);
+        TaxProfile savedProfile = taxProfileRepository.save(orgId, existingProfile);
+        taxProfileCache.invalidate(orgId);
+        return savedProfile;
     }
 
     /**
@@ -426,6 +510,7 @@ public class MasterDataService {
 
         // 4. Save the updated object.
         taxProfileRepository.save(orgId, taxProfile);
+        taxProfileCache.invalidate(orgId);
     }
 
     /**
@@ -455,6 +540,7 @@ public class MasterDataService {
 
         // 3. If all checks pass, call the repository to permanently delete the document.
         taxProfileRepository.deleteById(orgId, taxProfileId);
+        taxProfileCache.invalidate(orgId);
     }
 
     /**
@@ -511,7 +597,9 @@ public class MasterDataService {
                       .append(": ").append(e.getMessage()).append("; ");
             }
         }
-        
+
+        // Invalidate even on partial failure: the "no tax" profile may have been created.
+        taxProfileCache.invalidate(orgId);
         return new CleanupResult(deletedCount, errorCount, errors.toString());
     }
     
@@ -580,14 +668,13 @@ public class MasterDataService {
      */
     public void deleteMedicine(String orgId, String branchId, String medicineId) {
         // 1. Check if the medicine exists before proceeding.
-        medicineRepository.findById(orgId, branchId, medicineId)
+        Medicine medicine = medicineRepository.findById(orgId, branchId, medicineId)
                 .orElseThrow(() -> new ResourceNotFoundException("Medicine with ID " + medicineId + " not found."));
 
 
         // 2. --- CRITICAL BUSINESS LOGIC CHECK ---
-        //    Fetch all batches to check the total stock.
-        List<MedicineBatch> batches = medicineBatchRepository.findAllBatchesForMedicine(orgId, branchId, medicineId);
-        int totalStock = batches.stream().mapToInt(MedicineBatch::getQuantityAvailable).sum();
+        //    Sum the stock of all batches (server-side, the batches are not fetched).
+        long totalStock = availableBatchReader.sumAvailable(orgId, branchId, medicineId);
 
         if (totalStock > 0) {
             throw new IllegalStateException("Cannot delete medicine. It still has " + totalStock + " units in stock.");
@@ -597,6 +684,7 @@ public class MasterDataService {
 
         // 3. If all checks pass, call the repository to permanently delete the document and its sub-collection.
         medicineRepository.deleteByIdHard(orgId, branchId, medicineId);
+        nameIndexRepository.releaseMedicineName(orgId, branchId, medicine.getName(), medicineId);
     }
 
     /**
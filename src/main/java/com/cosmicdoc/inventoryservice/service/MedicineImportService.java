@@ -0,0 +1,306 @@
+package com.cosmicdoc.inventoryservice.service;
+
+import com.cosmicdoc.common.model.Medicine;
+import com.cosmicdoc.common.model.TaxProfile;
+import com.cosmicdoc.common.repository.MedicineRepository;
+import com.cosmicdoc.common.repository.TaxProfileRepository;
+import com.cosmicdoc.common.util.IdGenerator;
+import com.cosmicdoc.inventoryservice.dto.request.CreateMedicineRequest;
+import com.cosmicdoc.inventoryservice.dto.response.MedicineImportEvent;
+import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.NameIndexRepository;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk medicine import for branch onboarding.
+ * <p>
+ * Every row is validated in memory against one snapshot of the branch catalog and the
+ * organization's tax profiles, then the valid rows are written in chunks of
+ * {@link #CHUNK_SIZE} with a {@link WriteBatch} that also claims each name in the
+ * name index. If a chunk is rejected (e.g. a name was taken concurrently), its rows
+ * are retried one by one through the regular create path so each gets its own outcome.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MedicineImportService {
+
+    public static final int MAX_ROWS = 20_000;
+    // Two writes per row (medicine + name key) against the 500-write batch limit.
+    private static final int CHUNK_SIZE = 200;
+
+    private static final Map<String, BiConsumer<CreateMedicineRequest, String>> CSV_COLUMNS = csvColumns();
+
+    private final Firestore firestore;
+    private final MedicineRepository medicineRepository;
+    private final TaxProfileRepository taxProfileRepository;
+    private final NameIndexRepository nameIndexRepository;
+    private final MasterDataService masterDataService;
+    private final Validator validator;
+
+    /**
+     * A request row with its 1-based position in the upload. {@code error} is set if
+     * the row could not even be parsed.
+     */
+    public record ImportRow(int row, CreateMedicineRequest request, String error) {}
+
+    public List<ImportRow> fromJson(List<CreateMedicineRequest> requests) {
+        checkSize(requests.size());
+        List<ImportRow> rows = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            CreateMedicineRequest request = requests.get(i);
+            rows.add(new ImportRow(i + 1, request, request == null ? "Row is empty." : null));
+        }
+        return rows;
+    }
+
+    /**
+     * Parses a CSV upload whose header names the CreateMedicineRequest fields
+     * (case-insensitive), e.g. {@code name,category,genericName,...,taxProfileId}.
+     *
+     * @throws InvalidRequestException if the header is missing or names an unknown column.
+     */
+    public List<ImportRow> parseCsv(String csv) {
+        List<List<String>> records = readCsv(csv);
+        if (records.isEmpty()) {
+            throw new InvalidRequestException("CSV upload is empty.");
+        }
+
+        List<BiConsumer<CreateMedicineRequest, String>> setters = new ArrayList<>();
+        for (String column : records.get(0)) {
+            BiConsumer<CreateMedicineRequest, String> setter = CSV_COLUMNS.get(column.trim().toLowerCase(Locale.ROOT));
+            if (setter == null) {
+                throw new InvalidRequestException("Unknown CSV column '" + column + "'. Expected any of " + CSV_COLUMNS.keySet() + ".");
+            }
+            setters.add(setter);
+        }
+
+        List<List<String>> dataRecords = records.subList(1, records.size());
+        checkSize(dataRecords.size());
+        List<ImportRow> rows = new ArrayList<>(dataRecords.size());
+        for (int i = 0; i < dataRecords.size(); i++) {
+            List<String> values = dataRecords.get(i);
+            CreateMedicineRequest request = new CreateMedicineRequest();
+            String error = null;
+            if (values.size() != setters.size()) {
+                error = "Expected " + setters.size() + " columns but found " + values.size() + ".";
+            } else {
+                try {
+                    for (int c = 0; c < setters.size(); c++) {
+                        String value = values.get(c).trim();
+                        setters.get(c).accept(request, value.isEmpty() ? null : value);
+                    }
+                } catch (NumberFormatException e) {
+                    error = "Invalid number: " + e.getMessage();
+                }
+            }
+            rows.add(new ImportRow(i + 1, request, error));
+        }
+        return rows;
+    }
+
+    /**
+     * Validates and writes the rows, reporting each failure and the progress of
+     * every chunk to {@code listener}, and finishing with a SUMMARY event.
+     */
+    public void importMedicines(String orgId, String branchId, List<ImportRow> rows, Consumer<MedicineImportEvent> listener) {
+        int total = rows.size();
+        int failed = 0;
+        int created = 0;
+
+        // 1. One snapshot of the catalog and tax profiles for the whole upload.
+        nameIndexRepository.ensureMedicineIndex(orgId, branchId);
+        Set<String> takenNames = medicineRepository.findAllByBranchId(orgId, branchId).stream()
+                .map(Medicine::getName)
+                .filter(Objects::nonNull)
+                .map(NameIndexRepository::normalize)
+                .collect(Collectors.toCollection(HashSet::new));
+        Set<String> taxProfileIds = taxProfileRepository.findAllByOrganizationId(orgId).stream()
+                .map(TaxProfile::getTaxProfileId)
+                .collect(Collectors.toSet());
+
+        // 2. Validate every row in memory.
+        Map<String, Integer> rowByName = new HashMap<>();
+        List<ImportRow> validRows = new ArrayList<>();
+        for (ImportRow row : rows) {
+            String error = validate(row, takenNames, taxProfileIds, rowByName);
+            if (error != null) {
+                failed++;
+                listener.accept(rowFailed(row, error));
+            } else {
+                validRows.add(row);
+            }
+        }
+        listener.accept(progress(failed + created, total, created, failed));
+
+        // 3. Write the valid rows in chunks.
+        for (int start = 0; start < validRows.size(); start += CHUNK_SIZE) {
+            List<ImportRow> chunk = validRows.subList(start, Math.min(start + CHUNK_SIZE, validRows.size()));
+            if (writeChunk(orgId, branchId, chunk)) {
+                created += chunk.size();
+            } else {
+                for (ImportRow row : chunk) {
+                    try {
+                        masterDataService.createMedicine(orgId, branchId, row.request());
+                        created++;
+                    } catch (RuntimeException e) {
+                        failed++;
+                        listener.accept(rowFailed(row, e.getMessage()));
+                    }
+                }
+            }
+            listener.accept(progress(failed + created, total, created, failed));
+        }
+
+        log.info("Medicine import for {}/{}: {} rows, {} created, {} failed", orgId, branchId, total, created, failed);
+        listener.accept(MedicineImportEvent.builder()
+                .type(MedicineImportEvent.Type.SUMMARY)
+                .processed(failed + created).total(total).created(created).failed(failed)
+                .build());
+    }
+
+    private String validate(ImportRow row, Set<String> takenNames, Set<String> taxProfileIds, Map<String, Integer> rowByName) {
+        if (row.error() != null) return row.error();
+
+        CreateMedicineRequest request = row.request();
+        Set<ConstraintViolation<CreateMedicineRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            return violations.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining(" "));
+        }
+        if (!taxProfileIds.contains(request.getTaxProfileId())) {
+            return "Tax Profile with ID " + request.getTaxProfileId() + " not found.";
+        }
+
+        String name = NameIndexRepository.normalize(request.getName());
+        if (takenNames.contains(name)) {
+            return "A medicine with the name '" + request.getName() + "' already exists in this branch.";
+        }
+        Integer firstRow = rowByName.putIfAbsent(name, row.row());
+        if (firstRow != null) {
+            return "Duplicate of row " + firstRow + ".";
+        }
+        return null;
+    }
+
+    private boolean writeChunk(String orgId, String branchId, List<ImportRow> chunk) {
+        WriteBatch batch = firestore.batch();
+        for (ImportRow row : chunk) {
+            String medicineId = IdGenerator.newId("MED");
+            Medicine medicine = masterDataService.toNewMedicine(medicineId, row.request());
+            batch.set(FirestorePaths.medicine(firestore, orgId, branchId, medicineId), medicine);
+            nameIndexRepository.stageMedicineClaim(batch, orgId, branchId, row.request().getName(), medicineId);
+        }
+        try {
+            batch.commit().get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while importing medicines", e);
+        } catch (ExecutionException e) {
+            log.warn("Medicine import chunk of {} rows starting at row {} was rejected; retrying row by row",
+                    chunk.size(), chunk.get(0).row(), e.getCause());
+            return false;
+        }
+    }
+
+    private static void checkSize(int rows) {
+        if (rows > MAX_ROWS) {
+            throw new InvalidRequestException("An import cannot exceed " + MAX_ROWS + " rows; split the file.");
+        }
+    }
+
+    private static MedicineImportEvent rowFailed(ImportRow row, String message) {
+        return MedicineImportEvent.builder()
+                .type(MedicineImportEvent.Type.ROW_FAILED)
+                .row(row.row())
+                .name(row.request() != null ? row.request().getName() : null)
+                .message(message)
+                .build();
+    }
+
+    private static MedicineImportEvent progress(int processed, int total, int created, int failed) {
+        return MedicineImportEvent.builder()
+                .type(MedicineImportEvent.Type.PROGRESS)
+                .processed(processed).total(total).created(created).failed(failed)
+                .build();
+    }
+
+    private static Map<String, BiConsumer<CreateMedicineRequest, String>> csvColumns() {
+        Map<String, BiConsumer<CreateMedicineRequest, String>> columns = new LinkedHashMap<>();
+        columns.put("name", CreateMedicineRequest::setName);
+        columns.put("category", CreateMedicineRequest::setCategory);
+        columns.put("genericname", CreateMedicineRequest::setGenericName);
+        columns.put("manufacturer", CreateMedicineRequest::setManufacturer);
+        columns.put("unitofmeasurement", CreateMedicineRequest::setUnitOfMeasurement);
+        columns.put("lowstockthreshold", (request, value) -> request.setLowStockThreshold(value == null ? null : Integer.valueOf(value)));
+        columns.put("taxprofileid", CreateMedicineRequest::setTaxProfileId);
+        columns.put("location", CreateMedicineRequest::setLocation);
+        columns.put("unitprice", (request, value) -> request.setUnitPrice(value == null ? null : Double.valueOf(value)));
+        columns.put("sku", CreateMedicineRequest::setSku);
+        columns.put("hsncode", CreateMedicineRequest::setHsnCode);
+        columns.put("status", CreateMedicineRequest::setStatus);
+        return Collections.unmodifiableMap(columns);
+    }
+
+    /**
+     * Minimal RFC 4180 reader: comma separated, double-quoted fields may contain
+     * commas, line breaks and doubled quotes. Blank lines are skipped.
+     */
+    private static List<List<String>> readCsv(String csv) {
+        List<List<String>> records = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int start = csv.startsWith("\uFEFF") ? 1 : 0;
+
+        for (int i = start; i < csv.length(); i++) {
+            char ch = csv.charAt(i);
+            if (quoted) {
+                if (ch == '"' && i + 1 < csv.length() && csv.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (ch == '"') {
+                    quoted = false;
+                } else {
+                    field.append(ch);
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (ch == '\n' || ch == '\r') {
+                if (ch == '\r' && i + 1 < csv.length() && csv.charAt(i + 1) == '\n') i++;
+                endRecord(records, record, field);
+                record = new ArrayList<>();
+            } else {
+                field.append(ch);
+            }
+        }
+        if (quoted) {
+            throw new InvalidRequestException("CSV upload ends inside a quoted field.");
+        }
+        endRecord(records, record, field);
+        return records;
+    }
+
+    private static void endRecord(List<List<String>> records, List<String> record, StringBuilder field) {
+        record.add(field.toString());
+        field.setLength(0);
+        boolean blank = record.size() == 1 && record.get(0).isBlank();
+        if (!blank) records.add(record);
+    }
+}
@@ -0,0 +1,163 @@
+package com.cosmicdoc.inventoryservice.service;
+
+import com.cosmicdoc.common.model.AdjustmentType;
+import com.cosmicdoc.common.model.GstType;
+import org.springframework.stereotype.Component;
+
+/**
+ * The one place that prices sale, purchase and return lines.
+ * <p>
+ * All arithmetic is on {@code long} fixed-point values: amounts in paise, percentages
+ * in basis points (1% = 100). Inputs are converted once at the edge ({@link #toPaise},
+ * {@link #toBasisPoints}) and outputs back to rupees when the documents are built
+ * ({@link #toRupees}). Every division rounds half up, and the rules per GST type are:
+ * <ul>
+ *     <li>discount = gross x discount% (rounded), net = gross - discount</li>
+ *     <li>INCLUSIVE: taxable = net / (1 + rate) (rounded), tax = net - taxable</li>
+ *     <li>EXCLUSIVE: taxable = net, tax = net x rate (rounded)</li>
+ *     <li>NON_GST: taxable = net, tax = 0</li>
+ * </ul>
+ * Invoice totals are exact sums of the rounded line amounts, so recomputing a stored
+ * invoice always reproduces the same figures.
+ */
+@Component
+public class PricingEngine {
+
+    private static final long PAISE_PER_RUPEE = 100;
+    private static final long BASIS_POINTS = 10_000;
+
+    /**
+     * Prices one line: {@code quantity} units at {@code unitPrice} rupees.
+     *
+     * @param taxRatePercentage the GST rate, e.g. 18 for 18%; ignored for NON_GST.
+     */
+    public LinePrice price(double unitPrice, int quantity, double discountPercentage, double taxRatePercentage, GstType gstType) {
+        long gross = Math.multiplyExact(toPaise(unitPrice), quantity);
+        long discount = percentage(gross, discountPercentage);
+        long net = gross - discount;
+        long rate = toBasisPoints(taxRatePercentage);
+
+        if (gstType == GstType.INCLUSIVE) {
+            long taxable = divideHalfUp(Math.multiplyExact(net, BASIS_POINTS), BASIS_POINTS + rate);
+            return new LinePrice(gross, discount, taxable, net - taxable);
+        }
+        if (gstType == GstType.EXCLUSIVE) {
+            return new LinePrice(gross, discount, net, divideHalfUp(Math.multiplyExact(net, rate), BASIS_POINTS));
+        }
+        return new LinePrice(gross, discount, net, 0);
+    }
+
+    /**
+     * The overall invoice adjustment in paise: positive for a discount, negative for an
+     * additional charge, and 0 when there is no adjustment or its value is not positive.
+     *
+     * @param percentageBase the amount a PERCENTAGE_DISCOUNT applies to.
+     */
+    public long overallAdjustment(AdjustmentType type, Double value, long percentageBase) {
+        if (type == null || value == null || value <= 0) return 0;
+        return switch (type) {
+            case PERCENTAGE_DISCOUNT -> percentage(percentageBase, value);
+            case FIXED_DISCOUNT -> toPaise(value);
+            case ADDITIONAL_CHARGE -> -toPaise(value);
+            default -> 0;
+        };
+    }
+
+    /**
+     * {@code amount} x {@code percentage}%, rounded to the paisa.
+     */
+    public long percentage(long amount, double percentage) {
+        return divideHalfUp(Math.multiplyExact(amount, toBasisPoints(percentage)), BASIS_POINTS);
+    }
+
+    /**
+     * The share of {@code amount} that belongs to {@code part} of {@code whole} units,
+     * e.g. the value of 3 returned units out of a line of 10.
+     */
+    public long share(long amount, int part, int whole) {
+        if (whole == 0) return 0;
+        return divideHalfUp(Math.multiplyExact(amount, part), whole);
+    }
+
+    public static long toPaise(double rupees) {
+        return Math.round(rupees * PAISE_PER_RUPEE);
+    }
+
+    public static double toRupees(long paise) {
+        return (double) paise / PAISE_PER_RUPEE;
+    }
+
+    /**
+     * 18 -> 1800, 12.5 -> 1250. Percentages are kept to two decimal places.
+     */
+    public static long toBasisPoints(double percentage) {
+        return Math.round(percentage * 100);
+    }
+
+    static long divideHalfUp(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (Math.abs(remainder) * 2 >= Math.abs(divisor)) {
+            quotient += Long.signum(dividend) * Long.signum(divisor);
+        }
+        return quotient;
+    }
+
+    /**
+     * A priced line, in paise. {@code total} is what the customer pays (or the supplier
+     * is owed) for the line.
+     */
+    public record LinePrice(long gross, long discount, long taxable, long tax) {
+
+        public long net() {
+            return gross - discount;
+        }
+
+        public long total() {
+            return taxable + tax;
+        }
+    }
+
+    /**
+     * Running invoice totals, in paise.
+     */
+    public static final class Totals {
+
+        private long gross;
+        private long discount;
+        private long taxable;
+        private long tax;
+
+        public Totals add(LinePrice line) {
+            gross += line.gross();
+            discount += line.discount();
+            taxable += line.taxable();
+            tax += line.tax();
+            return this;
+        }
+
+        public long gross() {
+            return gross;
+        }
+
+        public long discount() {
+            return discount;
+        }
+
+        public long net() {
+            return gross - discount;
+        }
+
+        public long taxable() {
+            return taxable;
+        }
+
+        public long tax() {
+            return tax;
+        }
+
+        public long total() {
+            return taxable + tax;
+        }
+    }
+}
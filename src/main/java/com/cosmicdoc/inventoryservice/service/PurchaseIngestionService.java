@@ -0,0 +1,236 @@
+package com.cosmicdoc.inventoryservice.service;
+
+import com.cosmicdoc.common.model.GstType;
+import com.cosmicdoc.common.model.Medicine;
+import com.cosmicdoc.common.model.Purchase;
+import com.cosmicdoc.common.model.TaxProfile;
+import com.cosmicdoc.common.repository.SupplierRepository;
+import com.cosmicdoc.common.repository.TaxProfileRepository;
+import com.cosmicdoc.common.util.IdGenerator;
+import com.cosmicdoc.inventoryservice.context.TenantContext;
+import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseRequest;
+import com.cosmicdoc.inventoryservice.dto.response.PurchaseIngestionReport;
+import com.cosmicdoc.inventoryservice.dto.response.PurchaseIngestionReport.InvoiceResult;
+import com.cosmicdoc.inventoryservice.dto.response.PurchaseIngestionReport.Status;
+import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk ingestion of purchase invoices, e.g. a month-end backlog from distributor files.
+ * <p>
+ * Master data is read once per job: each supplier, every referenced medicine (in one
+ * round trip) and the organization's tax profiles. Invoices that fail these checks are
+ * rejected without opening a transaction. The rest are committed through the regular
+ * {@link PurchaseService#createPurchase} path, one transaction per invoice, reusing the
+ * prefetched medicines.
+ * <p>
+ * Invoices are grouped by supplier: a group runs sequentially, because every invoice
+ * updates its supplier's balance, while up to {@code app.purchase-ingestion.concurrency}
+ * groups run in parallel, on virtual threads when {@code spring.threads.virtual.enabled}
+ * is set.
+ */
+@Service
+@Slf4j
+public class PurchaseIngestionService {
+
+    public static final int MAX_INVOICES = 1_000;
+
+    private final Firestore firestore;
+    private final PurchaseService purchaseService;
+    private final SupplierRepository supplierRepository;
+    private final TaxProfileRepository taxProfileRepository;
+    private final Validator validator;
+    private final int concurrency;
+    private final boolean virtualThreads;
+
+    public PurchaseIngestionService(Firestore firestore,
+                                    PurchaseService purchaseService,
+                                    SupplierRepository supplierRepository,
+                                    TaxProfileRepository taxProfileRepository,
+                                    Validator validator,
+                                    @Value("${app.purchase-ingestion.concurrency:4}") int concurrency,
+                                    @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.firestore = firestore;
+        this.purchaseService = purchaseService;
+        this.supplierRepository = supplierRepository;
+        this.taxProfileRepository = taxProfileRepository;
+        this.validator = validator;
+        this.concurrency = Math.max(1, concurrency);
+        this.virtualThreads = virtualThreads;
+    }
+
+    public PurchaseIngestionReport ingest(String orgId, String branchId, String userId, List<CreatePurchaseRequest> requests)
+            throws ExecutionException, InterruptedException {
+        if (requests.isEmpty()) {
+            throw new InvalidRequestException("No invoices to ingest.");
+        }
+        if (requests.size() > MAX_INVOICES) {
+            throw new InvalidRequestException("A job cannot exceed " + MAX_INVOICES + " invoices; split the file.");
+        }
+
+        String jobId = IdGenerator.newId("JOB");
+        long startedAt = System.currentTimeMillis();
+        InvoiceResult[] results = new InvoiceResult[requests.size()];
+
+        // 1. Prefetch master data once for the whole job.
+        Set<String> supplierIds = requests.stream().filter(Objects::nonNull).map(CreatePurchaseRequest::getSupplierId)
+                .filter(Objects::nonNull).collect(Collectors.toSet());
+        Set<String> knownSupplierIds = supplierIds.stream()
+                .filter(supplierId -> supplierRepository.findById(orgId, supplierId).isPresent())
+                .collect(Collectors.toSet());
+        Map<String, Medicine> medicines = prefetchMedicines(orgId, branchId, requests);
+        Set<String> taxProfileIds = taxProfileRepository.findAllByOrganizationId(orgId).stream()
+                .map(TaxProfile::getTaxProfileId).collect(Collectors.toSet());
+
+        // 2. Pre-validate in memory and group the survivors by supplier.
+        Set<String> seenReferences = new HashSet<>();
+        Map<String, List<Integer>> invoicesBySupplier = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            CreatePurchaseRequest request = requests.get(i);
+            String error = validate(request, knownSupplierIds, medicines, taxProfileIds, seenReferences);
+            if (error != null) {
+                results[i] = failed(i, request, error);
+            } else {
+                invoicesBySupplier.computeIfAbsent(request.getSupplierId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // 3. Commit: suppliers in parallel, each supplier's invoices in order.
+        if (!invoicesBySupplier.isEmpty()) {
+            // The pool stays bounded either way: concurrency caps contention on Firestore, not threads.
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, invoicesBySupplier.size()), threadFactory());
+            try {
+                List<Future<?>> groups = new ArrayList<>();
+                for (List<Integer> indexes : invoicesBySupplier.values()) {
+                    groups.add(executor.submit(FirestoreUsage.wrap(TenantContext.wrap(() -> {
+                        for (int index : indexes) {
+                            results[index] = commit(orgId, branchId, userId, index, requests.get(index), medicines);
+                        }
+                    }))));
+                }
+                for (Future<?> group : groups) {
+                    group.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        List<InvoiceResult> invoices = Arrays.asList(results);
+        int created = (int) invoices.stream().filter(result -> result.getStatus() == Status.CREATED).count();
+        PurchaseIngestionReport report = PurchaseIngestionReport.builder()
+                .jobId(jobId)
+                .total(invoices.size())
+                .created(created)
+                .failed(invoices.size() - created)
+                .durationMillis(System.currentTimeMillis() - startedAt)
+                .invoices(invoices)
+                .build();
+        log.info("Purchase ingestion {} for {}/{}: {} invoices, {} created, {} failed in {} ms",
+                jobId, orgId, branchId, report.getTotal(), report.getCreated(), report.getFailed(), report.getDurationMillis());
+        return report;
+    }
+
+    private ThreadFactory threadFactory() {
+        if (virtualThreads) {
+            return Thread.ofVirtual().name("purchase-ingest-", 1).factory();
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "purchase-ingest-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private Map<String, Medicine> prefetchMedicines(String orgId, String branchId, List<CreatePurchaseRequest> requests)
+            throws ExecutionException, InterruptedException {
+        DocumentReference[] refs = requests.stream()
+                .filter(request -> request != null && request.getItems() != null)
+                .flatMap(request -> request.getItems().stream())
+                .filter(item -> item != null && item.getMedicineId() != null)
+                .map(CreatePurchaseRequest.PurchaseItemDto::getMedicineId)
+                .distinct()
+                .map(medicineId -> FirestorePaths.medicine(firestore, orgId, branchId, medicineId))
+                .toArray(DocumentReference[]::new);
+
+        Map<String, Medicine> medicines = new HashMap<>();
+        if (refs.length == 0) return medicines;
+        for (DocumentSnapshot doc : firestore.getAll(refs).get()) {
+            if (doc.exists()) medicines.put(doc.getId(), doc.toObject(Medicine.class));
+        }
+        return medicines;
+    }
+
+    private String validate(CreatePurchaseRequest request, Set<String> knownSupplierIds, Map<String, Medicine> medicines,
+                            Set<String> taxProfileIds, Set<String> seenReferences) {
+        if (request == null) return "Invoice is empty.";
+
+        Set<ConstraintViolation<CreatePurchaseRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            return violations.stream().map(v -> v.getPropertyPath() + ": " + v.getMessage()).sorted().collect(Collectors.joining(" "));
+        }
+        if (!knownSupplierIds.contains(request.getSupplierId())) {
+            return "Supplier with ID " + request.getSupplierId() + " not found.";
+        }
+        for (CreatePurchaseRequest.PurchaseItemDto item : request.getItems()) {
+            if (!medicines.containsKey(item.getMedicineId())) {
+                return "Medicine with ID " + item.getMedicineId() + " not found.";
+            }
+            if (request.getGstType() != GstType.NON_GST && !taxProfileIds.contains(item.getTaxProfileId())) {
+                return "Tax profile ID '" + item.getTaxProfileId() + "' is invalid or missing for a GST item.";
+            }
+        }
+        if (!seenReferences.add(request.getSupplierId() + "\n" + request.getReferenceId())) {
+            return "Duplicate of an earlier invoice with reference " + request.getReferenceId() + " for this supplier.";
+        }
+        return null;
+    }
+
+    private InvoiceResult commit(String orgId, String branchId, String userId, int index, CreatePurchaseRequest request,
+                                 Map<String, Medicine> medicines) {
+        try {
+            Purchase purchase = purchaseService.createPurchase(orgId, branchId, userId, request, medicines);
+            return InvoiceResult.builder()
+                    .index(index)
+                    .supplierId(request.getSupplierId())
+                    .referenceId(request.getReferenceId())
+                    .status(Status.CREATED)
+                    .purchaseId(purchase.getPurchaseId())
+                    .build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(index, request, "Interrupted before the invoice was committed.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return failed(index, request, cause.getMessage());
+        } catch (RuntimeException e) {
+            log.warn("Purchase ingestion failed for invoice {} of supplier {}", request.getReferenceId(), request.getSupplierId(), e);
+            return failed(index, request, e.getMessage());
+        }
+    }
+
+    private static InvoiceResult failed(int index, CreatePurchaseRequest request, String message) {
+        return InvoiceResult.builder()
+                .index(index)
+                .supplierId(request != null ? request.getSupplierId() : null)
+                .referenceId(request != null ? request.getReferenceId() : null)
+                .status(Status.FAILED)
+                .message(message)
+                .build();
+    }
+}
@@ -0,0 +1,117 @@
+package com.cosmicdoc.inventoryservice.service;
+
+import com.cosmicdoc.common.model.MedicineBatch;
+import com.cosmicdoc.common.model.PurchaseItem;
+import com.cosmicdoc.inventoryservice.dto.request.UpdatePurchaseRequest;
+import com.google.cloud.Timestamp;
+
+import java.util.*;
+
+/**
+ * The batch writes that apply an edited purchase, from its lines diffed against the
+ * original ones by (medicineId, batchNo), and the stock they move per medicine.
+ * <p>
+ * A line whose units received, expiry, unit cost and MRP are unchanged keeps its batch
+ * untouched. A changed line updates its batch in place by the quantity difference, a
+ * removed line deletes its batch and a new line creates one.
+ *
+ * @param batchesToSave the batches to create or update, in line order.
+ * @param batchesToDelete the batches of the removed lines.
+ * @param stockChanges medicineId -> net units added (negative when removed); medicines
+ *                     whose stock does not move are absent.
+ */
+record PurchaseLineDiff(List<BatchWrite> batchesToSave, List<BatchWrite> batchesToDelete, Map<String, Integer> stockChanges) {
+
+    /**
+     * A batch document to save or delete in the write phase of a purchase update.
+     */
+    record BatchWrite(String medicineId, MedicineBatch batch) {}
+
+    static String lineKey(String medicineId, String batchNo) {
+        return medicineId + "/" + batchNo;
+    }
+
+    /**
+     * The original lines whose batch has to be read and written: the removed ones, and
+     * the ones whose batch an edit changes (see {@link #sameBatch}).
+     */
+    static Map<String, PurchaseItem> linesToRewrite(Map<String, PurchaseItem> originalLines,
+                                                    Map<String, UpdatePurchaseRequest.PurchaseItemDto> requestedLines) {
+        Map<String, PurchaseItem> linesToRewrite = new LinkedHashMap<>();
+        originalLines.forEach((key, oldItem) -> {
+            UpdatePurchaseRequest.PurchaseItemDto itemDto = requestedLines.get(key);
+            if (itemDto == null || !sameBatch(oldItem, itemDto)) linesToRewrite.put(key, oldItem);
+        });
+        return linesToRewrite;
+    }
+
+    /**
+     * True when an edited line leaves its batch as it is: same units received, expiry,
+     * unit cost and MRP. Prices and discounts only affect the invoice totals.
+     */
+    static boolean sameBatch(PurchaseItem oldItem, UpdatePurchaseRequest.PurchaseItemDto itemDto) {
+        int totalUnitsReceived = (itemDto.getPackQuantity() + itemDto.getFreePackQuantity()) * itemDto.getItemsPerPack();
+        return totalUnitsReceived == oldItem.getTotalReceivedQuantity()
+                && Objects.equals(Timestamp.of(itemDto.getExpiryDate()), oldItem.getExpiryDate())
+                && Double.compare(itemDto.getPurchaseCostPerPack() / itemDto.getItemsPerPack(),
+                        oldItem.getPurchaseCostPerPack() / oldItem.getItemsPerPack()) == 0
+                && Double.compare(itemDto.getMrpPerItem(), oldItem.getMrpPerItem()) == 0;
+    }
+
+    /**
+     * Plans the batch writes of an edit.
+     *
+     * @param newItems the edited lines, already priced and linked to their batch ids.
+     * @param originalLines lineKey -> original line.
+     * @param linesToRewrite the result of {@link #linesToRewrite} for the same edit.
+     * @param currentBatches lineKey -> current batch of each line to rewrite, where it still exists.
+     * @throws IllegalStateException when a line would take back stock that was already sold.
+     */
+    static PurchaseLineDiff plan(String purchaseId, List<PurchaseItem> newItems, Map<String, PurchaseItem> originalLines,
+                                 Map<String, PurchaseItem> linesToRewrite, Map<String, MedicineBatch> currentBatches) {
+        Map<String, Integer> stockChanges = new LinkedHashMap<>();
+        List<BatchWrite> batchesToSave = new ArrayList<>();
+        List<BatchWrite> batchesToDelete = new ArrayList<>();
+        Set<String> newLineKeys = new HashSet<>();
+        for (PurchaseItem newItem : newItems) {
+            String key = lineKey(newItem.getMedicineId(), newItem.getBatchNo());
+            newLineKeys.add(key);
+            PurchaseItem oldItem = originalLines.get(key);
+            if (oldItem != null && !linesToRewrite.containsKey(key)) continue; // unchanged line
+            MedicineBatch batch = currentBatches.get(key);
+            if (batch == null) {
+                // A new line, or a changed one whose batch no longer exists.
+                if (newItem.getTotalReceivedQuantity() <= 0) continue;
+                batch = MedicineBatch.builder()
+                        .batchId(newItem.getCreatedBatchId()).batchNo(newItem.getBatchNo())
+                        .sourcePurchaseId(purchaseId)
+                        .quantityAvailable(newItem.getTotalReceivedQuantity()).build();
+                stockChanges.merge(newItem.getMedicineId(), newItem.getTotalReceivedQuantity(), Integer::sum);
+            } else {
+                int quantityChange = newItem.getTotalReceivedQuantity() - oldItem.getTotalReceivedQuantity();
+                if (batch.getQuantityAvailable() + quantityChange < 0) {
+                    throw new IllegalStateException("Cannot edit purchase. Stock from batch " + newItem.getBatchNo() + " has already been used.");
+                }
+                batch.setQuantityAvailable(batch.getQuantityAvailable() + quantityChange);
+                stockChanges.merge(newItem.getMedicineId(), quantityChange, Integer::sum);
+            }
+            batch.setExpiryDate(newItem.getExpiryDate());
+            batch.setPurchaseCost(newItem.getPurchaseCostPerPack() / newItem.getItemsPerPack());
+            batch.setMrp(newItem.getMrpPerItem());
+            batchesToSave.add(new BatchWrite(newItem.getMedicineId(), batch));
+        }
+        for (Map.Entry<String, PurchaseItem> removed : originalLines.entrySet()) {
+            if (newLineKeys.contains(removed.getKey())) continue;
+            PurchaseItem oldItem = removed.getValue();
+            MedicineBatch batch = currentBatches.get(removed.getKey());
+            if (batch == null) continue; // It's okay if the batch was already deleted manually
+            if (batch.getQuantityAvailable() < oldItem.getTotalReceivedQuantity()) {
+                throw new IllegalStateException("Cannot edit purchase. Stock from batch " + oldItem.getBatchNo() + " has already been used.");
+            }
+            batchesToDelete.add(new BatchWrite(oldItem.getMedicineId(), batch));
+            stockChanges.merge(oldItem.getMedicineId(), -batch.getQuantityAvailable(), Integer::sum);
+        }
+        stockChanges.values().removeIf(change -> change == 0);
+        return new PurchaseLineDiff(batchesToSave, batchesToDelete, stockChanges);
+    }
+}
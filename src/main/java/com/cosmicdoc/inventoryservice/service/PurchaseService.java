@@ -3,25 +3,41 @@ package com.cosmicdoc.inventoryservice.service;
 import com.cosmicdoc.common.model.*;
 import com.cosmicdoc.common.repository.*;
 import com.cosmicdoc.common.util.IdGenerator;
+import com.cosmicdoc.inventoryservice.cache.FefoBatchIndex;
+import com.cosmicdoc.inventoryservice.cache.TaxProfileCache;
 import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseRequest;
 import com.cosmicdoc.inventoryservice.dto.request.UpdatePurchaseRequest;
+import com.cosmicdoc.inventoryservice.dto.response.PageResponse;
 import com.cosmicdoc.inventoryservice.dto.response.PurchaseDetailResponse;
 import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.CategoryStockDelta;
+import com.cosmicdoc.inventoryservice.repository.CursorPager;
+import com.cosmicdoc.inventoryservice.repository.FirestoreFutures;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import com.cosmicdoc.inventoryservice.repository.PurchasedBatchReader;
+import com.cosmicdoc.inventoryservice.repository.StockAggregateRepository;
+import com.cosmicdoc.inventoryservice.repository.StockShardRepository;
+import com.cosmicdoc.inventoryservice.repository.TransactionRunner;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.cosmicdoc.common.model.AdjustmentType.*;
+import static com.cosmicdoc.inventoryservice.service.PricingEngine.toPaise;
+import static com.cosmicdoc.inventoryservice.service.PricingEngine.toRupees;
 
 @Service
 @RequiredArgsConstructor
@@ -31,9 +47,16 @@ public class PurchaseService {
     private final PurchaseRepository purchaseRepository;
     private final MedicineRepository medicineRepository;
     private final TaxProfileRepository taxProfileRepository;
+    private final TaxProfileCache taxProfileCache;
     private final SupplierRepository supplierRepository;
     private final MedicineBatchRepository medicineBatchRepository;
     private final SupplierPaymentRepository supplierPaymentRepository;
+    private final FefoBatchIndex fefoBatchIndex;
+    private final StockAggregateRepository stockAggregateRepository;
+    private final StockShardRepository stockShardRepository;
+    private final PurchasedBatchReader purchasedBatchReader;
+    private final PricingEngine pricingEngine;
+    private final TransactionRunner transactionRunner;
     // You might also inject SupplierRepository to validate supplierId
 
     /*public Purchase createPurchase(String orgId, String branchId, String userId, CreatePurchaseRequest request)
@@ -239,25 +262,62 @@ public class PurchaseService {
 
     public Purchase createPurchase(String orgId, String branchId, String userId, CreatePurchaseRequest request)
             throws ExecutionException, InterruptedException {
+        return createPurchase(orgId, branchId, userId, request, Map.of());
+    }
 
-        return firestore.runTransaction(transaction -> {
+    /**
+     * Non-blocking {@link #createPurchase(String, String, String, CreatePurchaseRequest)}: completes
+     * with the committed purchase, or exceptionally with the exception the transaction failed with.
+     */
+    public CompletableFuture<Purchase> createPurchaseAsync(String orgId, String branchId, String userId, CreatePurchaseRequest request) {
+        return createPurchaseAsync(orgId, branchId, userId, request, Map.of());
+    }
+
+    /**
+     * Same as {@link #createPurchase(String, String, String, CreatePurchaseRequest)}, but reuses
+     * medicines the caller has already read (e.g. the prefetch of a bulk ingestion), so the
+     * transaction only reads the ones that are missing.
+     */
+    public Purchase createPurchase(String orgId, String branchId, String userId, CreatePurchaseRequest request,
+                                   Map<String, Medicine> prefetchedMedicines)
+            throws ExecutionException, InterruptedException {
+        return createPurchaseAsync(orgId, branchId, userId, request, prefetchedMedicines).get();
+    }
+
+    private CompletableFuture<Purchase> createPurchaseAsync(String orgId, String branchId, String userId, CreatePurchaseRequest request,
+                                                            Map<String, Medicine> prefetchedMedicines) {
+
+        // Purchases of the same medicines, or from the same supplier (its balance), are queued.
+        Set<String> lockKeys = TransactionRunner.medicineKeys(orgId, branchId,
+                request.getItems().stream().map(CreatePurchaseRequest.PurchaseItemDto::getMedicineId).toList());
+        lockKeys.add(TransactionRunner.lockKey(orgId, FirestorePaths.SUPPLIERS, request.getSupplierId()));
+        return transactionRunner.run("purchase.create", lockKeys, transaction -> {
             // ===================================================================
             // PHASE 1: ALL DATABASE READS & PRE-VALIDATION
             // ===================================================================
+            // The supplier and medicine reads are independent, so both are started before
+            // either is awaited, and the tax profile read goes out while they are in flight.
 
-            // 1. Validate Supplier
-            Supplier supplier = supplierRepository.findById(transaction, orgId, request.getSupplierId())
-                    .orElseThrow(() -> new ResourceNotFoundException("Supplier with ID " + request.getSupplierId() + " not found."));
+            // 1. Start the Supplier read
+            FirestoreUsage.reads(1);
+            ApiFuture<DocumentSnapshot> supplierRead = transaction.get(FirestorePaths.supplier(firestore, orgId, request.getSupplierId()));
 
-            // 2. Batch-read all required Medicine and Tax Profile documents
+            // 2. Start the read of the Medicine documents that were not prefetched, then read the Tax Profiles
             List<String> requiredMedicineIds = request.getItems().stream().map(CreatePurchaseRequest.PurchaseItemDto::getMedicineId).distinct().collect(Collectors.toList());
-            List<DocumentSnapshot> medicineSnapshots = medicineRepository.getAll(transaction, orgId, branchId, requiredMedicineIds);
-            Map<String, Medicine> medicineMasterDataMap = medicineSnapshots.stream().map(doc -> {
-                if (!doc.exists()) throw new ResourceNotFoundException("Medicine with ID " + doc.getId() + " not found.");
-                return doc.toObject(Medicine.class);
-            }).collect(Collectors.toMap(Medicine::getMedicineId, Function.identity()));
-
-
+            Map<String, Medicine> medicineMasterDataMap = new HashMap<>();
+            List<String> medicineIdsToRead = new ArrayList<>();
+            for (String medicineId : requiredMedicineIds) {
+                Medicine prefetched = prefetchedMedicines.get(medicineId);
+                if (prefetched != null) {
+                    medicineMasterDataMap.put(medicineId, prefetched);
+                } else {
+                    medicineIdsToRead.add(medicineId);
+                }
+            }
+            FirestoreUsage.reads(medicineIdsToRead.size());
+            ApiFuture<List<DocumentSnapshot>> medicineReads = medicineIdsToRead.isEmpty()
+                    ? ApiFutures.immediateFuture(List.of())
+                    : transaction.getAll(FirestorePaths.medicines(firestore, orgId, branchId, medicineIdsToRead));
 
             Map<String, TaxProfile> taxProfileMap = new HashMap<>();
             if (request.getGstType() != GstType.NON_GST) {
@@ -266,14 +326,21 @@ public class PurchaseService {
                         .distinct().collect(Collectors.toList());
 
                 if (!requiredTaxProfileIds.isEmpty()) {
-                    List<DocumentSnapshot> taxProfileSnapshots = taxProfileRepository.getAll(transaction, orgId, requiredTaxProfileIds);
-                    taxProfileMap.putAll(taxProfileSnapshots.stream().map(doc -> {
-                        if (!doc.exists()) throw new ResourceNotFoundException("TaxProfile with ID " + doc.getId() + " not found.");
-                        return doc.toObject(TaxProfile.class);
-                    }).collect(Collectors.toMap(TaxProfile::getTaxProfileId, Function.identity())));
+                    taxProfileMap.putAll(taxProfileCache.getAll(transaction, orgId, requiredTaxProfileIds));
                 }
             }
 
+            // 3. Collect the Supplier and Medicine reads
+            DocumentSnapshot supplierDoc = supplierRead.get();
+            if (!supplierDoc.exists()) {
+                throw new ResourceNotFoundException("Supplier with ID " + request.getSupplierId() + " not found.");
+            }
+            Supplier supplier = supplierDoc.toObject(Supplier.class);
+            for (DocumentSnapshot doc : medicineReads.get()) {
+                if (!doc.exists()) throw new ResourceNotFoundException("Medicine with ID " + doc.getId() + " not found.");
+                medicineMasterDataMap.put(doc.getId(), doc.toObject(Medicine.class));
+            }
+
             // --- All database reads are now complete. ---
 
 
@@ -281,9 +348,7 @@ public class PurchaseService {
             // PHASE 2: LINE ITEM & SUB-TOTAL CALCULATION
             // ===================================================================
 
-            final BigDecimal[] invoiceTotalTaxable = {BigDecimal.ZERO};
-            final BigDecimal[] invoiceTotalTax = {BigDecimal.ZERO};
-            final BigDecimal[] invoiceTotalDiscount = {BigDecimal.ZERO};
+            PricingEngine.Totals totals = new PricingEngine.Totals();
 
             // and populate it completely before building the final Purchase object.
             List<PurchaseItem> purchaseItems = request.getItems().stream().map(itemDto -> {
@@ -291,40 +356,16 @@ public class PurchaseService {
 
 
                 // Financial Calculations
-                BigDecimal packQuantity = new BigDecimal(itemDto.getPackQuantity());
-                BigDecimal costPerPack = BigDecimal.valueOf(itemDto.getPurchaseCostPerPack());
-                BigDecimal discountPercent = BigDecimal.valueOf(itemDto.getDiscountPercentage()).divide(new BigDecimal(100));
-               // BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                BigDecimal grossAmount = costPerPack.multiply(packQuantity);
-                BigDecimal discountAmount = grossAmount.multiply(discountPercent);
-                BigDecimal netAmountAfterDiscount = grossAmount.subtract(discountAmount);
-                BigDecimal taxableAmount;
-                BigDecimal taxAmount;
-
                 TaxProfile taxProfile = null;
-
-                if (request.getGstType() == GstType.NON_GST) {
-                    taxableAmount = netAmountAfterDiscount;
-                    taxAmount = BigDecimal.ZERO;
-                } else {
+                if (request.getGstType() != GstType.NON_GST) {
                     taxProfile = taxProfileMap.get(itemDto.getTaxProfileId());
                     if (taxProfile == null) {
                         throw new InvalidRequestException("Tax profile ID '" + itemDto.getTaxProfileId() + "' is invalid or missing for a GST item.");
                     }
-
-                    BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                    if (request.getGstType() == GstType.INCLUSIVE) {
-                        taxableAmount = netAmountAfterDiscount.divide(BigDecimal.ONE.add(taxRate), 2, RoundingMode.HALF_UP);
-                        taxAmount = netAmountAfterDiscount.subtract(taxableAmount);
-                    } else { // EXCLUSIVE
-                        taxableAmount = netAmountAfterDiscount;
-                        taxAmount = taxableAmount.multiply(taxRate);
-                    }
                 }
-
-                invoiceTotalTaxable[0] = invoiceTotalTaxable[0].add(taxableAmount);
-                invoiceTotalTax[0] = invoiceTotalTax[0].add(taxAmount);
-                invoiceTotalDiscount[0] = invoiceTotalDiscount[0].add(discountAmount);
+                PricingEngine.LinePrice price = pricingEngine.price(itemDto.getPurchaseCostPerPack(), itemDto.getPackQuantity(),
+                        itemDto.getDiscountPercentage(), taxProfile != null ? taxProfile.getTotalRate() : 0.0, request.getGstType());
+                totals.add(price);
 
                 int totalUnitsReceived = (itemDto.getPackQuantity() + itemDto.getFreePackQuantity()) * itemDto.getItemsPerPack();
 
@@ -340,10 +381,10 @@ public class PurchaseService {
                         .itemsPerPack(itemDto.getItemsPerPack()).totalReceivedQuantity(totalUnitsReceived)
                         .purchaseCostPerPack(itemDto.getPurchaseCostPerPack()).
                         discountPercentage(itemDto.getDiscountPercentage())
-                        .lineItemDiscountAmount(round(discountAmount)).
-                        lineItemTaxableAmount(round(taxableAmount))
-                        .lineItemTaxAmount(round(taxAmount))
-                        .lineItemTotalAmount(round(taxableAmount.add(taxAmount)))
+                        .lineItemDiscountAmount(toRupees(price.discount())).
+                        lineItemTaxableAmount(toRupees(price.taxable()))
+                        .lineItemTaxAmount(toRupees(price.tax()))
+                        .lineItemTotalAmount(toRupees(price.total()))
                         .mrpPerItem(itemDto.getMrpPerItem())
                         .taxProfileId(taxProfile != null ? taxProfile.getTaxProfileId() : "N/A")
                         .taxRateApplied(taxProfile != null ? taxProfile.getTotalRate() : 0.0)
@@ -357,28 +398,13 @@ public class PurchaseService {
             // PHASE 3: OVERALL ADJUSTMENT & FINAL CALCULATION
             // ===================================================================
 
-            BigDecimal subTotal = invoiceTotalTaxable[0].add(invoiceTotalTax[0]);
-            BigDecimal calculatedOverallAdjustmentAmount = BigDecimal.ZERO;
-
-            if (request.getOverallAdjustmentType() != null && request.getOverallAdjustmentValue() != null) {
-                BigDecimal adjustmentValue = BigDecimal.valueOf(request.getOverallAdjustmentValue());
-                switch (request.getOverallAdjustmentType()) {
-                    case PERCENTAGE_DISCOUNT:
-                        calculatedOverallAdjustmentAmount = invoiceTotalTaxable[0].multiply(adjustmentValue.divide(new BigDecimal(100)));
-                        break;
-                    case FIXED_DISCOUNT:
-                        calculatedOverallAdjustmentAmount = adjustmentValue;
-                        break;
-                    case ADDITIONAL_CHARGE:
-                        calculatedOverallAdjustmentAmount = adjustmentValue.negate();
-                        break;
-                }
-            }
-
-            BigDecimal grandTotal = subTotal.subtract(calculatedOverallAdjustmentAmount);
+            // A percentage discount on a purchase applies to the taxable value.
+            long calculatedOverallAdjustmentAmount = pricingEngine.overallAdjustment(
+                    request.getOverallAdjustmentType(), request.getOverallAdjustmentValue(), totals.taxable());
+            long grandTotal = totals.total() - calculatedOverallAdjustmentAmount;
 
             double amountPaid = request.getAmountPaid();
-            double dueAmount = round(grandTotal) - amountPaid;
+            double dueAmount = toRupees(grandTotal - toPaise(amountPaid));
             PaymentStatus paymentStatus = (dueAmount <= 0.01) ? PaymentStatus.PAID : (amountPaid > 0 ? PaymentStatus.PARTIALLY_PAID : PaymentStatus.PENDING);
 
             // ===================================================================
@@ -392,13 +418,13 @@ public class PurchaseService {
                     .supplierName(supplier.getName())
                     .invoiceDate(Timestamp.of(request.getInvoiceDate()))
                     .referenceId(request.getReferenceId()).gstType(request.getGstType())
-                    .totalTaxableAmount(round(invoiceTotalTaxable[0]))
-                    .totalDiscountAmount(round(invoiceTotalDiscount[0]))
-                    .totalTaxAmount(round(invoiceTotalTax[0]))
+                    .totalTaxableAmount(toRupees(totals.taxable()))
+                    .totalDiscountAmount(toRupees(totals.discount()))
+                    .totalTaxAmount(toRupees(totals.tax()))
                     .overallAdjustmentType(request.getOverallAdjustmentType())
                     .overallAdjustmentValue(request.getOverallAdjustmentValue() != null ? request.getOverallAdjustmentValue() : 0.0)
-                    .calculatedOverallAdjustmentAmount(round(calculatedOverallAdjustmentAmount))
-                    .totalAmount(round(grandTotal))
+                    .calculatedOverallAdjustmentAmount(toRupees(calculatedOverallAdjustmentAmount))
+                    .totalAmount(toRupees(grandTotal))
                     .amountPaid(amountPaid).dueAmount(dueAmount).paymentStatus(paymentStatus)
                     .items(purchaseItems).createdBy(userId).createdAt(Timestamp.now()).build();
 
@@ -415,6 +441,7 @@ public class PurchaseService {
 
             supplierRepository.updateBalanceInTransaction(transaction, orgId, request.getSupplierId(), dueAmount);
 
+            CategoryStockDelta stockDelta = new CategoryStockDelta(medicineMasterDataMap.values());
             for (PurchaseItem item : purchaseItems) {
                 if (item.getTotalReceivedQuantity() > 0) {
                     //String batchId = IdGenerator.newId("BAT");
@@ -427,28 +454,38 @@ public class PurchaseService {
                             .sourcePurchaseId(purchaseId)
                             .mrp(item.getMrpPerItem()).build();
                     medicineBatchRepository.saveInTransaction(transaction, orgId, branchId, item.getMedicineId(), newBatch);
-                    medicineRepository.updateStockInTransaction(
+                    stockShardRepository.incrementInTransaction(
                             transaction, orgId, branchId, item.getMedicineId(), item.getTotalReceivedQuantity()
                     );
-
+                    stockDelta.add(item.getMedicineId(), item.getTotalReceivedQuantity());
                 }
 
             }
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
+            fefoBatchIndex.invalidateInTransaction(transaction, orgId, branchId, medicineIdsOf(newPurchase));
 
             return newPurchase;
-        }).get();
-    }
-
-    private double round(BigDecimal value) {
-        if (value == null) return 0.0;
-        return value.setScale(2, RoundingMode.HALF_UP).doubleValue();
+        }).thenApply(purchase -> {
+            fefoBatchIndex.invalidate(orgId, branchId, medicineIdsOf(purchase));
+            return purchase;
+        });
     }
 
-
     public List<Purchase> getPurchasesForBranch(String orgId, String branchId) {
         return purchaseRepository.findAllByBranchId(orgId, branchId);
     }
 
+    /**
+     * Returns one page of the branch's purchases, newest first, keyed on (invoiceDate, purchaseId).
+     *
+     * @param cursor The {@code nextCursor} of the previous page, or null for the first page.
+     * @param limit The requested page size; capped at {@link CursorPager#MAX_PAGE_SIZE}.
+     */
+    public PageResponse<Purchase> getPurchasesPage(String orgId, String branchId, String cursor, Integer limit)
+            throws ExecutionException, InterruptedException {
+        return CursorPager.fetchPage(FirestorePaths.purchases(firestore, orgId, branchId), "invoiceDate", cursor, CursorPager.pageSize(limit), Purchase.class);
+    }
+
     public PurchaseDetailResponse getPurchaseById(String orgId, String branchId, String purchaseId) {
         Purchase purchase = purchaseRepository.findById(orgId, branchId, purchaseId)
                 .orElseThrow(() -> new ResourceNotFoundException("Purchase with ID " + purchaseId + " not found."));
@@ -479,377 +516,34 @@ public class PurchaseService {
      * @param request The DTO containing the full set of updated data for the invoice.
      * @return The updated Purchase object.
      */
-    public Purchase updatePurchase1(String orgId, String branchId, String userId, String purchaseId, UpdatePurchaseRequest request)
-            throws ExecutionException, InterruptedException {
-
-        return firestore.runTransaction(transaction -> {
-            // ===================================================================
-            // PHASE 1: READ ALL ORIGINAL & NEW DATA
-            // ===================================================================
-
-            // 1. READ the original Purchase document.
-            Purchase originalPurchase = purchaseRepository.findById(transaction, orgId, branchId, purchaseId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Purchase with ID " + purchaseId + " not found to update."));
-
-            // 2. READ all MedicineBatches created by the original purchase.
-            Map<String, MedicineBatch> oldBatchesMap = new HashMap<>();
-            for (PurchaseItem oldItem : originalPurchase.getItems()) {
-                medicineBatchRepository.findByBatchNo(transaction, orgId, branchId, oldItem.getMedicineId(), oldItem.getBatchNo())
-                        .ifPresent(batch -> oldBatchesMap.put(oldItem.getMedicineId() + "_" + oldItem.getBatchNo(), batch));
-            }
-
-            // 3. READ master data (Medicines, TaxProfiles) for the NEW request items.
-            List<String> requiredMedicineIds = request.getItems().stream().map(UpdatePurchaseRequest.PurchaseItemDto::getMedicineId).distinct().collect(Collectors.toList());
-            List<DocumentSnapshot> medicineSnapshots = medicineRepository.getAll(transaction, orgId, branchId, requiredMedicineIds);
-            Map<String, Medicine> medicineMasterDataMap = medicineSnapshots.stream().map(doc -> {
-                if (!doc.exists()) throw new ResourceNotFoundException("Medicine with ID " + doc.getId() + " not found.");
-                return doc.toObject(Medicine.class);
-            }).collect(Collectors.toMap(Medicine::getMedicineId, Function.identity()));
-
-            List<String> requiredTaxProfileIds = request.getItems().stream().map(UpdatePurchaseRequest.PurchaseItemDto::getTaxProfileId).distinct().collect(Collectors.toList());
-            List<DocumentSnapshot> taxProfileSnapshots = taxProfileRepository.getAll(transaction, orgId, requiredTaxProfileIds);
-            Map<String, TaxProfile> taxProfileMap = taxProfileSnapshots.stream().map(doc -> {
-                if (!doc.exists()) throw new ResourceNotFoundException("TaxProfile with ID " + doc.getId() + " not found.");
-                return doc.toObject(TaxProfile.class);
-            }).collect(Collectors.toMap(TaxProfile::getTaxProfileId, Function.identity()));
-
-            // ===================================================================
-            // PHASE 2: VALIDATE, REVERSE, & RE-CALCULATE
-            // ===================================================================
-
-            // --- A. REVERSE the old inventory (Staging Writes) & VALIDATE stock usage ---
-            for (PurchaseItem oldItem : originalPurchase.getItems()) {
-                MedicineBatch oldBatch = oldBatchesMap.get(oldItem.getMedicineId() + "_" + oldItem.getBatchNo());
-                if (oldBatch != null) {
-                    if (oldBatch.getQuantityAvailable() < oldItem.getTotalReceivedQuantity()) {
-                        throw new IllegalStateException("Cannot edit purchase. Stock from batch " + oldItem.getBatchNo() + " has already been used.");
-                    }
-                    medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, oldItem.getMedicineId(), oldBatch.getBatchId(), -oldItem.getTotalReceivedQuantity());
-                    medicineRepository.updateStockInTransaction(
-                            transaction, orgId, branchId, oldItem.getMedicineId(), -oldItem.getTotalReceivedQuantity()
-                    );
-                }
-            }
-
-            // --- B. RE-CALCULATE everything for the new purchase state (In-Memory) ---
-            final BigDecimal[] newTotalTaxable = {BigDecimal.ZERO};
-            final BigDecimal[] newTotalTax = {BigDecimal.ZERO};
-            final BigDecimal[] newTotalDiscount = {BigDecimal.ZERO};
-
-            List<PurchaseItem> newPurchaseItems = request.getItems().stream().map(itemDto -> {
-                Medicine masterMedicine = medicineMasterDataMap.get(itemDto.getMedicineId());
-                TaxProfile taxProfile = taxProfileMap.get(itemDto.getTaxProfileId());
-                if (taxProfile == null) throw new InvalidRequestException("Tax profile for " + masterMedicine.getName() + " is missing.");
-
-                BigDecimal packQuantity = new BigDecimal(itemDto.getPackQuantity());
-                BigDecimal costPerPack = BigDecimal.valueOf(itemDto.getPurchaseCostPerPack());
-                BigDecimal discountPercent = BigDecimal.valueOf(itemDto.getDiscountPercentage()).divide(new BigDecimal(100));
-               // BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-
-                BigDecimal grossAmount = costPerPack.multiply(packQuantity);
-                BigDecimal discountAmount = grossAmount.multiply(discountPercent);
-                BigDecimal netAmountAfterDiscount = grossAmount.subtract(discountAmount);
-
-                BigDecimal taxableAmount;
-                BigDecimal taxAmount;
-
-                if (request.getGstType() == GstType.NON_GST) {
-                    taxableAmount = netAmountAfterDiscount;
-                    taxAmount = BigDecimal.ZERO;
-                } else {
-                    taxProfile = taxProfileMap.get(itemDto.getTaxProfileId());
-                    if (taxProfile == null) {
-                        throw new InvalidRequestException("Tax profile ID '" + itemDto.getTaxProfileId() + "' is invalid or missing for a GST item.");
-                    }
-
-                    BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                    if (request.getGstType() == GstType.INCLUSIVE) {
-                        taxableAmount = netAmountAfterDiscount.divide(BigDecimal.ONE.add(taxRate), 2, RoundingMode.HALF_UP);
-                        taxAmount = netAmountAfterDiscount.subtract(taxableAmount);
-                    } else { // EXCLUSIVE
-                        taxableAmount = netAmountAfterDiscount;
-                        taxAmount = taxableAmount.multiply(taxRate);
-                    }
-                }
-                newTotalTaxable[0] = newTotalTaxable[0].add(taxableAmount);
-                newTotalTax[0] = newTotalTax[0].add(taxAmount);
-                newTotalDiscount[0] = newTotalDiscount[0].add(discountAmount);
-
-                int totalUnitsReceived = (itemDto.getPackQuantity() + itemDto.getFreePackQuantity()) * itemDto.getItemsPerPack();
-                return PurchaseItem.builder()
-                        .medicineId(itemDto.getMedicineId()).batchNo(itemDto.getBatchNo())
-                        .expiryDate(Timestamp.of(itemDto.getExpiryDate()))
-                        .packQuantity(itemDto.getPackQuantity()).freePackQuantity(itemDto.getFreePackQuantity())
-                        .itemsPerPack(itemDto.getItemsPerPack()).totalReceivedQuantity(totalUnitsReceived)
-                        .purchaseCostPerPack(itemDto.getPurchaseCostPerPack()).discountPercentage(itemDto.getDiscountPercentage())
-                        .lineItemDiscountAmount(round(discountAmount)).lineItemTaxableAmount(round(taxableAmount))
-                        .lineItemTaxAmount(round(taxAmount)).lineItemTotalAmount(round(taxableAmount.add(taxAmount)))
-                        .mrpPerItem(itemDto.getMrpPerItem())
-                        .taxProfileId(itemDto.getTaxProfileId())
-                        .taxRateApplied(taxProfile.getTotalRate())
-                        .taxComponents(taxProfile.getComponents()).build();
-            }).collect(Collectors.toList());
-
-            BigDecimal newGrandTotal = newTotalTaxable[0].add(newTotalTax[0]);
-            double newAmountPaid = request.getAmountPaid();
-            double newDueAmount = round(newGrandTotal) - newAmountPaid;
-
-            // ===================================================================
-            // PHASE 3: UPDATE MODEL & STAGE FINAL WRITES
-            // ===================================================================
-
-            // 1. UPDATE all fields on the originalPurchase object.
-            originalPurchase.setSupplierId(request.getSupplierId());
-            originalPurchase.setInvoiceDate(Timestamp.of(request.getInvoiceDate()));
-            originalPurchase.setReferenceId(request.getReferenceId());
-            originalPurchase.setGstType(request.getGstType());
-            originalPurchase.setItems(newPurchaseItems);
-            originalPurchase.setTotalTaxableAmount(round(newTotalTaxable[0]));
-            originalPurchase.setTotalDiscountAmount(round(newTotalDiscount[0]));
-            originalPurchase.setTotalTaxAmount(round(newTotalTax[0]));
-            originalPurchase.setTotalAmount(round(newGrandTotal));
-            originalPurchase.setAmountPaid(newAmountPaid);
-            originalPurchase.setDueAmount(newDueAmount);
-            originalPurchase.setPaymentStatus(newDueAmount <= 0.01 ? PaymentStatus.PAID : (newAmountPaid > 0 ? PaymentStatus.PARTIALLY_PAID : PaymentStatus.PENDING));
-            // You can add 'updatedBy' and 'updatedAt' audit fields here
-
-            // 2. STAGE WRITE: Save the updated Purchase document.
-            purchaseRepository.saveInTransaction(transaction, originalPurchase);
-
-            // 3. STAGE WRITE: Create new MedicineBatch documents for the updated purchase.
-            for (PurchaseItem newItem : newPurchaseItems) {
-                if (newItem.getTotalReceivedQuantity() > 0) {
-                    MedicineBatch updatedBatch = MedicineBatch.builder()
-                            .batchId(IdGenerator.newId("")).batchNo(newItem.getBatchNo())
-                            .expiryDate(newItem.getExpiryDate()).quantityAvailable(newItem.getTotalReceivedQuantity())
-                            .purchaseCost(newItem.getPurchaseCostPerPack() / newItem.getItemsPerPack())
-                            .mrp(newItem.getMrpPerItem()).build();
-                    medicineBatchRepository.saveInTransaction(transaction, orgId, branchId, newItem.getMedicineId(), updatedBatch);
-                    medicineRepository.updateStockInTransaction(
-                            transaction, orgId, branchId, newItem.getMedicineId(), newItem.getTotalReceivedQuantity());
-
-                }
-            }
-
-            // 4. STAGE WRITE: Atomically update the supplier's balance.
-            double oldDueAmount = originalPurchase.getDueAmount();
-            double balanceChange = newDueAmount - oldDueAmount;
-            supplierRepository.updateBalanceInTransaction(transaction, orgId, request.getSupplierId(), balanceChange);
-
-            // Note: A full implementation would also reverse/re-apply payments.
-            // For simplicity, we are assuming the payment is re-entered with the update.
-
-            return originalPurchase;
-        }).get();
-    }
-
-
-    public Purchase updatePurchase2(String orgId, String branchId, String userId, String purchaseId, UpdatePurchaseRequest request)
+    public Purchase updatePurchase(String orgId, String branchId, String userId, String purchaseId, UpdatePurchaseRequest request)
             throws ExecutionException, InterruptedException {
-
-        return firestore.runTransaction(transaction -> {
-            // ===================================================================
-            // PHASE 1: READ ALL ORIGINAL & NEW DATA
-            // ===================================================================
-
-            Purchase originalPurchase = purchaseRepository.findById(transaction, orgId, branchId, purchaseId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Purchase with ID " + purchaseId + " not found to update."));
-
-            // 2. READ new Supplier. (1 read)
-            Supplier supplier = supplierRepository.findById(transaction, orgId, request.getSupplierId())
-                    .orElseThrow(() -> new ResourceNotFoundException("Supplier with ID " + request.getSupplierId() + " not found."));
-
-            // 3. AGGREGATE all old batch IDs, grouped by their parent medicine.
-            Map<String, List<String>> medicineToOldBatchIdsMap = originalPurchase.getItems().stream()
-                    .filter(item -> item.getCreatedBatchId() != null)
-                    .collect(Collectors.groupingBy(
-                            PurchaseItem::getMedicineId,
-                            Collectors.mapping(PurchaseItem::getCreatedBatchId, Collectors.toList())
-                    ));
-
-            // 4. BATCH READ all old batches in a minimal number of calls.
-            Map<String, MedicineBatch> oldBatchesMap = new HashMap<>();
-            for (Map.Entry<String, List<String>> entry : medicineToOldBatchIdsMap.entrySet()) {
-                String medicineId = entry.getKey();
-                List<String> batchIds = entry.getValue();
-                if (!batchIds.isEmpty()) {
-                    medicineBatchRepository.getAll(transaction, orgId, branchId, medicineId, batchIds)
-                            .forEach(doc -> {
-                                if (doc.exists()) {
-                                    MedicineBatch batch = doc.toObject(MedicineBatch.class);
-                                    if (batch != null) oldBatchesMap.put(doc.getId(), batch);
-                                }
-                            });
-                }
-            }
-
-            // 2. READ master data (Medicines, TaxProfiles) for the NEW request items.
-            List<String> requiredMedicineIds = request.getItems().stream().map(UpdatePurchaseRequest.PurchaseItemDto::getMedicineId).distinct().collect(Collectors.toList());
-            Map<String, Medicine> medicineMasterDataMap = medicineRepository.getAll(transaction, orgId, branchId, requiredMedicineIds)
-                    .stream().map(doc -> doc.toObject(Medicine.class))
-                    .collect(Collectors.toMap(Medicine::getMedicineId, Function.identity()));
-
-            Map<String, TaxProfile> taxProfileMap = new HashMap<>();
-            if (request.getGstType() != GstType.NON_GST) {
-                List<String> requiredTaxProfileIds = request.getItems().stream().map(UpdatePurchaseRequest.PurchaseItemDto::getTaxProfileId).distinct().collect(Collectors.toList());
-                if (!requiredTaxProfileIds.isEmpty()) {
-                    List<DocumentSnapshot> taxProfileSnapshots = taxProfileRepository.getAll(transaction, orgId, requiredTaxProfileIds);
-                    taxProfileMap.putAll(taxProfileSnapshots.stream().map(doc -> {
-                        if (!doc.exists()) throw new ResourceNotFoundException("TaxProfile with ID " + doc.getId() + " not found.");
-                        return doc.toObject(TaxProfile.class);
-                    }).collect(Collectors.toMap(TaxProfile::getTaxProfileId, Function.identity())));
-                }
-            }
-
-            // ===================================================================
-            // PHASE 2: REVERSE OLD TRANSACTION & VALIDATE
-            // ===================================================================
-
-            // A. REVERSE the old inventory and financials
-            double oldDueAmount = originalPurchase.getDueAmount();
-
-            for (PurchaseItem oldItem : originalPurchase.getItems()) {
-                if (oldItem.getCreatedBatchId() != null) {
-                    MedicineBatch oldBatch = oldBatchesMap.get(oldItem.getCreatedBatchId());
-                    if (oldBatch != null) {
-                        if (oldBatch.getQuantityAvailable() < oldItem.getTotalReceivedQuantity()) {
-                            throw new IllegalStateException("Cannot edit purchase. Stock from batch " + oldItem.getBatchNo() + " has already been used.");
-                        }
-                        // Delete the old batch entirely instead of updating stock to -value.
-                        medicineBatchRepository.deleteByIdInTransaction(transaction, orgId, branchId, oldItem.getMedicineId(), oldItem.getCreatedBatchId());
-                        medicineRepository.updateStockInTransaction(transaction, orgId, branchId, oldItem.getMedicineId(), -oldItem.getTotalReceivedQuantity());
-                    }
-                }
-            }
-
-
-            // ===================================================================
-            // PHASE 3: RE-APPLY NEW LOGIC (COPY OF createPurchase)
-            // ===================================================================
-
-            final BigDecimal[] newTotalTaxable = {BigDecimal.ZERO};
-            final BigDecimal[] newTotalTax = {BigDecimal.ZERO};
-            final BigDecimal[] newTotalDiscount = {BigDecimal.ZERO};
-
-            List<PurchaseItem> newPurchaseItems = request.getItems().stream().map(itemDto -> {
-                Medicine masterMedicine = medicineMasterDataMap.get(itemDto.getMedicineId());
-
-                BigDecimal packQuantity = new BigDecimal(itemDto.getPackQuantity());
-                BigDecimal costPerPack = BigDecimal.valueOf(itemDto.getPurchaseCostPerPack());
-                BigDecimal discountPercent = BigDecimal.valueOf(itemDto.getDiscountPercentage()).divide(new BigDecimal(100));
-               // BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                BigDecimal grossAmount = costPerPack.multiply(packQuantity);
-                BigDecimal discountAmount = grossAmount.multiply(discountPercent);
-                BigDecimal netAmountAfterDiscount = grossAmount.subtract(discountAmount);
-                BigDecimal taxableAmount = null;
-                BigDecimal taxAmount = null;
-                TaxProfile taxProfile = null;
-
-
-
-
-                newTotalTaxable[0] = newTotalTaxable[0].add(taxableAmount);
-                newTotalTax[0] = newTotalTax[0].add(taxAmount);
-                newTotalDiscount[0] = newTotalDiscount[0].add(discountAmount);
-                int totalUnitsReceived = (itemDto.getPackQuantity() + itemDto.getFreePackQuantity()) * itemDto.getItemsPerPack();
-                String batchId = IdGenerator.newId("BAT");
-                return PurchaseItem.builder()
-                        .medicineId(itemDto.getMedicineId()).batchNo(itemDto.getBatchNo())
-                        .medicineName(masterMedicine.getName())
-                        .createdBatchId(batchId).expiryDate(Timestamp.of(itemDto.getExpiryDate()))
-                        .packQuantity(itemDto.getPackQuantity()).freePackQuantity(itemDto.getFreePackQuantity())
-                        .itemsPerPack(itemDto.getItemsPerPack()).totalReceivedQuantity(totalUnitsReceived)
-                        .purchaseCostPerPack(itemDto.getPurchaseCostPerPack()).discountPercentage(itemDto.getDiscountPercentage())
-                        .lineItemDiscountAmount(round(discountAmount)).lineItemTaxableAmount(round(taxableAmount))
-                        .lineItemTaxAmount(round(taxAmount)).lineItemTotalAmount(round(taxableAmount.add(taxAmount)))
-                        .mrpPerItem(itemDto.getMrpPerItem())
-                        .taxProfileId(taxProfile != null ? taxProfile.getTaxProfileId() : "N/A")
-                        .taxRateApplied(taxProfile != null ? taxProfile.getTotalRate() : 0.0)
-                        .taxComponents(taxProfile != null ? taxProfile.getComponents() : null)
-                        .build();
-
-            }).collect(Collectors.toList());
-
-            BigDecimal subTotal = newTotalTaxable[0].add(newTotalTax[0]);
-            BigDecimal calculatedOverallAdjustmentAmount = BigDecimal.ZERO;
-            if (request.getOverallAdjustmentType() != null && request.getOverallAdjustmentValue() != null) {
-                BigDecimal adjustmentValue = BigDecimal.valueOf(request.getOverallAdjustmentValue());
-                switch (request.getOverallAdjustmentType()) {
-                    case PERCENTAGE_DISCOUNT: calculatedOverallAdjustmentAmount = newTotalTaxable[0].multiply(adjustmentValue.divide(new BigDecimal(100))); break;
-                    case FIXED_DISCOUNT: calculatedOverallAdjustmentAmount = adjustmentValue; break;
-                    case ADDITIONAL_CHARGE: calculatedOverallAdjustmentAmount = adjustmentValue.negate(); break;
-                }
-            }
-            BigDecimal newGrandTotal = subTotal.subtract(calculatedOverallAdjustmentAmount);
-            double newAmountPaid = request.getAmountPaid();
-            double newDueAmount = round(newGrandTotal) - newAmountPaid;
-            PaymentStatus newPaymentStatus = (newDueAmount <= 0.01) ? PaymentStatus.PAID : (newAmountPaid > 0 ? PaymentStatus.PARTIALLY_PAID : PaymentStatus.PENDING);
-
-            // ===================================================================
-            // PHASE 4: UPDATE MODEL & STAGE FINAL WRITES
-            // ===================================================================
-
-            originalPurchase.setSupplierId(request.getSupplierId());
-            originalPurchase.setSupplierName(supplierRepository.findById(orgId, request.getSupplierId()).get().getName());
-            originalPurchase.setInvoiceDate(Timestamp.of(request.getInvoiceDate()));
-            originalPurchase.setReferenceId(request.getReferenceId());
-            originalPurchase.setGstType(request.getGstType());
-            originalPurchase.setItems(newPurchaseItems);
-            originalPurchase.setTotalTaxableAmount(round(newTotalTaxable[0]));
-            originalPurchase.setTotalDiscountAmount(round(newTotalDiscount[0]));
-            originalPurchase.setTotalTaxAmount(round(newTotalTax[0]));
-            originalPurchase.setOverallAdjustmentType(request.getOverallAdjustmentType());
-            originalPurchase.setOverallAdjustmentValue(request.getOverallAdjustmentValue() != null ? request.getOverallAdjustmentValue() : 0.0);
-            originalPurchase.setCalculatedOverallAdjustmentAmount(round(calculatedOverallAdjustmentAmount));
-            originalPurchase.setTotalAmount(round(newGrandTotal));
-            originalPurchase.setAmountPaid(newAmountPaid);
-            originalPurchase.setDueAmount(newDueAmount);
-            originalPurchase.setPaymentStatus(newPaymentStatus);
-            // Add audit fields for update
-            // originalPurchase.setUpdatedBy(userId);
-            // originalPurchase.setUpdatedAt(Timestamp.now());
-
-            purchaseRepository.saveInTransaction(transaction, originalPurchase);
-
-            if (newAmountPaid > 0) {
-                SupplierPayment newPayment = SupplierPayment.builder()
-                        .paymentId(IdGenerator.newId("PAY")).purchaseInvoiceId(purchaseId)
-                        .paymentDate(Timestamp.of(request.getInvoiceDate())).amountPaid(newAmountPaid)
-                        .paymentMode(request.getPaymentMode()).referenceNumber(request.getPaymentReference())
-                        .createdBy(userId).build();
-                supplierPaymentRepository.saveInTransaction(transaction, orgId, request.getSupplierId(), newPayment);
-            }
-
-            supplierRepository.updateBalanceInTransaction(transaction, orgId, request.getSupplierId(), newDueAmount);
-
-            for (PurchaseItem newItem : newPurchaseItems) {
-                if (newItem.getTotalReceivedQuantity() > 0) {
-                    MedicineBatch newBatch = MedicineBatch.builder()
-                            .batchId(newItem.getCreatedBatchId()).batchNo(newItem.getBatchNo())
-                            .sourcePurchaseId(purchaseId).expiryDate(newItem.getExpiryDate())
-                            .quantityAvailable(newItem.getTotalReceivedQuantity())
-                            .purchaseCost(newItem.getPurchaseCostPerPack() / newItem.getItemsPerPack())
-                            .mrp(newItem.getMrpPerItem()).build();
-                    medicineBatchRepository.saveInTransaction(transaction, orgId, branchId, newItem.getMedicineId(), newBatch);
-                    medicineRepository.updateStockInTransaction(transaction, orgId, branchId, newItem.getMedicineId(), newItem.getTotalReceivedQuantity());
-                }
-            }
-
-            return originalPurchase;
-        }).get();
+        return updatePurchaseAsync(orgId, branchId, userId, purchaseId, request).get();
     }
 
-    public Purchase updatePurchase(String orgId, String branchId, String userId, String purchaseId, UpdatePurchaseRequest request)
-            throws ExecutionException, InterruptedException {
+    /**
+     * Non-blocking {@link #updatePurchase}.
+     * <p>
+     * The new lines are diffed against the original ones by (medicineId, batchNo), and only
+     * the difference is written: a line whose quantities, expiry, cost and MRP are unchanged
+     * keeps its batch untouched (it is not even read), a changed line updates its batch in
+     * place by the quantity difference, a removed line deletes its batch and a new line
+     * creates one. Stock shards and category aggregates get one net change per medicine, and
+     * the supplier balance is only written when the amount due changes.
+     */
+    public CompletableFuture<Purchase> updatePurchaseAsync(String orgId, String branchId, String userId, String purchaseId, UpdatePurchaseRequest request) {
 
-        return firestore.runTransaction(transaction -> {
+        Set<String> restockedMedicineIds = ConcurrentHashMap.newKeySet();
+        // The medicines of removed lines and the original supplier are written too: runOnPurchase
+        // adds them to the locks once it has read the original invoice.
+        Set<String> requestedMedicineIds = request.getItems().stream()
+                .map(UpdatePurchaseRequest.PurchaseItemDto::getMedicineId).collect(Collectors.toSet());
+        return runOnPurchase("purchase.update", orgId, branchId, purchaseId, requestedMedicineIds, Set.of(request.getSupplierId()), (transaction, originalPurchase) -> {
             // ===================================================================
             // PHASE 1: READ ALL ORIGINAL & NEW DATA
             // ===================================================================
 
-            // 1. Read the original Purchase document.
-            Purchase originalPurchase = purchaseRepository.findById(transaction, orgId, branchId, purchaseId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Purchase with ID " + purchaseId + " not found to update."));
+            // 1. The original Purchase document has been read by runOnPurchase.
 
             // 2. Read the new Supplier to get its name for denormalization.
             Supplier newSupplier = supplierRepository.findById(transaction, orgId, request.getSupplierId())
@@ -867,58 +561,52 @@ public class PurchaseService {
             if (request.getGstType() != GstType.NON_GST) {
                 List<String> requiredTaxProfileIds = request.getItems().stream().map(UpdatePurchaseRequest.PurchaseItemDto::getTaxProfileId).distinct().collect(Collectors.toList());
                 if (!requiredTaxProfileIds.isEmpty()) {
-                    List<DocumentSnapshot> taxProfileSnapshots = taxProfileRepository.getAll(transaction, orgId, requiredTaxProfileIds);
-                    taxProfileMap.putAll(taxProfileSnapshots.stream().map(doc -> {
-                        if (!doc.exists()) throw new ResourceNotFoundException("TaxProfile with ID " + doc.getId() + " not found.");
-                        return doc.toObject(TaxProfile.class);
-                    }).collect(Collectors.toMap(TaxProfile::getTaxProfileId, Function.identity())));
+                    taxProfileMap.putAll(taxProfileCache.getAll(transaction, orgId, requiredTaxProfileIds));
                 }
             }
 
+            // 4. Diff the lines against the original invoice, and read the batches of the
+            //    lines that were changed or removed (only those are written).
+            Map<String, PurchaseItem> originalLines = new LinkedHashMap<>();
+            originalPurchase.getItems().forEach(item -> originalLines.put(PurchaseLineDiff.lineKey(item.getMedicineId(), item.getBatchNo()), item));
+            Map<String, UpdatePurchaseRequest.PurchaseItemDto> requestedLines = new LinkedHashMap<>();
+            for (UpdatePurchaseRequest.PurchaseItemDto itemDto : request.getItems()) {
+                if (requestedLines.put(PurchaseLineDiff.lineKey(itemDto.getMedicineId(), itemDto.getBatchNo()), itemDto) != null) {
+                    throw new InvalidRequestException("Batch " + itemDto.getBatchNo() + " of medicine " + itemDto.getMedicineId() + " appears more than once.");
+                }
+            }
+            Map<String, PurchaseItem> linesToRewrite = PurchaseLineDiff.linesToRewrite(originalLines, requestedLines);
+            Map<String, MedicineBatch> currentBatches = purchasedBatchReader.findBatches(transaction, orgId, branchId, linesToRewrite);
+
             // ===================================================================
-            // PHASE 2: CALCULATE NEW STATE & REVERSE OLD STATE
+            // PHASE 2: CALCULATE NEW STATE & THE LINE DIFF
             // ===================================================================
 
             // --- A. Calculate the NEW state of the purchase ---
-            final BigDecimal[] newTotalTaxable = {BigDecimal.ZERO};
-            final BigDecimal[] newTotalTax = {BigDecimal.ZERO};
-            final BigDecimal[] newTotalDiscount = {BigDecimal.ZERO};
+            PricingEngine.Totals totals = new PricingEngine.Totals();
 
             List<PurchaseItem> newPurchaseItems = request.getItems().stream().map(itemDto -> {
                 Medicine masterMedicine = medicineMasterDataMap.get(itemDto.getMedicineId());
-                BigDecimal packQuantity = new BigDecimal(itemDto.getPackQuantity());
-                BigDecimal costPerPack = BigDecimal.valueOf(itemDto.getPurchaseCostPerPack());
-                BigDecimal discountPercent = BigDecimal.valueOf(itemDto.getDiscountPercentage()).divide(new BigDecimal(100));
-                BigDecimal grossAmount = costPerPack.multiply(packQuantity);
-                BigDecimal discountAmount = grossAmount.multiply(discountPercent);
-                BigDecimal netAmountAfterDiscount = grossAmount.subtract(discountAmount);
-                BigDecimal taxableAmount;
-                BigDecimal taxAmount;
                 TaxProfile taxProfile = null;
-
-                if (request.getGstType() == GstType.NON_GST) {
-                    taxableAmount = netAmountAfterDiscount;
-                    taxAmount = BigDecimal.ZERO;
-                } else {
+                if (request.getGstType() != GstType.NON_GST) {
                     taxProfile = taxProfileMap.get(itemDto.getTaxProfileId());
                     if (taxProfile == null) throw new InvalidRequestException("Tax profile ID '" + itemDto.getTaxProfileId() + "' is invalid.");
-                    BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                    if (request.getGstType() == GstType.INCLUSIVE) {
-                        taxableAmount = netAmountAfterDiscount.divide(BigDecimal.ONE.add(taxRate), 2, RoundingMode.HALF_UP);
-                        taxAmount = netAmountAfterDiscount.subtract(taxableAmount);
-                    } else { // EXCLUSIVE
-                        taxableAmount = netAmountAfterDiscount;
-                        taxAmount = taxableAmount.multiply(taxRate);
-                    }
                 }
-                newTotalTaxable[0] = newTotalTaxable[0].add(taxableAmount);
-                newTotalTax[0] = newTotalTax[0].add(taxAmount);
-                newTotalDiscount[0] = newTotalDiscount[0].add(discountAmount);
+                PricingEngine.LinePrice price = pricingEngine.price(itemDto.getPurchaseCostPerPack(), itemDto.getPackQuantity(),
+                        itemDto.getDiscountPercentage(), taxProfile != null ? taxProfile.getTotalRate() : 0.0, request.getGstType());
+                totals.add(price);
                 int totalUnitsReceived = (itemDto.getPackQuantity() + itemDto.getFreePackQuantity()) * itemDto.getItemsPerPack();
+                // A kept line stays linked to its existing batch.
+                String lineKey = PurchaseLineDiff.lineKey(itemDto.getMedicineId(), itemDto.getBatchNo());
+                PurchaseItem originalLine = originalLines.get(lineKey);
+                MedicineBatch currentBatch = currentBatches.get(lineKey);
+                String batchId = currentBatch != null ? currentBatch.getBatchId()
+                        : originalLine != null && !linesToRewrite.containsKey(lineKey) && originalLine.getCreatedBatchId() != null
+                        ? originalLine.getCreatedBatchId() : IdGenerator.newId("BAT");
                 return PurchaseItem.builder()
                         .medicineId(itemDto.getMedicineId()).
                         batchNo(itemDto.getBatchNo()).
-                        createdBatchId(IdGenerator.newId("BAT"))
+                        createdBatchId(batchId)
                         .expiryDate(Timestamp.of(itemDto.getExpiryDate())).
                         medicineName(masterMedicine.getName())
                         .packQuantity(itemDto.getPackQuantity()).
@@ -927,10 +615,10 @@ public class PurchaseService {
                         totalReceivedQuantity(totalUnitsReceived)
                         .purchaseCostPerPack(itemDto.getPurchaseCostPerPack())
                         .discountPercentage(itemDto.getDiscountPercentage())
-                        .lineItemDiscountAmount(round(discountAmount))
-                        .lineItemTaxableAmount(round(taxableAmount))
-                        .lineItemTaxAmount(round(taxAmount))
-                        .lineItemTotalAmount(round(taxableAmount.add(taxAmount)))
+                        .lineItemDiscountAmount(toRupees(price.discount()))
+                        .lineItemTaxableAmount(toRupees(price.taxable()))
+                        .lineItemTaxAmount(toRupees(price.tax()))
+                        .lineItemTotalAmount(toRupees(price.total()))
                         .mrpPerItem(itemDto.getMrpPerItem()).
                         taxProfileId(taxProfile != null ? taxProfile.getTaxProfileId() : "N/A")
                         .taxRateApplied(taxProfile != null ? taxProfile.getTotalRate() : 0.0)
@@ -938,95 +626,84 @@ public class PurchaseService {
                         .build();
             }).collect(Collectors.toList());
 
-            BigDecimal subTotal = newTotalTaxable[0].add(newTotalTax[0]);
-            BigDecimal calculatedOverallAdjustmentAmount = BigDecimal.ZERO;
-
-            if (request.getOverallAdjustmentType() != null && request.getOverallAdjustmentValue() != null) {
-                BigDecimal adjustmentValue = BigDecimal.valueOf(request.getOverallAdjustmentValue());
-                switch (request.getOverallAdjustmentType()) {
-                    case PERCENTAGE_DISCOUNT: calculatedOverallAdjustmentAmount = newTotalTaxable[0].multiply(adjustmentValue.divide(new BigDecimal(100))); break;
-                    case FIXED_DISCOUNT: calculatedOverallAdjustmentAmount = adjustmentValue; break;
-                    case ADDITIONAL_CHARGE: calculatedOverallAdjustmentAmount = adjustmentValue.negate(); break;
-                }
-            }
-            BigDecimal newGrandTotal = subTotal.subtract(calculatedOverallAdjustmentAmount);
+            long calculatedOverallAdjustmentAmount = pricingEngine.overallAdjustment(
+                    request.getOverallAdjustmentType(), request.getOverallAdjustmentValue(), totals.taxable());
+            long newGrandTotal = totals.total() - calculatedOverallAdjustmentAmount;
             double newAmountPaid = request.getAmountPaid();
-            double newDueAmount = round(newGrandTotal) - newAmountPaid;
+            double newDueAmount = toRupees(newGrandTotal - toPaise(newAmountPaid));
             PaymentStatus newPaymentStatus = (newDueAmount <= 0.01) ? PaymentStatus.PAID : (newAmountPaid > 0 ? PaymentStatus.PARTIALLY_PAID : PaymentStatus.PENDING);
 
 
-            // --- B. Calculate the changes needed for inventory and supplier balance ---
+            // --- B. Plan the batch writes from the line diff, and the stock they move per medicine ---
             double oldDueAmount = originalPurchase.getDueAmount();
-            double balanceChange = newDueAmount - oldDueAmount;
 
-            Map<String, Integer> stockChanges = new HashMap<>();
-            newPurchaseItems.forEach(item -> stockChanges.put(item.getMedicineId(), stockChanges.getOrDefault(item.getMedicineId(), 0) + item.getTotalReceivedQuantity()));
-            originalPurchase.getItems().forEach(item -> stockChanges.put(item.getMedicineId(), stockChanges.getOrDefault(item.getMedicineId(), 0) - item.getTotalReceivedQuantity()));
+            PurchaseLineDiff lineDiff = PurchaseLineDiff.plan(purchaseId, newPurchaseItems, originalLines, linesToRewrite, currentBatches);
+            Map<String, Integer> stockChanges = lineDiff.stockChanges();
+
+            // Last read: the categories of the medicines whose stock moves.
+            CategoryStockDelta stockDelta = stockAggregateRepository.newDelta(transaction, orgId, branchId, stockChanges.keySet(), medicineMasterDataMap);
 
             // ===================================================================
-            // PHASE 3: VALIDATE & STAGE ALL WRITES
+            // PHASE 3: STAGE ALL WRITES
             // ===================================================================
 
-            // 1. STAGE DELETE/VALIDATE: Delete all old batches associated with the original purchase.
-            for (PurchaseItem oldItem : originalPurchase.getItems()) {
-                medicineBatchRepository.findByBatchNo(transaction, orgId, branchId, oldItem.getMedicineId(), oldItem.getBatchNo())
-                        .ifPresent(oldBatch -> {
-                            if (oldBatch.getQuantityAvailable() < oldItem.getTotalReceivedQuantity()) {
-                                throw new IllegalStateException("Cannot edit purchase. Stock from batch " + oldItem.getBatchNo() + " has already been used.");
-                            }
-                            medicineBatchRepository.deleteByIdInTransaction(transaction, orgId, branchId, oldItem.getMedicineId(), oldBatch.getBatchId());
-                        });
+            // 1. STAGE the batch creates, in-place updates and deletes.
+            for (PurchaseLineDiff.BatchWrite write : lineDiff.batchesToSave()) {
+                medicineBatchRepository.saveInTransaction(transaction, orgId, branchId, write.medicineId(), write.batch());
+                restockedMedicineIds.add(write.medicineId());
             }
-
-            // 2. STAGE CREATE: Create all the new batches for the updated purchase.
-            for (PurchaseItem newItem : newPurchaseItems) {
-                if (newItem.getTotalReceivedQuantity() > 0) {
-                    MedicineBatch newBatch = MedicineBatch.builder()
-                            .batchId(newItem.getCreatedBatchId()).batchNo(newItem.getBatchNo())
-                            .sourcePurchaseId(purchaseId).expiryDate(newItem.getExpiryDate())
-                            .quantityAvailable(newItem.getTotalReceivedQuantity())
-                            .purchaseCost(newItem.getPurchaseCostPerPack() / newItem.getItemsPerPack())
-                            .mrp(newItem.getMrpPerItem()).build();
-                    medicineBatchRepository.saveInTransaction(transaction, orgId, branchId, newItem.getMedicineId(), newBatch);
-                }
+            for (PurchaseLineDiff.BatchWrite write : lineDiff.batchesToDelete()) {
+                medicineBatchRepository.deleteByIdInTransaction(transaction, orgId, branchId, write.medicineId(), write.batch().getBatchId());
+                restockedMedicineIds.add(write.medicineId());
             }
+            fefoBatchIndex.invalidateInTransaction(transaction, orgId, branchId,
+                    lineDiff.batchesToSave().stream().map(PurchaseLineDiff.BatchWrite::medicineId).toList());
 
-            // 3. STAGE UPDATE: Update the denormalized stock totals on the parent Medicine documents.
+            // 2. STAGE UPDATE: Update the denormalized stock totals on the parent Medicine documents.
             for (Map.Entry<String, Integer> entry : stockChanges.entrySet()) {
-                medicineRepository.updateStockInTransaction(transaction, orgId, branchId, entry.getKey(), entry.getValue());
+                stockShardRepository.incrementInTransaction(transaction, orgId, branchId, entry.getKey(), entry.getValue());
+                stockDelta.add(entry.getKey(), entry.getValue());
+            }
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
+
+            // 3. STAGE UPDATE: Adjust the supplier balance(s), only if the amount due moved.
+            if (!originalPurchase.getSupplierId().equals(request.getSupplierId())) {
+                supplierRepository.updateBalanceInTransaction(transaction, orgId, originalPurchase.getSupplierId(), -oldDueAmount);
+                supplierRepository.updateBalanceInTransaction(transaction, orgId, request.getSupplierId(), newDueAmount);
+            } else if (toPaise(newDueAmount) != toPaise(oldDueAmount)) {
+                supplierRepository.updateBalanceInTransaction(transaction, orgId, request.getSupplierId(), newDueAmount - oldDueAmount);
             }
-
-            // 4. STAGE UPDATE: Atomically adjust the supplier's balance.
-            supplierRepository.updateBalanceInTransaction(transaction, orgId, request.getSupplierId(), balanceChange);
 
             // (A full implementation would also reverse/re-apply payments).
 
-            // 5. UPDATE the original Purchase object in memory with the new data.
+            // 4. UPDATE the original Purchase object in memory with the new data.
             originalPurchase.setSupplierId(request.getSupplierId());
             originalPurchase.setSupplierName(newSupplier.getName());
             originalPurchase.setInvoiceDate(Timestamp.of(request.getInvoiceDate()));
             originalPurchase.setReferenceId(request.getReferenceId());
             originalPurchase.setGstType(request.getGstType());
             originalPurchase.setItems(newPurchaseItems);
-            originalPurchase.setTotalTaxableAmount(round(newTotalTaxable[0]));
-            originalPurchase.setTotalDiscountAmount(round(newTotalDiscount[0]));
-            originalPurchase.setTotalTaxAmount(round(newTotalTax[0]));
-            originalPurchase.setCalculatedOverallAdjustmentAmount(round(calculatedOverallAdjustmentAmount));
-            originalPurchase.setTotalAmount(round(newGrandTotal));
+            originalPurchase.setTotalTaxableAmount(toRupees(totals.taxable()));
+            originalPurchase.setTotalDiscountAmount(toRupees(totals.discount()));
+            originalPurchase.setTotalTaxAmount(toRupees(totals.tax()));
+            originalPurchase.setCalculatedOverallAdjustmentAmount(toRupees(calculatedOverallAdjustmentAmount));
+            originalPurchase.setTotalAmount(toRupees(newGrandTotal));
             originalPurchase.setOverallAdjustmentType(request.getOverallAdjustmentType());
             originalPurchase.setAmountPaid(newAmountPaid);
             originalPurchase.setDueAmount(newDueAmount);
             originalPurchase.setPaymentStatus(newPaymentStatus);
 
 
-            // 6. STAGE WRITE: Save the final, updated Purchase document.
+            // 5. STAGE WRITE: Save the final, updated Purchase document.
             purchaseRepository.saveInTransaction(transaction, originalPurchase);
 
             return originalPurchase;
-        }).get();
+        }).thenApply(updatedPurchase -> {
+            fefoBatchIndex.invalidate(orgId, branchId, restockedMedicineIds);
+            return updatedPurchase;
+        });
     }
 
-
     /**
      * Performs a "hard delete" on a Purchase, permanently removing the invoice,
      * its associated payment records, and the stock it introduced.
@@ -1037,21 +714,27 @@ public class PurchaseService {
     public void deletePurchase(String orgId, String branchId, String purchaseId)
             throws ExecutionException, InterruptedException {
 
-        firestore.runTransaction(transaction -> {
+        // Lock the medicines whose batches go and the supplier whose balance moves as well;
+        // this blocking call can afford reading them up front rather than through a first
+        // attempt of runOnPurchase.
+        Optional<Purchase> knownPurchase = purchaseRepository.findById(orgId, branchId, purchaseId);
+        Set<String> knownMedicineIds = knownPurchase.map(this::medicineIdsOf).orElse(Set.of());
+        Set<String> knownSupplierIds = knownPurchase.map(purchase -> Set.of(purchase.getSupplierId())).orElse(Set.of());
+        Purchase deletedPurchase = runOnPurchase("purchase.delete", orgId, branchId, purchaseId, knownMedicineIds, knownSupplierIds, (transaction, purchaseToDelete) -> {
             // ===================================================================
             // PHASE 1: READS & VALIDATION
             // ===================================================================
 
-            // 1. READ the original Purchase document.
-            Purchase purchaseToDelete = purchaseRepository.findById(transaction, orgId, branchId, purchaseId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Purchase with ID " + purchaseId + " not found."));
+            // 1. The original Purchase document has been read by runOnPurchase.
+            CategoryStockDelta stockDelta = stockAggregateRepository.newDelta(transaction, orgId, branchId, medicineIdsOf(purchaseToDelete));
 
-            // 2. READ all MedicineBatches created by this purchase to validate them.
+            // 2. READ all MedicineBatches created by this purchase, in one round trip, to validate them.
+            Map<String, PurchaseItem> lines = new LinkedHashMap<>();
+            purchaseToDelete.getItems().forEach(item -> lines.putIfAbsent(PurchaseLineDiff.lineKey(item.getMedicineId(), item.getBatchNo()), item));
+            Map<String, MedicineBatch> batches = purchasedBatchReader.findBatches(transaction, orgId, branchId, lines);
             for (PurchaseItem item : purchaseToDelete.getItems()) {
-                MedicineBatch batch = medicineBatchRepository
-                        .findByBatchNo(transaction, orgId, branchId, item.getMedicineId(), item.getBatchNo())
-                        .orElse(null); // It's okay if the batch was already deleted manually
-
+                MedicineBatch batch = batches.get(PurchaseLineDiff.lineKey(item.getMedicineId(), item.getBatchNo()));
+                // It's okay if the batch was already deleted manually
                 if (batch != null) {
                     // CRITICAL SAFETY CHECK
                     if (batch.getQuantityAvailable() < item.getTotalReceivedQuantity()) {
@@ -1064,25 +747,108 @@ public class PurchaseService {
             // PHASE 2: STAGE ALL DELETE & UPDATE OPERATIONS
             // ===================================================================
 
-            // 1. STAGE DELETE: Delete all MedicineBatches created by this purchase.
-            for (PurchaseItem item : purchaseToDelete.getItems()) {
-                medicineBatchRepository
-                        .findByBatchNo(transaction, orgId, branchId, item.getMedicineId(), item.getBatchNo())
-                        .ifPresent(batch -> {
-                            medicineBatchRepository.deleteByIdInTransaction(transaction, orgId, branchId, item.getMedicineId(), batch.getBatchId());
-                        });
+            // 1. STAGE DELETE: Delete all payment records associated with this purchase.
+            //    Staged first: it may query the payments, and a transaction cannot read after a write.
+            supplierPaymentRepository.deleteAllByPurchaseIdInTransaction(transaction, orgId, purchaseToDelete.getSupplierId(), purchaseId);
+
+            // 2. STAGE DELETE: Delete all MedicineBatches created by this purchase, from the snapshots read above.
+            Map<String, Integer> stockChanges = new HashMap<>();
+            for (Map.Entry<String, MedicineBatch> entry : batches.entrySet()) {
+                String medicineId = lines.get(entry.getKey()).getMedicineId();
+                MedicineBatch batch = entry.getValue();
+                medicineBatchRepository.deleteByIdInTransaction(transaction, orgId, branchId, medicineId, batch.getBatchId());
+                stockChanges.merge(medicineId, -batch.getQuantityAvailable(), Integer::sum);
             }
 
-            // 2. STAGE DELETE: Delete all payment records associated with this purchase.
-            supplierPaymentRepository.deleteAllByPurchaseIdInTransaction(transaction, orgId, purchaseToDelete.getSupplierId(), purchaseId);
+            // 3. STAGE UPDATE: Take the removed stock off the medicine totals.
+            for (Map.Entry<String, Integer> entry : stockChanges.entrySet()) {
+                stockShardRepository.incrementInTransaction(transaction, orgId, branchId, entry.getKey(), entry.getValue());
+                stockDelta.add(entry.getKey(), entry.getValue());
+            }
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
 
-            // 3. STAGE UPDATE: Reverse the financial impact on the supplier's balance.
+            // 4. STAGE UPDATE: Reverse the financial impact on the supplier's balance.
             supplierRepository.updateBalanceInTransaction(transaction, orgId, purchaseToDelete.getSupplierId(), -purchaseToDelete.getDueAmount());
 
-            // 4. STAGE DELETE: Delete the main Purchase document itself.
+            // 5. STAGE DELETE: Delete the main Purchase document itself.
             purchaseRepository.deleteByIdInTransaction(transaction, orgId, branchId, purchaseId);
 
-            return null; // Return null as this is a void operation
+            return purchaseToDelete;
         }).get();
+
+        fefoBatchIndex.invalidate(orgId, branchId, medicineIdsOf(deletedPurchase));
+    }
+
+    /**
+     * Runs {@code function} on a purchase in a transaction that holds the locks of the
+     * purchase, of every medicine it involves ({@code medicineIds} and the ones on the
+     * invoice) and of every supplier whose balance it moves ({@code supplierIds} and the
+     * invoice's own).
+     * <p>
+     * The invoice's medicines and supplier are only known once it is read, so an attempt
+     * locks the ones it knows of, and if the purchase it reads involves others (it was
+     * edited meanwhile), it gives up before reading anything else and runs again with
+     * those locked too.
+     */
+    private <T> CompletableFuture<T> runOnPurchase(String operation, String orgId, String branchId, String purchaseId,
+                                                   Set<String> medicineIds, Set<String> supplierIds, PurchaseFunction<T> function) {
+        Set<String> lockKeys = TransactionRunner.medicineKeys(orgId, branchId, medicineIds);
+        lockKeys.add(TransactionRunner.lockKey(orgId, branchId, FirestorePaths.PURCHASES, purchaseId));
+        for (String supplierId : supplierIds) {
+            lockKeys.add(TransactionRunner.lockKey(orgId, FirestorePaths.SUPPLIERS, supplierId));
+        }
+        FirestoreUsage usage = FirestoreUsage.current();
+        return transactionRunner.run(operation, lockKeys, transaction -> {
+            Purchase purchase = purchaseRepository.findById(transaction, orgId, branchId, purchaseId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Purchase with ID " + purchaseId + " not found."));
+            Set<String> invoiceMedicineIds = medicineIdsOf(purchase);
+            if (!medicineIds.containsAll(invoiceMedicineIds) || !supplierIds.contains(purchase.getSupplierId())) {
+                throw new UnlockedKeysException(invoiceMedicineIds, purchase.getSupplierId());
+            }
+            return function.apply(transaction, purchase);
+        }).exceptionallyCompose(error -> {
+            if (!(FirestoreFutures.unwrap(error) instanceof UnlockedKeysException unlocked)) {
+                return CompletableFuture.failedFuture(error);
+            }
+            Set<String> allMedicineIds = new HashSet<>(medicineIds);
+            allMedicineIds.addAll(unlocked.medicineIds);
+            Set<String> allSupplierIds = new HashSet<>(supplierIds);
+            allSupplierIds.add(unlocked.supplierId);
+            // Completes on a Firestore thread: keep counting towards the calling request.
+            FirestoreUsage previousUsage = FirestoreUsage.bind(usage);
+            try {
+                return runOnPurchase(operation, orgId, branchId, purchaseId, allMedicineIds, allSupplierIds, function);
+            } finally {
+                FirestoreUsage.restore(previousUsage);
+            }
+        });
+    }
+
+    private Set<String> medicineIdsOf(Purchase purchase) {
+        if (purchase.getItems() == null) return Collections.emptySet();
+        return purchase.getItems().stream().map(PurchaseItem::getMedicineId).collect(Collectors.toSet());
+    }
+
+    /**
+     * A transaction on a purchase, given the purchase as read in it.
+     */
+    @FunctionalInterface
+    private interface PurchaseFunction<T> {
+        T apply(Transaction transaction, Purchase purchase) throws Exception;
+    }
+
+    /**
+     * Thrown by an attempt of {@link #runOnPurchase} that read a purchase involving a
+     * medicine or a supplier it had not locked.
+     */
+    private static final class UnlockedKeysException extends RuntimeException {
+        private final Set<String> medicineIds;
+        private final String supplierId;
+
+        private UnlockedKeysException(Set<String> medicineIds, String supplierId) {
+            super("Purchase involves medicines or a supplier that were not locked: " + medicineIds + ", " + supplierId, null, false, false);
+            this.medicineIds = medicineIds;
+            this.supplierId = supplierId;
+        }
     }
 }
@@ -6,128 +6,352 @@ import com.cosmicdoc.inventoryservice.dto.response.DailySalesSummaryResponse;
 import com.cosmicdoc.inventoryservice.dto.response.StockByCategoryResponse;
 import com.cosmicdoc.inventoryservice.dto.response.SupplierLedgerResponse;
 import com.cosmicdoc.inventoryservice.dto.response.TransactionSummaryDto;
+import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.AvailableBatchReader;
+import com.cosmicdoc.inventoryservice.repository.CursorPager;
+import com.cosmicdoc.inventoryservice.repository.FirestoreAggregates;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import com.cosmicdoc.inventoryservice.repository.SalesRollupDelta;
+import com.cosmicdoc.inventoryservice.repository.SalesRollupRepository;
+import com.cosmicdoc.inventoryservice.repository.StockAggregateRepository;
+import com.cosmicdoc.inventoryservice.repository.TransactionRunner;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.Transaction;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ReportingService {
 
-    private final MedicineRepository medicineRepository;
-    private final MedicineBatchRepository medicineBatchRepository;
+    private static final int MAX_SUMMARY_RANGE_DAYS = 92;
+    private static final int MAX_REBUILD_RANGE_DAYS = 366;
+    private static final String FIELD_SUPPLIER_ID = "supplierId";
+    private static final String FIELD_INVOICE_DATE = "invoiceDate";
+    private static final String FIELD_RETURN_DATE = "returnDate";
+    private static final String FIELD_TOTAL_AMOUNT = "totalAmount";
+    private static final String FIELD_AMOUNT_PAID = "amountPaid";
+    private static final String FIELD_TOTAL_RETURNED_AMOUNT = "totalReturnedAmount";
+
+    private final Firestore firestore;
     private final SaleRepository saleRepository;
     private final SupplierRepository supplierRepository;
-    private final PurchaseRepository purchaseRepository;
-    private final PurchaseReturnRepository purchaseReturnRepository;
+    private final StockAggregateRepository stockAggregateRepository;
+    private final AvailableBatchReader availableBatchReader;
+    private final SalesRollupRepository salesRollupRepository;
+    private final TransactionRunner transactionRunner;
 
     /**
      * Generates a stock report grouped by medicine category.
-     * WARNING: This can be slow and expensive as it reads ALL medicines and ALL their batches.
+     * Reads the per-category aggregates maintained by the purchase, sale and return
+     * write paths, so this is a single collection read. A branch that has never been
+     * reconciled is bootstrapped with a full scan on first use.
      */
     public List<StockByCategoryResponse> getStockByCategory(String orgId, String branchId) {
-        // 1. Fetch all medicine master documents for the branch.
-        List<Medicine> medicines = medicineRepository.findAllByBranchId(orgId, branchId);
-
-        // 2. Group medicines by category in memory.
-        Map<String, List<Medicine>> medicinesByCategory = medicines.stream()
-                .filter(m -> m.getCategory() != null)
-                .collect(Collectors.groupingBy(Medicine::getCategory));
-
-        // 3. For each category, calculate the total stock.
-        List<StockByCategoryResponse> report = new ArrayList<>();
-        for (Map.Entry<String, List<Medicine>> entry : medicinesByCategory.entrySet()) {
-            String category = entry.getKey();
-            List<Medicine> medicinesInCat = entry.getValue();
-
-            int totalStockForCategory = 0;
-            for (Medicine med : medicinesInCat) {
-                // For each medicine, fetch all its batches and sum their quantity.
-                totalStockForCategory += medicineBatchRepository.findAllBatchesForMedicine(orgId, branchId, med.getMedicineId())
-                        .stream()
-                        .mapToInt(MedicineBatch::getQuantityAvailable)
-                        .sum();
+        Map<String, Long> totals = stockAggregateRepository.findAllByBranchId(orgId, branchId)
+                .orElseGet(() -> reconcileStockTotals(orgId, branchId));
+        return toStockReport(totals);
+    }
+
+    /**
+     * Recomputes the stock of every category from the batches and corrects the
+     * aggregates to the result, logging any drift that was found.
+     * Reads all medicines, and one sum() aggregation over the batches of each.
+     */
+    public List<StockByCategoryResponse> reconcileStockByCategory(String orgId, String branchId) {
+        return toStockReport(reconcileStockTotals(orgId, branchId));
+    }
+
+    /**
+     * Nightly drift repair for every branch that has stock aggregates.
+     */
+    @Scheduled(cron = "${app.stock-aggregate.reconcile-cron:0 30 2 * * *}")
+    public void reconcileAllBranches() {
+        for (StockAggregateRepository.BranchKey branch : stockAggregateRepository.findAllReconciledBranches()) {
+            try {
+                reconcileStockTotals(branch.orgId(), branch.branchId());
+            } catch (RuntimeException e) {
+                log.error("Stock aggregate reconcile failed for {}/{}", branch.orgId(), branch.branchId(), e);
             }
-            report.add(new StockByCategoryResponse(category, totalStockForCategory));
         }
-        return report;
+    }
+
+    /**
+     * Computes the category totals from the batches and corrects the aggregates to them.
+     * The medicines, their batch sums and the maintained aggregates are read in one
+     * read-only snapshot, so the drift is exact; the correction is then applied as
+     * increments in a transaction, keeping whatever was committed since the snapshot.
+     */
+    private Map<String, Long> reconcileStockTotals(String orgId, String branchId) {
+        StockSnapshot snapshot = transactionRunner.runReadOnly("stock.reconcile.read", transaction -> {
+            // 1. Fetch all medicine master documents for the branch.
+            List<QueryDocumentSnapshot> medicineDocs = transaction.get(FirestorePaths.branch(firestore, orgId, branchId)
+                    .collection(FirestorePaths.MEDICINES)).get().getDocuments();
+            FirestoreUsage.reads(Math.max(1, medicineDocs.size()));
+            List<Medicine> medicines = medicineDocs.stream().map(doc -> doc.toObject(Medicine.class)).toList();
+
+            // 2. Sum the batches of every categorised medicine with server-side aggregations,
+            //    then add each medicine's sum to its category.
+            List<Medicine> categorised = medicines.stream().filter(med -> med.getCategory() != null).toList();
+            Map<String, Long> stockByMedicine = availableBatchReader.sumAvailable(transaction, orgId, branchId,
+                    categorised.stream().map(Medicine::getMedicineId).toList());
+            Map<String, Long> actualTotals = new TreeMap<>();
+            for (Medicine med : categorised) {
+                actualTotals.merge(med.getCategory(), stockByMedicine.get(med.getMedicineId()), Long::sum);
+            }
+            return new StockSnapshot(actualTotals, stockAggregateRepository.findAllByBranchId(transaction, orgId, branchId));
+        }).join();
+        Map<String, Long> actualTotals = snapshot.actualTotals();
+
+        // 3. Report drift against the maintained aggregates, then correct them.
+        snapshot.maintainedTotals().ifPresent(maintained -> {
+            Set<String> categories = new TreeSet<>(maintained.keySet());
+            categories.addAll(actualTotals.keySet());
+            for (String category : categories) {
+                long expected = actualTotals.getOrDefault(category, 0L);
+                long found = maintained.getOrDefault(category, 0L);
+                if (expected != found) {
+                    log.warn("Stock aggregate drift in {}/{} category '{}': maintained {}, actual {}", orgId, branchId, category, found, expected);
+                }
+            }
+        });
+        transactionRunner.run("stock.reconcile", transaction -> {
+            stockAggregateRepository.reconcileInTransaction(transaction, orgId, branchId,
+                    snapshot.maintainedTotals().orElse(Map.of()), actualTotals);
+            return null;
+        }).join();
+        return actualTotals;
+    }
+
+    private record StockSnapshot(Map<String, Long> actualTotals, Optional<Map<String, Long>> maintainedTotals) {}
+
+    private List<StockByCategoryResponse> toStockReport(Map<String, Long> totals) {
+        return totals.entrySet().stream()
+                .map(entry -> new StockByCategoryResponse(entry.getKey(), Math.toIntExact(entry.getValue())))
+                .collect(Collectors.toList());
     }
 
     /**
      * Generates a sales summary for a single day.
      */
     public DailySalesSummaryResponse getDailySalesSummary(String orgId, String branchId, LocalDate date) {
-        // This requires a new repository method to query sales by date.
-        List<Sale> salesForDay = saleRepository.findAllByBranchIdAndDate(orgId, branchId, date);
+        return getDailySalesSummaries(orgId, branchId, date, date).get(0);
+    }
+
+    /**
+     * Generates one sales summary per day in [from, to], oldest first.
+     * Days covered by the rollups are read in a single round trip; days before the
+     * rollups' coverage fall back to scanning that day's sales.
+     */
+    public List<DailySalesSummaryResponse> getDailySalesSummaries(String orgId, String branchId, LocalDate from, LocalDate to) {
+        validateRange(from, to, MAX_SUMMARY_RANGE_DAYS);
+        Optional<LocalDate> coveredFrom = salesRollupRepository.findCoveredFrom(orgId, branchId);
+
+        List<LocalDate> coveredDays = new ArrayList<>();
+        List<LocalDate> uncoveredDays = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            if (coveredFrom.isPresent() && !day.isBefore(coveredFrom.get())) {
+                coveredDays.add(day);
+            } else {
+                uncoveredDays.add(day);
+            }
+        }
+
+        Map<LocalDate, Map<String, Object>> rollups = new TreeMap<>(salesRollupRepository.findDays(orgId, branchId, coveredDays));
+        for (LocalDate day : uncoveredDays) {
+            SalesRollupDelta scanned = salesRollupRepository.newDelta();
+            saleRepository.findAllByBranchIdAndDate(orgId, branchId, day).forEach(sale -> scanned.add(sale, +1));
+            rollups.put(day, scanned.combined());
+        }
+
+        return rollups.entrySet().stream()
+                .map(entry -> toDailySummary(orgId, branchId, entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Recomputes the daily sales rollups from {@code from} up to today by scanning the
+     * sales of each day, and marks the rollups complete from {@code from} onwards.
+     * WARNING: This reads every sale in the range; run it off-hours.
+     */
+    public List<DailySalesSummaryResponse> rebuildDailySalesRollups(String orgId, String branchId, LocalDate from) {
+        LocalDate today = LocalDate.now(salesRollupRepository.zoneId());
+        validateRange(from, today, MAX_REBUILD_RANGE_DAYS);
 
-        double totalRevenue = salesForDay.stream()
-                .mapToDouble(Sale::getGrandTotal)
-                .sum();
+        SalesRollupDelta rebuilt = salesRollupRepository.newDelta();
+        for (LocalDate day = from; !day.isAfter(today); day = day.plusDays(1)) {
+            saleRepository.findAllByBranchIdAndDate(orgId, branchId, day).forEach(sale -> rebuilt.add(sale, +1));
+        }
+        salesRollupRepository.replaceDays(orgId, branchId, from, today, rebuilt);
+        log.info("Rebuilt daily sales rollups for {}/{} from {} to {}", orgId, branchId, from, today);
+
+        List<DailySalesSummaryResponse> summaries = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(today); day = day.plusDays(1)) {
+            summaries.add(toDailySummary(orgId, branchId, day, rebuilt.days().getOrDefault(day.toString(), Map.of())));
+        }
+        return summaries;
+    }
+
+    private static void validateRange(LocalDate from, LocalDate to, int maxDays) {
+        if (from.isAfter(to)) {
+            throw new InvalidRequestException("Start date " + from + " is after end date " + to + ".");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= maxDays) {
+            throw new InvalidRequestException("Date range cannot exceed " + maxDays + " days.");
+        }
+    }
+
+    private DailySalesSummaryResponse toDailySummary(String orgId, String branchId, LocalDate date, Map<String, Object> data) {
+        Map<String, DailySalesSummaryResponse.TaxBucket> taxByRate = new TreeMap<>();
+        nested(data, SalesRollupDelta.TAX_BY_RATE).forEach((rate, bucket) -> taxByRate.put(rate,
+                new DailySalesSummaryResponse.TaxBucket(
+                        amount(bucket, SalesRollupDelta.TAXABLE_AMOUNT), amount(bucket, SalesRollupDelta.TAX_AMOUNT))));
 
         return DailySalesSummaryResponse.builder()
                 .organizationId(orgId)
                 .branchId(branchId)
                 .date(date)
-                .totalSales(totalRevenue)
-                .transactionCount(salesForDay.size())
+                .totalSales(amount(data, SalesRollupDelta.TOTAL_SALES))
+                .transactionCount(Math.toIntExact(count(data, SalesRollupDelta.TRANSACTION_COUNT)))
+                .totalTaxableAmount(amount(data, SalesRollupDelta.TOTAL_TAXABLE_AMOUNT))
+                .totalTaxAmount(amount(data, SalesRollupDelta.TOTAL_TAX_AMOUNT))
+                .totalDiscountAmount(amount(data, SalesRollupDelta.TOTAL_DISCOUNT_AMOUNT))
+                .hourly(salesBuckets(data, SalesRollupDelta.HOURLY))
+                .paymentModes(salesBuckets(data, SalesRollupDelta.PAYMENT_MODES))
+                .gstTypes(salesBuckets(data, SalesRollupDelta.GST_TYPES))
+                .taxByRate(taxByRate)
                 .build();
     }
 
+    // Buckets whose count went back to zero (e.g. every sale in that hour was deleted) are dropped.
+    private static Map<String, DailySalesSummaryResponse.SalesBucket> salesBuckets(Map<String, Object> data, String field) {
+        Map<String, DailySalesSummaryResponse.SalesBucket> buckets = new TreeMap<>();
+        nested(data, field).forEach((key, bucket) -> {
+            long transactionCount = count(bucket, SalesRollupDelta.TRANSACTION_COUNT);
+            if (transactionCount != 0) {
+                buckets.put(key, new DailySalesSummaryResponse.SalesBucket(
+                        amount(bucket, SalesRollupDelta.TOTAL_SALES), transactionCount));
+            }
+        });
+        return buckets;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> nested(Map<String, Object> data, String field) {
+        Object value = data.get(field);
+        return value instanceof Map ? (Map<String, Map<String, Object>>) value : Map.of();
+    }
+
+    // Increments accumulate floating-point error, so amounts are rounded to paise on the way out.
+    private static double amount(Map<String, Object> data, String field) {
+        Object value = data.get(field);
+        if (!(value instanceof Number)) return 0.0;
+        return BigDecimal.valueOf(((Number) value).doubleValue()).setScale(2, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    private static long count(Map<String, Object> data, String field) {
+        Object value = data.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
     /**
-     * Generates a complete financial ledger for a single supplier.
-     * It fetches the supplier's details, balance, and a history of all
-     * their purchases and returns.
+     * One page of a supplier's ledger, newest first: their purchases and purchase returns
+     * in this branch, merged by date.
+     * <p>
+     * Each kind is read with its own keyset query of at most {@code pageSize + 1}
+     * documents, both in flight at once, and the results are merged as they are consumed,
+     * so a page costs the same however long the supplier's history. Every row carries the
+     * balance of the ledger itself just after that transaction: a purchase adds what was
+     * not paid on it, a return takes off the amount credited. Payments are recorded against
+     * an invoice and counted through its amount paid, and an edited invoice counts as it is
+     * now. The first page starts from the sum of every entry, taken with three server-side
+     * aggregations, and walks back; the cursor records where each query stopped and the
+     * balance there. The first page's aggregations and queries run in one read-only
+     * transaction, so its balance always agrees with its rows even while purchases and
+     * returns are being recorded.
+     * <p>
+     * Needs composite indexes on purchases (supplierId, invoiceDate desc, __name__ desc)
+     * and purchaseReturns (supplierId, returnDate desc, __name__ desc).
      */
-    public SupplierLedgerResponse getSupplierLedger(String orgId, String branchId, String supplierId) {
+    public SupplierLedgerResponse getSupplierLedger(String orgId, String branchId, String supplierId, String cursor, Integer limit)
+            throws ExecutionException, InterruptedException {
         // 1. Fetch the Supplier master data.
         Supplier supplier = supplierRepository.findById(orgId, supplierId)
                 .orElseThrow(() -> new ResourceNotFoundException("Supplier with ID " + supplierId + " not found."));
 
-        // 2. Fetch all Purchase invoices for this supplier in this branch.
-        List<Purchase> purchases = purchaseRepository.findAllBySupplierId(orgId, branchId, supplierId);
-
-        // 3. Fetch all Purchase Return invoices for this supplier in this branch.
-        List<PurchaseReturn> returns = purchaseReturnRepository.findAllBySupplierId(orgId, branchId, supplierId);
-
-        // 4. Map the purchases to our common transaction DTO.
-        List<TransactionSummaryDto> purchaseTransactions = purchases.stream()
-                .map(p -> TransactionSummaryDto.builder()
-                        .transactionId(p.getPurchaseId())
-                        .date(p.getInvoiceDate().toDate())
-                        .type("PURCHASE")
-                        .referenceId(p.getReferenceId())
-                        .invoiceAmount(p.getTotalAmount())
-                        .amountPaid(p.getAmountPaid())
-                        .build())
-                .collect(Collectors.toList());
-
-        // 5. Map the returns to our common transaction DTO.
-        List<TransactionSummaryDto> returnTransactions = returns.stream()
-                .map(r -> TransactionSummaryDto.builder()
-                        .transactionId(r.getPurchaseReturnId())
-                        .date(r.getReturnDate().toDate())
-                        .type("PURCHASE_RETURN")
-                        .referenceId(r.getOriginalPurchaseId()) // Reference the original invoice
-                        .amountCredited(r.getTotalReturnedAmount())
-                        .build())
-                .collect(Collectors.toList());
+        int pageSize = CursorPager.pageSize(limit);
+        boolean firstPage = cursor == null || cursor.isBlank();
+        LedgerCursor position = firstPage ? new LedgerCursor(null, null, 0) : LedgerCursor.decode(cursor);
 
-        // 6. Combine and sort all transactions by date.
-        List<TransactionSummaryDto> allTransactions = new ArrayList<>();
-        allTransactions.addAll(purchaseTransactions);
-        allTransactions.addAll(returnTransactions);
-        allTransactions.sort(Comparator.comparing(TransactionSummaryDto::getDate).reversed()); // Newest first
+        // 2. Read the page, and on the first page the totals it walks back from, in one snapshot.
+        LedgerReads reads = firstPage
+                ? transactionRunner.runReadOnly("supplier.ledger",
+                        transaction -> readLedger(transaction, orgId, branchId, supplierId, position, pageSize)).get()
+                : readLedger(null, orgId, branchId, supplierId, position, pageSize);
+        LedgerSource purchases = new LedgerSource(FIELD_INVOICE_DATE, position.purchases(), reads.purchases(), doc -> {
+            Purchase p = doc.toObject(Purchase.class);
+            return TransactionSummaryDto.builder()
+                    .transactionId(p.getPurchaseId())
+                    .date(p.getInvoiceDate().toDate())
+                    .type("PURCHASE")
+                    .referenceId(p.getReferenceId())
+                    .invoiceAmount(p.getTotalAmount())
+                    .amountPaid(p.getAmountPaid())
+                    .build();
+        });
+        LedgerSource returns = new LedgerSource(FIELD_RETURN_DATE, position.returns(), reads.returns(), doc -> {
+            PurchaseReturn r = doc.toObject(PurchaseReturn.class);
+            return TransactionSummaryDto.builder()
+                    .transactionId(r.getPurchaseReturnId())
+                    .date(r.getReturnDate().toDate())
+                    .type("PURCHASE_RETURN")
+                    .referenceId(r.getOriginalPurchaseId()) // Reference the original invoice
+                    .amountCredited(r.getTotalReturnedAmount())
+                    .build();
+        });
 
-        // TODO: Implement pagination on this sorted list.
+        // 3. Merge: repeatedly take the newest head, walking the balance back as we go.
+        List<LedgerSource> sources = List.of(purchases, returns);
+        List<TransactionSummaryDto> transactions = new ArrayList<>(pageSize);
+        long balance = reads.balance();
+        while (transactions.size() < pageSize) {
+            LedgerSource next = null;
+            for (LedgerSource source : sources) {
+                if (source.hasNext() && (next == null || source.isNewerThan(next))) next = source;
+            }
+            if (next == null) break;
+            TransactionSummaryDto transaction = next.take();
+            transaction.setRunningBalance(PricingEngine.toRupees(balance));
+            balance -= PricingEngine.toPaise(transaction.getInvoiceAmount())
+                    - PricingEngine.toPaise(transaction.getAmountPaid())
+                    - PricingEngine.toPaise(transaction.getAmountCredited());
+            transactions.add(transaction);
+        }
+        boolean hasMore = sources.stream().anyMatch(LedgerSource::hasNext);
+        String nextCursor = hasMore ? new LedgerCursor(purchases.cursor(), returns.cursor(), balance).encode() : null;
 
-        // 7. Build the final, rich response object.
+        // 4. Build the final, rich response object.
         return SupplierLedgerResponse.builder()
                 .supplierId(supplier.getSupplierId())
                 .name(supplier.getName())
@@ -135,7 +359,118 @@ public class ReportingService {
                 .email(supplier.getEmail())
                 .mobileNumber(supplier.getMobileNumber())
                 .outstandingBalance(supplier.getOutstandingBalance())
-                .transactions(allTransactions)
+                .transactions(transactions)
+                .nextCursor(nextCursor)
+                .pageSize(pageSize)
                 .build();
     }
+
+    /**
+     * Starts every read of a ledger page, then waits for them: both queries and, on the
+     * first page, the ledger totals.
+     *
+     * @param transaction the read-only transaction of the first page; null for later pages,
+     *                    which start from the balance in their cursor.
+     */
+    private LedgerReads readLedger(Transaction transaction, String orgId, String branchId, String supplierId,
+                                   LedgerCursor position, int pageSize)
+            throws ExecutionException, InterruptedException {
+        Query supplierPurchases = FirestorePaths.purchases(firestore, orgId, branchId).whereEqualTo(FIELD_SUPPLIER_ID, supplierId);
+        Query supplierReturns = FirestorePaths.purchaseReturns(firestore, orgId, branchId).whereEqualTo(FIELD_SUPPLIER_ID, supplierId);
+        List<ApiFuture<Double>> ledgerTotals = transaction != null
+                ? List.of(FirestoreAggregates.sumDecimal(transaction, supplierPurchases, FIELD_TOTAL_AMOUNT),
+                          FirestoreAggregates.sumDecimal(transaction, supplierPurchases, FIELD_AMOUNT_PAID),
+                          FirestoreAggregates.sumDecimal(transaction, supplierReturns, FIELD_TOTAL_RETURNED_AMOUNT))
+                : List.of();
+        Query purchasePage = CursorPager.after(supplierPurchases, FIELD_INVOICE_DATE, position.purchases()).limit(pageSize + 1);
+        Query returnPage = CursorPager.after(supplierReturns, FIELD_RETURN_DATE, position.returns()).limit(pageSize + 1);
+        ApiFuture<QuerySnapshot> purchaseRead = transaction != null ? transaction.get(purchasePage) : purchasePage.get();
+        ApiFuture<QuerySnapshot> returnRead = transaction != null ? transaction.get(returnPage) : returnPage.get();
+
+        long balance = position.balance();
+        if (transaction != null) {
+            List<Double> sums = ApiFutures.allAsList(ledgerTotals).get();
+            balance = PricingEngine.toPaise(sums.get(0)) - PricingEngine.toPaise(sums.get(1)) - PricingEngine.toPaise(sums.get(2));
+        }
+        return new LedgerReads(documents(purchaseRead), documents(returnRead), balance);
+    }
+
+    /**
+     * The documents of a ledger page, and the balance it starts from: the one just after its newest entry.
+     */
+    private record LedgerReads(List<QueryDocumentSnapshot> purchases, List<QueryDocumentSnapshot> returns, long balance) {}
+
+    private static List<QueryDocumentSnapshot> documents(ApiFuture<QuerySnapshot> read)
+            throws ExecutionException, InterruptedException {
+        List<QueryDocumentSnapshot> documents = read.get().getDocuments();
+        FirestoreUsage.reads(Math.max(1, documents.size()));
+        return documents;
+    }
+
+    /**
+     * One date-ordered query of the ledger merge, consumed from its newest document.
+     */
+    private static final class LedgerSource {
+
+        private final String dateField;
+        private final List<QueryDocumentSnapshot> documents;
+        private final Function<DocumentSnapshot, TransactionSummaryDto> mapper;
+        private String cursor;
+        private int index;
+
+        LedgerSource(String dateField, String cursor, List<QueryDocumentSnapshot> documents,
+                     Function<DocumentSnapshot, TransactionSummaryDto> mapper) {
+            this.dateField = dateField;
+            this.cursor = cursor;
+            this.documents = documents;
+            this.mapper = mapper;
+        }
+
+        boolean hasNext() {
+            return index < documents.size();
+        }
+
+        // The same (date desc, document ID desc) order as the queries themselves.
+        boolean isNewerThan(LedgerSource other) {
+            QueryDocumentSnapshot head = documents.get(index);
+            QueryDocumentSnapshot otherHead = other.documents.get(other.index);
+            int byDate = head.getTimestamp(dateField).compareTo(otherHead.getTimestamp(other.dateField));
+            return byDate != 0 ? byDate > 0 : head.getId().compareTo(otherHead.getId()) > 0;
+        }
+
+        TransactionSummaryDto take() {
+            QueryDocumentSnapshot doc = documents.get(index++);
+            cursor = CursorPager.cursorOf(doc, dateField);
+            return mapper.apply(doc);
+        }
+
+        // Where this query resumes: after the last document taken, or unchanged if none was.
+        String cursor() {
+            return cursor;
+        }
+    }
+
+    /**
+     * Opaque ledger cursor: each query's own cursor (null before its first document) and
+     * the running balance, in paise, where the page ended.
+     */
+    record LedgerCursor(String purchases, String returns, long balance) {
+
+        private static final String SEPARATOR = "~"; // not in the URL-safe Base64 alphabet of the inner cursors
+
+        String encode() {
+            String raw = Objects.toString(purchases, "") + SEPARATOR + Objects.toString(returns, "") + SEPARATOR + balance;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static LedgerCursor decode(String cursor) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+                return new LedgerCursor(parts[0].isEmpty() ? null : parts[0], parts[1].isEmpty() ? null : parts[1],
+                        Long.parseLong(parts[2]));
+            } catch (RuntimeException e) {
+                throw new InvalidRequestException("Invalid pagination cursor.");
+            }
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.cosmicdoc.inventoryservice.service;
 import com.cosmicdoc.common.model.*;
 import com.cosmicdoc.common.repository.*;
 import com.cosmicdoc.common.util.IdGenerator;
+import com.cosmicdoc.inventoryservice.cache.FefoBatchIndex;
 import com.cosmicdoc.inventoryservice.dto.request.CreatePurchaseReturnRequest;
 import com.cosmicdoc.inventoryservice.dto.request.CreateSalesReturnRequest;
 import com.cosmicdoc.inventoryservice.dto.response.PurchaseReturnListResponse;
@@ -10,20 +11,31 @@ import com.cosmicdoc.inventoryservice.dto.response.SalesReturnListResponse;
 import com.cosmicdoc.inventoryservice.exception.InsufficientStockException;
 import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.CategoryStockDelta;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.PurchasedBatchReader;
+import com.cosmicdoc.inventoryservice.repository.StockAggregateRepository;
+import com.cosmicdoc.inventoryservice.repository.StockShardRepository;
+import com.cosmicdoc.inventoryservice.repository.TransactionRunner;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
+import static com.cosmicdoc.inventoryservice.service.PricingEngine.toPaise;
+import static com.cosmicdoc.inventoryservice.service.PricingEngine.toRupees;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -37,6 +49,12 @@ public class ReturnsService {
     private final SaleRepository saleRepository;
     private final PurchaseRepository purchaseRepository;
     private final SupplierRepository supplierRepository;
+    private final FefoBatchIndex fefoBatchIndex;
+    private final StockAggregateRepository stockAggregateRepository;
+    private final StockShardRepository stockShardRepository;
+    private final PurchasedBatchReader purchasedBatchReader;
+    private final PricingEngine pricingEngine;
+    private final TransactionRunner transactionRunner;
     /**
      * Processes a sales return from a patient. This operation is transactional to
      * validate the original sale and medicine, and to atomically create new batches
@@ -44,8 +62,19 @@ public class ReturnsService {
      */
     public SalesReturn processSalesReturn(String orgId, String branchId, String createdByUserId, CreateSalesReturnRequest request)
             throws ExecutionException, InterruptedException {
+        return processSalesReturnAsync(orgId, branchId, createdByUserId, request).get();
+    }
 
-        return firestore.runTransaction(transaction -> {
+    /**
+     * Non-blocking {@link #processSalesReturn}: completes with the committed return, or
+     * exceptionally with the exception the transaction failed with.
+     */
+    public CompletableFuture<SalesReturn> processSalesReturnAsync(String orgId, String branchId, String createdByUserId, CreateSalesReturnRequest request) {
+
+        Set<String> lockKeys = TransactionRunner.medicineKeys(orgId, branchId,
+                request.getItems().stream().map(CreateSalesReturnRequest.ReturnItemDto::getMedicineId).toList());
+        lockKeys.add(TransactionRunner.lockKey(orgId, branchId, FirestorePaths.SALES, request.getOriginalSaleId()));
+        return transactionRunner.run("return.sales", lockKeys, transaction -> {
             // ===================================================================
             // PHASE 1: READS & VALIDATION
             // ===================================================================
@@ -54,14 +83,15 @@ public class ReturnsService {
             Sale originalSale = saleRepository.findById(transaction, orgId, branchId, request.getOriginalSaleId())
                     .orElseThrow(() -> new ResourceNotFoundException("Original sale with ID " + request.getOriginalSaleId() + " not found."));
 
+            // 2. READ the returned medicines so the category stock aggregates can follow the new batches.
+            CategoryStockDelta stockDelta = stockAggregateRepository.newDelta(transaction, orgId, branchId,
+                    request.getItems().stream().map(CreateSalesReturnRequest.ReturnItemDto::getMedicineId).collect(Collectors.toSet()));
+
             // ===================================================================
             // PHASE 2: CALCULATIONS & PREPARING WRITES
             // ===================================================================
 
-            BigDecimal invoiceTotalMrp = BigDecimal.ZERO;
-            BigDecimal invoiceTotalDiscount = BigDecimal.ZERO;
-            BigDecimal invoiceTotalTaxable = BigDecimal.ZERO;
-            BigDecimal invoiceTotalTax = BigDecimal.ZERO;
+            PricingEngine.Totals totals = new PricingEngine.Totals();
             List<SalesReturnItem> returnItems = new ArrayList<>();
 
             for (var itemDto : request.getItems()) {
@@ -83,26 +113,12 @@ public class ReturnsService {
                 // --- End of corrected logic ---
 
                 // C. Calculate the credit value for this line item based on the original sale's prices.
-                BigDecimal returnQuantity = new BigDecimal(itemDto.getReturnQuantity());
-                BigDecimal mrpPerItem = BigDecimal.valueOf(originalItem.getMrpPerItem());
-                BigDecimal discountPercent = BigDecimal.valueOf(originalItem.getDiscountPercentage()).divide(new BigDecimal(100));
-                BigDecimal taxRate = BigDecimal.valueOf(originalItem.getTaxRateApplied()).divide(new BigDecimal(100));
+                //    Sales prices (MRP) are always tax-inclusive.
+                PricingEngine.LinePrice price = pricingEngine.price(originalItem.getMrpPerItem(), itemDto.getReturnQuantity(),
+                        originalItem.getDiscountPercentage(), originalItem.getTaxRateApplied(), GstType.INCLUSIVE);
 
-                BigDecimal lineItemGrossMrp = mrpPerItem.multiply(returnQuantity);
-                BigDecimal lineItemDiscountAmount = lineItemGrossMrp.multiply(discountPercent);
-                BigDecimal lineItemNetAfterDiscount = lineItemGrossMrp.subtract(lineItemDiscountAmount);
-
-// --- THIS IS THE CORRECTED LOGIC ---
-// We assume sales prices (MRP) are always tax-inclusive.
-                BigDecimal lineItemTaxableAmount = lineItemNetAfterDiscount.divide(BigDecimal.ONE.add(taxRate), 2, RoundingMode.HALF_UP);
-                BigDecimal lineItemTaxAmount = lineItemNetAfterDiscount.subtract(lineItemTaxableAmount); // <-- FIXED
-// ------------------------------------
-
-// D. Aggregate totals for the return invoice.
-                invoiceTotalMrp = invoiceTotalMrp.add(lineItemGrossMrp);
-                invoiceTotalDiscount = invoiceTotalDiscount.add(lineItemDiscountAmount);
-                invoiceTotalTaxable = invoiceTotalTaxable.add(lineItemTaxableAmount);
-                invoiceTotalTax = invoiceTotalTax.add(lineItemTaxAmount);
+                // D. Aggregate totals for the return invoice.
+                totals.add(price);
 
                 // E. STAGE WRITE: Add stock back to inventory by creating a new batch.
                 MedicineBatch returnedBatch = MedicineBatch.builder()
@@ -112,6 +128,8 @@ public class ReturnsService {
                         .quantityAvailable(itemDto.getReturnQuantity())
                         .purchaseCost(0.0).mrp(0.0).build();
                 medicineBatchRepository.saveInTransaction(transaction, orgId, branchId, itemDto.getMedicineId(), returnedBatch);
+                stockShardRepository.incrementInTransaction(transaction, orgId, branchId, itemDto.getMedicineId(), itemDto.getReturnQuantity());
+                stockDelta.add(itemDto.getMedicineId(), itemDto.getReturnQuantity());
 
                 // F. Build the rich SalesReturnItem model for storage.
                 returnItems.add(SalesReturnItem.builder()
@@ -120,17 +138,15 @@ public class ReturnsService {
                         .returnQuantity(itemDto.getReturnQuantity())
                         .mrpAtTimeOfSale(originalItem.getMrpPerItem())
                         .discountPercentageAtSale(originalItem.getDiscountPercentage())
-                        .lineItemReturnValue(round(lineItemNetAfterDiscount))
-                        .lineItemTaxAmount(round(lineItemTaxAmount)).build());
+                        .lineItemReturnValue(toRupees(price.net()))
+                        .lineItemTaxAmount(toRupees(price.tax())).build());
             }
 
             // ===================================================================
             // PHASE 3: FINALIZE AND STAGE FINAL WRITE
             // ===================================================================
-            BigDecimal overallDiscountPercent = BigDecimal.valueOf(request.getOverallDiscountPercentage()).divide(new BigDecimal(100));
-            BigDecimal netTotalBeforeOverallDiscount = invoiceTotalMrp.subtract(invoiceTotalDiscount);
-            BigDecimal overallDiscountAmount = netTotalBeforeOverallDiscount.multiply(overallDiscountPercent);
-            BigDecimal finalRefundAmount = netTotalBeforeOverallDiscount.subtract(overallDiscountAmount);
+            long overallDiscountAmount = pricingEngine.percentage(totals.net(), request.getOverallDiscountPercentage());
+            long finalRefundAmount = totals.net() - overallDiscountAmount;
 
             String returnId = IdGenerator.newId("SRET"); // Use new ID generator
             SalesReturn salesReturn = SalesReturn.builder()
@@ -139,20 +155,27 @@ public class ReturnsService {
                     //.reason(request.getReason())
                     .returnDate(Timestamp.of(request.getReturnDate()))
                     .createdBy(createdByUserId)
-                    .totalReturnedMrp(round(invoiceTotalMrp))
-                    .totalReturnedDiscount(round(invoiceTotalDiscount))
-                    .totalReturnedTaxable(round(invoiceTotalTaxable))
-                    .totalReturnedTax(round(invoiceTotalTax))
+                    .totalReturnedMrp(toRupees(totals.gross()))
+                    .totalReturnedDiscount(toRupees(totals.discount()))
+                    .totalReturnedTaxable(toRupees(totals.taxable()))
+                    .totalReturnedTax(toRupees(totals.tax()))
                     .overallDiscountPercentage(request.getOverallDiscountPercentage())
-                    .overallDiscountAmount(round(overallDiscountAmount))
-                    .netRefundAmount(round(finalRefundAmount))
+                    .overallDiscountAmount(toRupees(overallDiscountAmount))
+                    .netRefundAmount(toRupees(finalRefundAmount))
                     .refundMode(request.getRefundMode())
                     .refundReference(request.getRefundReference())
                     .items(returnItems).build();
 
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
+            fefoBatchIndex.invalidateInTransaction(transaction, orgId, branchId,
+                    returnItems.stream().map(SalesReturnItem::getMedicineId).toList());
             salesReturnRepository.saveInTransaction(transaction,orgId,branchId,salesReturn);
             return salesReturn;
-        }).get();
+        }).thenApply(createdReturn -> {
+            fefoBatchIndex.invalidate(orgId, branchId,
+                    createdReturn.getItems().stream().map(SalesReturnItem::getMedicineId).collect(Collectors.toSet()));
+            return createdReturn;
+        });
     }
 
     /*public SalesReturn processSalesReturn(String orgId, String branchId, String createdByUserId, CreateSalesReturnRequest request)
@@ -263,8 +286,19 @@ public class ReturnsService {
      */
     public PurchaseReturn processPurchaseReturn(String orgId, String branchId, String createdByUserId, CreatePurchaseReturnRequest request)
             throws ExecutionException, InterruptedException {
+        return processPurchaseReturnAsync(orgId, branchId, createdByUserId, request).get();
+    }
 
-        return firestore.runTransaction(transaction -> {
+    /**
+     * Non-blocking {@link #processPurchaseReturn}.
+     */
+    public CompletableFuture<PurchaseReturn> processPurchaseReturnAsync(String orgId, String branchId, String createdByUserId, CreatePurchaseReturnRequest request) {
+
+        Set<String> lockKeys = TransactionRunner.medicineKeys(orgId, branchId,
+                request.getItems().stream().map(CreateSalesReturnRequest.ReturnItemDto::getMedicineId).toList());
+        lockKeys.add(TransactionRunner.lockKey(orgId, branchId, FirestorePaths.PURCHASES, request.getOriginalPurchaseId()));
+        lockKeys.add(TransactionRunner.lockKey(orgId, FirestorePaths.SUPPLIERS, request.getSupplierId()));
+        return transactionRunner.run("return.purchase", lockKeys, transaction -> {
             // ===================================================================
             // PHASE 1: ALL READS & VALIDATION
             // ===================================================================
@@ -275,40 +309,57 @@ public class ReturnsService {
 
             Supplier supplier = supplierRepository.findById(transaction, orgId, originalPurchase.getSupplierId())
                     .orElseThrow(() -> new ResourceNotFoundException("Supplier with ID " + originalPurchase.getSupplierId() + " not found."));
-            List<PurchaseReturnItem> returnItems = new ArrayList<>();
-            BigDecimal totalReturnValue = BigDecimal.ZERO;
 
+            // 2. MATCH every returned line to the purchase line that brought its batch in.
+            Map<String, PurchaseItem> returnedLines = new LinkedHashMap<>();
             for (var itemDto : request.getItems()) {
                 if (itemDto.getReturnQuantity() <= 0) continue;
+                PurchaseItem originalItem = originalPurchase.getItems().stream()
+                        .filter(pItem -> pItem.getMedicineId().equals(itemDto.getMedicineId()) && pItem.getBatchNo().equals(itemDto.getBatchNo()))
+                        .findFirst()
+                        .orElseThrow(() -> new InvalidRequestException("Item with batch " + itemDto.getBatchNo() + " not found in original purchase."));
+                returnedLines.put(lineKey(itemDto.getMedicineId(), itemDto.getBatchNo()), originalItem);
+            }
+
+            // 3. READ all the returned batches up front, in one round trip.
+            Map<String, MedicineBatch> batchesToReturn = purchasedBatchReader.findBatches(transaction, orgId, branchId, returnedLines);
 
-                // 2. READ the specific batch document to validate stock.
-                MedicineBatch batchToReturn = medicineBatchRepository
-                        .findByBatchNo(transaction, orgId, branchId, itemDto.getMedicineId(), itemDto.getBatchNo())
-                        .orElseThrow(() -> new ResourceNotFoundException("Batch " + itemDto.getBatchNo() + " not found for medicine ID: " + itemDto.getMedicineId()));
+            CategoryStockDelta stockDelta = stockAggregateRepository.newDelta(transaction, orgId, branchId,
+                    request.getItems().stream().map(CreateSalesReturnRequest.ReturnItemDto::getMedicineId).collect(Collectors.toSet()));
 
-                // 3. VALIDATE stock in that specific batch.
+            // ===================================================================
+            // PHASE 2: CALCULATIONS & PREPARING WRITES
+            // ===================================================================
+            List<PurchaseReturnItem> returnItems = new ArrayList<>();
+            long totalReturnValue = 0;
+
+            for (var itemDto : request.getItems()) {
+                if (itemDto.getReturnQuantity() <= 0) continue;
+                String lineKey = lineKey(itemDto.getMedicineId(), itemDto.getBatchNo());
+                PurchaseItem originalItem = returnedLines.get(lineKey);
+                MedicineBatch batchToReturn = batchesToReturn.get(lineKey);
+                if (batchToReturn == null) {
+                    throw new ResourceNotFoundException("Batch " + itemDto.getBatchNo() + " not found for medicine ID: " + itemDto.getMedicineId());
+                }
+
+                // A. VALIDATE stock in that specific batch. The in-memory count is drawn down
+                //    so that two lines returning the same batch are checked together.
                 if (batchToReturn.getQuantityAvailable() < itemDto.getReturnQuantity()) {
                     throw new InsufficientStockException("Cannot return more stock than available in batch " + itemDto.getBatchNo());
                 }
-
-                // ===================================================================
-                // PHASE 2: CALCULATIONS & PREPARING WRITES
-                // ===================================================================
-
-                // A. Find the matching item from the original purchase to get its cost.
-                PurchaseItem originalItem = originalPurchase.getItems().stream()
-                        .filter(pItem -> pItem.getMedicineId().equals(itemDto.getMedicineId()) && pItem.getBatchNo().equals(itemDto.getBatchNo()))
-                        .findFirst()
-                        .orElseThrow(() -> new InvalidRequestException("Item with batch " + itemDto.getBatchNo() + " not found in original purchase."));
+                batchToReturn.setQuantityAvailable(batchToReturn.getQuantityAvailable() - itemDto.getReturnQuantity());
 
                 // B. Calculate the value of the returned goods for this line item.
                 // We use the taxable cost per item from the original purchase.
                 double taxableCostPerUnit = originalItem.getLineItemTaxableAmount() / originalItem.getTotalReceivedQuantity();
-                BigDecimal returnValue = BigDecimal.valueOf(taxableCostPerUnit).multiply(new BigDecimal(itemDto.getReturnQuantity()));
-                totalReturnValue = totalReturnValue.add(returnValue);
+                long returnValue = pricingEngine.share(toPaise(originalItem.getLineItemTaxableAmount()),
+                        itemDto.getReturnQuantity(), originalItem.getTotalReceivedQuantity());
+                totalReturnValue += returnValue;
 
                 // C. STAGE WRITE: Decrement stock from the specific batch.
                 medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, itemDto.getMedicineId(), batchToReturn.getBatchId(), -itemDto.getReturnQuantity());
+                stockShardRepository.incrementInTransaction(transaction, orgId, branchId, itemDto.getMedicineId(), -itemDto.getReturnQuantity());
+                stockDelta.add(itemDto.getMedicineId(), -itemDto.getReturnQuantity());
 
                 // D. Build the rich PurchaseReturnItem model.
                 returnItems.add(PurchaseReturnItem.builder()
@@ -316,7 +367,7 @@ public class ReturnsService {
                         .batchNo(itemDto.getBatchNo())
                         .returnQuantity(itemDto.getReturnQuantity())
                         .costAtTimeOfPurchase(taxableCostPerUnit)
-                        .lineItemReturnValue(round(returnValue))
+                        .lineItemReturnValue(toRupees(returnValue))
                         .build());
             }
 
@@ -330,26 +381,25 @@ public class ReturnsService {
                     .supplierName(supplier.getName())
                     .reason(request.getReason()).returnDate(Timestamp.of(request.getReturnDate()))
                     .createdBy(createdByUserId)
-                    .totalReturnedAmount(round(totalReturnValue))
+                    .totalReturnedAmount(toRupees(totalReturnValue))
                     .items(returnItems)
                     .build();
 
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
             purchaseReturnRepository.saveInTransaction(transaction, orgId, branchId,purchaseReturn);
 
-            DocumentReference supplierRef = firestore.collection("organizations").document(orgId)
-                    .collection("suppliers").document(request.getSupplierId());
-
-            // Use a negative value with FieldValue.increment() to decrease the balance.
-            transaction.update(supplierRef, "balance", FieldValue.increment(-totalReturnValue.doubleValue()));
+            // The balance decreases by the value of the goods sent back.
+            supplierRepository.updateBalanceInTransaction(transaction, orgId, request.getSupplierId(), -toRupees(totalReturnValue));
             return purchaseReturn;
-        }).get();
+        }).thenApply(createdReturn -> {
+            fefoBatchIndex.invalidate(orgId, branchId,
+                    createdReturn.getItems().stream().map(PurchaseReturnItem::getMedicineId).collect(Collectors.toSet()));
+            return createdReturn;
+        });
     }
 
-    private double round(BigDecimal value) {
-        if (value == null) {
-            return 0.0;
-        }
-        return value.setScale(2, RoundingMode.HALF_UP).doubleValue();
+    private static String lineKey(String medicineId, String batchNo) {
+        return medicineId + "/" + batchNo;
     }
 
     /**
@@ -3,22 +3,40 @@ package com.cosmicdoc.inventoryservice.service;
 import com.cosmicdoc.common.model.*;
 import com.cosmicdoc.common.repository.*;
 import com.cosmicdoc.common.util.IdGenerator;
+import com.cosmicdoc.inventoryservice.cache.FefoBatchIndex;
+import com.cosmicdoc.inventoryservice.cache.TaxProfileCache;
 import com.cosmicdoc.inventoryservice.dto.request.*;
+import com.cosmicdoc.inventoryservice.dto.response.PageResponse;
 import com.cosmicdoc.inventoryservice.exception.InsufficientStockException;
 import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
 import com.cosmicdoc.inventoryservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.inventoryservice.repository.AvailableBatchReader;
+import com.cosmicdoc.inventoryservice.repository.CategoryStockDelta;
+import com.cosmicdoc.inventoryservice.repository.CursorPager;
+import com.cosmicdoc.inventoryservice.repository.FirestoreFutures;
+import com.cosmicdoc.inventoryservice.repository.FirestorePaths;
+import com.cosmicdoc.inventoryservice.repository.FirestoreUsage;
+import com.cosmicdoc.inventoryservice.repository.SalesRollupDelta;
+import com.cosmicdoc.inventoryservice.repository.SalesRollupRepository;
+import com.cosmicdoc.inventoryservice.repository.StockAggregateRepository;
+import com.cosmicdoc.inventoryservice.repository.StockShardRepository;
+import com.cosmicdoc.inventoryservice.repository.TransactionRunner;
+import com.google.api.core.ApiFuture;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static com.cosmicdoc.inventoryservice.service.PricingEngine.toRupees;
+
 @Service
 @RequiredArgsConstructor
 public class SalesService {
@@ -27,9 +45,25 @@ public class SalesService {
     private final SaleRepository saleRepository;
     private final MedicineRepository medicineRepository;
     private final TaxProfileRepository taxProfileRepository;
+    private final TaxProfileCache taxProfileCache;
     private final MedicineBatchRepository medicineBatchRepository;
+    private final FefoBatchIndex fefoBatchIndex;
+    private final AvailableBatchReader availableBatchReader;
+    private final StockAggregateRepository stockAggregateRepository;
+    private final StockShardRepository stockShardRepository;
+    private final SalesRollupRepository salesRollupRepository;
+    private final PricingEngine pricingEngine;
+    private final TransactionRunner transactionRunner;
 
     public Sale createPrescriptionSale(String orgId, String branchId, String createdByUserId, CreatePrescriptionSaleRequest request) throws ExecutionException, InterruptedException {
+        return createPrescriptionSaleAsync(orgId, branchId, createdByUserId, request).get();
+    }
+
+    /**
+     * Non-blocking {@link #createPrescriptionSale}: completes with the committed sale, or
+     * exceptionally with the exception the transaction failed with.
+     */
+    public CompletableFuture<Sale> createPrescriptionSaleAsync(String orgId, String branchId, String createdByUserId, CreatePrescriptionSaleRequest request) {
         Sale partialSale = Sale.builder()
                 .saleType("PRESCRIPTION")
                 .organizationId(orgId)
@@ -55,6 +89,13 @@ public class SalesService {
     }
 
     public Sale createOtcSale(String orgId, String branchId, String createdByUserId, CreateOtcSaleRequest request) throws ExecutionException, InterruptedException {
+        return createOtcSaleAsync(orgId, branchId, createdByUserId, request).get();
+    }
+
+    /**
+     * Non-blocking {@link #createOtcSale}.
+     */
+    public CompletableFuture<Sale> createOtcSaleAsync(String orgId, String branchId, String createdByUserId, CreateOtcSaleRequest request) {
         Sale partialSale = Sale.builder()
                 .saleType("OTC")
                 .organizationId(orgId)
@@ -211,209 +252,122 @@ public class SalesService {
         return value.setScale(2, RoundingMode.HALF_UP).doubleValue();
     }*/
 
+    /**
+     * Sums the requested quantity per medicine, preserving the order of the line items.
+     */
+    private Map<String, Integer> requiredQuantities(List<SaleItemDto> itemDtos) {
+        Map<String, Integer> required = new LinkedHashMap<>();
+        for (SaleItemDto itemDto : itemDtos) {
+            required.merge(itemDto.getMedicineId(), itemDto.getQuantity(), Integer::sum);
+        }
+        return required;
+    }
 
-    private Sale processSale(String orgId, String branchId, Sale partialSale, List<SaleItemDto> itemDtos, Double clientGrandTotal)
+    /**
+     * Reads the batches a sale will draw from. The FEFO index is used to PLAN the
+     * allocation in memory, so only the exact batch documents that will be decremented
+     * are fetched, together with each medicine's index version, all in a single getAll
+     * round trip.
+     * <p>
+     * A medicine the index does not hold, whose version moved on (stock came in
+     * elsewhere), or whose fresh documents cannot cover the requested quantity falls
+     * back to one concurrent transactional query, and its entry is replaced with the
+     * result.
+     *
+     * @return medicineId -> fresh batches in FEFO order.
+     */
+    private Map<String, List<MedicineBatch>> readPlannedBatches(Transaction transaction, String orgId, String branchId,
+                                                                Map<String, Integer> requiredQuantities)
             throws ExecutionException, InterruptedException {
 
-        return firestore.runTransaction(transaction -> {
-            // ===================================================================
-            // PHASE 1: ALL DATABASE READS AND DATA GATHERING
-            // ===================================================================
-
-            List<String> requiredMedicineIds = itemDtos.stream().map(SaleItemDto::getMedicineId).distinct().collect(Collectors.toList());
-
-            // Batch-read all required Medicine documents
-            List<DocumentSnapshot> medicineSnapshots = medicineRepository.getAll(transaction, orgId, branchId, requiredMedicineIds);
-            Map<String, Medicine> medicineMasterDataMap = medicineSnapshots.stream().map(doc -> {
-                if (!doc.exists()) throw new ResourceNotFoundException("Medicine with ID " + doc.getId() + " not found.");
-                return doc.toObject(Medicine.class);
-            }).collect(Collectors.toMap(Medicine::getMedicineId, Function.identity()));
-
-            // Batch-read all required Tax Profile documents, but only if the sale is not NON_GST
-            Map<String, TaxProfile> taxProfileMap = new HashMap<>();
-            if (partialSale.getGstType() != GstType.NON_GST) {
-                List<String> requiredTaxProfileIds = medicineMasterDataMap.values().stream()
-                        .map(Medicine::getTaxProfileId).distinct().collect(Collectors.toList());
-                if (!requiredTaxProfileIds.isEmpty()) {
-                    List<DocumentSnapshot> taxProfileSnapshots = taxProfileRepository.getAll(transaction, orgId, requiredTaxProfileIds);
-                    taxProfileMap.putAll(taxProfileSnapshots.stream().map(doc -> {
-                        if (!doc.exists()) throw new ResourceNotFoundException("TaxProfile with ID " + doc.getId() + " not found.");
-                        return doc.toObject(TaxProfile.class);
-                    }).collect(Collectors.toMap(TaxProfile::getTaxProfileId, Function.identity())));
-                }
+        // 1. Plan in memory: walk the FEFO index until each medicine's quantity is covered.
+        //    The version documents go first in the read, one per medicine, in order.
+        List<String> medicineIds = new ArrayList<>(requiredQuantities.keySet());
+        Map<String, FefoBatchIndex.Snapshot> indexed = new HashMap<>();
+        Map<String, List<DocumentReference>> plannedRefs = new HashMap<>();
+        List<DocumentReference> allRefs = new ArrayList<>();
+        for (String medicineId : medicineIds) {
+            allRefs.add(FefoBatchIndex.versionRef(firestore, orgId, branchId, medicineId));
+        }
+        for (String medicineId : medicineIds) {
+            Optional<FefoBatchIndex.Snapshot> snapshot = fefoBatchIndex.cached(orgId, branchId, medicineId);
+            if (snapshot.isEmpty()) continue;
+            indexed.put(medicineId, snapshot.get());
+            int remaining = requiredQuantities.get(medicineId);
+            List<DocumentReference> refs = new ArrayList<>();
+            for (FefoBatchIndex.IndexedBatch batch : snapshot.get().batches()) {
+                if (remaining <= 0) break;
+                refs.add(FirestorePaths.batch(firestore, orgId, branchId, medicineId, batch.batchId()));
+                remaining -= batch.quantityAvailable();
             }
-
-            // Batch-read ALL available batches for ALL required medicines
-            Map<String, List<MedicineBatch>> medicineToBatchesMap = new HashMap<>();
-            for (String medicineId : requiredMedicineIds) {
-                List<MedicineBatch> batches = medicineBatchRepository.findAvailableBatches(transaction, orgId, branchId, medicineId);
-                medicineToBatchesMap.put(medicineId, batches);
+            plannedRefs.put(medicineId, refs);
+            allRefs.addAll(refs);
+        }
+
+        // 2. Read the versions and exactly the planned batch documents in one round trip.
+        FirestoreUsage.reads(allRefs.size());
+        List<DocumentSnapshot> docs = transaction.getAll(allRefs.toArray(new DocumentReference[0])).get();
+        Map<String, Long> versions = new HashMap<>();
+        for (int i = 0; i < medicineIds.size(); i++) {
+            versions.put(medicineIds.get(i), FefoBatchIndex.version(docs.get(i)));
+        }
+        Map<String, MedicineBatch> freshBatchesByPath = new HashMap<>();
+        for (DocumentSnapshot doc : docs.subList(medicineIds.size(), docs.size())) {
+            if (!doc.exists()) continue;
+            MedicineBatch batch = doc.toObject(MedicineBatch.class);
+            if (batch.getBatchId() == null) batch.setBatchId(doc.getId());
+            freshBatchesByPath.put(doc.getReference().getPath(), batch);
+        }
+
+        // 3. Validate the plan against the fresh data; collect medicines whose index entry is missing or stale.
+        Map<String, List<MedicineBatch>> medicineToBatchesMap = new HashMap<>();
+        Set<String> toQuery = new LinkedHashSet<>();
+        for (String medicineId : medicineIds) {
+            FefoBatchIndex.Snapshot snapshot = indexed.get(medicineId);
+            if (snapshot == null || snapshot.version() != versions.get(medicineId)) {
+                toQuery.add(medicineId);
+                continue;
             }
-
-            // --- All database reads are now 100% complete. ---
-
-            // ===================================================================
-            // PHASE 2: IN-MEMORY VALIDATION, CALCULATION, AND PREPARING WRITES
-            // ===================================================================
-
-            List<SaleItem> finalSaleItems = new ArrayList<>();
-            BigDecimal serverCalculatedTotalMrp = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalDiscount = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalTaxable = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalTax = BigDecimal.ZERO;
-
-            for (var itemDto : itemDtos) {
-                String medicineId = itemDto.getMedicineId();
-                Medicine medicine = medicineMasterDataMap.get(medicineId);
-                int quantityToSell = itemDto.getQuantity();
-
-                // Stock Validation
-                List<MedicineBatch> availableBatches = medicineToBatchesMap.get(medicineId);
-                int totalStockAvailable = availableBatches.stream().mapToInt(MedicineBatch::getQuantityAvailable).sum();
-                if (totalStockAvailable < quantityToSell) {
-                    throw new InsufficientStockException("Insufficient stock for " + medicine.getName() + ". Required: " + quantityToSell + ", Available: " + totalStockAvailable);
-                }
-
-                // Financial Re-calculation
-                BigDecimal quantity = new BigDecimal(quantityToSell);
-                BigDecimal mrpPerItem = BigDecimal.valueOf(itemDto.getMrp());
-                BigDecimal discountPercent = BigDecimal.valueOf(itemDto.getDiscountPercentage()).divide(new BigDecimal(100));
-                BigDecimal lineItemGrossMrp = mrpPerItem.multiply(quantity);
-                BigDecimal lineItemDiscountAmount = lineItemGrossMrp.multiply(discountPercent);
-                BigDecimal lineItemNetAfterDiscount = lineItemGrossMrp.subtract(lineItemDiscountAmount);
-
-                BigDecimal lineItemTaxableAmount;
-                BigDecimal lineItemTaxAmount;
-                TaxProfile taxProfile = null; // Can be null for NON_GST sales
-
-                // --- The Core GST Logic ---
-                if (partialSale.getGstType() == GstType.NON_GST) {
-                    lineItemTaxableAmount = lineItemNetAfterDiscount;
-                    lineItemTaxAmount = BigDecimal.ZERO;
-                } else {
-                    taxProfile = taxProfileMap.get(medicine.getTaxProfileId());
-                    if (taxProfile == null) throw new InvalidRequestException("Tax profile for " + medicine.getName() + " is missing for a GST sale.");
-
-                    BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                    if (partialSale.getGstType() == GstType.INCLUSIVE) {
-                        lineItemTaxableAmount = lineItemNetAfterDiscount.divide(BigDecimal.ONE.add(taxRate), 2, RoundingMode.HALF_UP);
-                        lineItemTaxAmount = lineItemNetAfterDiscount.subtract(lineItemTaxableAmount);
-                    } else { // EXCLUSIVE
-                        lineItemTaxableAmount = lineItemNetAfterDiscount;
-                        lineItemTaxAmount = lineItemTaxableAmount.multiply(taxRate);
-                    }
+            List<MedicineBatch> batches = new ArrayList<>();
+            int freshTotal = 0;
+            for (DocumentReference ref : plannedRefs.get(medicineId)) {
+                MedicineBatch batch = freshBatchesByPath.get(ref.getPath());
+                if (batch != null && batch.getQuantityAvailable() > 0) {
+                    batches.add(batch);
+                    freshTotal += batch.getQuantityAvailable();
                 }
-
-                // Aggregate totals
-                serverCalculatedTotalMrp = serverCalculatedTotalMrp.add(lineItemGrossMrp);
-                serverCalculatedTotalDiscount = serverCalculatedTotalDiscount.add(lineItemDiscountAmount);
-                serverCalculatedTotalTaxable = serverCalculatedTotalTaxable.add(lineItemTaxableAmount);
-                serverCalculatedTotalTax = serverCalculatedTotalTax.add(lineItemTaxAmount);
-
-                int remainingQtyToSell = quantityToSell;
-// This list will store the details of which batches we use for THIS line item.
-                List<BatchAllocation> allocations = new ArrayList<>();
-
-                for (MedicineBatch batch : availableBatches) {
-                    if (remainingQtyToSell <= 0) {
-                        break; // Stop if we have fulfilled the required quantity
-                    }
-
-                    // Determine how much to take from the current batch
-                    int qtyToTakeFromThisBatch = Math.min(remainingQtyToSell, batch.getQuantityAvailable());
-
-                    // STAGE WRITE: Atomically decrement the stock from this specific batch document.
-                    medicineBatchRepository.updateStockInTransaction(
-                            transaction,
-                            orgId,
-                            branchId,
-                            medicine.getMedicineId(),
-                            batch.getBatchId(),
-                            -qtyToTakeFromThisBatch
-                    );
-
-                    // Record the allocation: which batch we used and how much we took from it.
-                    allocations.add(BatchAllocation.builder()
-                            .batchId(batch.getBatchId())
-                            .batchNo(batch.getBatchNo())
-                            .quantityTaken(qtyToTakeFromThisBatch)
-                            .expiryDate(batch.getExpiryDate())
-                            .build());
-
-                    // Decrement the amount we still need to find.
-                    remainingQtyToSell -= qtyToTakeFromThisBatch;
-                }
-
-
-                // Build the rich SaleItem model
-                finalSaleItems.add(SaleItem.builder()
-                        .medicineId(medicineId)
-
-                        .quantity(quantityToSell) // The total quantity for this line item
-                        .batchAllocations(allocations) // <-- The new, detailed list of batches used
-                        .mrpPerItem(mrpPerItem.doubleValue())
-                        .discountPercentage(itemDto.getDiscountPercentage())
-                        .lineItemDiscountAmount(round(lineItemDiscountAmount))
-                        .lineItemTaxableAmount(round(lineItemTaxableAmount))
-                        .lineItemTotalAmount(round(lineItemNetAfterDiscount))
-                        .taxProfileId(taxProfile != null ? taxProfile.getTaxProfileId() : "N/A")
-                        .taxRateApplied(taxProfile != null ? taxProfile.getTotalRate() : 0.0)
-                        .taxAmount(round(lineItemTaxAmount))
-                        .build());
             }
-
-            // ===================================================================
-            // PHASE 3: FINAL VALIDATION & STAGING THE LAST WRITE
-            // ===================================================================
-
-            // Calculate grand total based on GST type
-            BigDecimal serverCalculatedGrandTotal = serverCalculatedTotalMrp.subtract(serverCalculatedTotalDiscount);
-            
-            // For EXCLUSIVE GST, add the calculated tax amount to the grand total
-            // For INCLUSIVE GST, tax is already included in the MRP, so no addition needed
-            // For NON_GST, no tax to add
-            if (partialSale.getGstType() == GstType.EXCLUSIVE) {
-                serverCalculatedGrandTotal = serverCalculatedGrandTotal.add(serverCalculatedTotalTax);
+            if (freshTotal < requiredQuantities.get(medicineId)) {
+                toQuery.add(medicineId);
+            } else {
+                medicineToBatchesMap.put(medicineId, batches);
             }
-
-           /* double epsilon = 0.01;
-            if (Math.abs(round(serverCalculatedGrandTotal) - clientGrandTotal) > epsilon) {
-                throw new InvalidRequestException(
-                        String.format("Calculation mismatch error. Client total: %.2f, Server calculated total: %.2f.",
-                                clientGrandTotal, round(serverCalculatedGrandTotal))
-                );
-            }*/
-
-            String saleId = IdGenerator.newId("SALE");
-            partialSale.setSaleId(saleId);
-            partialSale.setTotalMrpAmount(round(serverCalculatedTotalMrp));
-            partialSale.setTotalDiscountAmount(round(serverCalculatedTotalDiscount));
-            partialSale.setTotalTaxableAmount(round(serverCalculatedTotalTaxable));
-            partialSale.setTotalTaxAmount(round(serverCalculatedTotalTax));
-            partialSale.setGrandTotal(round(serverCalculatedGrandTotal));
-            partialSale.setItems(finalSaleItems);
-
-            saleRepository.saveInTransaction(transaction, partialSale);
-            return partialSale;
-
-        }).get();
-    }
-
-    private double round(BigDecimal value) {
-        if (value == null) return 0.0;
-        return value.setScale(2, RoundingMode.HALF_UP).doubleValue();
+        }
+
+        // 4. Query all of those together, authoritatively, and index what was found.
+        if (!toQuery.isEmpty()) {
+            Map<String, List<MedicineBatch>> queried = availableBatchReader.findAvailableBatches(transaction, orgId, branchId, toQuery);
+            queried.forEach((medicineId, batches) -> fefoBatchIndex.put(orgId, branchId, medicineId, versions.get(medicineId), batches));
+            medicineToBatchesMap.putAll(queried);
+        }
+        return medicineToBatchesMap;
     }
 
-
-
-    // Helper method for rounding financial values.
-    private double round(double value) {
-        return new BigDecimal(value).setScale(2, RoundingMode.HALF_UP).doubleValue();
-    }
     public List<Sale> getSalesForBranch(String orgId, String branchId) {
         return saleRepository.findAllByBranchId(orgId, branchId);
     }
 
+    /**
+     * Returns one page of the branch's sales, newest first, keyed on (saleDate, saleId).
+     *
+     * @param cursor The {@code nextCursor} of the previous page, or null for the first page.
+     * @param limit The requested page size; capped at {@link CursorPager#MAX_PAGE_SIZE}.
+     */
+    public PageResponse<Sale> getSalesPage(String orgId, String branchId, String cursor, Integer limit)
+            throws ExecutionException, InterruptedException {
+        return CursorPager.fetchPage(FirestorePaths.sales(firestore, orgId, branchId), "saleDate", cursor, CursorPager.pageSize(limit), Sale.class);
+    }
+
     public Sale getSaleById(String orgId, String branchId, String saleId) {
         return saleRepository.findById(orgId, branchId, saleId)
                 .orElseThrow(() -> new ResourceNotFoundException("Sale with ID " + saleId + " not found."));
@@ -433,12 +387,15 @@ public class SalesService {
     public void deleteSale(String orgId, String branchId, String saleId)
             throws ExecutionException, InterruptedException {
 
-        firestore.runTransaction(transaction -> {
+        // Lock the medicines the sale puts stock back on as well; this blocking call can afford
+        // reading them up front rather than through a first attempt of runOnSale.
+        Set<String> heldMedicineIds = saleRepository.findById(orgId, branchId, saleId).map(this::medicineIdsOf).orElse(Set.of());
+        runOnSale("sale.delete", orgId, branchId, saleId, heldMedicineIds, (transaction, saleToDelete) -> {
             // ===================================================================
-            // PHASE 1: READ the Sale to be Deleted
+            // PHASE 1: READ the Sale to be Deleted (read by runOnSale)
             // ===================================================================
-            Sale saleToDelete = saleRepository.findById(transaction, orgId, branchId, saleId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Sale with ID " + saleId + " not found."));
+            CategoryStockDelta stockDelta = stockAggregateRepository.newDelta(transaction, orgId, branchId,
+                    saleToDelete.getItems().stream().map(SaleItem::getMedicineId).collect(Collectors.toSet()));
 
             // ===================================================================
             // PHASE 2: STAGE ALL WRITES (Stock Reversals & Deletion)
@@ -464,18 +421,32 @@ public class SalesService {
                             allocation.getBatchId(), // Use the specific batch document ID
                             allocation.getQuantityTaken() // Add back the exact quantity that was taken
                     );
+                    stockDelta.add(item.getMedicineId(), allocation.getQuantityTaken());
                 }
+                stockShardRepository.incrementInTransaction(transaction, orgId, branchId, item.getMedicineId(),
+                        item.getBatchAllocations().stream().mapToInt(BatchAllocation::getQuantityTaken).sum());
             }
             // --- END OF CORRECTED LOGIC ---
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
+            salesRollupRepository.incrementInTransaction(transaction, orgId, branchId,
+                    salesRollupRepository.newDelta().add(saleToDelete, -1));
 
             // 4. STAGE WRITE: Permanently delete the Sale document itself.
             saleRepository.deleteByIdInTransaction(transaction, orgId, branchId, saleId);
+            fefoBatchIndex.invalidateInTransaction(transaction, orgId, branchId, medicineIdsOf(saleToDelete));
 
-            return null; // Return null for a void operation
-        }).get();
+            return saleToDelete;
+        }, deletedSale -> fefoBatchIndex.invalidate(orgId, branchId, medicineIdsOf(deletedSale))).get();
     }
 
     public Sale updatePrescriptionSale(String orgId, String branchId, String updatedByUserId, String saleId, UpdatePrescriptionSaleRequest request) throws ExecutionException, InterruptedException {
+        return updatePrescriptionSaleAsync(orgId, branchId, updatedByUserId, saleId, request).get();
+    }
+
+    /**
+     * Non-blocking {@link #updatePrescriptionSale}.
+     */
+    public CompletableFuture<Sale> updatePrescriptionSaleAsync(String orgId, String branchId, String updatedByUserId, String saleId, UpdatePrescriptionSaleRequest request) {
         Sale updatedHeader = Sale.builder()
                 .saleType("PRESCRIPTION").patientId(request.getPatientId())
                 .doctorId(request.getDoctorId())
@@ -496,6 +467,13 @@ public class SalesService {
     }
 
     public Sale updateOtcSale(String orgId, String branchId, String updatedByUserId, String saleId, UpdateOtcSaleRequest request) throws ExecutionException, InterruptedException {
+        return updateOtcSaleAsync(orgId, branchId, updatedByUserId, saleId, request).get();
+    }
+
+    /**
+     * Non-blocking {@link #updateOtcSale}.
+     */
+    public CompletableFuture<Sale> updateOtcSaleAsync(String orgId, String branchId, String updatedByUserId, String saleId, UpdateOtcSaleRequest request) {
         Sale updatedHeader = Sale.builder()
                 .saleType("OTC").walkInCustomerName(request.getPatientName())
                 .walkInCustomerMobile(request.getPatientMobile())
@@ -512,17 +490,34 @@ public class SalesService {
         return processSaleUpdate(orgId, branchId, updatedByUserId, saleId, updatedHeader, request.getItems(), request.getGrandTotal());
     }
 
-    private Sale processSaleUpdate(String orgId, String branchId, String updatedByUserId, String saleId, Sale updatedHeader, List<SaleItemDto> itemDtos, Double clientGrandTotal)
-            throws ExecutionException, InterruptedException {
+    /**
+     * Applies an edited item list to a sale by the per-medicine quantity change only.
+     * <p>
+     * The batches the sale already holds stay allocated. A medicine whose quantity went up
+     * takes the difference from its available batches in FEFO order (planned with the FEFO
+     * index, like a new sale). One whose quantity went down puts the difference back on the
+     * batches it holds, latest expiry first, so the sale keeps its earliest-expiring stock.
+     * Batches, stock shards and category aggregates are only written for medicines whose
+     * quantity changed; an edit that only touches prices or the header writes no stock.
+     * <p>
+     * A medicine on lines saved without batch allocations is reverted and reallocated in
+     * full instead, as the batches its stock came from are unknown. The transaction locks
+     * the medicines of both the original and the edited sale.
+     */
+    private CompletableFuture<Sale> processSaleUpdate(String orgId, String branchId, String updatedByUserId, String saleId, Sale updatedHeader, List<SaleItemDto> itemDtos, Double clientGrandTotal) {
 
-        return firestore.runTransaction(transaction -> {
+        // Stock taken, and medicines restocked, by the attempt that commits, for the FEFO index.
+        AtomicReference<List<SaleItem>> taken = new AtomicReference<>(List.of());
+        AtomicReference<Set<String>> restockedMedicineIds = new AtomicReference<>(Set.of());
+        Set<String> requestedMedicineIds = itemDtos.stream().map(SaleItemDto::getMedicineId).collect(Collectors.toSet());
+        return runOnSale("sale.update", orgId, branchId, saleId, requestedMedicineIds, (transaction, originalSale) -> {
             // ===================================================================
             // PHASE 1: READ ALL ORIGINAL & NEW DATA
             // ===================================================================
 
-            // 1. READ the original Sale document to be updated.
-            Sale originalSale = saleRepository.findById(transaction, orgId, branchId, saleId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Sale with ID " + saleId + " not found to update."));
+            // 1. The original Sale document to be updated has been read by runOnSale.
+            // Capture the original contribution before the sale is mutated below.
+            SalesRollupDelta rollupDelta = salesRollupRepository.newDelta().add(originalSale, -1);
 
             // 2. READ master data (Medicines, TaxProfiles) for the NEW request items.
             List<String> requiredMedicineIdsForNewSale = itemDtos.stream().map(SaleItemDto::getMedicineId).distinct().collect(Collectors.toList());
@@ -537,156 +532,149 @@ public class SalesService {
                 List<String> requiredTaxProfileIds = medicineMasterDataMap.values().stream()
                         .map(Medicine::getTaxProfileId).distinct().collect(Collectors.toList());
                 if (!requiredTaxProfileIds.isEmpty()) {
-                    taxProfileMap.putAll(taxProfileRepository.getAll(transaction, orgId, requiredTaxProfileIds)
-                            .stream().map(doc -> doc.toObject(TaxProfile.class))
-                            .collect(Collectors.toMap(TaxProfile::getTaxProfileId, Function.identity())));
+                    taxProfileMap.putAll(taxProfileCache.getAll(transaction, orgId, requiredTaxProfileIds));
                 }
             }
 
-
-            // 3. READ ALL necessary batch data for both reversal and new deduction.
-
-            Set<String> allInvolvedMedicineIds = new HashSet<>(requiredMedicineIdsForNewSale);
-            originalSale.getItems().forEach(item -> allInvolvedMedicineIds.add(item.getMedicineId()));
-
-            Map<String, List<MedicineBatch>> medicineToBatchesMap = allInvolvedMedicineIds.stream()
-                    .collect(Collectors.toMap(
-                            Function.identity(),
-                            medicineId -> {
-                                try {
-                                    return medicineBatchRepository.findAvailableBatches(transaction, orgId, branchId, medicineId);
-                                } catch (ExecutionException | InterruptedException e) {
-                                    throw new RuntimeException(e); // Transactions handle runtime exceptions
-                                }
-                            }
-                    ));
+            // 3. Work out the quantity change per medicine against the batches the sale holds.
+            //    Lines saved before sales recorded their batch allocations hold stock on unknown
+            //    batches; their medicines are reverted and reallocated in full, even if unchanged.
+            Map<String, List<HeldBatch>> heldBatches = heldBatches(originalSale.getItems());
+            Map<String, Integer> untrackedQuantities = untrackedQuantities(originalSale.getItems());
+            Map<String, Integer> newQuantities = requiredQuantities(itemDtos);
+            Map<String, Integer> quantityChanges = new LinkedHashMap<>(newQuantities);
+            heldBatches.forEach((medicineId, held) ->
+                    quantityChanges.merge(medicineId, -held.stream().mapToInt(batch -> batch.quantity).sum(), Integer::sum));
+            untrackedQuantities.forEach((medicineId, quantity) -> quantityChanges.merge(medicineId, -quantity, Integer::sum));
+            quantityChanges.entrySet().removeIf(change -> change.getValue() == 0 && !untrackedQuantities.containsKey(change.getKey()));
+            Map<String, Integer> increases = new LinkedHashMap<>();
+            quantityChanges.forEach((medicineId, change) -> {
+                if (change > 0 && !untrackedQuantities.containsKey(medicineId)) increases.put(medicineId, change);
+            });
+
+            // 4. READ only the batches the increases will draw from, all available batches of the medicines
+            //    being reallocated, and the categories of the changed medicines.
+            Map<String, List<MedicineBatch>> medicineToBatchesMap = new HashMap<>();
+            if (!increases.isEmpty()) {
+                medicineToBatchesMap.putAll(readPlannedBatches(transaction, orgId, branchId, increases));
+            }
+            if (!untrackedQuantities.isEmpty()) {
+                medicineToBatchesMap.putAll(availableBatchReader.findAvailableBatches(transaction, orgId, branchId, untrackedQuantities.keySet()));
+            }
+            CategoryStockDelta stockDelta = stockAggregateRepository.newDelta(transaction, orgId, branchId, quantityChanges.keySet(), medicineMasterDataMap);
             // --- All database reads are now 100% complete. ---
 
             // ===================================================================
-            // PHASE 2: REVERSE OLD STOCK (Staging Writes)
+            // PHASE 2: APPLY THE QUANTITY CHANGES (Staging Writes)
             // ===================================================================
-            for (SaleItem oldItem : originalSale.getItems()) {
-                if (oldItem.getBatchAllocations() == null) continue;
-                for (BatchAllocation allocation : oldItem.getBatchAllocations()) {
-                    // Stage the reversal: INCREMENT the stock back to the specific batch.
-                    medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, oldItem.getMedicineId(), allocation.getBatchId(), allocation.getQuantityTaken());
-
-                    medicineRepository.updateStockInTransaction(transaction, orgId, branchId, oldItem.getMedicineId(), allocation.getQuantityTaken());
+            List<SaleItem> takenItems = new ArrayList<>();
+            Set<String> restocked = new HashSet<>();
+            for (Map.Entry<String, Integer> change : quantityChanges.entrySet()) {
+                String medicineId = change.getKey();
+                int quantity = change.getValue();
+                List<HeldBatch> held = heldBatches.computeIfAbsent(medicineId, id -> new ArrayList<>());
+                List<BatchAllocation> allocations = new ArrayList<>();
+                if (untrackedQuantities.containsKey(medicineId)) {
+                    Medicine medicine = medicineMasterDataMap.get(medicineId);
+                    reallocate(transaction, orgId, branchId, medicineId, medicine != null ? medicine.getName() : medicineId,
+                            held, untrackedQuantities.get(medicineId), newQuantities.getOrDefault(medicineId, 0),
+                            medicineToBatchesMap.get(medicineId));
+                    restocked.add(medicineId);
+                } else if (quantity > 0) {
+                    List<MedicineBatch> availableBatches = medicineToBatchesMap.get(medicineId);
+                    int totalStockAvailable = availableBatches.stream().mapToInt(MedicineBatch::getQuantityAvailable).sum();
+                    if (totalStockAvailable < quantity) {
+                        throw new InsufficientStockException("Insufficient stock for " + medicineMasterDataMap.get(medicineId).getName() + ". Required: " + quantity + " more, Available: " + totalStockAvailable);
+                    }
+                    int remaining = quantity;
+                    for (MedicineBatch batch : availableBatches) {
+                        if (remaining <= 0) break;
+                        int qtyToTake = Math.min(remaining, batch.getQuantityAvailable());
+                        medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, medicineId, batch.getBatchId(), -qtyToTake);
+                        allocations.add(BatchAllocation.builder().batchId(batch.getBatchId()).batchNo(batch.getBatchNo()).quantityTaken(qtyToTake).expiryDate(batch.getExpiryDate()).build());
+                        hold(held, batch.getBatchId(), batch.getBatchNo(), batch.getExpiryDate(), qtyToTake);
+                        remaining -= qtyToTake;
+                    }
+                    takenItems.add(SaleItem.builder().medicineId(medicineId).batchAllocations(allocations).build());
+                } else {
+                    // Put back on the latest-expiring batches first.
+                    int remaining = -quantity;
+                    for (int i = held.size() - 1; i >= 0 && remaining > 0; i--) {
+                        HeldBatch batch = held.get(i);
+                        int qtyToReturn = Math.min(remaining, batch.quantity);
+                        medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, medicineId, batch.batchId, qtyToReturn);
+                        allocations.add(BatchAllocation.builder().batchId(batch.batchId).batchNo(batch.batchNo).quantityTaken(qtyToReturn).expiryDate(batch.expiryDate).build());
+                        batch.quantity -= qtyToReturn;
+                        remaining -= qtyToReturn;
+                    }
+                    restocked.add(medicineId);
+                }
+                if (quantity != 0) {
+                    stockShardRepository.incrementInTransaction(transaction, orgId, branchId, medicineId, -quantity);
+                    stockDelta.add(medicineId, -quantity);
                 }
             }
 
 
             // ===================================================================
-            // PHASE 3: RE-APPLY NEW LOGIC (CALCULATIONS & NEW WRITES)
+            // PHASE 3: RE-PRICE THE NEW ITEMS AND HAND OUT THE HELD BATCHES
             // ===================================================================
 
             List<SaleItem> newSaleItems = new ArrayList<>();
-            BigDecimal serverCalculatedTotalMrp = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalDiscount = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalTaxable = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalTax = BigDecimal.ZERO;
+            PricingEngine.Totals totals = new PricingEngine.Totals();
 
             for (var itemDto : itemDtos) {
                 String medicineId = itemDto.getMedicineId();
-                Medicine medicine = medicineMasterDataMap.get(medicineId);
                 int quantityToSell = itemDto.getQuantity();
 
-                List<MedicineBatch> availableBatches = medicineToBatchesMap.get(medicineId);
-                int totalStockAvailable = availableBatches.stream().mapToInt(MedicineBatch::getQuantityAvailable).sum();
-                if (totalStockAvailable < quantityToSell) {
-                    throw new InsufficientStockException("Insufficient stock for " + medicine.getName() + ". Required: " + quantityToSell + ", Available: " + totalStockAvailable);
-                }
-
                 // Financial Calculation
-                BigDecimal quantity = new BigDecimal(quantityToSell);
-                BigDecimal mrpPerItem = BigDecimal.valueOf(itemDto.getMrp());
-                BigDecimal discountPercent = BigDecimal.valueOf(itemDto.getDiscountPercentage()).divide(new BigDecimal(100));
-                BigDecimal lineItemGrossMrp = mrpPerItem.multiply(quantity);
-                BigDecimal lineItemDiscountAmount = lineItemGrossMrp.multiply(discountPercent);
-                BigDecimal lineItemNetAfterDiscount = lineItemGrossMrp.subtract(lineItemDiscountAmount);
-                BigDecimal lineItemTaxableAmount;
-                BigDecimal lineItemTaxAmount;
                 TaxProfile taxProfile = null;
-
-                if (updatedHeader.getGstType() == GstType.NON_GST) {
-                    lineItemTaxableAmount = lineItemNetAfterDiscount;
-                    lineItemTaxAmount = BigDecimal.ZERO;
-                } else {
+                if (updatedHeader.getGstType() != GstType.NON_GST) {
                     taxProfile = taxProfileMap.get(itemDto.getTaxProfileId());
                     if (taxProfile == null) {
                         throw new InvalidRequestException("Tax profile with ID '" + itemDto.getTaxProfileId() + "' not found or is invalid.");
                     }
-
-                    BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                    if (updatedHeader.getGstType() == GstType.INCLUSIVE) {
-                        lineItemTaxableAmount = lineItemNetAfterDiscount.divide(BigDecimal.ONE.add(taxRate), 2, RoundingMode.HALF_UP);
-                        lineItemTaxAmount = lineItemNetAfterDiscount.subtract(lineItemTaxableAmount);
-                    } else { // EXCLUSIVE
-                        lineItemTaxableAmount = lineItemNetAfterDiscount;
-                        lineItemTaxAmount = lineItemTaxableAmount.multiply(taxRate);
-                    }
                 }
+                PricingEngine.LinePrice price = pricingEngine.price(itemDto.getMrp(), quantityToSell, itemDto.getDiscountPercentage(),
+                        taxProfile != null ? taxProfile.getTotalRate() : 0.0, updatedHeader.getGstType());
+                totals.add(price);
 
-                serverCalculatedTotalMrp = serverCalculatedTotalMrp.add(lineItemGrossMrp);
-                serverCalculatedTotalDiscount = serverCalculatedTotalDiscount.add(lineItemDiscountAmount);
-                serverCalculatedTotalTaxable = serverCalculatedTotalTaxable.add(lineItemTaxableAmount);
-                serverCalculatedTotalTax = serverCalculatedTotalTax.add(lineItemTaxAmount);
-
-                // FEFO Stock Deduction and Batch Allocation for the NEW items
+                // The medicine's held batches now add up to its new quantity; lines take them in FEFO order.
                 List<BatchAllocation> newAllocations = new ArrayList<>();
                 int remainingQtyToSell = quantityToSell;
-                for (MedicineBatch batch : availableBatches) {
+                for (HeldBatch batch : heldBatches.get(medicineId)) {
                     if (remainingQtyToSell <= 0) break;
-                    int qtyToTakeFromThisBatch = Math.min(remainingQtyToSell, batch.getQuantityAvailable());
-                    medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, medicineId, batch.getBatchId(), -qtyToTakeFromThisBatch);
-                    medicineRepository.updateStockInTransaction(transaction, orgId, branchId, medicineId, -qtyToTakeFromThisBatch);
-
-                    newAllocations.add(BatchAllocation.builder().batchId(batch.getBatchId()).batchNo(batch.getBatchNo()).quantityTaken(qtyToTakeFromThisBatch).expiryDate(batch.getExpiryDate()).build());
-                    remainingQtyToSell -= qtyToTakeFromThisBatch;
+                    if (batch.quantity <= 0) continue;
+                    int qtyFromThisBatch = Math.min(remainingQtyToSell, batch.quantity);
+                    newAllocations.add(BatchAllocation.builder().batchId(batch.batchId).batchNo(batch.batchNo).quantityTaken(qtyFromThisBatch).expiryDate(batch.expiryDate).build());
+                    batch.quantity -= qtyFromThisBatch;
+                    remainingQtyToSell -= qtyFromThisBatch;
                 }
 
-                BigDecimal lineItemTotalAmount = lineItemTaxableAmount.add(lineItemTaxAmount);
                 newSaleItems.add(SaleItem.builder()
                         .medicineId(medicineId)
                         .quantity(quantityToSell)
                         .batchAllocations(newAllocations)
-                        .mrpPerItem(mrpPerItem.doubleValue())
+                        .mrpPerItem(itemDto.getMrp())
                         .discountPercentage(itemDto.getDiscountPercentage())
-                        .lineItemDiscountAmount(round(lineItemDiscountAmount))
-                        .lineItemTaxableAmount(round(lineItemTaxableAmount))
-                        .lineItemTotalAmount(round(lineItemTotalAmount)) // <-- Use the correct final total
+                        .lineItemDiscountAmount(toRupees(price.discount()))
+                        .lineItemTaxableAmount(toRupees(price.taxable()))
+                        .lineItemTotalAmount(toRupees(price.total()))
                         .taxProfileId(taxProfile != null ? taxProfile.getTaxProfileId() : "N/A")
                         .taxRateApplied(taxProfile != null ? taxProfile.getTotalRate() : 0.0)
-                        .taxAmount(round(lineItemTaxAmount))
+                        .taxAmount(toRupees(price.tax()))
                         .build());
             }
 
-            BigDecimal subTotal;
-            if (updatedHeader.getGstType() == GstType.INCLUSIVE) {
-                subTotal = serverCalculatedTotalMrp.subtract(serverCalculatedTotalDiscount);
-            } else { // EXCLUSIVE or NON_GST
-                subTotal = serverCalculatedTotalTaxable.add(serverCalculatedTotalTax);
-            }
+            // Taxable + tax is the MRP less discounts for INCLUSIVE GST, plus tax otherwise.
+            long subTotal = totals.total();
 
-            //    Calculate the overall adjustment amount based on the NEW data.
-            BigDecimal calculatedOverallAdjustmentAmount = BigDecimal.ZERO;
-            if (updatedHeader.getOverallAdjustmentType() != null && updatedHeader.getOverallAdjustmentValue() > 0) {
-                BigDecimal adjustmentValue = BigDecimal.valueOf(updatedHeader.getOverallAdjustmentValue());
-                switch (updatedHeader.getOverallAdjustmentType()) {
-                    case PERCENTAGE_DISCOUNT:
-                        calculatedOverallAdjustmentAmount = serverCalculatedTotalTaxable.multiply(adjustmentValue.divide(new BigDecimal(100)));
-                        break;
-                    case FIXED_DISCOUNT:
-                        calculatedOverallAdjustmentAmount = adjustmentValue;
-                        break;
-                    case ADDITIONAL_CHARGE:
-                        calculatedOverallAdjustmentAmount = adjustmentValue.negate();
-                        break;
-                }
-            }
+            //    Calculate the overall adjustment amount based on the NEW data, on the same base as a new sale.
+            long calculatedOverallAdjustmentAmount = pricingEngine.overallAdjustment(
+                    updatedHeader.getOverallAdjustmentType(), updatedHeader.getOverallAdjustmentValue(), subTotal);
 
             // C. Calculate the final grand total using the new adjustment.
-            BigDecimal serverCalculatedGrandTotal = subTotal.subtract(calculatedOverallAdjustmentAmount);
+            long serverCalculatedGrandTotal = subTotal - calculatedOverallAdjustmentAmount;
 
             // D. FINAL VALIDATION STEP
            /* double epsilon = 0.01;
@@ -712,30 +700,172 @@ public class SalesService {
 
 
             // Update all financial fields with new calculated values
-            originalSale.setTotalMrpAmount(round(serverCalculatedTotalMrp));
-            originalSale.setTotalDiscountAmount(round(serverCalculatedTotalDiscount));
-            originalSale.setTotalTaxableAmount(round(serverCalculatedTotalTaxable));
-            originalSale.setTotalTaxAmount(round(serverCalculatedTotalTax));
+            originalSale.setTotalMrpAmount(toRupees(totals.gross()));
+            originalSale.setTotalDiscountAmount(toRupees(totals.discount()));
+            originalSale.setTotalTaxableAmount(toRupees(totals.taxable()));
+            originalSale.setTotalTaxAmount(toRupees(totals.tax()));
             originalSale.setOverallAdjustmentType(updatedHeader.getOverallAdjustmentType()); // <-- Store the new adjustment type
             originalSale.setOverallAdjustmentValue(updatedHeader.getOverallAdjustmentValue()); // <-- Store the new value
-            originalSale.setCalculatedOverallAdjustmentAmount(round(calculatedOverallAdjustmentAmount)); // <-- Store the new calculated amount
-            originalSale.setGrandTotal(round(serverCalculatedGrandTotal)); // <-- Store the final grand total
+            originalSale.setCalculatedOverallAdjustmentAmount(toRupees(calculatedOverallAdjustmentAmount)); // <-- Store the new calculated amount
+            originalSale.setGrandTotal(toRupees(serverCalculatedGrandTotal)); // <-- Store the final grand total
 
             // Add audit fields for update
             // originalSale.setUpdatedBy(updatedByUserId);
             // originalSale.setUpdatedAt(Timestamp.now());
 
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
+            salesRollupRepository.incrementInTransaction(transaction, orgId, branchId, rollupDelta.add(originalSale, +1));
+
             // F. Stage the final write to save the updated document.
             saleRepository.saveInTransaction(transaction, originalSale);
+            fefoBatchIndex.invalidateInTransaction(transaction, orgId, branchId, restocked);
+            taken.set(takenItems);
+            restockedMedicineIds.set(restocked);
             return originalSale;
-        }).get();
+        }, updatedSale -> {
+            fefoBatchIndex.applyAllocations(orgId, branchId, taken.get(), -1);
+            fefoBatchIndex.invalidate(orgId, branchId, restockedMedicineIds.get());
+        });
+    }
+
+    /**
+     * Runs {@code function} on a sale in a transaction that holds the locks of the sale and
+     * of every medicine it involves: {@code medicineIds}, and the ones the sale holds.
+     * <p>
+     * The medicines a sale holds are only known once it is read, so an attempt locks the
+     * ones it knows of, and if the sale it reads holds others (it was edited meanwhile), it
+     * gives up before reading anything else and runs again with those locked too.
+     *
+     * @param onCommit see {@link TransactionRunner#run(String, Collection, Transaction.Function, Consumer)}.
+     */
+    private <T> CompletableFuture<T> runOnSale(String operation, String orgId, String branchId, String saleId,
+                                               Set<String> medicineIds, SaleFunction<T> function, Consumer<? super T> onCommit) {
+        Set<String> lockKeys = TransactionRunner.medicineKeys(orgId, branchId, medicineIds);
+        lockKeys.add(TransactionRunner.lockKey(orgId, branchId, FirestorePaths.SALES, saleId));
+        FirestoreUsage usage = FirestoreUsage.current();
+        return transactionRunner.run(operation, lockKeys, transaction -> {
+            Sale sale = saleRepository.findById(transaction, orgId, branchId, saleId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Sale with ID " + saleId + " not found."));
+            Set<String> heldMedicineIds = medicineIdsOf(sale);
+            if (!medicineIds.containsAll(heldMedicineIds)) {
+                throw new UnlockedMedicinesException(heldMedicineIds);
+            }
+            return function.apply(transaction, sale);
+        }, onCommit).exceptionallyCompose(error -> {
+            if (!(FirestoreFutures.unwrap(error) instanceof UnlockedMedicinesException unlocked)) {
+                return CompletableFuture.failedFuture(error);
+            }
+            Set<String> allMedicineIds = new HashSet<>(medicineIds);
+            allMedicineIds.addAll(unlocked.medicineIds);
+            // Completes on a Firestore thread: keep counting towards the calling request.
+            FirestoreUsage previousUsage = FirestoreUsage.bind(usage);
+            try {
+                return runOnSale(operation, orgId, branchId, saleId, allMedicineIds, function, onCommit);
+            } finally {
+                FirestoreUsage.restore(previousUsage);
+            }
+        });
     }
 
+    private Set<String> medicineIdsOf(Sale sale) {
+        if (sale.getItems() == null) return Collections.emptySet();
+        return sale.getItems().stream().map(SaleItem::getMedicineId).collect(Collectors.toSet());
+    }
 
-    private Sale processSaleCreation(String orgId, String branchId, Sale partialSale, List<SaleItemDto> itemDtos, Double clientGrandTotal)
-            throws ExecutionException, InterruptedException {
+    /**
+     * The batches a sale holds per medicine, summed over its lines, in FEFO order.
+     */
+    private static Map<String, List<HeldBatch>> heldBatches(List<SaleItem> items) {
+        Map<String, List<HeldBatch>> held = new HashMap<>();
+        if (items == null) return held;
+        for (SaleItem item : items) {
+            if (item.getBatchAllocations() == null) continue;
+            List<HeldBatch> batches = held.computeIfAbsent(item.getMedicineId(), id -> new ArrayList<>());
+            for (BatchAllocation allocation : item.getBatchAllocations()) {
+                hold(batches, allocation.getBatchId(), allocation.getBatchNo(), allocation.getExpiryDate(), allocation.getQuantityTaken());
+            }
+        }
+        return held;
+    }
 
-        return firestore.runTransaction(transaction -> {
+    /**
+     * The quantity per medicine of the lines saved before sales recorded their batch
+     * allocations.
+     */
+    private static Map<String, Integer> untrackedQuantities(List<SaleItem> items) {
+        Map<String, Integer> untracked = new HashMap<>();
+        if (items == null) return untracked;
+        for (SaleItem item : items) {
+            if (item.getBatchAllocations() == null) {
+                untracked.merge(item.getMedicineId(), item.getQuantity(), Integer::sum);
+            }
+        }
+        return untracked;
+    }
+
+    /**
+     * Reverts and reallocates a medicine the sale holds partly on unknown batches: all of
+     * its stock goes back, the untracked quantity onto the earliest-expiring batch, and the
+     * new quantity is taken again in FEFO order. {@code held} is replaced with the batches
+     * taken, and only the net change of each batch is written.
+     */
+    private void reallocate(Transaction transaction, String orgId, String branchId, String medicineId, String medicineName,
+                            List<HeldBatch> held, int untrackedQuantity, int newQuantity, List<MedicineBatch> availableBatches) {
+        List<HeldBatch> pool = new ArrayList<>();
+        Map<String, Integer> netChanges = new LinkedHashMap<>();
+        for (MedicineBatch batch : availableBatches) {
+            hold(pool, batch.getBatchId(), batch.getBatchNo(), batch.getExpiryDate(), batch.getQuantityAvailable());
+        }
+        for (HeldBatch batch : held) {
+            hold(pool, batch.batchId, batch.batchNo, batch.expiryDate, batch.quantity);
+            netChanges.merge(batch.batchId, batch.quantity, Integer::sum);
+        }
+        if (untrackedQuantity > 0) {
+            if (pool.isEmpty()) {
+                throw new InvalidRequestException("Stock of " + medicineName + " held by this sale cannot be restored: the medicine has no available batches.");
+            }
+            HeldBatch earliest = pool.get(0);
+            earliest.quantity += untrackedQuantity;
+            netChanges.merge(earliest.batchId, untrackedQuantity, Integer::sum);
+        }
+        int totalStockAvailable = pool.stream().mapToInt(batch -> batch.quantity).sum();
+        if (totalStockAvailable < newQuantity) {
+            throw new InsufficientStockException("Insufficient stock for " + medicineName + ". Required: " + newQuantity + ", Available: " + totalStockAvailable);
+        }
+
+        held.clear();
+        int remaining = newQuantity;
+        for (HeldBatch batch : pool) {
+            if (remaining <= 0) break;
+            int qtyToTake = Math.min(remaining, batch.quantity);
+            held.add(new HeldBatch(batch.batchId, batch.batchNo, batch.expiryDate, qtyToTake));
+            netChanges.merge(batch.batchId, -qtyToTake, Integer::sum);
+            remaining -= qtyToTake;
+        }
+        for (Map.Entry<String, Integer> change : netChanges.entrySet()) {
+            if (change.getValue() != 0) {
+                medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, medicineId, change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private static void hold(List<HeldBatch> batches, String batchId, String batchNo, Timestamp expiryDate, int quantity) {
+        for (HeldBatch batch : batches) {
+            if (batch.batchId.equals(batchId)) {
+                batch.quantity += quantity;
+                return;
+            }
+        }
+        batches.add(new HeldBatch(batchId, batchNo, expiryDate, quantity));
+        batches.sort(HeldBatch.FEFO_ORDER);
+    }
+
+
+    private CompletableFuture<Sale> processSaleCreation(String orgId, String branchId, Sale partialSale, List<SaleItemDto> itemDtos, Double clientGrandTotal) {
+
+        Set<String> lockKeys = TransactionRunner.medicineKeys(orgId, branchId,
+                itemDtos.stream().map(SaleItemDto::getMedicineId).toList());
+        return transactionRunner.run("sale.create", lockKeys, transaction -> {
             // ===================================================================
             // PHASE 1: ALL DATABASE READS AND DATA GATHERING
             // ===================================================================
@@ -745,27 +875,27 @@ public class SalesService {
             List<String> requiredTaxProfileIds = itemDtos.stream()
                     .map(SaleItemDto::getTaxProfileId).distinct().collect(Collectors.toList());
 
-            // Batch-read all required Medicine documents.
-            Map<String, Medicine> medicineMasterDataMap = medicineRepository.getAll(transaction, orgId, branchId, requiredMedicineIds)
-                    .stream().map(doc -> doc.toObject(Medicine.class))
-                    .collect(Collectors.toMap(Medicine::getMedicineId, Function.identity()));
+            // Start the Medicine read without waiting on it: the tax profile and batch reads
+            // below go out while it is in flight.
+            FirestoreUsage.reads(requiredMedicineIds.size());
+            ApiFuture<List<DocumentSnapshot>> medicineReads = transaction.getAll(FirestorePaths.medicines(firestore, orgId, branchId, requiredMedicineIds));
 
             // Batch-read all required Tax Profile documents, but only if the sale is taxable.
 
             Map<String, TaxProfile> taxProfileMap = new HashMap<>();
             if (partialSale.getGstType() != GstType.NON_GST) {
                 if (!requiredTaxProfileIds.isEmpty()) {
-                    taxProfileMap.putAll(taxProfileRepository.getAll(transaction, orgId, requiredTaxProfileIds)
-                            .stream().map(doc -> doc.toObject(TaxProfile.class))
-                            .collect(Collectors.toMap(TaxProfile::getTaxProfileId, Function.identity())));
+                    taxProfileMap.putAll(taxProfileCache.getAll(transaction, orgId, requiredTaxProfileIds));
                 }
             }
 
-            // Batch-read ALL available batches for ALL required medicines.
-            Map<String, List<MedicineBatch>> medicineToBatchesMap = new HashMap<>();
-            for (String medicineId : requiredMedicineIds) {
-                List<MedicineBatch> batches = medicineBatchRepository.findAvailableBatches(transaction, orgId, branchId, medicineId);
-                medicineToBatchesMap.put(medicineId, batches);
+            // Read back only the batches the FEFO plan will draw from, in one round trip.
+            Map<String, List<MedicineBatch>> medicineToBatchesMap = readPlannedBatches(transaction, orgId, branchId, requiredQuantities(itemDtos));
+
+            Map<String, Medicine> medicineMasterDataMap = new HashMap<>();
+            for (DocumentSnapshot doc : medicineReads.get()) {
+                if (!doc.exists()) throw new ResourceNotFoundException("Medicine with ID " + doc.getId() + " not found.");
+                medicineMasterDataMap.put(doc.getId(), doc.toObject(Medicine.class));
             }
 
             // --- All database reads are now 100% complete. ---
@@ -775,10 +905,7 @@ public class SalesService {
             // ===================================================================
 
             List<SaleItem> finalSaleItems = new ArrayList<>();
-            BigDecimal serverCalculatedTotalMrp = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalDiscount = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalTaxable = BigDecimal.ZERO;
-            BigDecimal serverCalculatedTotalTax = BigDecimal.ZERO;
+            PricingEngine.Totals totals = new PricingEngine.Totals();
 
             for (var itemDto : itemDtos) {
                 String medicineId = itemDto.getMedicineId();
@@ -793,40 +920,16 @@ public class SalesService {
                 }
 
                 // Financial Calculation
-                BigDecimal quantity = new BigDecimal(quantityToSell);
-                BigDecimal mrpPerItem = BigDecimal.valueOf(itemDto.getMrp());
-                BigDecimal discountPercent = BigDecimal.valueOf(itemDto.getDiscountPercentage()).divide(new BigDecimal(100));
-                BigDecimal lineItemGrossMrp = mrpPerItem.multiply(quantity);
-                BigDecimal lineItemDiscountAmount = lineItemGrossMrp.multiply(discountPercent);
-                BigDecimal lineItemNetAfterDiscount = lineItemGrossMrp.subtract(lineItemDiscountAmount);
-                BigDecimal lineItemTaxableAmount;
-                BigDecimal lineItemTaxAmount;
                 TaxProfile taxProfile = null;
-
-                if (partialSale.getGstType() == GstType.NON_GST) {
-                    lineItemTaxableAmount = lineItemNetAfterDiscount;
-                    lineItemTaxAmount = BigDecimal.ZERO;
-                } else {
+                if (partialSale.getGstType() != GstType.NON_GST) {
                     taxProfile = taxProfileMap.get(itemDto.getTaxProfileId());
                     if (taxProfile == null) {
                         throw new InvalidRequestException("Tax profile with ID '" + itemDto.getTaxProfileId() + "' not found or is invalid.");
                     }
-
-                    BigDecimal taxRate = BigDecimal.valueOf(taxProfile.getTotalRate()).divide(new BigDecimal(100));
-                    if (partialSale.getGstType() == GstType.INCLUSIVE) {
-                        lineItemTaxableAmount = lineItemNetAfterDiscount.divide(BigDecimal.ONE.add(taxRate), 2, RoundingMode.HALF_UP);
-                        lineItemTaxAmount = lineItemNetAfterDiscount.subtract(lineItemTaxableAmount);
-                    } else { // EXCLUSIVE
-                        lineItemTaxableAmount = lineItemNetAfterDiscount;
-                        lineItemTaxAmount = lineItemTaxableAmount.multiply(taxRate);
-                    }
                 }
-
-                // Aggregate totals
-                serverCalculatedTotalMrp = serverCalculatedTotalMrp.add(lineItemGrossMrp);
-                serverCalculatedTotalDiscount = serverCalculatedTotalDiscount.add(lineItemDiscountAmount);
-                serverCalculatedTotalTaxable = serverCalculatedTotalTaxable.add(lineItemTaxableAmount);
-                serverCalculatedTotalTax = serverCalculatedTotalTax.add(lineItemTaxAmount);
+                PricingEngine.LinePrice price = pricingEngine.price(itemDto.getMrp(), quantityToSell, itemDto.getDiscountPercentage(),
+                        taxProfile != null ? taxProfile.getTotalRate() : 0.0, partialSale.getGstType());
+                totals.add(price);
 
                 // FEFO Stock Deduction and Batch Allocation
                 List<BatchAllocation> allocations = new ArrayList<>();
@@ -837,8 +940,7 @@ public class SalesService {
                     medicineBatchRepository.updateStockInTransaction(transaction, orgId, branchId, medicineId, batch.getBatchId(), -qtyToTakeFromThisBatch);
                     allocations.add(BatchAllocation.builder().batchId(batch.getBatchId()).batchNo(batch.getBatchNo()).quantityTaken(qtyToTakeFromThisBatch).expiryDate(batch.getExpiryDate()).build());
                     remainingQtyToSell -= qtyToTakeFromThisBatch;
-                    //newly added code
-                    medicineRepository.updateStockInTransaction(
+                    stockShardRepository.incrementInTransaction(
                             transaction, orgId, branchId, medicine.getMedicineId(), -qtyToTakeFromThisBatch
                     );
                 }
@@ -846,63 +948,90 @@ public class SalesService {
                 // Build the rich SaleItem model
                 finalSaleItems.add(SaleItem.builder()
                         .medicineId(medicineId).quantity(quantityToSell).batchAllocations(allocations)
-                        .mrpPerItem(mrpPerItem.doubleValue()).discountPercentage(itemDto.getDiscountPercentage())
-                        .lineItemDiscountAmount(round(lineItemDiscountAmount)).lineItemTaxableAmount(round(lineItemTaxableAmount))
-                        .lineItemTotalAmount(round(lineItemTaxableAmount.add(lineItemTaxAmount)))
+                        .mrpPerItem(itemDto.getMrp()).discountPercentage(itemDto.getDiscountPercentage())
+                        .lineItemDiscountAmount(toRupees(price.discount())).lineItemTaxableAmount(toRupees(price.taxable()))
+                        .lineItemTotalAmount(toRupees(price.total()))
                         .taxProfileId(itemDto.getTaxProfileId())
                         .taxRateApplied(taxProfile != null ? taxProfile.getTotalRate() : 0.0)
-                        .taxAmount(round(lineItemTaxAmount)).build());
+                        .taxAmount(toRupees(price.tax())).build());
             }
 
             // ===================================================================
             // PHASE 3: OVERALL ADJUSTMENT, FINAL VALIDATION & STAGING THE LAST WRITE
             // ===================================================================
 
-            BigDecimal subTotal;
-            if (partialSale.getGstType() == GstType.INCLUSIVE) {
-                subTotal = serverCalculatedTotalMrp.subtract(serverCalculatedTotalDiscount);
-            } else {
-                subTotal = serverCalculatedTotalTaxable.add(serverCalculatedTotalTax);
-            }
-
-            BigDecimal calculatedOverallAdjustmentAmount = BigDecimal.ZERO;
-            if (partialSale.getOverallAdjustmentType() != null && partialSale.getOverallAdjustmentValue() > 0) {
-                BigDecimal adjustmentValue = BigDecimal.valueOf(partialSale.getOverallAdjustmentValue());
-                switch (partialSale.getOverallAdjustmentType()) {
-                    case PERCENTAGE_DISCOUNT:
-                        calculatedOverallAdjustmentAmount = subTotal.multiply(adjustmentValue.divide(new BigDecimal(100)));
-                        break;
-                    case FIXED_DISCOUNT:
-                        calculatedOverallAdjustmentAmount = adjustmentValue;
-                        break;
-                    case ADDITIONAL_CHARGE:
-                        calculatedOverallAdjustmentAmount = adjustmentValue.negate();
-                        break;
-                }
-            }
+            // Taxable + tax is the MRP less discounts for INCLUSIVE GST, plus tax otherwise.
+            long subTotal = totals.total();
+            long calculatedOverallAdjustmentAmount = pricingEngine.overallAdjustment(
+                    partialSale.getOverallAdjustmentType(), partialSale.getOverallAdjustmentValue(), subTotal);
+            long serverCalculatedGrandTotal = subTotal - calculatedOverallAdjustmentAmount;
 
-            BigDecimal serverCalculatedGrandTotal = subTotal.subtract(calculatedOverallAdjustmentAmount);
-
-            double epsilon = 0.01;
-           /* if (Math.abs(round(serverCalculatedGrandTotal) - clientGrandTotal) > epsilon) {
+           /* double epsilon = 0.01;
+            if (Math.abs(round(serverCalculatedGrandTotal) - clientGrandTotal) > epsilon) {
                 throw new InvalidRequestException(String.format("Calculation mismatch error. Client total: %.2f, Server calculated total: %.2f.", clientGrandTotal, round(serverCalculatedGrandTotal)));
             }*/
 
             String saleId = IdGenerator.newId("sale");
             partialSale.setSaleId(saleId);
-            partialSale.setTotalMrpAmount(round(serverCalculatedTotalMrp));
-            partialSale.setTotalDiscountAmount(round(serverCalculatedTotalDiscount));
-            partialSale.setTotalTaxableAmount(round(serverCalculatedTotalTaxable));
-            partialSale.setTotalTaxAmount(round(serverCalculatedTotalTax));
-            partialSale.setCalculatedOverallAdjustmentAmount(round(calculatedOverallAdjustmentAmount));
-            partialSale.setGrandTotal(round(serverCalculatedGrandTotal));
+            partialSale.setTotalMrpAmount(toRupees(totals.gross()));
+            partialSale.setTotalDiscountAmount(toRupees(totals.discount()));
+            partialSale.setTotalTaxableAmount(toRupees(totals.taxable()));
+            partialSale.setTotalTaxAmount(toRupees(totals.tax()));
+            partialSale.setCalculatedOverallAdjustmentAmount(toRupees(calculatedOverallAdjustmentAmount));
+            partialSale.setGrandTotal(toRupees(serverCalculatedGrandTotal));
             partialSale.setItems(finalSaleItems);
 
+            // Keep the per-category stock aggregates in step with the batch decrements.
+            CategoryStockDelta stockDelta = new CategoryStockDelta(medicineMasterDataMap.values());
+            finalSaleItems.forEach(item -> stockDelta.add(item.getMedicineId(), -item.getQuantity()));
+            stockAggregateRepository.incrementInTransaction(transaction, orgId, branchId, stockDelta);
+            salesRollupRepository.incrementInTransaction(transaction, orgId, branchId,
+                    salesRollupRepository.newDelta().add(partialSale, +1));
+
             saleRepository.saveInTransaction(transaction, partialSale);
             return partialSale;
 
-        }).get();
+        }, sale -> fefoBatchIndex.applyAllocations(orgId, branchId, sale.getItems(), -1));
+    }
+
+    /**
+     * A transaction on a sale, given the sale as read in it.
+     */
+    @FunctionalInterface
+    private interface SaleFunction<T> {
+        T apply(Transaction transaction, Sale sale) throws Exception;
     }
-}
 
+    /**
+     * Thrown by an attempt of {@link #runOnSale} that read a sale holding medicines it had not locked.
+     */
+    private static final class UnlockedMedicinesException extends RuntimeException {
+        private final Set<String> medicineIds;
+
+        private UnlockedMedicinesException(Set<String> medicineIds) {
+            super("Sale holds medicines that were not locked: " + medicineIds, null, false, false);
+            this.medicineIds = medicineIds;
+        }
+    }
 
+    /**
+     * Stock of one batch allocated to a sale being updated.
+     */
+    private static final class HeldBatch {
+        private static final Comparator<HeldBatch> FEFO_ORDER = Comparator
+                .comparing((HeldBatch batch) -> batch.expiryDate, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(batch -> batch.batchId);
+
+        private final String batchId;
+        private final String batchNo;
+        private final Timestamp expiryDate;
+        private int quantity;
+
+        private HeldBatch(String batchId, String batchNo, Timestamp expiryDate, int quantity) {
+            this.batchId = batchId;
+            this.batchNo = batchNo;
+            this.expiryDate = expiryDate;
+            this.quantity = quantity;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CursorPagerTest {
+
+    @Test
+    void cursorRoundTripsTimestampAndDocumentId() {
+        Timestamp saleDate = Timestamp.ofTimeSecondsAndNanos(1_700_000_000L, 123_456_000);
+
+        Object[] position = CursorPager.decode(CursorPager.encode(saleDate, "SALE-01:a"));
+
+        assertEquals(saleDate, position[0]);
+        assertEquals("SALE-01:a", position[1]);
+    }
+
+    @Test
+    void cursorOfResumesAfterTheDocument() {
+        Timestamp saleDate = Timestamp.ofTimeSecondsAndNanos(1_700_000_000L, 0);
+        DocumentSnapshot doc = mock(DocumentSnapshot.class);
+        when(doc.getTimestamp("saleDate")).thenReturn(saleDate);
+        when(doc.getId()).thenReturn("sale-42");
+
+        String cursor = CursorPager.cursorOf(doc, "saleDate");
+
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"), "URL-safe without padding");
+        assertArrayEquals(new Object[]{saleDate, "sale-42"}, CursorPager.decode(cursor));
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThrows(InvalidRequestException.class, () -> CursorPager.decode("not a cursor"));
+        assertThrows(InvalidRequestException.class, () -> CursorPager.decode("bm8tc2VwYXJhdG9y"));
+    }
+
+    @Test
+    void clampsPageSize() {
+        assertEquals(CursorPager.DEFAULT_PAGE_SIZE, CursorPager.pageSize(null));
+        assertEquals(CursorPager.DEFAULT_PAGE_SIZE, CursorPager.pageSize(0));
+        assertEquals(10, CursorPager.pageSize(10));
+        assertEquals(CursorPager.MAX_PAGE_SIZE, CursorPager.pageSize(10_000));
+    }
+}
@@ -0,0 +1,44 @@
+package com.cosmicdoc.inventoryservice.repository;
+
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.TransactionOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TransactionRunnerTest {
+
+    @Test
+    void onCommitRunsBeforeTheNextTransactionOnTheSameKeyStarts() throws Exception {
+        Firestore firestore = mock(Firestore.class);
+        List<String> events = new CopyOnWriteArrayList<>();
+        SettableApiFuture<String> firstCommit = SettableApiFuture.create();
+        when(firestore.runTransaction(any(Transaction.Function.class), any(TransactionOptions.class)))
+                .thenAnswer(invocation -> {
+                    events.add("start");
+                    return events.size() == 1 ? firstCommit : SettableApiFuture.<String>create();
+                });
+        TransactionRunner runner = new TransactionRunner(firestore, new SimpleMeterRegistry(), true, 50, Duration.ofSeconds(5));
+
+        CompletableFuture<String> first = runner.run("sale.create", List.of("m1"), transaction -> "first",
+                result -> events.add("onCommit " + result));
+        runner.run("sale.create", List.of("m1"), transaction -> "second");
+        assertEquals(List.of("start"), events);
+
+        firstCommit.set("first");
+
+        assertEquals("first", first.get());
+        assertEquals(List.of("start", "onCommit first", "start"), events);
+    }
+}
@@ -0,0 +1,31 @@
+package com.cosmicdoc.inventoryservice.service;
+
+import com.cosmicdoc.inventoryservice.exception.InvalidRequestException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LedgerCursorTest {
+
+    @Test
+    void roundTripsBothQueryCursorsAndTheBalance() {
+        ReportingService.LedgerCursor cursor = new ReportingService.LedgerCursor("MTcwMDAwMDAwMC4wOnAx", "MTcwMDAwMDAwMC4wOnIx", -125_050);
+
+        assertEquals(cursor, ReportingService.LedgerCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void roundTripsAQueryThatHasNotStarted() {
+        ReportingService.LedgerCursor cursor = new ReportingService.LedgerCursor("MTcwMDAwMDAwMC4wOnAx", null, 0);
+
+        assertEquals(cursor, ReportingService.LedgerCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThrows(InvalidRequestException.class, () -> ReportingService.LedgerCursor.decode("not a cursor"));
+        // "a~b": no balance
+        assertThrows(InvalidRequestException.class, () -> ReportingService.LedgerCursor.decode("YX5i"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.cosmicdoc.inventoryservice.service;
+
+import com.cosmicdoc.common.model.AdjustmentType;
+import com.cosmicdoc.common.model.GstType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PricingEngineTest {
+
+    private final PricingEngine pricingEngine = new PricingEngine();
+
+    @Test
+    void convertsRupeesToPaiseAndPercentagesToBasisPoints() {
+        assertEquals(1050, PricingEngine.toPaise(10.50));
+        assertEquals(30, PricingEngine.toPaise(0.1 + 0.2));
+        assertEquals(10.5, PricingEngine.toRupees(1050));
+        assertEquals(1800, PricingEngine.toBasisPoints(18));
+        assertEquals(1250, PricingEngine.toBasisPoints(12.5));
+    }
+
+    @Test
+    void roundsHalfAwayFromZero() {
+        assertEquals(1, PricingEngine.divideHalfUp(5, 10));
+        assertEquals(0, PricingEngine.divideHalfUp(4, 10));
+        assertEquals(-1, PricingEngine.divideHalfUp(-5, 10));
+        assertEquals(1, pricingEngine.percentage(5, 10));
+        assertEquals(333, pricingEngine.share(1000, 1, 3));
+        assertEquals(667, pricingEngine.share(1000, 2, 3));
+        assertEquals(0, pricingEngine.share(1000, 1, 0));
+    }
+
+    @Test
+    void pricesInclusiveLineByBackingTaxOutOfTheNet() {
+        PricingEngine.LinePrice price = pricingEngine.price(10.50, 3, 10, 18, GstType.INCLUSIVE);
+
+        assertEquals(3150, price.gross());
+        assertEquals(315, price.discount());
+        assertEquals(2835, price.net());
+        // 2835 / 1.18 = 2402.54 -> 2403
+        assertEquals(2403, price.taxable());
+        assertEquals(432, price.tax());
+        assertEquals(2835, price.total());
+    }
+
+    @Test
+    void pricesExclusiveLineByAddingTaxToTheNet() {
+        PricingEngine.LinePrice price = pricingEngine.price(99.99, 1, 0, 12, GstType.EXCLUSIVE);
+
+        assertEquals(9999, price.taxable());
+        // 9999 x 12% = 1199.88 -> 1200
+        assertEquals(1200, price.tax());
+        assertEquals(11199, price.total());
+    }
+
+    @Test
+    void pricesNonGstLineWithoutTax() {
+        PricingEngine.LinePrice price = pricingEngine.price(20, 2, 5, 18, GstType.NON_GST);
+
+        assertEquals(200, price.discount());
+        assertEquals(3800, price.taxable());
+        assertEquals(0, price.tax());
+    }
+
+    @Test
+    void totalsAreExactSumsOfTheRoundedLines() {
+        PricingEngine.Totals totals = new PricingEngine.Totals()
+                .add(pricingEngine.price(10.50, 3, 10, 18, GstType.INCLUSIVE))
+                .add(pricingEngine.price(10.50, 3, 10, 18, GstType.INCLUSIVE));
+
+        assertEquals(4806, totals.taxable());
+        assertEquals(864, totals.tax());
+        assertEquals(5670, totals.total());
+    }
+
+    @Test
+    void overallAdjustmentIsSignedByType() {
+        assertEquals(5025, pricingEngine.overallAdjustment(AdjustmentType.FIXED_DISCOUNT, 50.25, 0));
+        assertEquals(-1000, pricingEngine.overallAdjustment(AdjustmentType.ADDITIONAL_CHARGE, 10.0, 0));
+        assertEquals(0, pricingEngine.overallAdjustment(AdjustmentType.FIXED_DISCOUNT, 0.0, 0));
+        assertEquals(0, pricingEngine.overallAdjustment(null, 10.0, 0));
+    }
+
+    @Test
+    void saleUpdatePercentageDiscountAppliesToTheSubTotalLikeANewSale() {
+        // Sale creation and update both take the percentage on the sub-total (taxable + tax).
+        PricingEngine.Totals totals = new PricingEngine.Totals()
+                .add(pricingEngine.price(100, 1, 0, 18, GstType.EXCLUSIVE));
+
+        long adjustment = pricingEngine.overallAdjustment(AdjustmentType.PERCENTAGE_DISCOUNT, 10.0, totals.total());
+
+        assertEquals(11800, totals.total());
+        assertEquals(1180, adjustment);
+        assertEquals(10620, totals.total() - adjustment);
+    }
+}
@@ -0,0 +1,144 @@
+package com.cosmicdoc.inventoryservice.service;
+
+import com.cosmicdoc.common.model.MedicineBatch;
+import com.cosmicdoc.common.model.PurchaseItem;
+import com.cosmicdoc.inventoryservice.dto.request.UpdatePurchaseRequest;
+import com.google.cloud.Timestamp;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PurchaseLineDiffTest {
+
+    private static final Date EXPIRY = new Date(1_800_000_000_000L);
+
+    @Test
+    void unchangedLineKeepsItsBatch() {
+        PurchaseItem line = item("med-1", "B1", "batch-1", 100);
+        Map<String, PurchaseItem> originalLines = lines(line);
+        Map<String, PurchaseItem> linesToRewrite = PurchaseLineDiff.linesToRewrite(originalLines, requested(dto("med-1", "B1", 10, 10.0)));
+
+        PurchaseLineDiff diff = PurchaseLineDiff.plan("p-1", List.of(line), originalLines, linesToRewrite, Map.of());
+
+        assertTrue(linesToRewrite.isEmpty());
+        assertTrue(diff.batchesToSave().isEmpty());
+        assertTrue(diff.batchesToDelete().isEmpty());
+        assertTrue(diff.stockChanges().isEmpty());
+    }
+
+    @Test
+    void discountOnlyEditKeepsTheBatch() {
+        UpdatePurchaseRequest.PurchaseItemDto edited = dto("med-1", "B1", 10, 10.0);
+        edited.setDiscountPercentage(15.0);
+
+        assertTrue(PurchaseLineDiff.sameBatch(item("med-1", "B1", "batch-1", 100), edited));
+    }
+
+    @Test
+    void changedQuantityUpdatesTheBatchByTheDifference() {
+        Map<String, PurchaseItem> originalLines = lines(item("med-1", "B1", "batch-1", 100));
+        Map<String, PurchaseItem> linesToRewrite = PurchaseLineDiff.linesToRewrite(originalLines, requested(dto("med-1", "B1", 12, 10.0)));
+        MedicineBatch current = batch("batch-1", "B1", 70);
+
+        PurchaseLineDiff diff = PurchaseLineDiff.plan("p-1", List.of(item("med-1", "B1", "batch-1", 120)), originalLines,
+                linesToRewrite, Map.of(PurchaseLineDiff.lineKey("med-1", "B1"), current));
+
+        assertEquals(1, diff.batchesToSave().size());
+        assertEquals(90, diff.batchesToSave().get(0).batch().getQuantityAvailable());
+        assertEquals(Map.of("med-1", 20), diff.stockChanges());
+        assertTrue(diff.batchesToDelete().isEmpty());
+    }
+
+    @Test
+    void removedLineDeletesItsBatch() {
+        Map<String, PurchaseItem> originalLines = lines(item("med-1", "B1", "batch-1", 100), item("med-2", "B2", "batch-2", 40));
+        Map<String, PurchaseItem> linesToRewrite = PurchaseLineDiff.linesToRewrite(originalLines, requested(dto("med-1", "B1", 10, 10.0)));
+        MedicineBatch removed = batch("batch-2", "B2", 40);
+
+        PurchaseLineDiff diff = PurchaseLineDiff.plan("p-1", List.of(item("med-1", "B1", "batch-1", 100)), originalLines,
+                linesToRewrite, Map.of(PurchaseLineDiff.lineKey("med-2", "B2"), removed));
+
+        assertEquals(Set.of(PurchaseLineDiff.lineKey("med-2", "B2")), linesToRewrite.keySet());
+        assertEquals(List.of(new PurchaseLineDiff.BatchWrite("med-2", removed)), diff.batchesToDelete());
+        assertEquals(Map.of("med-2", -40), diff.stockChanges());
+        assertTrue(diff.batchesToSave().isEmpty());
+    }
+
+    @Test
+    void newLineCreatesABatch() {
+        Map<String, PurchaseItem> originalLines = lines(item("med-1", "B1", "batch-1", 100));
+        Map<String, PurchaseItem> linesToRewrite = PurchaseLineDiff.linesToRewrite(originalLines,
+                requested(dto("med-1", "B1", 10, 10.0), dto("med-3", "B3", 5, 10.0)));
+
+        PurchaseLineDiff diff = PurchaseLineDiff.plan("p-1",
+                List.of(item("med-1", "B1", "batch-1", 100), item("med-3", "B3", "batch-3", 50)),
+                originalLines, linesToRewrite, Map.of());
+
+        assertEquals(1, diff.batchesToSave().size());
+        PurchaseLineDiff.BatchWrite created = diff.batchesToSave().get(0);
+        assertEquals("med-3", created.medicineId());
+        assertEquals("batch-3", created.batch().getBatchId());
+        assertEquals("p-1", created.batch().getSourcePurchaseId());
+        assertEquals(50, created.batch().getQuantityAvailable());
+        assertEquals(Map.of("med-3", 50), diff.stockChanges());
+    }
+
+    @Test
+    void refusesToTakeBackStockThatWasSold() {
+        Map<String, PurchaseItem> originalLines = lines(item("med-1", "B1", "batch-1", 100), item("med-2", "B2", "batch-2", 40));
+        Map<String, PurchaseItem> linesToRewrite = PurchaseLineDiff.linesToRewrite(originalLines,
+                requested(dto("med-1", "B1", 5, 10.0)));
+        Map<String, MedicineBatch> currentBatches = Map.of(
+                PurchaseLineDiff.lineKey("med-1", "B1"), batch("batch-1", "B1", 30),
+                PurchaseLineDiff.lineKey("med-2", "B2"), batch("batch-2", "B2", 40));
+
+        // 100 -> 50 received, but only 30 of the batch are left.
+        assertThrows(IllegalStateException.class, () -> PurchaseLineDiff.plan("p-1",
+                List.of(item("med-1", "B1", "batch-1", 50)), originalLines, linesToRewrite, currentBatches));
+
+        Map<String, MedicineBatch> partlySold = Map.of(PurchaseLineDiff.lineKey("med-2", "B2"), batch("batch-2", "B2", 39));
+        Map<String, PurchaseItem> removeSecond = PurchaseLineDiff.linesToRewrite(originalLines, requested(dto("med-1", "B1", 10, 10.0)));
+        assertThrows(IllegalStateException.class, () -> PurchaseLineDiff.plan("p-1",
+                List.of(item("med-1", "B1", "batch-1", 100)), originalLines, removeSecond, partlySold));
+    }
+
+    private static PurchaseItem item(String medicineId, String batchNo, String batchId, int unitsReceived) {
+        return PurchaseItem.builder()
+                .medicineId(medicineId).batchNo(batchNo).createdBatchId(batchId)
+                .expiryDate(Timestamp.of(EXPIRY))
+                .itemsPerPack(10).totalReceivedQuantity(unitsReceived)
+                .purchaseCostPerPack(10.0).mrpPerItem(2.5).build();
+    }
+
+    private static UpdatePurchaseRequest.PurchaseItemDto dto(String medicineId, String batchNo, int packs, double costPerPack) {
+        UpdatePurchaseRequest.PurchaseItemDto itemDto = new UpdatePurchaseRequest.PurchaseItemDto();
+        itemDto.setMedicineId(medicineId);
+        itemDto.setBatchNo(batchNo);
+        itemDto.setExpiryDate(EXPIRY);
+        itemDto.setPackQuantity(packs);
+        itemDto.setFreePackQuantity(0);
+        itemDto.setItemsPerPack(10);
+        itemDto.setPurchaseCostPerPack(costPerPack);
+        itemDto.setMrpPerItem(2.5);
+        itemDto.setDiscountPercentage(0.0);
+        return itemDto;
+    }
+
+    private static MedicineBatch batch(String batchId, String batchNo, int quantityAvailable) {
+        return MedicineBatch.builder().batchId(batchId).batchNo(batchNo).quantityAvailable(quantityAvailable).build();
+    }
+
+    private static Map<String, PurchaseItem> lines(PurchaseItem... items) {
+        Map<String, PurchaseItem> lines = new LinkedHashMap<>();
+        for (PurchaseItem item : items) lines.put(PurchaseLineDiff.lineKey(item.getMedicineId(), item.getBatchNo()), item);
+        return lines;
+    }
+
+    private static Map<String, UpdatePurchaseRequest.PurchaseItemDto> requested(UpdatePurchaseRequest.PurchaseItemDto... itemDtos) {
+        Map<String, UpdatePurchaseRequest.PurchaseItemDto> requested = new LinkedHashMap<>();
+        for (UpdatePurchaseRequest.PurchaseItemDto itemDto : itemDtos) requested.put(PurchaseLineDiff.lineKey(itemDto.getMedicineId(), itemDto.getBatchNo()), itemDto);
+        return requested;
+    }
+}